@@ -1,5 +1,16 @@
+import service.TicketExporter;
+import service.TicketImporter;
 import service.TicketService;
 import model.Ticket;
+import dataStructure.PriorityQueue;
+import persistence.Durability;
+import persistence.ParallelRecovery;
+import persistence.TicketArchive;
+import persistence.WriteAheadLog;
+import utils.IDGenerator;
+
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 /**
@@ -22,13 +33,43 @@ public class Main {
     // Scanner for user input
     private static Scanner scanner;
 
+    // Log of every change, null if it could not be opened
+    private static WriteAheadLog log;
+
+    // Processed and removed tickets, null if it could not be opened
+    private static TicketArchive archive;
+
     /**
      * Main method: Entry point of the application
      */
 
     public static void main(String[] args) {
         // Initialize components
-        ticketService = new TicketService();
+        // Keep ticket IDs unique across restarts
+        try {
+            IDGenerator.getInstance().usePersistentLeases(Paths.get("ticket-ids.lease"));
+        } catch(IOException e) {
+            System.out.println("Warning: could not open the ID lease file, IDs are not kept across restarts (" + e.getMessage() + ")");
+        }
+        // Keep processed and removed tickets searchable
+        try {
+            archive = TicketArchive.open(Paths.get("tickets.archive"));
+        } catch(IOException e) {
+            System.out.println("Warning: could not open the ticket archive, finished tickets are not kept (" + e.getMessage() + ")");
+        }
+        // Replay the tickets from the last run
+        try {
+            ParallelRecovery recovery = new ParallelRecovery();
+            log = WriteAheadLog.open(Paths.get("tickets.wal"), Durability.PER_OPERATION, null, recovery);
+            ticketService = new TicketService(new PriorityQueue(true), log, archive);
+            if(log.getRecovered().getRecords() > 0) {
+                System.out.println("Recovered " + ticketService.getTicketCount() + " tickets from the log ("
+                        + recovery.getRecords() + " records, " + recovery.getRecordsPerSecond() + " records/sec)");
+            }
+        } catch(IOException e) {
+            System.out.println("Warning: could not open the ticket log, tickets are not kept across restarts (" + e.getMessage() + ")");
+            ticketService = new TicketService(new PriorityQueue(true), null, archive);
+        }
         scanner = new Scanner(System.in);
 
         // Display a welcome message
@@ -71,6 +112,12 @@ public class Main {
                 case 10:
                     peekNextTicket();
                     break;
+                case 11:
+                    importTickets();
+                    break;
+                case 12:
+                    exportTickets();
+                    break;
                 case 0:
                     running = false;
                     displayGoodbye();
@@ -82,6 +129,20 @@ public class Main {
         }
         // Clean up
         scanner.close();
+        if(log != null) {
+            try {
+                log.close();
+            } catch(IOException e) {
+                System.out.println("Warning: could not close the ticket log (" + e.getMessage() + ")");
+            }
+        }
+        if(archive != null) {
+            try {
+                archive.close();
+            } catch(IOException e) {
+                System.out.println("Warning: could not close the ticket archive (" + e.getMessage() + ")");
+            }
+        }
     }
 
     /**
@@ -114,6 +175,8 @@ public class Main {
         System.out.println("| 8.  Display all tickets (detailed)        |");
         System.out.println("| 9.  Display statistics                    |");
         System.out.println("| 10. Peek next ticket                      |");
+        System.out.println("| 11. Import tickets from file              |");
+        System.out.println("| 12. Export tickets to file                |");
         System.out.println("| 0.  Exit                                  |");
         System.out.println("=============================================");
         System.out.print("Enter your choice: ");
@@ -210,7 +273,7 @@ public class Main {
 
         System.out.print("Enter ticket ID: ");
         try {
-            int ticketId = Integer.parseInt(scanner.nextLine());
+            long ticketId = Long.parseLong(scanner.nextLine());
             Ticket ticket = ticketService.searchTicket(ticketId);
 
             if(ticket != null){
@@ -229,7 +292,7 @@ public class Main {
 
         System.out.print("Enter ticket ID: ");
         try{
-            int ticketId = Integer.parseInt(scanner.nextLine());
+            long ticketId = Long.parseLong(scanner.nextLine());
             System.out.println("\nNew priority level:");
             System.out.println("1. Security Issue (Highest)");
             System.out.println("2. Network Issue");
@@ -258,7 +321,7 @@ public class Main {
         System.out.print("Enter ticket ID to remove: ");
 
         try {
-            int ticketId = Integer.parseInt(scanner.nextLine());
+            long ticketId = Long.parseLong(scanner.nextLine());
 
             // Confirm removal
             System.out.println("Are you sure you want to remove this ticket? (y/n): ");
@@ -285,7 +348,7 @@ public class Main {
 
         System.out.print("Enter ticket ID: ");
         try {
-            int ticketId = Integer.parseInt(scanner.nextLine());
+            long ticketId = Long.parseLong(scanner.nextLine());
             System.out.print("Enter owner name: ");
             String owner = scanner.nextLine().trim();
             if(owner.isEmpty()) {
@@ -337,6 +400,63 @@ public class Main {
         }
     }
 
+    /**
+     * Imports tickets from a CSV or JSON-lines file
+     */
+
+    private static void importTickets() {
+        System.out.println("\n===IMPORT TICKETS===");
+
+        System.out.print("Enter the file to import (.csv or .jsonl): ");
+        String file = scanner.nextLine().trim();
+        if(file.isEmpty()) {
+            System.out.println("File name cannot be empty");
+            return;
+        }
+
+        try {
+            new TicketImporter(ticketService).importFile(Paths.get(file));
+        } catch(IOException e) {
+            System.out.println("Could not read " + file + " (" + e.getMessage() + ")");
+        } catch(IllegalArgumentException e) {
+            System.out.println("Error importing tickets: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Exports the tickets in priority order to a CSV, JSON-lines or binary file
+     */
+
+    private static void exportTickets() {
+        System.out.println("\n===EXPORT TICKETS===");
+
+        System.out.print("Enter the file to export to (.csv, .jsonl or .bin): ");
+        String file = scanner.nextLine().trim();
+        if(file.isEmpty()) {
+            System.out.println("File name cannot be empty");
+            return;
+        }
+
+        TicketExporter.Format format;
+        String name = file.toLowerCase();
+        if(name.endsWith(".csv")) {
+            format = TicketExporter.Format.CSV;
+        } else if(name.endsWith(".jsonl")) {
+            format = TicketExporter.Format.JSON_LINES;
+        } else if(name.endsWith(".bin")) {
+            format = TicketExporter.Format.BINARY;
+        } else {
+            System.out.println("Unknown export format, use .csv, .jsonl or .bin");
+            return;
+        }
+
+        try {
+            new TicketExporter(ticketService).exportFile(Paths.get(file), format);
+        } catch(IOException e) {
+            System.out.println("Could not write " + file + " (" + e.getMessage() + ")");
+        }
+    }
+
     /**
      * Pauses for user to read output
      */
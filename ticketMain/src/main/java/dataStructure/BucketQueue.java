@@ -0,0 +1,539 @@
+package dataStructure;
+
+import model.Ticket;
+
+/**
+ * Multi-level queue for the four ticket priorities.
+ * Keeps one FIFO list per priority level instead of a heap, which
+ * works because ticket priorities are always between 1 and 4.
+ *
+ * The lists are intrusive and array based: every ticket sits in a node
+ * slot, and the next/previous links of the slots are stored in int arrays
+ * next to the ticket array. A map from ticket ID to node slot lets a
+ * ticket be found, unlinked and relinked without walking a list.
+ *
+ * Tickets with the same priority come out in the order they were
+ * inserted (or moved to that priority), so old tickets cannot starve.
+ *
+ * Time Complexity:
+ * Insert: 0(1)
+ * Extract min: 0(1)
+ * Search: 0(1)
+ * Update priority: 0(1)
+ * Remove: 0(1)
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class BucketQueue implements TicketQueue {
+
+    // Highest and lowest priority levels
+    private static final int MIN_PRIORITY = 1;
+    private static final int MAX_PRIORITY = 4;
+
+    // Marks the end of a list
+    private static final int NIL = -1;
+
+    // Default initial capacity
+    private static final int DEFAULT_CAPACITY = 100;
+
+    // Ticket stored in each node slot
+    private Ticket[] tickets;
+
+    // Next and previous node slot in the same list
+    private int[] next;
+    private int[] prev;
+
+    // Priority list each node slot is linked into
+    private int[] levels;
+
+    // First and last node slot of each priority list, indexed by priority
+    private final int[] heads;
+    private final int[] tails;
+
+    // Unused node slots, linked through next[]
+    private int freeList;
+
+    // Ticket ID -> node slot
+    private final LongIntHashMap slotIndex;
+
+    // Current number of tickets
+    private int size;
+
+    /**
+     * Constructor with default capacity
+     */
+    public BucketQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor with specified initial capacity
+     *
+     * @param initialCapacity Initial number of node slots
+     */
+    public BucketQueue(int initialCapacity) {
+        if(initialCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+        }
+        this.tickets = new Ticket[initialCapacity];
+        this.next = new int[initialCapacity];
+        this.prev = new int[initialCapacity];
+        this.levels = new int[initialCapacity];
+        this.heads = new int[MAX_PRIORITY + 1];
+        this.tails = new int[MAX_PRIORITY + 1];
+        this.slotIndex = new LongIntHashMap(initialCapacity);
+        this.size = 0;
+
+        resetLists();
+        linkFreeSlots(0, initialCapacity);
+    }
+
+    /**
+     * Empties all priority lists
+     */
+    private void resetLists() {
+        for(int p = MIN_PRIORITY; p <= MAX_PRIORITY; p++) {
+            heads[p] = NIL;
+            tails[p] = NIL;
+        }
+    }
+
+    /**
+     * Puts the node slots in [from, to) on the free list
+     *
+     * @param from First slot
+     * @param to One past the last slot
+     */
+    private void linkFreeSlots(int from, int to) {
+        for(int i = from; i < to - 1; i++) {
+            next[i] = i + 1;
+        }
+        next[to - 1] = NIL;
+        freeList = from;
+    }
+
+    /**
+     * Checks that a priority is one of the four levels
+     *
+     * @param priority Priority to check
+     */
+    private static void checkPriority(int priority) {
+        if(priority < MIN_PRIORITY || priority > MAX_PRIORITY) {
+            throw new IllegalArgumentException("priority must be between 1 and 4");
+        }
+    }
+
+    /**
+     * Appends a node slot to the end of a priority list
+     *
+     * @param slot Node slot
+     * @param priority Priority list
+     */
+    private void linkLast(int slot, int priority) {
+        levels[slot] = priority;
+        next[slot] = NIL;
+        prev[slot] = tails[priority];
+        if(tails[priority] == NIL) {
+            heads[priority] = slot;
+        } else {
+            next[tails[priority]] = slot;
+        }
+        tails[priority] = slot;
+    }
+
+    /**
+     * Takes a node slot out of its priority list
+     *
+     * @param slot Node slot
+     */
+    private void unlink(int slot) {
+        int priority = levels[slot];
+        if(prev[slot] == NIL) {
+            heads[priority] = next[slot];
+        } else {
+            next[prev[slot]] = next[slot];
+        }
+        if(next[slot] == NIL) {
+            tails[priority] = prev[slot];
+        } else {
+            prev[next[slot]] = prev[slot];
+        }
+    }
+
+    /**
+     * Returns a node slot to the free list
+     *
+     * @param slot Node slot
+     */
+    private void freeSlot(int slot) {
+        tickets[slot] = null; // Helps garbage collection
+        next[slot] = freeList;
+        freeList = slot;
+    }
+
+    /**
+     * Inserts a new ticket at the end of its priority list
+     * Time complexity 0(1)
+     *
+     * @param ticket The ticket to insert
+     */
+    @Override
+    public void insert(Ticket ticket) {
+        if(ticket == null) {
+            throw new IllegalArgumentException("Cannot insert null ticket");
+        }
+        checkPriority(ticket.getPriority());
+        if(slotIndex.containsKey(ticket.getTicketID())) {
+            throw new IllegalArgumentException("Ticket #" + ticket.getTicketID() + " is already in the queue");
+        }
+
+        if(freeList == NIL) {
+            resize();
+        }
+        int slot = freeList;
+        freeList = next[slot];
+
+        tickets[slot] = ticket;
+        linkLast(slot, ticket.getPriority());
+        slotIndex.put(ticket.getTicketID(), slot);
+        size++;
+    }
+
+    /**
+     * Inserts a batch of tickets at the end of their priority lists
+     * Checks the whole batch first and grows the node arrays only once
+     * Time complexity 0(m)
+     *
+     * @param tickets The tickets to insert
+     */
+    @Override
+    public void insertAll(Ticket[] tickets) {
+        if(tickets == null) {
+            throw new IllegalArgumentException("Cannot insert null tickets");
+        }
+        LongIntHashMap batchIds = new LongIntHashMap(Math.max(tickets.length, 1));
+        for(Ticket ticket : tickets) {
+            if(ticket == null) {
+                throw new IllegalArgumentException("Cannot insert null ticket");
+            }
+            checkPriority(ticket.getPriority());
+            if(slotIndex.containsKey(ticket.getTicketID()) || batchIds.containsKey(ticket.getTicketID())) {
+                throw new IllegalArgumentException("Ticket #" + ticket.getTicketID() + " is already in the queue");
+            }
+            batchIds.put(ticket.getTicketID(), 0);
+        }
+
+        int needed = size + tickets.length;
+        int newCapacity = this.tickets.length;
+        while(newCapacity < needed) {
+            newCapacity *= 2;
+        }
+        if(newCapacity > this.tickets.length) {
+            resize(newCapacity);
+        }
+
+        for(Ticket ticket : tickets) {
+            insert(ticket);
+        }
+    }
+
+    /**
+     * Finds the first non-empty priority list
+     *
+     * @return Head slot of that list, or NIL if the queue is empty
+     */
+    private int firstSlot() {
+        for(int p = MIN_PRIORITY; p <= MAX_PRIORITY; p++) {
+            if(heads[p] != NIL) {
+                return heads[p];
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * Extracts the oldest ticket of the highest non-empty priority
+     * Time Complexity 0(1)
+     *
+     * @return The highest priority ticket, or null if queue is empty
+     */
+    @Override
+    public Ticket extractMin() {
+        int slot = firstSlot();
+        if(slot == NIL) {
+            return null;
+        }
+        return removeSlot(slot);
+    }
+
+    /**
+     * Extracts up to max tickets in priority order into dest
+     * Takes whole runs from the front of each list in turn
+     * Time Complexity 0(k) for k extracted tickets
+     *
+     * @param dest Array to fill from index 0
+     * @param max Maximum number of tickets to extract (at most dest.length)
+     * @return Number of tickets extracted
+     */
+    @Override
+    public int drainTo(Ticket[] dest, int max) {
+        if(dest == null) {
+            throw new IllegalArgumentException("Destination cannot be null");
+        }
+        if(max < 0 || max > dest.length) {
+            throw new IllegalArgumentException("max must be between 0 and the destination length");
+        }
+
+        int count = 0;
+        for(int p = MIN_PRIORITY; p <= MAX_PRIORITY && count < max; p++) {
+            int slot = heads[p];
+            while(slot != NIL && count < max) {
+                int following = next[slot];
+                dest[count++] = tickets[slot];
+                slotIndex.remove(tickets[slot].getTicketID());
+                freeSlot(slot);
+                slot = following;
+            }
+
+            // Whatever is left of this list starts at slot
+            heads[p] = slot;
+            if(slot == NIL) {
+                tails[p] = NIL;
+            } else {
+                prev[slot] = NIL;
+            }
+        }
+        size -= count;
+        return count;
+    }
+
+    /**
+     * Unlinks a node slot and frees it
+     *
+     * @param slot Node slot
+     * @return The ticket that was in the slot
+     */
+    private Ticket removeSlot(int slot) {
+        Ticket ticket = tickets[slot];
+        unlink(slot);
+        slotIndex.remove(ticket.getTicketID());
+        freeSlot(slot);
+        size--;
+        return ticket;
+    }
+
+    /**
+     * Searches for a ticket by ID
+     * Time Complexity 0(1)
+     *
+     * @param ticketID the ID to search for
+     * @return The ticket if found, null otherwise
+     */
+    @Override
+    public Ticket search(long ticketID) {
+        int slot = slotIndex.get(ticketID);
+        return slot == LongIntHashMap.NO_VALUE ? null : tickets[slot];
+    }
+
+    /**
+     * Moves a ticket to the end of the list for its new priority, also
+     * when the priority is unchanged, so a replay of the log can queue it
+     * the same way
+     * Time Complexity 0(1)
+     *
+     * @param ticketID ID of the ticket to update
+     * @param newPriority New priority value
+     * @return true if update succesful, false if ticket not found
+     */
+    @Override
+    public boolean updatePriority(long ticketID, int newPriority) {
+        checkPriority(newPriority);
+
+        int slot = slotIndex.get(ticketID);
+        if(slot == LongIntHashMap.NO_VALUE) {
+            return false;
+        }
+
+        Ticket ticket = tickets[slot];
+        unlink(slot);
+        linkLast(slot, newPriority);
+        ticket.setPriority(newPriority);
+        return true;
+    }
+
+    /**
+     * An updated ticket moves to the end of its new list
+     *
+     * @return false
+     */
+    @Override
+    public boolean keepsPlaceOnUpdate() {
+        return false;
+    }
+
+    /**
+     * Removes a specific ticket by ID
+     * Time Complexity 0(1)
+     *
+     * @param ticketID ID of the ticket to remove
+     * @return The removed ticket, or null if not found
+     */
+    @Override
+    public Ticket remove(long ticketID) {
+        int slot = slotIndex.get(ticketID);
+        if(slot == LongIntHashMap.NO_VALUE) {
+            return null;
+        }
+        return removeSlot(slot);
+    }
+
+    /**
+     * Returns the highest priority ticket without removing it
+     * Time Complexity 0(1)
+     *
+     * @return The highest priority ticket, or null if empty
+     */
+    @Override
+    public Ticket peek() {
+        int slot = firstSlot();
+        return slot == NIL ? null : tickets[slot];
+    }
+
+    /**
+     * Checks if the queue is empty
+     *
+     * @return true if empty, false otherwise
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of tickets in the queue
+     *
+     * @return current size
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Doubles the number of node slots when all are in use
+     */
+    private void resize() {
+        resize(tickets.length * 2);
+    }
+
+    /**
+     * Grows the node arrays to the given number of slots
+     * The new slots go on the free list
+     *
+     * @param newCapacity New number of slots, more than the current one
+     */
+    private void resize(int newCapacity) {
+        int oldCapacity = tickets.length;
+
+        Ticket[] newTickets = new Ticket[newCapacity];
+        int[] newNext = new int[newCapacity];
+        int[] newPrev = new int[newCapacity];
+        int[] newLevels = new int[newCapacity];
+        for(int i = 0; i < oldCapacity; i++) {
+            newTickets[i] = tickets[i];
+            newNext[i] = next[i];
+            newPrev[i] = prev[i];
+            newLevels[i] = levels[i];
+        }
+
+        tickets = newTickets;
+        next = newNext;
+        prev = newPrev;
+        levels = newLevels;
+
+        // New slots go in front of any slots that were already free
+        int oldFreeList = freeList;
+        linkFreeSlots(oldCapacity, newCapacity);
+        next[newCapacity - 1] = oldFreeList;
+        slotIndex.ensureCapacity(newCapacity);
+    }
+
+    /**
+     * Returns all tickets in an array
+     * Here they happen to be in priority order already
+     *
+     * @return Array of all tickets
+     */
+    @Override
+    public Ticket[] getAllTickets() {
+        return getTopK(size);
+    }
+
+    /**
+     * Returns a copy of the queue, a point-in-time view of the queue
+     * Walks the lists in priority order into a new bucket queue, so
+     * the copy keeps the FIFO order and shares the Ticket objects
+     * Time Complexity 0(n), no sorting needed
+     *
+     * @return Copy of the queue
+     */
+    @Override
+    public BucketQueue copy() {
+        BucketQueue copy = new BucketQueue(Math.max(size, 1));
+        for(int p = MIN_PRIORITY; p <= MAX_PRIORITY; p++) {
+            for(int slot = heads[p]; slot != NIL; slot = next[slot]) {
+                copy.insert(tickets[slot]);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns all tickets in the order they would be extracted
+     * Walks the lists in priority order, no sorting needed
+     * Time Complexity 0(n)
+     *
+     * @return Array of tickets sorted by priority
+     */
+    @Override
+    public Ticket[] getAllTicketsSorted() {
+        return getTopK(size);
+    }
+
+    /**
+     * Returns the first k tickets in extraction order without removing them
+     * Time Complexity 0(k)
+     *
+     * @param k Number of tickets wanted
+     * @return Up to k tickets, highest priority first
+     */
+    @Override
+    public Ticket[] getTopK(int k) {
+        if(k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        Ticket[] result = new Ticket[Math.min(k, size)];
+        int count = 0;
+        for(int p = MIN_PRIORITY; p <= MAX_PRIORITY && count < result.length; p++) {
+            for(int slot = heads[p]; slot != NIL && count < result.length; slot = next[slot]) {
+                result[count++] = tickets[slot];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Clears all tickets from the queue
+     */
+    @Override
+    public void clear() {
+        for(int i = 0; i < tickets.length; i++) {
+            tickets[i] = null; // Helps garbage collection
+        }
+        resetLists();
+        linkFreeSlots(0, tickets.length);
+        slotIndex.clear();
+        size = 0;
+    }
+}
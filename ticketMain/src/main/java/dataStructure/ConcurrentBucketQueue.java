@@ -0,0 +1,491 @@
+package dataStructure;
+
+import model.Ticket;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free multi-level queue for the four ticket priorities, safe to
+ * use from many producer and consumer threads at once without a lock.
+ *
+ * Each priority level is a lock-free FIFO linked list (Michael-Scott
+ * queue): insert appends to the list for the ticket's priority with a
+ * compare-and-set, extractMin tries the lists from priority 1 to 4 and
+ * takes the head of the first non-empty one with a compare-and-set.
+ *
+ * Removing a ticket by ID uses lazy deletion: the ticket's node is
+ * marked as taken and left in its list, and consumers skip taken nodes
+ * when they reach them. Every node has a 'live' flag that is cleared
+ * with a compare-and-set, so a ticket is handed out by extractMin or
+ * removed by remove exactly once, even when both race.
+ *
+ * Unlike the other queues this one uses java.util.concurrent, since
+ * lock-free code needs its atomic compare-and-set operations.
+ *
+ * Time Complexity:
+ * Insert: 0(1)
+ * Extract min: 0(1) plus any lazily deleted nodes it skips
+ * Search: 0(1)
+ * Update priority: 0(1), lazily deletes the node and inserts a new one
+ * Remove: 0(1)
+ *
+ * Listings and size() are weakly consistent while other threads are
+ * changing the queue. During updatePriority a search for the ticket
+ * can briefly miss it between the old node being taken and the new one
+ * being indexed.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class ConcurrentBucketQueue implements TicketQueue {
+
+    // Highest and lowest priority levels
+    private static final int MIN_PRIORITY = 1;
+    private static final int MAX_PRIORITY = 4;
+
+    /**
+     * Node of a priority list
+     */
+    private static final class Node {
+        // Ticket in this node (null for the initial dummy node)
+        final Ticket ticket;
+
+        // Next node in the list
+        final AtomicReference<Node> next = new AtomicReference<>();
+
+        // Cleared once the ticket has been extracted or removed
+        final AtomicBoolean live = new AtomicBoolean(true);
+
+        Node(Ticket ticket) {
+            this.ticket = ticket;
+        }
+
+        /**
+         * Takes the ticket out of the queue
+         *
+         * @return true if this caller took it, false if someone else already did
+         */
+        boolean take() {
+            return live.compareAndSet(true, false);
+        }
+    }
+
+    /**
+     * Lock-free FIFO list for one priority level
+     * head is a dummy node, the first ticket is in head.next
+     */
+    private static final class Bucket {
+        final AtomicReference<Node> head;
+        final AtomicReference<Node> tail;
+
+        Bucket() {
+            Node dummy = new Node(null);
+            dummy.live.set(false);
+            head = new AtomicReference<>(dummy);
+            tail = new AtomicReference<>(dummy);
+        }
+
+        /**
+         * Appends a node at the tail
+         *
+         * @param node Node to append
+         */
+        void enqueue(Node node) {
+            while(true) {
+                Node last = tail.get();
+                Node next = last.next.get();
+                if(last != tail.get()) {
+                    continue;
+                }
+                if(next == null) {
+                    if(last.next.compareAndSet(null, node)) {
+                        tail.compareAndSet(last, node);
+                        return;
+                    }
+                } else {
+                    // Another thread is half way through an append, help it finish
+                    tail.compareAndSet(last, next);
+                }
+            }
+        }
+
+        /**
+         * Unlinks the first node
+         * The node becomes the new dummy head of the list
+         *
+         * @return The unlinked node, or null if the list is empty
+         */
+        Node dequeue() {
+            while(true) {
+                Node first = head.get();
+                Node last = tail.get();
+                Node next = first.next.get();
+                if(first != head.get()) {
+                    continue;
+                }
+                if(first == last) {
+                    if(next == null) {
+                        return null;
+                    }
+                    tail.compareAndSet(last, next);
+                } else if(head.compareAndSet(first, next)) {
+                    return next;
+                }
+            }
+        }
+
+        /**
+         * Finds the first node that is still live, without unlinking anything
+         *
+         * @return The node, or null if there is none
+         */
+        Node firstLive() {
+            for(Node node = head.get().next.get(); node != null; node = node.next.get()) {
+                if(node.live.get()) {
+                    return node;
+                }
+            }
+            return null;
+        }
+    }
+
+    // One list per priority, indexed by priority
+    private final Bucket[] buckets;
+
+    // Ticket ID -> node of the live ticket
+    private final ConcurrentHashMap<Long, Node> index;
+
+    // Number of live tickets
+    private final AtomicInteger size;
+
+    /**
+     * Constructor for an empty queue
+     */
+    public ConcurrentBucketQueue() {
+        this.buckets = new Bucket[MAX_PRIORITY + 1];
+        for(int p = MIN_PRIORITY; p <= MAX_PRIORITY; p++) {
+            buckets[p] = new Bucket();
+        }
+        this.index = new ConcurrentHashMap<>();
+        this.size = new AtomicInteger();
+    }
+
+    /**
+     * Checks that a priority is one of the four levels
+     *
+     * @param priority Priority to check
+     */
+    private static void checkPriority(int priority) {
+        if(priority < MIN_PRIORITY || priority > MAX_PRIORITY) {
+            throw new IllegalArgumentException("priority must be between 1 and 4");
+        }
+    }
+
+    /**
+     * Inserts a new ticket at the end of its priority list
+     * Time complexity 0(1)
+     *
+     * @param ticket The ticket to insert
+     */
+    @Override
+    public void insert(Ticket ticket) {
+        if(ticket == null) {
+            throw new IllegalArgumentException("Cannot insert null ticket");
+        }
+        checkPriority(ticket.getPriority());
+
+        Node node = new Node(ticket);
+        if(index.putIfAbsent(ticket.getTicketID(), node) != null) {
+            throw new IllegalArgumentException("Ticket #" + ticket.getTicketID() + " is already in the queue");
+        }
+        size.incrementAndGet();
+        buckets[ticket.getPriority()].enqueue(node);
+    }
+
+    /**
+     * Inserts a batch of tickets
+     * If a ticket is invalid or already queued, the tickets of the batch
+     * added before it are taken out again
+     *
+     * @param tickets The tickets to insert
+     */
+    @Override
+    public void insertAll(Ticket[] tickets) {
+        if(tickets == null) {
+            throw new IllegalArgumentException("Cannot insert null tickets");
+        }
+        for(Ticket ticket : tickets) {
+            if(ticket == null) {
+                throw new IllegalArgumentException("Cannot insert null ticket");
+            }
+            checkPriority(ticket.getPriority());
+        }
+
+        for(int i = 0; i < tickets.length; i++) {
+            try {
+                insert(tickets[i]);
+            } catch(IllegalArgumentException e) {
+                for(int j = 0; j < i; j++) {
+                    remove(tickets[j].getTicketID());
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Takes the ticket of a node that has been unlinked or found by ID
+     *
+     * @param node The node
+     * @return The ticket, or null if another thread took it first
+     */
+    private Ticket take(Node node) {
+        if(!node.take()) {
+            return null;
+        }
+        index.remove(node.ticket.getTicketID(), node);
+        size.decrementAndGet();
+        return node.ticket;
+    }
+
+    /**
+     * Extracts the oldest ticket of the highest non-empty priority
+     * Time Complexity 0(1), plus skipping removed tickets
+     *
+     * @return The highest priority ticket, or null if queue is empty
+     */
+    @Override
+    public Ticket extractMin() {
+        for(int p = MIN_PRIORITY; p <= MAX_PRIORITY; p++) {
+            Node node;
+            while((node = buckets[p].dequeue()) != null) {
+                Ticket ticket = take(node);
+                if(ticket != null) {
+                    return ticket;
+                }
+                // Lazily deleted, keep going
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Extracts up to max tickets in priority order into dest
+     *
+     * @param dest Array to fill from index 0
+     * @param max Maximum number of tickets to extract (at most dest.length)
+     * @return Number of tickets extracted
+     */
+    @Override
+    public int drainTo(Ticket[] dest, int max) {
+        if(dest == null) {
+            throw new IllegalArgumentException("Destination cannot be null");
+        }
+        if(max < 0 || max > dest.length) {
+            throw new IllegalArgumentException("max must be between 0 and the destination length");
+        }
+
+        int count = 0;
+        Ticket ticket;
+        while(count < max && (ticket = extractMin()) != null) {
+            dest[count++] = ticket;
+        }
+        return count;
+    }
+
+    /**
+     * Searches for a ticket by ID
+     * Time Complexity 0(1)
+     *
+     * @param ticketID the ID to search for
+     * @return The ticket if found, null otherwise
+     */
+    @Override
+    public Ticket search(long ticketID) {
+        Node node = index.get(ticketID);
+        return node != null && node.live.get() ? node.ticket : null;
+    }
+
+    /**
+     * Moves a ticket to the end of the list for its new priority
+     * The old node is lazily deleted and a new node is appended
+     * Time Complexity 0(1)
+     *
+     * @param ticketID ID of the ticket to update
+     * @param newPriority New priority value
+     * @return true if update succesful, false if ticket not found
+     */
+    @Override
+    public boolean updatePriority(long ticketID, int newPriority) {
+        checkPriority(newPriority);
+
+        Node old = index.get(ticketID);
+        if(old == null || !old.take()) {
+            return false;
+        }
+
+        Ticket ticket = old.ticket;
+        ticket.setPriority(newPriority);
+        Node node = new Node(ticket);
+        index.replace(ticketID, old, node);
+        buckets[newPriority].enqueue(node);
+        return true;
+    }
+
+    /**
+     * An updated ticket moves to the end of its new list
+     *
+     * @return false
+     */
+    @Override
+    public boolean keepsPlaceOnUpdate() {
+        return false;
+    }
+
+    /**
+     * Removes a specific ticket by ID
+     * The node stays in its list until a consumer skips over it
+     * Time Complexity 0(1)
+     *
+     * @param ticketID ID of the ticket to remove
+     * @return The removed ticket, or null if not found
+     */
+    @Override
+    public Ticket remove(long ticketID) {
+        Node node = index.get(ticketID);
+        return node == null ? null : take(node);
+    }
+
+    /**
+     * Returns the highest priority ticket without removing it
+     *
+     * @return The highest priority ticket, or null if empty
+     */
+    @Override
+    public Ticket peek() {
+        for(int p = MIN_PRIORITY; p <= MAX_PRIORITY; p++) {
+            Node node = buckets[p].firstLive();
+            if(node != null) {
+                return node.ticket;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the queue is empty
+     *
+     * @return true if empty, false otherwise
+     */
+    @Override
+    public boolean isEmpty() {
+        return size.get() <= 0;
+    }
+
+    /**
+     * Returns the number of tickets in the queue
+     *
+     * @return current size
+     */
+    @Override
+    public int size() {
+        return Math.max(size.get(), 0);
+    }
+
+    /**
+     * Returns a copy of the queue, a point-in-time view of the queue
+     * Walks the live nodes of each list into a new queue, so the copy
+     * keeps the FIFO order and shares the Ticket objects. Like the
+     * listings it is weakly consistent while other threads change the queue.
+     * Time Complexity 0(n), no sorting needed
+     *
+     * @return Copy of the queue
+     */
+    @Override
+    public ConcurrentBucketQueue copy() {
+        ConcurrentBucketQueue copy = new ConcurrentBucketQueue();
+        for(int p = MIN_PRIORITY; p <= MAX_PRIORITY; p++) {
+            for(Node node = buckets[p].head.get().next.get(); node != null; node = node.next.get()) {
+                // A ticket moved to a later list meanwhile can be met twice
+                if(node.live.get() && copy.search(node.ticket.getTicketID()) == null) {
+                    copy.insert(node.ticket);
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns all tickets in an array, in priority order
+     *
+     * @return Array of all tickets
+     */
+    @Override
+    public Ticket[] getAllTickets() {
+        return getTopK(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns all tickets in the order they would be extracted
+     *
+     * @return Array of tickets sorted by priority
+     */
+    @Override
+    public Ticket[] getAllTicketsSorted() {
+        return getTopK(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the first k tickets in extraction order without removing them
+     *
+     * @param k Number of tickets wanted
+     * @return Up to k tickets, highest priority first
+     */
+    @Override
+    public Ticket[] getTopK(int k) {
+        if(k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+
+        Ticket[] result = new Ticket[Math.min(k, Math.max(size(), 1))];
+        int count = 0;
+        for(int p = MIN_PRIORITY; p <= MAX_PRIORITY && count < k; p++) {
+            for(Node node = buckets[p].head.get().next.get(); node != null && count < k; node = node.next.get()) {
+                if(!node.live.get()) {
+                    continue;
+                }
+                // Other threads may have added tickets since size() was read
+                if(count == result.length) {
+                    Ticket[] bigger = new Ticket[result.length * 2];
+                    for(int i = 0; i < count; i++) {
+                        bigger[i] = result[i];
+                    }
+                    result = bigger;
+                }
+                result[count++] = node.ticket;
+            }
+        }
+
+        if(count == result.length) {
+            return result;
+        }
+        Ticket[] trimmed = new Ticket[count];
+        for(int i = 0; i < count; i++) {
+            trimmed[i] = result[i];
+        }
+        return trimmed;
+    }
+
+    /**
+     * Takes every ticket that is in the queue when the call starts
+     */
+    @Override
+    public void clear() {
+        while(extractMin() != null) {
+            // Keep extracting
+        }
+    }
+}
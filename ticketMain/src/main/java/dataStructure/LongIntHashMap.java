@@ -0,0 +1,295 @@
+package dataStructure;
+
+/**
+ * Hash map from long keys to int values, used by the priority queue to
+ * remember which heap slot each ticket ID currently sits in.
+ * Like the rest of this package it does not use java collections, and
+ * unlike java.util.HashMap it never boxes keys or values.
+ *
+ * Open addressing with linear probing over a single long array holding
+ * key and value next to each other, so a probe touches one cache line.
+ * The table length is always a power of two. Deleting an entry shifts the
+ * following entries of its probe run back, so no tombstones are left behind.
+ *
+ * Key 0 marks an empty slot in the table, so an entry with key 0 is kept
+ * in a separate field.
+ *
+ * Time Complexity (expected):
+ * Put: 0(1)
+ * Get: 0(1)
+ * Remove: 0(1)
+ *
+ * put() only allocates when the map grows past the capacity it was
+ * created or ensureCapacity()'d with; get() and remove() never allocate.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class LongIntHashMap {
+
+    // Value returned by get() and remove() when the key is not present
+    public static final int NO_VALUE = -1;
+
+    // Default initial capacity
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Key marking an empty slot
+    private static final long FREE_KEY = 0L;
+
+    // Keys at even positions, values at the following odd position
+    private long[] table;
+
+    // Number of entries stored in the table (not counting key 0)
+    private int tableSize;
+
+    // Whether key 0 is present, and its value
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    // Number of slots - 1, used instead of modulo since it is a power of two
+    private int mask;
+
+    // Number of entries the table can hold before it has to grow
+    private int threshold;
+
+    /**
+     * Constructor with default capacity
+     */
+    public LongIntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor with specified initial capacity
+     *
+     * @param initialCapacity Number of entries the map holds without growing
+     */
+    public LongIntHashMap(int initialCapacity) {
+        if(initialCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+        }
+        allocate(slotsFor(initialCapacity));
+    }
+
+    /**
+     * Smallest power of two number of slots that holds the given number
+     * of entries while staying at most half full
+     *
+     * @param entries Number of entries
+     * @return Number of slots
+     */
+    static int slotsFor(int entries) {
+        int slots = DEFAULT_CAPACITY;
+        while(slots / 2 < entries) {
+            if(slots >= (1 << 29)) {
+                throw new IllegalStateException("Map cannot hold " + entries + " entries");
+            }
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Spreads the bits of the key so sequential ticket IDs
+     * don't all land in one run of the table
+     *
+     * @param key The key
+     * @return Mixed hash of the key
+     */
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Creates an empty table
+     *
+     * @param slots Number of slots (power of two)
+     */
+    private void allocate(int slots) {
+        table = new long[slots * 2];
+        mask = slots - 1;
+        threshold = slots / 2;
+        tableSize = 0;
+    }
+
+    /**
+     * Finds the slot holding the key
+     *
+     * @param key The key (not FREE_KEY)
+     * @return Slot index, or -1 if not present
+     */
+    private int find(long key) {
+        int slot = mix(key) & mask;
+        long k;
+        while((k = table[slot * 2]) != FREE_KEY) {
+            if(k == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the value for a key
+     *
+     * @param key The key
+     * @return The value, or NO_VALUE if not present
+     */
+    public int get(long key) {
+        if(key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : NO_VALUE;
+        }
+        int slot = find(key);
+        return slot == -1 ? NO_VALUE : (int) table[slot * 2 + 1];
+    }
+
+    /**
+     * Checks if a key is present
+     *
+     * @param key The key
+     * @return true if present, false otherwise
+     */
+    public boolean containsKey(long key) {
+        return key == FREE_KEY ? hasFreeKey : find(key) != -1;
+    }
+
+    /**
+     * Adds or replaces the value for a key
+     *
+     * @param key The key
+     * @param value The value
+     */
+    public void put(long key, int value) {
+        if(key == FREE_KEY) {
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return;
+        }
+
+        int slot = mix(key) & mask;
+        long k;
+        while((k = table[slot * 2]) != FREE_KEY) {
+            if(k == key) {
+                table[slot * 2 + 1] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        table[slot * 2] = key;
+        table[slot * 2 + 1] = value;
+        tableSize++;
+
+        // Keep the table at most half full so probe runs stay short
+        if(tableSize > threshold) {
+            rehash((mask + 1) * 2);
+        }
+    }
+
+    /**
+     * Removes a key
+     *
+     * @param key The key
+     * @return The removed value, or NO_VALUE if not present
+     */
+    public int remove(long key) {
+        if(key == FREE_KEY) {
+            if(!hasFreeKey) {
+                return NO_VALUE;
+            }
+            hasFreeKey = false;
+            return freeKeyValue;
+        }
+
+        int slot = find(key);
+        if(slot == -1) {
+            return NO_VALUE;
+        }
+        int removed = (int) table[slot * 2 + 1];
+
+        // Shift back any following entry whose home slot lies at or before the gap
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        long k;
+        while((k = table[next * 2]) != FREE_KEY) {
+            int home = mix(k) & mask;
+            // Distance from home to next compared with distance from gap to next
+            if(((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap * 2] = k;
+                table[gap * 2 + 1] = table[next * 2 + 1];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[gap * 2] = FREE_KEY;
+        tableSize--;
+
+        return removed;
+    }
+
+    /**
+     * Grows the table so it holds the given number of entries without
+     * reallocating. Lets a caller move the allocation off its hot path.
+     *
+     * @param entries Number of entries
+     */
+    public void ensureCapacity(int entries) {
+        if(entries > threshold) {
+            rehash(slotsFor(entries));
+        }
+    }
+
+    /**
+     * Moves all entries into a table with a new number of slots
+     *
+     * @param newSlots New number of slots (power of two)
+     */
+    private void rehash(int newSlots) {
+        long[] oldTable = table;
+
+        allocate(newSlots);
+        for(int i = 0; i < oldTable.length; i += 2) {
+            long k = oldTable[i];
+            if(k != FREE_KEY) {
+                int slot = mix(k) & mask;
+                while(table[slot * 2] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot * 2] = k;
+                table[slot * 2 + 1] = oldTable[i + 1];
+                tableSize++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries
+     *
+     * @return current size
+     */
+    public int size() {
+        return hasFreeKey ? tableSize + 1 : tableSize;
+    }
+
+    /**
+     * Checks if the map is empty
+     *
+     * @return true if empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        for(int i = 0; i < table.length; i += 2) {
+            table[i] = FREE_KEY;
+        }
+        tableSize = 0;
+        hasFreeKey = false;
+    }
+}
@@ -0,0 +1,252 @@
+package dataStructure;
+
+import model.Ticket;
+
+/**
+ * Hash map from long ticket IDs to tickets.
+ * Same design as LongIntHashMap: open addressing with linear probing,
+ * power of two table, backward shift deletion and no boxing of keys.
+ *
+ * Tickets are never null, so a null value marks an empty slot and
+ * every long, including 0, can be used as a key.
+ *
+ * Time Complexity (expected):
+ * Put: 0(1)
+ * Get: 0(1)
+ * Remove: 0(1)
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class LongTicketHashMap {
+
+    // Default initial capacity
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Keys of the table
+    private long[] keys;
+
+    // Tickets of the table, null for an empty slot
+    private Ticket[] values;
+
+    // Current number of entries
+    private int size;
+
+    // Number of slots - 1
+    private int mask;
+
+    // Number of entries the table can hold before it has to grow
+    private int threshold;
+
+    /**
+     * Constructor with default capacity
+     */
+    public LongTicketHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor with specified initial capacity
+     *
+     * @param initialCapacity Number of entries the map holds without growing
+     */
+    public LongTicketHashMap(int initialCapacity) {
+        if(initialCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+        }
+        allocate(LongIntHashMap.slotsFor(initialCapacity));
+    }
+
+    /**
+     * Creates an empty table
+     *
+     * @param slots Number of slots (power of two)
+     */
+    private void allocate(int slots) {
+        keys = new long[slots];
+        values = new Ticket[slots];
+        mask = slots - 1;
+        threshold = slots / 2;
+        size = 0;
+    }
+
+    /**
+     * Finds the slot holding the key
+     *
+     * @param key The key
+     * @return Slot index, or -1 if not present
+     */
+    private int find(long key) {
+        int slot = LongIntHashMap.mix(key) & mask;
+        while(values[slot] != null) {
+            if(keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the ticket for an ID
+     *
+     * @param key The ticket ID
+     * @return The ticket, or null if not present
+     */
+    public Ticket get(long key) {
+        int slot = find(key);
+        return slot == -1 ? null : values[slot];
+    }
+
+    /**
+     * Checks if an ID is present
+     *
+     * @param key The ticket ID
+     * @return true if present, false otherwise
+     */
+    public boolean containsKey(long key) {
+        return find(key) != -1;
+    }
+
+    /**
+     * Adds or replaces the ticket for an ID
+     *
+     * @param key The ticket ID
+     * @param ticket The ticket
+     * @return The ticket previously stored for the ID, or null
+     */
+    public Ticket put(long key, Ticket ticket) {
+        if(ticket == null) {
+            throw new IllegalArgumentException("Cannot store null ticket");
+        }
+
+        int slot = LongIntHashMap.mix(key) & mask;
+        while(values[slot] != null) {
+            if(keys[slot] == key) {
+                Ticket old = values[slot];
+                values[slot] = ticket;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = ticket;
+        size++;
+
+        // Keep the table at most half full so probe runs stay short
+        if(size > threshold) {
+            rehash((mask + 1) * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes an ID
+     *
+     * @param key The ticket ID
+     * @return The removed ticket, or null if not present
+     */
+    public Ticket remove(long key) {
+        int slot = find(key);
+        if(slot == -1) {
+            return null;
+        }
+        Ticket removed = values[slot];
+
+        // Shift back any following entry whose home slot lies at or before the gap
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while(values[next] != null) {
+            int home = LongIntHashMap.mix(keys[next]) & mask;
+            if(((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[gap] = null; // Helps garbage collection
+        size--;
+
+        return removed;
+    }
+
+    /**
+     * Grows the table so it holds the given number of entries without reallocating
+     *
+     * @param entries Number of entries
+     */
+    public void ensureCapacity(int entries) {
+        if(entries > threshold) {
+            rehash(LongIntHashMap.slotsFor(entries));
+        }
+    }
+
+    /**
+     * Moves all entries into a table with a new number of slots
+     *
+     * @param newSlots New number of slots (power of two)
+     */
+    private void rehash(int newSlots) {
+        long[] oldKeys = keys;
+        Ticket[] oldValues = values;
+
+        allocate(newSlots);
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldValues[i] != null) {
+                int slot = LongIntHashMap.mix(oldKeys[i]) & mask;
+                while(values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Returns all tickets in the map (not in any particular order)
+     *
+     * @return Array of all tickets
+     */
+    public Ticket[] values() {
+        Ticket[] result = new Ticket[size];
+        int count = 0;
+        for(int i = 0; i < values.length; i++) {
+            if(values[i] != null) {
+                result[count++] = values[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of entries
+     *
+     * @return current size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the map is empty
+     *
+     * @return true if empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        for(int i = 0; i < values.length; i++) {
+            values[i] = null; // Helps garbage collection
+        }
+        size = 0;
+    }
+}
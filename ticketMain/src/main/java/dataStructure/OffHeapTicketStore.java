@@ -0,0 +1,500 @@
+package dataStructure;
+
+import model.Ticket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Ticket storage outside the Java heap, for backlogs too big to keep
+ * as Ticket objects without long garbage collection pauses.
+ *
+ * The fixed fields of every ticket are a 72 byte record in a slab of
+ * direct ByteBuffers. The four strings live in an append-only arena of
+ * direct ByteBuffers and the record keeps a reference to each one.
+ * The garbage collector only sees a handful of large buffers, however
+ * many tickets are stored.
+ *
+ * Record layout:
+ * long ID, byte state (0 free, 1 used), byte priority, byte status,
+ * 1 byte unused, int created nano, long created epoch second,
+ * long updated epoch second, int updated nano, 4 bytes unused,
+ * then a long arena reference for creator, owner, request type and
+ * description (NO_STRING for null).
+ * An arena reference is (chunk << 32 | position), and each string is
+ * stored as an int UTF-8 length followed by its bytes.
+ *
+ * A changed owner is appended to the arena and the old bytes are left
+ * behind; compact() copies the live strings into a new arena.
+ *
+ * Tickets are read through a TicketFlyweight, a view that can be moved
+ * from record to record, or copied out with get().
+ *
+ * Time Complexity:
+ * Add: 0(string length)
+ * Read a fixed field: 0(1)
+ * Read a string: 0(string length)
+ * Remove: 0(1)
+ * Compact: 0(n + arena size)
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class OffHeapTicketStore {
+
+    // Bytes per record
+    static final int RECORD_SIZE = 72;
+
+    // Records per slab chunk, a power of two
+    private static final int RECORDS_PER_CHUNK = 1 << 16;
+    private static final int RECORD_SHIFT = 16;
+
+    // Default bytes per arena chunk, longer strings get a chunk of their own
+    private static final int ARENA_CHUNK_SIZE = 4 << 20;
+
+    // Reference stored for a null string
+    public static final long NO_STRING = -1L;
+
+    // Record states
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+
+    // Offsets inside a record
+    private static final int ID = 0;
+    private static final int STATE = 8;
+    private static final int PRIORITY = 9;
+    private static final int STATUS = 10;
+    private static final int CREATED_NANO = 12;
+    private static final int CREATED_SECOND = 16;
+    private static final int UPDATED_SECOND = 24;
+    private static final int UPDATED_NANO = 32;
+    static final int CREATOR = 40;
+    static final int OWNER = 48;
+    static final int REQUEST_TYPE = 56;
+    static final int DESCRIPTION = 64;
+
+    // Ticket statuses by ordinal
+    private static final Ticket.TicketStatus[] STATUSES = Ticket.TicketStatus.values();
+
+    // Slab chunks, RECORDS_PER_CHUNK records each
+    private ByteBuffer[] slab;
+    private int slabChunks;
+
+    // Records handed out so far, free or used
+    private int recordCount;
+
+    // Freed records, used as a stack
+    private int[] freeRecords;
+    private int freeCount;
+
+    // Arena chunks, strings are appended to the last one
+    private ByteBuffer[] arena;
+    private int arenaChunks;
+
+    // Arena bytes in use and bytes no record refers to any more
+    private long arenaBytes;
+    private long garbageBytes;
+
+    /**
+     * Constructor for an empty store
+     */
+    public OffHeapTicketStore() {
+        this.slab = new ByteBuffer[4];
+        this.freeRecords = new int[16];
+        this.arena = new ByteBuffer[4];
+    }
+
+    /**
+     * Gets the slab chunk holding a record
+     */
+    private ByteBuffer chunk(int record) {
+        return slab[record >>> RECORD_SHIFT];
+    }
+
+    /**
+     * Gets the byte offset of a record inside its chunk
+     */
+    private static int base(int record) {
+        return (record & (RECORDS_PER_CHUNK - 1)) * RECORD_SIZE;
+    }
+
+    /**
+     * Checks that a record holds a ticket
+     */
+    private void checkRecord(int record) {
+        if(!isUsed(record)) {
+            throw new IllegalArgumentException("Record " + record + " does not hold a ticket");
+        }
+    }
+
+    /**
+     * Checks if a record holds a ticket
+     *
+     * @param record The record
+     * @return true if used
+     */
+    public boolean isUsed(int record) {
+        return record >= 0 && record < recordCount && chunk(record).get(base(record) + STATE) == USED;
+    }
+
+    /**
+     * Stores a ticket
+     * Time Complexity 0(string length)
+     *
+     * @param ticket The ticket to copy into the store
+     * @return The record number of the ticket
+     */
+    public int add(Ticket ticket) {
+        if(ticket == null) {
+            throw new IllegalArgumentException("Cannot store null ticket");
+        }
+
+        int record;
+        if(freeCount > 0) {
+            record = freeRecords[--freeCount];
+        } else {
+            if(recordCount == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Ticket store is full");
+            }
+            if((recordCount >>> RECORD_SHIFT) == slabChunks) {
+                if(slabChunks == slab.length) {
+                    ByteBuffer[] bigger = new ByteBuffer[slab.length * 2];
+                    System.arraycopy(slab, 0, bigger, 0, slabChunks);
+                    slab = bigger;
+                }
+                slab[slabChunks++] = ByteBuffer.allocateDirect(RECORDS_PER_CHUNK * RECORD_SIZE);
+            }
+            record = recordCount++;
+        }
+
+        ByteBuffer chunk = chunk(record);
+        int base = base(record);
+        chunk.putLong(base + ID, ticket.getTicketID());
+        chunk.put(base + PRIORITY, (byte) ticket.getPriority());
+        chunk.put(base + STATUS, (byte) ticket.getStatus().ordinal());
+        putTime(chunk, base + CREATED_SECOND, base + CREATED_NANO, ticket.getCreatedAt());
+        putTime(chunk, base + UPDATED_SECOND, base + UPDATED_NANO, ticket.getUpdatedAt());
+        chunk.putLong(base + CREATOR, append(ticket.getCreator()));
+        chunk.putLong(base + OWNER, append(ticket.getOwner()));
+        chunk.putLong(base + REQUEST_TYPE, append(ticket.getRequestType()));
+        chunk.putLong(base + DESCRIPTION, append(ticket.getDescription()));
+        chunk.put(base + STATE, USED);
+        return record;
+    }
+
+    private static void putTime(ByteBuffer chunk, int secondOffset, int nanoOffset, LocalDateTime time) {
+        chunk.putLong(secondOffset, time.toEpochSecond(ZoneOffset.UTC));
+        chunk.putInt(nanoOffset, time.getNano());
+    }
+
+    /**
+     * Appends a string to the arena
+     *
+     * @param value The string, may be null
+     * @return Reference to the stored string, or NO_STRING for null
+     */
+    private long append(String value) {
+        if(value == null) {
+            return NO_STRING;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int needed = 4 + bytes.length;
+        ByteBuffer last = reserve(needed);
+        long reference = ((long) (arenaChunks - 1) << 32) | last.position();
+        last.putInt(bytes.length);
+        last.put(bytes);
+        arenaBytes += needed;
+        return reference;
+    }
+
+    /**
+     * Gets the arena chunk the next string of the given size goes into
+     * Starts a new chunk when the current one is too full
+     */
+    private ByteBuffer reserve(int needed) {
+        ByteBuffer last = arenaChunks == 0 ? null : arena[arenaChunks - 1];
+        if(last == null || last.remaining() < needed) {
+            if(arenaChunks == arena.length) {
+                ByteBuffer[] bigger = new ByteBuffer[arena.length * 2];
+                System.arraycopy(arena, 0, bigger, 0, arenaChunks);
+                arena = bigger;
+            }
+            last = ByteBuffer.allocateDirect(Math.max(ARENA_CHUNK_SIZE, needed));
+            arena[arenaChunks++] = last;
+        }
+        return last;
+    }
+
+    /**
+     * Reads a string from the arena
+     */
+    private String string(long reference) {
+        if(reference == NO_STRING) {
+            return null;
+        }
+        ByteBuffer chunk = arena[(int) (reference >>> 32)];
+        int position = (int) reference;
+        byte[] bytes = new byte[chunk.getInt(position)];
+        chunk.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the arena size of a stored string, 0 for null
+     */
+    private int stringBytes(long reference) {
+        return reference == NO_STRING ? 0 : 4 + arena[(int) (reference >>> 32)].getInt((int) reference);
+    }
+
+    /**
+     * Reads a string field of a record
+     *
+     * @param record A used record
+     * @param field Offset of the string reference (CREATOR, OWNER, ...)
+     * @return The string, or null
+     */
+    String getString(int record, int field) {
+        checkRecord(record);
+        return string(chunk(record).getLong(base(record) + field));
+    }
+
+    // Getter methods, each reads one field of a used record
+    public long getTicketID(int record) {
+        checkRecord(record);
+        return chunk(record).getLong(base(record) + ID);
+    }
+
+    public int getPriority(int record) {
+        checkRecord(record);
+        return chunk(record).get(base(record) + PRIORITY);
+    }
+
+    public Ticket.TicketStatus getStatus(int record) {
+        checkRecord(record);
+        return STATUSES[chunk(record).get(base(record) + STATUS)];
+    }
+
+    public LocalDateTime getCreatedAt(int record) {
+        checkRecord(record);
+        ByteBuffer chunk = chunk(record);
+        int base = base(record);
+        return LocalDateTime.ofEpochSecond(chunk.getLong(base + CREATED_SECOND),
+                chunk.getInt(base + CREATED_NANO), ZoneOffset.UTC);
+    }
+
+    public LocalDateTime getUpdatedAt(int record) {
+        checkRecord(record);
+        ByteBuffer chunk = chunk(record);
+        int base = base(record);
+        return LocalDateTime.ofEpochSecond(chunk.getLong(base + UPDATED_SECOND),
+                chunk.getInt(base + UPDATED_NANO), ZoneOffset.UTC);
+    }
+
+    /**
+     * Marks a record as changed now, like the Ticket setters do
+     */
+    private void touch(int record) {
+        ByteBuffer chunk = chunk(record);
+        int base = base(record);
+        putTime(chunk, base + UPDATED_SECOND, base + UPDATED_NANO, LocalDateTime.now());
+    }
+
+    /**
+     * Assigns an owner to a ticket
+     * The new name is appended to the arena
+     *
+     * @param record A used record
+     * @param owner Name of the owner, or null
+     */
+    public void setOwner(int record, String owner) {
+        checkRecord(record);
+        ByteBuffer chunk = chunk(record);
+        int base = base(record);
+        garbageBytes += stringBytes(chunk.getLong(base + OWNER));
+        chunk.putLong(base + OWNER, append(owner));
+        touch(record);
+    }
+
+    /**
+     * Updates the priority of a ticket
+     *
+     * @param record A used record
+     * @param priority New priority level (1 to 4)
+     */
+    public void setPriority(int record, int priority) {
+        checkRecord(record);
+        if(priority < 1 || priority > 4) {
+            throw new IllegalArgumentException("Ticket priority must be between 1 and 4");
+        }
+        chunk(record).put(base(record) + PRIORITY, (byte) priority);
+        touch(record);
+    }
+
+    /**
+     * Updates the status of a ticket
+     *
+     * @param record A used record
+     * @param status New status
+     */
+    public void setStatus(int record, Ticket.TicketStatus status) {
+        checkRecord(record);
+        if(status == null) {
+            throw new IllegalArgumentException("Status cannot be null");
+        }
+        chunk(record).put(base(record) + STATUS, (byte) status.ordinal());
+        touch(record);
+    }
+
+    /**
+     * Copies a stored ticket into a new Ticket object
+     *
+     * @param record A used record
+     * @return The ticket
+     */
+    public Ticket get(int record) {
+        checkRecord(record);
+        return new Ticket(getTicketID(record), getString(record, CREATOR), getString(record, OWNER),
+                getString(record, REQUEST_TYPE), getString(record, DESCRIPTION), getPriority(record),
+                getStatus(record), getCreatedAt(record), getUpdatedAt(record));
+    }
+
+    /**
+     * Creates a view of a stored ticket
+     * The view can be moved to other records with moveTo
+     *
+     * @param record A used record
+     * @return View reading the record
+     */
+    public TicketFlyweight view(int record) {
+        checkRecord(record);
+        return new TicketFlyweight(this, record);
+    }
+
+    /**
+     * Removes a ticket and frees its record for reuse
+     * Time Complexity 0(1)
+     *
+     * @param record A used record
+     */
+    public void remove(int record) {
+        checkRecord(record);
+        ByteBuffer chunk = chunk(record);
+        int base = base(record);
+        for(int field = CREATOR; field <= DESCRIPTION; field += 8) {
+            garbageBytes += stringBytes(chunk.getLong(base + field));
+        }
+        chunk.put(base + STATE, FREE);
+        if(freeCount == freeRecords.length) {
+            int[] bigger = new int[freeRecords.length * 2];
+            System.arraycopy(freeRecords, 0, bigger, 0, freeCount);
+            freeRecords = bigger;
+        }
+        freeRecords[freeCount++] = record;
+    }
+
+    /**
+     * Copies the strings still in use into a new arena and drops the old one
+     * Time Complexity 0(n + arena size)
+     */
+    public void compact() {
+        ByteBuffer[] oldArena = arena;
+        arena = new ByteBuffer[4];
+        arenaChunks = 0;
+        arenaBytes = 0;
+        garbageBytes = 0;
+
+        for(int record = 0; record < recordCount; record++) {
+            if(!isUsed(record)) {
+                continue;
+            }
+            ByteBuffer chunk = chunk(record);
+            int base = base(record);
+            for(int field = CREATOR; field <= DESCRIPTION; field += 8) {
+                long reference = chunk.getLong(base + field);
+                if(reference != NO_STRING) {
+                    chunk.putLong(base + field, copy(oldArena[(int) (reference >>> 32)], (int) reference));
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies one stored string into the current arena without decoding it
+     */
+    private long copy(ByteBuffer from, int position) {
+        int length = from.getInt(position);
+        int needed = 4 + length;
+        ByteBuffer last = reserve(needed);
+        long reference = ((long) (arenaChunks - 1) << 32) | last.position();
+        last.put(last.position(), from, position, needed);
+        last.position(last.position() + needed);
+        arenaBytes += needed;
+        return reference;
+    }
+
+    /**
+     * Returns the number of stored tickets
+     *
+     * @return current size
+     */
+    public int size() {
+        return recordCount - freeCount;
+    }
+
+    /**
+     * Gets one more than the highest record number, for walking all records
+     *
+     * @return Number of records handed out, free or used
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Gets the off-heap bytes reserved for records and strings
+     *
+     * @return Slab plus arena capacity in bytes
+     */
+    public long getOffHeapBytes() {
+        long bytes = (long) slabChunks * RECORDS_PER_CHUNK * RECORD_SIZE;
+        for(int i = 0; i < arenaChunks; i++) {
+            bytes += arena[i].capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the arena bytes written so far
+     *
+     * @return Bytes used in the arena
+     */
+    public long getArenaBytes() {
+        return arenaBytes;
+    }
+
+    /**
+     * Gets the arena bytes of removed tickets and replaced owners
+     *
+     * @return Bytes compact() would free
+     */
+    public long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     * Removes every ticket and drops the arena
+     */
+    public void clear() {
+        for(int record = 0; record < recordCount; record++) {
+            chunk(record).put(base(record) + STATE, FREE);
+        }
+        recordCount = 0;
+        freeCount = 0;
+        arena = new ByteBuffer[4];
+        arenaChunks = 0;
+        arenaBytes = 0;
+        garbageBytes = 0;
+    }
+}
@@ -6,23 +6,48 @@ import model.Ticket;
  * Custom Priority queue implementation using a min_heap data structure
  * This implementation does not use java collections as stated in the assignment reqs
  *
+ * The heap is d-ary: each node has 'arity' children (2 by default).
+ * With arity 4 or 8 the tree is half or a third as deep, and the
+ * children of a node sit next to each other in the key array, so
+ * sift-down reads them from one or two cache lines.
+ *
  * Min-Heap property: parent priority <= Children priorities
  * (Lower priority number - higher priority in our system
+ * Tickets with the same priority come out in the order they were
+ * inserted.
+ *
+ * The heap is stored as two parallel arrays: the tickets, and a long key
+ * per slot packing the priority (top bits) with an insertion sequence
+ * number (low bits). Comparing two slots is a single long comparison on
+ * contiguous memory, so sifting up and down never dereferences a ticket.
  *
  * Time Complexity:
- * Insert : 0(log n)
- * Extract min: 0(log n)
- * Search: 0(n)
+ * Insert : 0(log n), 0(log_d n) levels for arity d
+ * Extract min: 0(log n), d comparisons on each of log_d n levels
+ * Search: 0(n), or 0(1) in indexed mode
  * Update priority: 0(n) for search + 0(log n) for heapify
+ * Sorted snapshot: 0(n log n)
+ * Top k: 0(k log k)
+ * Bulk build (heapifyAll): 0(n)
+ *
+ * In indexed mode the queue also keeps a map from ticket ID to heap slot,
+ * updated whenever an element moves, so search, update priority and
+ * remove by ID cost 0(1) + 0(log n). Ticket IDs must then be unique.
  *
  * @author Rosslan Koulli
  * @version 1.0
  */
-public class PriorityQueue {
+public class PriorityQueue implements TicketQueue {
 
     //Array to store heap elemetns
     private Ticket[] heap;
 
+    // Packed priority and insertion sequence of the ticket in the same heap slot
+    private long[] keys;
+
+    // Sequence number given to the next inserted ticket
+    private long nextSequence;
+
     // Current number of elemetns in the heap
     private int size;
 
@@ -32,6 +57,21 @@ public class PriorityQueue {
     // Default initial capacity
     private static final int DEFAULT_CAPACITY = 100;
 
+    // The priority sits above this bit in a key, the sequence below it
+    private static final int PRIORITY_SHIFT = 56;
+
+    // Mask for the sequence part of a key
+    private static final long SEQUENCE_MASK = (1L << PRIORITY_SHIFT) - 1;
+
+    // Default number of children per node
+    private static final int DEFAULT_ARITY = 2;
+
+    // Number of children per node
+    private final int arity;
+
+    // Ticket ID -> heap slot, null when the queue is not indexed
+    private final LongIntHashMap slotIndex;
+
     /**
      * Constructor with default capacity
      */
@@ -40,64 +80,163 @@ public class PriorityQueue {
         this(DEFAULT_CAPACITY);
     }
 
+    /**
+     * Constructor with default capacity and specified indexing mode
+     *
+     * @param indexed true to keep an ID to slot index for 0(1) lookups
+     */
+    public PriorityQueue(boolean indexed) {
+        this(DEFAULT_CAPACITY, indexed);
+    }
+
     /** Constructor with specified initial capacity
      *
      * @param initialCapacity Initial size of the heap array
      */
     public PriorityQueue(int initialCapacity) {
+        this(initialCapacity, false);
+    }
+
+    /** Constructor with specified initial capacity and indexing mode
+     *
+     * @param initialCapacity Initial size of the heap array
+     * @param indexed true to keep an ID to slot index for 0(1) lookups
+     */
+    public PriorityQueue(int initialCapacity, boolean indexed) {
+        this(initialCapacity, indexed, DEFAULT_ARITY);
+    }
+
+    /** Constructor with specified initial capacity, indexing mode and arity
+     *
+     * @param initialCapacity Initial size of the heap array
+     * @param indexed true to keep an ID to slot index for 0(1) lookups
+     * @param arity Number of children per node, e.g. 2, 4 or 8
+     */
+    public PriorityQueue(int initialCapacity, boolean indexed, int arity) {
         if(initialCapacity <= 0) {
             throw new IllegalArgumentException("Capacity must be greater than 0");
         }
+        if(arity < 2) {
+            throw new IllegalArgumentException("Arity must be at least 2");
+        }
+        this.arity = arity;
         this.capacity = initialCapacity;
         this.heap = new Ticket[capacity];
+        this.keys = new long[capacity];
         this.size = 0;
+        this.nextSequence = 0;
+        this.slotIndex = indexed ? new LongIntHashMap(initialCapacity) : null;
+    }
+
+    /**
+     * Checks if the queue keeps an ID to slot index
+     *
+     * @return true if indexed, false otherwise
+     */
+    public boolean isIndexed() {
+        return slotIndex != null;
+    }
+
+    /**
+     * Returns the number of children per node
+     *
+     * @return arity of the heap
+     */
+    public int getArity() {
+        return arity;
     }
 
     /** Get the index of the parent node
-     * Formula: (i-1)/2
+     * Formula: (i-1)/d
      *
      * @param i Index of current node
      * @return Index of parent node
      */
 
     private int parent(int i) {
-        return(i-1)/2;
+        return(i-1)/arity;
     }
 
     /**
-     * Gets the index of the left child node
-     * Formula: 2i+1
+     * Gets the index of the first child node
+     * Formula: d*i+1, the other children follow it
      *
      * @param i Index of current node
-     * @return Index of left child node
+     * @return Index of first child node
      */
-    private int leftChild(int i) {
-        return 2*i+1;
+    private int firstChild(int i) {
+        return arity*i+1;
     }
 
     /**
-     * Gets the index of the right child node
-     * Formula: 2i +2
+     * Packs a priority and an insertion sequence into one heap key
+     * Ordering keys as longs orders by priority, then by sequence
      *
-     * @param i Index of current node
-     * @return Index of right child node
+     * @param priority Priority level
+     * @param sequence Insertion sequence number
+     * @return The key
      */
-    private int rightChild(int i) {
-        return 2*i+2;
+    private static long key(int priority, long sequence) {
+        return ((long) priority << PRIORITY_SHIFT) | (sequence & SEQUENCE_MASK);
     }
 
     /**
-     * Swaps two elements in the heap array
+     * Gets the priority part of a heap key
+     *
+     * @param key The key
+     * @return Priority level
+     */
+    private static int priorityOf(long key) {
+        return (int) (key >>> PRIORITY_SHIFT);
+    }
+
+    /**
+     * Checks if the ticket in heap slot i should come out before the one in slot j
+     * Lower priority number first, then earlier insertion
      *
      * @param i First index
      * @param j Second index
+     * @return true if slot i comes before slot j
+     */
+    private boolean comesBefore(int i, int j) {
+        return keys[i] < keys[j];
+    }
+
+    /**
+     * Stores a ticket and its key in a heap slot
      *
+     * @param index Slot to fill
+     * @param ticket The ticket
+     * @param key Key of the ticket
      */
-    private void swap(int i, int j){
-        Ticket temp = heap[i];
-        heap[i] = heap[j];
-        heap[j] = temp;
+    private void place(int index, Ticket ticket, long key) {
+        heap[index] = ticket;
+        keys[index] = key;
+
+        if(slotIndex != null) {
+            slotIndex.put(ticket.getTicketID(), index);
+        }
     }
+
+    /**
+     * Finds the heap slot of a ticket
+     * Time complexity: 0(1) when indexed, 0(n) otherwise
+     *
+     * @param ticketID ID of the ticket
+     * @return Index in the heap, or -1 if not found
+     */
+    private int indexOf(long ticketID) {
+        if(slotIndex != null) {
+            return slotIndex.get(ticketID);
+        }
+        for(int i = 0; i < size; i++) {
+            if(heap[i].getTicketID() == ticketID) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Insets a new ticket into the priority queue
      * Time complexity 0(log n)
@@ -106,37 +245,46 @@ public class PriorityQueue {
      *
      */
 
+    @Override
     public void insert(Ticket ticket) {
         if(ticket == null) {
             throw new IllegalArgumentException("Cannot insert null ticket");
         }
+        if(slotIndex != null && slotIndex.containsKey(ticket.getTicketID())) {
+            throw new IllegalArgumentException("Ticket #" + ticket.getTicketID() + " is already in the queue");
+        }
 
         // Check if we need to resize
         if (size >= capacity) {
             resize();
         }
 
-        // Insert at the end
-        heap[size] = ticket;
-        int current = size;
+        // Open a hole at the end and move it up to where the ticket belongs
+        long key = key(ticket.getPriority(), nextSequence++);
         size++;
-
-        //Bubble up to maintain heap property
-        bubbleUp(current);
+        place(siftUp(size - 1, key), ticket, key);
     }
 
     /**
-     * Bubbles up an element to maintain heap property
-     * Continues swapping with parent while parent has lower priority( higher number)
+     * Moves a hole up towards the root (also known as bubble up)
+     * Each parent that should come after the key is moved down into the
+     * hole once, instead of swapping on every level. The caller then
+     * places its ticket in the returned slot.
      *
-     * @param index Starting index
+     * @param hole Starting index
+     * @param key Key of the ticket that will fill the hole
+     * @return Index where the ticket belongs
      */
-    private void bubbleUp(int index) {
-        while(index > 0 &&
-                heap[parent(index)].getPriority() > heap[index].getPriority()) {
-            swap(index, parent(index));
-            index = parent(index);
+    private int siftUp(int hole, long key) {
+        while(hole > 0) {
+            int up = parent(hole);
+            if(keys[up] <= key) {
+                break;
+            }
+            place(hole, heap[up], keys[up]);
+            hole = up;
         }
+        return hole;
     }
 
     /**
@@ -146,6 +294,7 @@ public class PriorityQueue {
      * @return The highest priority ticket, or null if queue is empty
      */
 
+    @Override
     public Ticket extractMin() {
         if(isEmpty()) {
             return null;
@@ -153,69 +302,210 @@ public class PriorityQueue {
 
         // Save the minimum (root)
         Ticket min = heap[0];
+        if(slotIndex != null) {
+            slotIndex.remove(min.getTicketID());
+        }
 
-        // Move last element to root
-        heap[0] = heap[size -1];
-        heap[size-1] = null; // Helps garbage collection
+        // Take the last element out and sift the root hole down for it
         size--;
-
-        // Restore heap property
+        Ticket last = heap[size];
+        long lastKey = keys[size];
+        heap[size] = null; // Helps garbage collection
         if(size > 0) {
-            heapify(0);
+            place(siftDown(0, lastKey), last, lastKey);
         }
         return min;
     }
 
     /**
-     * Restores heap property by bubbling down
-     * Also know as heapify-down or sift-down
+     * Extracts up to max tickets in priority order into dest
+     * Time Complexity 0(k log n) for k extracted tickets
      *
-     * @param index Starting index
+     * @param dest Array to fill from index 0
+     * @param max Maximum number of tickets to extract (at most dest.length)
+     * @return Number of tickets extracted
      */
+    @Override
+    public int drainTo(Ticket[] dest, int max) {
+        if(dest == null) {
+            throw new IllegalArgumentException("Destination cannot be null");
+        }
+        if(max < 0 || max > dest.length) {
+            throw new IllegalArgumentException("max must be between 0 and the destination length");
+        }
 
-    private void heapify(int index) {
-        int smallest = index ;
-        int left = leftChild(index);
-        int right = rightChild(index);
+        int count = Math.min(max, size);
+        for(int i = 0; i < count; i++) {
+            dest[i] = heap[0];
+            if(slotIndex != null) {
+                slotIndex.remove(heap[0].getTicketID());
+            }
 
-        // Find the smallest among parent, left child and right child
-        if (left < size &&
-            heap[left].getPriority() < heap[smallest].getPriority()) {
-            smallest = left;
+            size--;
+            Ticket last = heap[size];
+            long lastKey = keys[size];
+            heap[size] = null; // Helps garbage collection
+            if(size > 0) {
+                place(siftDown(0, lastKey), last, lastKey);
+            }
         }
+        return count;
+    }
 
-        if(right < size &&
-            heap[right].getPriority() < heap[smallest].getPriority()) {
-            smallest = right;
+    /**
+     * Moves a hole down towards the leaves (also known as heapify-down)
+     * The smallest child is moved up into the hole while it comes
+     * before the key. The caller then places its ticket in the returned slot.
+     *
+     * @param hole Starting index
+     * @param key Key of the ticket that will fill the hole
+     * @return Index where the ticket belongs
+     */
+    private int siftDown(int hole, long key) {
+        while(true) {
+            int first = firstChild(hole);
+            if(first >= size) {
+                return hole;
+            }
+            int end = Math.min(first + arity, size);
+
+            // Find the smallest child
+            int smallest = first;
+            long smallestKey = keys[first];
+            for(int child = first + 1; child < end; child++) {
+                if(keys[child] < smallestKey) {
+                    smallest = child;
+                    smallestKey = keys[child];
+                }
+            }
+
+            if(smallestKey >= key) {
+                return hole;
             }
+            place(hole, heap[smallest], smallestKey);
+            hole = smallest;
+        }
+    }
+
+    /**
+     * Adds tickets to the queue and rebuilds the heap bottom-up
+     * (Floyd's method) instead of sifting each new ticket up.
+     * Each ticket gets an insertion sequence in array order.
+     * Time complexity 0(n) for the whole heap, against 0(m log n)
+     * for inserting the m tickets one at a time
+     *
+     * @param tickets Tickets to add
+     */
+    public void heapifyAll(Ticket[] tickets) {
+        appendAll(tickets);
+        heapifyAll();
+    }
 
-        // if smallest is not the parent, swap and continue
-        if(smallest != index) {
-            swap(index, smallest);
-            heapify(smallest);
+    /**
+     * Inserts a batch of tickets with a single capacity check
+     * When the batch is at least as big as the heap already is, the heap
+     * is rebuilt bottom-up with heapifyAll, otherwise each new ticket is
+     * sifted up on its own.
+     * Time complexity 0(n + m) or 0(m log n), whichever is chosen
+     *
+     * @param tickets Tickets to add
+     */
+    @Override
+    public void insertAll(Ticket[] tickets) {
+        int oldSize = size;
+        appendAll(tickets);
+
+        if(tickets.length >= oldSize) {
+            heapifyAll();
+        } else {
+            for(int i = oldSize; i < size; i++) {
+                Ticket ticket = heap[i];
+                long key = keys[i];
+                place(siftUp(i, key), ticket, key);
+            }
         }
     }
 
+    /**
+     * Appends tickets to the end of the heap array without restoring heap order
+     * Nothing is added if a ticket is null or already in an indexed queue
+     *
+     * @param tickets Tickets to add
+     */
+    private void appendAll(Ticket[] tickets) {
+        if(tickets == null) {
+            throw new IllegalArgumentException("Cannot insert null tickets");
+        }
+        for(Ticket ticket : tickets) {
+            if(ticket == null) {
+                throw new IllegalArgumentException("Cannot insert null ticket");
+            }
+        }
+
+        // Make room once for the whole batch
+        if(size + tickets.length > capacity) {
+            resize(Math.max(capacity * 2, size + tickets.length));
+        }
+
+        // Append in any order
+        int oldSize = size;
+        for(Ticket ticket : tickets) {
+            if(slotIndex != null && slotIndex.containsKey(ticket.getTicketID())) {
+                truncate(oldSize);
+                throw new IllegalArgumentException("Ticket #" + ticket.getTicketID() + " is already in the queue");
+            }
+            place(size, ticket, key(ticket.getPriority(), nextSequence++));
+            size++;
+        }
+    }
+
+    /**
+     * Restores heap order over the whole array
+     * Sifts down every node that has children, starting with the last one
+     */
+    private void heapifyAll() {
+        if(size < 2) {
+            return;
+        }
+        for(int i = parent(size - 1); i >= 0; i--) {
+            Ticket ticket = heap[i];
+            long key = keys[i];
+            place(siftDown(i, key), ticket, key);
+        }
+    }
+
+    /**
+     * Drops every element from the given size on (used to undo a failed batch)
+     *
+     * @param newSize Number of elements to keep
+     */
+    private void truncate(int newSize) {
+        for(int i = newSize; i < size; i++) {
+            if(slotIndex != null) {
+                slotIndex.remove(heap[i].getTicketID());
+            }
+            heap[i] = null;
+        }
+        size = newSize;
+    }
+
     /**
      * Searches for a ticket by ID
-     * Time Complexity: 0(n) must search entire heap
+     * Time Complexity: 0(n) must search entire heap, 0(1) when indexed
      *
      * @param ticketID the ID to search for
      * @return The ticket if found, null otherwise
      */
 
-    public Ticket search(int ticketID) {
-        for(int i = 0; i < size; i++) {
-            if(heap[i].getTicketID()== ticketID) {
-                return heap[i];
-            }
-        }
-        return null;
+    @Override
+    public Ticket search(long ticketID) {
+        int index = indexOf(ticketID);
+        return index == -1 ? null : heap[index];
     }
 
     /**
      * Updates the priority of a ticket
-     * Time complexity: 0(n) for search + 0(log n) for reheapify
+     * Time complexity: 0(n) for search (0(1) when indexed) + 0(log n) for reheapify
      *
      * @param ticketID ID of the ticket to update
      * @param newPriority   New priority value
@@ -223,36 +513,33 @@ public class PriorityQueue {
      *
      */
 
-    public boolean updatePriority(int ticketID, int newPriority) {
+    @Override
+    public boolean updatePriority(long ticketID, int newPriority) {
         // Validate new priroity
         if (newPriority < 1 || newPriority > 4) {
             throw new IllegalArgumentException("priority must be between 1 and 4");
         }
 
         // Find the ticket
-        int index = -1;
-        for(int i = 0; i < size; i++) {
-            if(heap[i].getTicketID() == ticketID) {
-                index = i;
-                break;
-            }
-        }
+        int index = indexOf(ticketID);
 
         if(index == -1) {
             return false; // Ticket not found
         }
 
         // update priority
-        int oldPriority = heap[index].getPriority();
-        heap[index].setPriority(newPriority);
+        Ticket ticket = heap[index];
+        int oldPriority = priorityOf(keys[index]);
+        long newKey = key(newPriority, keys[index]);
+        ticket.setPriority(newPriority);
 
         // Restore heap property
         if(newPriority < oldPriority) {
             // Priority increased (lower number), bubble up
-            bubbleUp(index);
+            place(siftUp(index, newKey), ticket, newKey);
         } else if (newPriority > oldPriority) {
             // Prioirty decreased ( higher number, bubble down
-            heapify(index);
+            place(siftDown(index, newKey), ticket, newKey);
         }
         // If priority unchanged, no action needed
 
@@ -260,21 +547,16 @@ public class PriorityQueue {
     }
     /**
      * Removes a specific ticket by ID
-     * Time complexity 0(n) for search + 0(log n) for reheapify
+     * Time complexity 0(n) for search (0(1) when indexed) + 0(log n) for reheapify
      *
      * @param ticketID ID of the ticket to remove
      * @return The removed ticket, or null if not found
      */
 
-    public Ticket remove(int ticketID) {
+    @Override
+    public Ticket remove(long ticketID) {
         // Find the ticket
-        int index = -1;
-        for(int i = 0; i < size; i++) {
-            if(heap[i].getTicketID() == ticketID) {
-                index = i;
-                break;
-            }
-        }
+        int index = indexOf(ticketID);
 
         if (index == -1) {
             return null; // Ticket not found
@@ -282,19 +564,24 @@ public class PriorityQueue {
 
         // Save the ticket to retunr
         Ticket removed = heap[index];
+        if(slotIndex != null) {
+            slotIndex.remove(ticketID);
+        }
 
-        // Move last element to this position
-        heap[index] = heap[size -1];
-        heap[size -1] = null; // Helps garbage collection
+        // Take the last element out to fill this position
         size--;
+        Ticket last = heap[size];
+        long lastKey = keys[size];
+        heap[size] = null; // Helps garbage collection
 
         // Restore heap property
         if(index < size) {
-            // First try bubbling up
-            bubbleUp(index);
-
-            // Then try buble down
-            heapify(index);
+            // First try bubbling up, then try buble down
+            int hole = siftUp(index, lastKey);
+            if(hole == index) {
+                hole = siftDown(index, lastKey);
+            }
+            place(hole, last, lastKey);
         }
 
         return removed;
@@ -306,6 +593,7 @@ public class PriorityQueue {
      * @return The highest priority ticket, or null if empty
      */
 
+    @Override
     public Ticket peek() {
         return isEmpty() ? null : heap[0];
     }
@@ -315,6 +603,7 @@ public class PriorityQueue {
      *
      * @return true if empty, false otherwise
      */
+    @Override
     public boolean isEmpty() {
         return size == 0;
     }
@@ -324,6 +613,7 @@ public class PriorityQueue {
      *
      * @return current size
      */
+    @Override
     public int size() {
         return size;
     }
@@ -333,16 +623,49 @@ public class PriorityQueue {
      * Dobules the capacity
      */
     private void resize() {
-        int newCapacity = capacity * 2;
+        resize(capacity * 2);
+    }
+
+    /**
+     * Resizes the heap array to the given capacity
+     *
+     * @param newCapacity New capacity, at least the current size
+     */
+    private void resize(int newCapacity) {
         Ticket[] newHeap = new Ticket[newCapacity];
+        long[] newKeys = new long[newCapacity];
 
         //Copy existing element s
         for(int i = 0; i < size; i++) {
             newHeap[i] = heap[i];
+            newKeys[i] = keys[i];
         }
 
         heap = newHeap;
+        keys = newKeys;
         capacity = newCapacity;
+
+        // Grow the index here too so insert() never rehashes it
+        if(slotIndex != null) {
+            slotIndex.ensureCapacity(newCapacity);
+        }
+    }
+
+    /**
+     * Returns a copy of the heap, a point-in-time view of the queue
+     * The copy has no index and shares the Ticket objects
+     * Time Complexity 0(n), two array copies
+     *
+     * @return Copy of the queue
+     */
+    @Override
+    public PriorityQueue copy() {
+        PriorityQueue copy = new PriorityQueue(Math.max(size, 1), false, arity);
+        System.arraycopy(heap, 0, copy.heap, 0, size);
+        System.arraycopy(keys, 0, copy.keys, 0, size);
+        copy.size = size;
+        copy.nextSequence = nextSequence;
+        return copy;
     }
 
     /**
@@ -352,6 +675,7 @@ public class PriorityQueue {
      * @returns Array of all tickets
      */
 
+    @Override
     public Ticket[] getAllTickets() {
         Ticket[] result = new Ticket[size];
         for(int i = 0; i < size; i++) {
@@ -361,36 +685,186 @@ public class PriorityQueue {
     }
 
     /**
-     * Returns all tickets sorted by priority
-     * Creates a copy and sorts it, doesnt modify the heap
+     * Returns all tickets sorted by priority, then by insertion order
+     * Creates a copy and heapsorts it in place, doesnt modify the heap
+     * Time Complexity 0(n log n)
      *
      * @return Array of tickets sorted by priority
      */
 
+    @Override
     public Ticket[] getAllTicketsSorted() {
         Ticket[] sorted = getAllTickets();
+        long[] order = new long[size];
+        for(int i = 0; i < size; i++) {
+            order[i] = keys[i];
+        }
+        int n = sorted.length;
 
-        // Simple bubble sort (adequate for small datasets_
-        for(int i =0; i < sorted.length -1; i++) {
-            for(int j=0; j < sorted.length - i -1; j++) {
-                if(sorted[j].getPriority() >sorted[j+1].getPriority()) {
-                    Ticket temp = sorted[j];
-                    sorted[j] = sorted[j+1];
-                    sorted[j+1] = temp;
-                }
-            }
+        // Build a heap with the ticket that comes out last at the root
+        for(int i = n / 2 - 1; i >= 0; i--) {
+            siftDownLast(sorted, order, i, n);
+        }
+
+        // Move the root behind the shrinking heap until it is empty
+        for(int end = n - 1; end > 0; end--) {
+            Ticket temp = sorted[0];
+            sorted[0] = sorted[end];
+            sorted[end] = temp;
+            long tempKey = order[0];
+            order[0] = order[end];
+            order[end] = tempKey;
+            siftDownLast(sorted, order, 0, end);
         }
         return sorted;
     }
+
+    /**
+     * Sift down for the heapsort in getAllTicketsSorted
+     * Keeps the ticket that comes out last above its children
+     *
+     * @param a Array being sorted
+     * @param order Heap keys, moved along with a
+     * @param index Starting index
+     * @param n Number of elements still in the heap
+     */
+    private static void siftDownLast(Ticket[] a, long[] order, int index, int n) {
+        while(true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+
+            if(left < n && order[largest] < order[left]) {
+                largest = left;
+            }
+            if(right < n && order[largest] < order[right]) {
+                largest = right;
+            }
+            if(largest == index) {
+                return;
+            }
+
+            Ticket temp = a[index];
+            a[index] = a[largest];
+            a[largest] = temp;
+            long tempKey = order[index];
+            order[index] = order[largest];
+            order[largest] = tempKey;
+            index = largest;
+        }
+    }
+
+    /**
+     * Returns the first k tickets in priority order without removing them
+     * Only walks the top of the heap: the next ticket is always the root
+     * or a child of a ticket already returned, so a small candidate heap
+     * of slots is enough and the heap itself is never copied.
+     * Time Complexity 0(k log k)
+     *
+     * @param k Number of tickets wanted
+     * @return Up to k tickets in the same order as getAllTicketsSorted
+     */
+    @Override
+    public Ticket[] getTopK(int k) {
+        if(k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        int count = Math.min(k, size);
+        Ticket[] result = new Ticket[count];
+        if(count == 0) {
+            return result;
+        }
+
+        // Candidate heap slots, ordered the same way as the queue
+        // Each step takes one candidate and adds at most 'arity' children
+        int[] candidates = new int[count * (arity - 1) + 1];
+        int candidateCount = 0;
+        candidates[candidateCount++] = 0;
+
+        for(int r = 0; r < count; r++) {
+            // Take the best candidate
+            int slot = candidates[0];
+            result[r] = heap[slot];
+            candidates[0] = candidates[--candidateCount];
+            siftDownCandidates(candidates, 0, candidateCount);
+
+            // Its children become candidates
+            int first = firstChild(slot);
+            int end = Math.min(first + arity, size);
+            for(int child = first; child < end; child++) {
+                candidateCount = addCandidate(candidates, candidateCount, child);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds a heap slot to the candidate heap used by getTopK
+     * The candidate heap is always binary, whatever the arity of the queue
+     *
+     * @param candidates Candidate heap
+     * @param count Current number of candidates
+     * @param slot Heap slot to add
+     * @return New number of candidates
+     */
+    private int addCandidate(int[] candidates, int count, int slot) {
+        int index = count;
+        candidates[index] = slot;
+        while(index > 0) {
+            int up = (index - 1) / 2;
+            if(!comesBefore(candidates[index], candidates[up])) {
+                break;
+            }
+            int temp = candidates[index];
+            candidates[index] = candidates[up];
+            candidates[up] = temp;
+            index = up;
+        }
+        return count + 1;
+    }
+
+    /**
+     * Sift down for the candidate heap used by getTopK
+     *
+     * @param candidates Candidate heap
+     * @param index Starting index
+     * @param count Number of candidates
+     */
+    private void siftDownCandidates(int[] candidates, int index, int count) {
+        while(true) {
+            int best = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+
+            if(left < count && comesBefore(candidates[left], candidates[best])) {
+                best = left;
+            }
+            if(right < count && comesBefore(candidates[right], candidates[best])) {
+                best = right;
+            }
+            if(best == index) {
+                return;
+            }
+
+            int temp = candidates[index];
+            candidates[index] = candidates[best];
+            candidates[best] = temp;
+            index = best;
+        }
+    }
     /**
      * Clears all tickets from the queue
      *
      */
+    @Override
     public void clear() {
         for (int i = 0; i < size; i++) {
             heap[i] = null;// Helps garbage collection
         }
         size = 0;
+        if(slotIndex != null) {
+            slotIndex.clear();
+        }
     }
 
 }
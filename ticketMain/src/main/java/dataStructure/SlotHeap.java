@@ -0,0 +1,393 @@
+package dataStructure;
+
+/**
+ * Binary min-heap of (key, slot) pairs, for queues that keep the
+ * tickets themselves outside the Java heap and only order slot numbers.
+ *
+ * The key packs priority and insertion sequence like PriorityQueue's
+ * keys, so comparing two entries is one long comparison. Slots are
+ * small non-negative ints, so the heap position of every slot is kept
+ * in a plain int array indexed by slot instead of a hash map.
+ *
+ * Time Complexity:
+ * Insert: 0(log n)
+ * Extract min: 0(log n)
+ * Remove / change key of a slot: 0(log n)
+ * Bulk build: 0(n)
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class SlotHeap {
+
+    // Default initial capacity
+    private static final int DEFAULT_CAPACITY = 100;
+
+    // Returned by peek and extractMin when the heap is empty
+    public static final int NO_SLOT = -1;
+
+    // Keys and slots of the heap entries
+    private long[] keys;
+    private int[] slots;
+
+    // Heap position of each slot, -1 if the slot is not in the heap
+    private int[] positions;
+
+    // Number of entries
+    private int size;
+
+    /**
+     * Constructor with default capacity
+     */
+    public SlotHeap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor with specified initial capacity
+     *
+     * @param initialCapacity Number of entries the heap holds without growing
+     */
+    public SlotHeap(int initialCapacity) {
+        if(initialCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+        }
+        this.keys = new long[initialCapacity];
+        this.slots = new int[initialCapacity];
+        this.positions = new int[initialCapacity];
+        fill(positions, 0, -1);
+    }
+
+    private static void fill(int[] array, int from, int value) {
+        for(int i = from; i < array.length; i++) {
+            array[i] = value;
+        }
+    }
+
+    /**
+     * Makes sure a slot number can be stored in the position array
+     */
+    private void ensureSlot(int slot) {
+        if(slot < 0) {
+            throw new IllegalArgumentException("Slot cannot be negative");
+        }
+        if(slot >= positions.length) {
+            int[] bigger = new int[Math.max(slot + 1, positions.length * 2)];
+            System.arraycopy(positions, 0, bigger, 0, positions.length);
+            fill(bigger, positions.length, -1);
+            positions = bigger;
+        }
+    }
+
+    /**
+     * Makes sure the heap arrays hold n entries
+     */
+    private void ensureCapacity(int n) {
+        if(n > keys.length) {
+            int newCapacity = Math.max(n, keys.length * 2);
+            long[] newKeys = new long[newCapacity];
+            int[] newSlots = new int[newCapacity];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(slots, 0, newSlots, 0, size);
+            keys = newKeys;
+            slots = newSlots;
+        }
+    }
+
+    /**
+     * Stores an entry at a heap position
+     */
+    private void place(int index, long key, int slot) {
+        keys[index] = key;
+        slots[index] = slot;
+        positions[slot] = index;
+    }
+
+    /**
+     * Moves a hole up to where the key belongs
+     */
+    private int siftUp(int hole, long key) {
+        while(hole > 0) {
+            int up = (hole - 1) / 2;
+            if(keys[up] <= key) {
+                break;
+            }
+            place(hole, keys[up], slots[up]);
+            hole = up;
+        }
+        return hole;
+    }
+
+    /**
+     * Moves a hole down to where the key belongs
+     */
+    private int siftDown(int hole, long key) {
+        while(true) {
+            int child = 2 * hole + 1;
+            if(child >= size) {
+                break;
+            }
+            if(child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if(keys[child] >= key) {
+                break;
+            }
+            place(hole, keys[child], slots[child]);
+            hole = child;
+        }
+        return hole;
+    }
+
+    /**
+     * Adds a slot
+     *
+     * @param key Ordering key (lower comes out first)
+     * @param slot Slot number, not already in the heap
+     */
+    public void insert(long key, int slot) {
+        ensureSlot(slot);
+        if(positions[slot] != -1) {
+            throw new IllegalArgumentException("Slot " + slot + " is already in the heap");
+        }
+        ensureCapacity(size + 1);
+        size++;
+        place(siftUp(size - 1, key), key, slot);
+    }
+
+    /**
+     * Replaces the contents with the given entries in 0(n)
+     *
+     * @param newKeys Keys of the entries
+     * @param newSlots Slots of the entries, all different
+     * @param count Number of entries to take from the arrays
+     */
+    public void build(long[] newKeys, int[] newSlots, int count) {
+        clear();
+        ensureCapacity(count);
+        for(int i = 0; i < count; i++) {
+            ensureSlot(newSlots[i]);
+            if(positions[newSlots[i]] != -1) {
+                clear();
+                throw new IllegalArgumentException("Slot " + newSlots[i] + " appears twice");
+            }
+            place(i, newKeys[i], newSlots[i]);
+        }
+        size = count;
+
+        // Floyd's build: sift down every parent, last one first
+        for(int i = size / 2 - 1; i >= 0; i--) {
+            long key = keys[i];
+            int slot = slots[i];
+            place(siftDown(i, key), key, slot);
+        }
+    }
+
+    /**
+     * Gets the slot that comes out first
+     *
+     * @return The slot, or NO_SLOT if the heap is empty
+     */
+    public int peek() {
+        return size == 0 ? NO_SLOT : slots[0];
+    }
+
+    /**
+     * Removes and returns the slot that comes out first
+     *
+     * @return The slot, or NO_SLOT if the heap is empty
+     */
+    public int extractMin() {
+        if(size == 0) {
+            return NO_SLOT;
+        }
+        int min = slots[0];
+        removeAt(0);
+        return min;
+    }
+
+    /**
+     * Removes a slot
+     *
+     * @param slot The slot
+     * @return true if it was in the heap
+     */
+    public boolean remove(int slot) {
+        if(!contains(slot)) {
+            return false;
+        }
+        removeAt(positions[slot]);
+        return true;
+    }
+
+    /**
+     * Removes the entry at a heap position
+     */
+    private void removeAt(int index) {
+        positions[slots[index]] = -1;
+        size--;
+        if(index == size) {
+            return;
+        }
+
+        // Move the last entry into the gap, up or down as needed
+        long key = keys[size];
+        int slot = slots[size];
+        int hole = siftUp(index, key);
+        if(hole == index) {
+            hole = siftDown(index, key);
+        }
+        place(hole, key, slot);
+    }
+
+    /**
+     * Changes the key of a slot
+     *
+     * @param slot The slot
+     * @param key New key
+     * @return true if the slot was in the heap
+     */
+    public boolean changeKey(int slot, long key) {
+        if(!contains(slot)) {
+            return false;
+        }
+        int index = positions[slot];
+        int hole = siftUp(index, key);
+        if(hole == index) {
+            hole = siftDown(index, key);
+        }
+        place(hole, key, slot);
+        return true;
+    }
+
+    /**
+     * Checks if a slot is in the heap
+     *
+     * @param slot The slot
+     * @return true if present
+     */
+    public boolean contains(int slot) {
+        return slot >= 0 && slot < positions.length && positions[slot] != -1;
+    }
+
+    /**
+     * Gets the key of a slot
+     *
+     * @param slot A slot in the heap
+     * @return Its key
+     */
+    public long keyOf(int slot) {
+        if(!contains(slot)) {
+            throw new IllegalArgumentException("Slot " + slot + " is not in the heap");
+        }
+        return keys[positions[slot]];
+    }
+
+    /**
+     * Gets the slot at a heap position, for walking all entries
+     *
+     * @param index Position from 0 to size() - 1
+     * @return The slot
+     */
+    public int slotAt(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return slots[index];
+    }
+
+    /**
+     * Returns the first k slots in extraction order without removing them
+     * Walks a small candidate heap of heap positions, 0(k log k)
+     *
+     * @param k Number of slots wanted
+     * @return Up to k slots
+     */
+    public int[] topK(int k) {
+        if(k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        int n = Math.min(k, size);
+        int[] result = new int[n];
+        if(n == 0) {
+            return result;
+        }
+
+        // Binary heap of heap positions ordered by key, children are added as parents come out
+        int[] candidates = new int[2 * n + 1];
+        int count = 0;
+        candidates[count++] = 0;
+        for(int i = 0; i < n; i++) {
+            int best = candidates[0];
+            result[i] = slots[best];
+            candidates[0] = candidates[--count];
+            siftCandidateDown(candidates, count);
+            for(int child = 2 * best + 1; child <= 2 * best + 2 && child < size; child++) {
+                candidates[count] = child;
+                siftCandidateUp(candidates, count++);
+            }
+        }
+        return result;
+    }
+
+    private void siftCandidateUp(int[] candidates, int i) {
+        while(i > 0) {
+            int up = (i - 1) / 2;
+            if(keys[candidates[up]] <= keys[candidates[i]]) {
+                break;
+            }
+            int temp = candidates[up];
+            candidates[up] = candidates[i];
+            candidates[i] = temp;
+            i = up;
+        }
+    }
+
+    private void siftCandidateDown(int[] candidates, int count) {
+        int i = 0;
+        while(true) {
+            int child = 2 * i + 1;
+            if(child >= count) {
+                return;
+            }
+            if(child + 1 < count && keys[candidates[child + 1]] < keys[candidates[child]]) {
+                child++;
+            }
+            if(keys[candidates[i]] <= keys[candidates[child]]) {
+                return;
+            }
+            int temp = candidates[child];
+            candidates[child] = candidates[i];
+            candidates[i] = temp;
+            i = child;
+        }
+    }
+
+    /**
+     * Returns the number of entries
+     *
+     * @return current size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the heap is empty
+     *
+     * @return true if empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        for(int i = 0; i < size; i++) {
+            positions[slots[i]] = -1;
+        }
+        size = 0;
+    }
+}
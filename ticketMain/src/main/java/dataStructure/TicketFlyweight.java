@@ -0,0 +1,145 @@
+package dataStructure;
+
+import model.Ticket;
+import model.TicketView;
+
+import java.time.LocalDateTime;
+
+/**
+ * View of one ticket in an OffHeapTicketStore.
+ *
+ * The view holds no ticket data, every getter reads the store, so one
+ * view can be moved over many records with moveTo() without creating
+ * an object per ticket. Fixed fields are read in 0(1), strings are
+ * decoded on each call.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class TicketFlyweight implements TicketView {
+
+    // Store holding the ticket
+    private final OffHeapTicketStore store;
+
+    // Record currently viewed
+    private int record;
+
+    /**
+     * Constructor, use OffHeapTicketStore.view
+     *
+     * @param store Store holding the ticket
+     * @param record Record of the ticket
+     */
+    TicketFlyweight(OffHeapTicketStore store, int record) {
+        this.store = store;
+        this.record = record;
+    }
+
+    /**
+     * Points the view at another record
+     *
+     * @param record A used record of the same store
+     * @return This view
+     */
+    public TicketFlyweight moveTo(int record) {
+        if(!store.isUsed(record)) {
+            throw new IllegalArgumentException("Record " + record + " does not hold a ticket");
+        }
+        this.record = record;
+        return this;
+    }
+
+    /**
+     * Gets the record currently viewed
+     *
+     * @return The record number
+     */
+    public int getRecord() {
+        return record;
+    }
+
+    // Getter methods
+    @Override
+    public long getTicketID() {
+        return store.getTicketID(record);
+    }
+
+    @Override
+    public String getCreator() {
+        return store.getString(record, OffHeapTicketStore.CREATOR);
+    }
+
+    @Override
+    public String getOwner() {
+        return store.getString(record, OffHeapTicketStore.OWNER);
+    }
+
+    @Override
+    public String getRequestType() {
+        return store.getString(record, OffHeapTicketStore.REQUEST_TYPE);
+    }
+
+    @Override
+    public String getDescription() {
+        return store.getString(record, OffHeapTicketStore.DESCRIPTION);
+    }
+
+    @Override
+    public int getPriority() {
+        return store.getPriority(record);
+    }
+
+    @Override
+    public LocalDateTime getCreatedAt() {
+        return store.getCreatedAt(record);
+    }
+
+    @Override
+    public LocalDateTime getUpdatedAt() {
+        return store.getUpdatedAt(record);
+    }
+
+    @Override
+    public Ticket.TicketStatus getStatus() {
+        return store.getStatus(record);
+    }
+
+    // Setter methods, they write through to the store
+
+    public void setOwner(String owner) {
+        store.setOwner(record, owner);
+    }
+
+    public void setPriority(int priority) {
+        store.setPriority(record, priority);
+    }
+
+    public void setStatus(Ticket.TicketStatus status) {
+        store.setStatus(record, status);
+    }
+
+    /**
+     * Copies the viewed ticket into a new Ticket object
+     *
+     * @return The ticket
+     */
+    public Ticket toTicket() {
+        return store.get(record);
+    }
+
+    /**
+     * Provides a brief summary of the ticket (single line)
+     * Same format as Ticket.toSummaryString
+     *
+     * @return Brief ticket summary
+     */
+    public String toSummaryString() {
+        return String.format("Ticket #%d | Priority %d | %s | %s | Status: %s",
+                getTicketID(), getPriority(), getRequestType(), getCreator(), getStatus());
+    }
+
+    @Override
+    public String toString() {
+        return toTicket().toString();
+    }
+}
@@ -0,0 +1,165 @@
+package dataStructure;
+
+import model.Ticket;
+
+/**
+ * Operations every ticket queue in the system provides.
+ * TicketService works against this interface so the queue
+ * implementation can be chosen when the service is created.
+ *
+ * Implementations:
+ * PriorityQueue: binary min-heap, any priority values
+ * BucketQueue: one FIFO list per priority level, 0(1) operations
+ * ConcurrentBucketQueue: lock-free FIFO list per priority level,
+ *   for many threads without a lock
+ * MappedTicketQueue: heap of slots, tickets kept in a memory-mapped file
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public interface TicketQueue {
+
+    /**
+     * Inserts a new ticket into the queue
+     *
+     * @param ticket The ticket to insert
+     */
+    void insert(Ticket ticket);
+
+    /**
+     * Inserts a batch of tickets
+     * Either all tickets are added or, if one is invalid, none are
+     *
+     * @param tickets The tickets to insert
+     */
+    void insertAll(Ticket[] tickets);
+
+    /**
+     * Extracts and returns the highest priority ticket
+     *
+     * @return The highest priority ticket, or null if queue is empty
+     */
+    Ticket extractMin();
+
+    /**
+     * Extracts up to max tickets in priority order into dest
+     *
+     * @param dest Array to fill from index 0
+     * @param max Maximum number of tickets to extract (at most dest.length)
+     * @return Number of tickets extracted
+     */
+    int drainTo(Ticket[] dest, int max);
+
+    /**
+     * Searches for a ticket by ID
+     *
+     * @param ticketID the ID to search for
+     * @return The ticket if found, null otherwise
+     */
+    Ticket search(long ticketID);
+
+    /**
+     * Stores changes made to a ticket returned by search or peek
+     * Queues that hold the ticket objects themselves see changes
+     * directly and have nothing to do, queues that hand out copies
+     * write the new state back.
+     *
+     * @param ticket Changed ticket, with its queued priority
+     */
+    default void update(Ticket ticket) {
+    }
+
+    /**
+     * Updates the priority of a ticket
+     *
+     * @param ticketID ID of the ticket to update
+     * @param newPriority New priority value
+     * @return true if update succesful, false if ticket not found
+     */
+    boolean updatePriority(long ticketID, int newPriority);
+
+    /**
+     * Tells how updatePriority orders a ticket among the tickets of its
+     * new priority, so recovery can queue the tickets the same way
+     * The default is true, like PriorityQueue.
+     *
+     * @return true if the ticket keeps its insertion place, false if it
+     *         moves behind the tickets already at the new priority
+     */
+    default boolean keepsPlaceOnUpdate() {
+        return true;
+    }
+
+    /**
+     * Removes a specific ticket by ID
+     *
+     * @param ticketID ID of the ticket to remove
+     * @return The removed ticket, or null if not found
+     */
+    Ticket remove(long ticketID);
+
+    /**
+     * Returns the highest priority ticket without removing it
+     *
+     * @return The highest priority ticket, or null if empty
+     */
+    Ticket peek();
+
+    /**
+     * Checks if the queue is empty
+     *
+     * @return true if empty, false otherwise
+     */
+    boolean isEmpty();
+
+    /**
+     * Returns the number of tickets in the queue
+     *
+     * @return current size
+     */
+    int size();
+
+    /**
+     * Returns all tickets in an array (not in any particular order)
+     *
+     * @return Array of all tickets
+     */
+    Ticket[] getAllTickets();
+
+    /**
+     * Returns all tickets in the order they would be extracted
+     *
+     * @return Array of tickets sorted by priority
+     */
+    Ticket[] getAllTicketsSorted();
+
+    /**
+     * Returns the first k tickets in extraction order without removing them
+     *
+     * @param k Number of tickets wanted
+     * @return Up to k tickets, highest priority first
+     */
+    Ticket[] getTopK(int k);
+
+    /**
+     * Returns a copy of the queue that keeps the current tickets and
+     * their order while this queue goes on changing, e.g. for a
+     * checkpoint written in the background. The Ticket objects are
+     * shared with this queue, not copied.
+     * The default builds a heap from getAllTicketsSorted(), PriorityQueue
+     * and the bucket queues copy their own structure without sorting.
+     *
+     * @return Point-in-time copy of the queue
+     */
+    default TicketQueue copy() {
+        Ticket[] sorted = getAllTicketsSorted();
+        PriorityQueue copy = new PriorityQueue(Math.max(sorted.length, 1), false);
+        copy.heapifyAll(sorted);
+        return copy;
+    }
+
+    /**
+     * Clears all tickets from the queue
+     */
+    void clear();
+}
@@ -18,9 +18,9 @@ import java.time.format.DateTimeFormatter;
  *
  */
 
-public class Ticket {
+public class Ticket implements TicketView {
     // Usage identifier for each ticket
-    private final int ticketID;
+    private final long ticketID;
 
     //Person who creat the ticket
     private final String creator;
@@ -66,7 +66,7 @@ public class Ticket {
      * @param description Detailed description of the issue
      * @param priority Priority level (1 to 4)
      */
-    public Ticket(int ticketID, String creator, String requestType,
+    public Ticket(long ticketID, String creator, String requestType,
                   String description, int priority) {
         // Validate inputs
         if(creator == null || creator.trim().isEmpty()){
@@ -87,8 +87,46 @@ public class Ticket {
         this.owner = null; // Initially unassigned
     }
 
+    /**
+     * Constructor for restoring a saved ticket with its full state,
+     * used when tickets are read back from disk
+     *
+     * @param ticketID Unique identifier
+     * @param creator Name of the person who created the ticket
+     * @param owner Person responsible for the ticket, or null if unassigned
+     * @param requestType Type of IT request
+     * @param description Detailed description of the issue
+     * @param priority Priority level (1 to 4)
+     * @param status Status of the ticket
+     * @param createdAt Time the ticket was created
+     * @param updatedAt Time the ticket was last updated
+     */
+    public Ticket(long ticketID, String creator, String owner, String requestType, String description,
+                  int priority, TicketStatus status, LocalDateTime createdAt, LocalDateTime updatedAt) {
+        // Validate inputs
+        if(creator == null || creator.trim().isEmpty()){
+            throw new IllegalArgumentException("Creator cannot be null or empty");
+        }
+        if(priority < 1 || priority >4) {
+            throw new IllegalArgumentException("Ticket priority must be between 1 and 4");
+        }
+        if(status == null || createdAt == null || updatedAt == null) {
+            throw new IllegalArgumentException("Status and timestamps cannot be null");
+        }
+
+        this.ticketID = ticketID;
+        this.creator = creator;
+        this.owner = owner;
+        this.requestType = requestType;
+        this.description = description;
+        this.priority = priority;
+        this.status = status;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+    }
+
     // Getter methods
-    public int getTicketID() {
+    public long getTicketID() {
         return ticketID;
     }
 
@@ -0,0 +1,77 @@
+package model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Read access to the fields of a ticket.
+ * Implemented by Ticket itself and by views that read a ticket
+ * straight from where it is stored, without creating a Ticket.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public interface TicketView {
+
+    /**
+     * Gets the ID of the ticket
+     *
+     * @return The ticket ID
+     */
+    long getTicketID();
+
+    /**
+     * Gets the name of the person who created the ticket
+     *
+     * @return The creator
+     */
+    String getCreator();
+
+    /**
+     * Gets the technician the ticket is assigned to
+     *
+     * @return The owner, or null if unassigned
+     */
+    String getOwner();
+
+    /**
+     * Gets the type of IT request
+     *
+     * @return The request type
+     */
+    String getRequestType();
+
+    /**
+     * Gets the description of the issue
+     *
+     * @return The description
+     */
+    String getDescription();
+
+    /**
+     * Gets the priority level
+     *
+     * @return Priority from 1 (highest) to 4
+     */
+    int getPriority();
+
+    /**
+     * Gets when the ticket was created
+     *
+     * @return The creation time
+     */
+    LocalDateTime getCreatedAt();
+
+    /**
+     * Gets when the ticket was last changed
+     *
+     * @return The time of the last change
+     */
+    LocalDateTime getUpdatedAt();
+
+    /**
+     * Gets the status of the ticket
+     *
+     * @return The status
+     */
+    Ticket.TicketStatus getStatus();
+}
@@ -0,0 +1,270 @@
+package persistence;
+
+import model.Ticket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+
+/**
+ * Compact binary encoding of tickets for snapshots and exports.
+ *
+ * The codec is stateful: tickets have to be decoded in the order they
+ * were encoded, by a codec that started empty like the encoding one.
+ *
+ * Per ticket:
+ * - ID as a zigzag varint of the difference to the previous ID
+ * - one byte with priority (bits 0-2), status (bits 3-4) and whether
+ *   there is an owner (bit 5), a description (bit 6) and a request
+ *   type (bit 7)
+ * - creator, owner and request type (if any) as dictionary strings:
+ *   varint 0 = new string that joins the dictionary, 1 = string that
+ *   doesn't (dictionary full), n >= 2 = dictionary entry n - 2.
+ *   A new string is a varint byte length and UTF-8 bytes.
+ * - description (if any) as a varint byte length and UTF-8 bytes
+ * - created as epoch milliseconds (UTC), zigzag varint of the difference
+ *   to the previous ticket's, updated as a zigzag varint of the
+ *   difference to created
+ *
+ * Sub-millisecond parts of the timestamps are dropped.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class CompactTicketCodec {
+
+    // Most strings kept in the dictionary
+    private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    // Dictionary codes below the first entry
+    private static final int NEW_ENTRY = 0;
+    private static final int LITERAL = 1;
+
+    // Flag bits for optional fields
+    private static final int HAS_OWNER = 1 << 5;
+    private static final int HAS_DESCRIPTION = 1 << 6;
+    private static final int HAS_REQUEST_TYPE = 1 << 7;
+
+    // Ticket statuses by ordinal
+    private static final Ticket.TicketStatus[] STATUSES = Ticket.TicketStatus.values();
+
+    // Encoding side of the dictionary
+    private final HashMap<String, Integer> dictionary;
+
+    // Decoding side of the dictionary
+    private String[] entries;
+    private int entryCount;
+
+    // Previous ticket's ID and created time
+    private long previousId;
+    private long previousCreated;
+
+    /**
+     * Constructor for a codec at the start of a stream
+     */
+    public CompactTicketCodec() {
+        this.dictionary = new HashMap<>();
+        this.entries = new String[64];
+    }
+
+    /**
+     * Forgets the previous ticket and the dictionary, as if the codec
+     * was new. Encoder and decoder have to reset at the same ticket.
+     */
+    public void reset() {
+        dictionary.clear();
+        for(int i = 0; i < entryCount; i++) {
+            entries[i] = null;
+        }
+        entryCount = 0;
+        previousId = 0;
+        previousCreated = 0;
+    }
+
+    /**
+     * Upper bound of the encoded size of a ticket
+     *
+     * @param ticket The ticket
+     * @return Maximum number of bytes encode writes
+     */
+    public static int maxSize(Ticket ticket) {
+        return 10 + 1 + 4 * (5 + 5) + 10 + 10
+                + maxSize(ticket.getCreator()) + maxSize(ticket.getOwner())
+                + maxSize(ticket.getRequestType()) + maxSize(ticket.getDescription());
+    }
+
+    private static int maxSize(String value) {
+        return value == null ? 0 : value.length() * 3;
+    }
+
+    /**
+     * Writes a ticket
+     *
+     * @param ticket The ticket
+     * @param out Buffer with at least maxSize(ticket) bytes remaining
+     */
+    public void encode(Ticket ticket, ByteBuffer out) {
+        putVarLong(out, zigzag(ticket.getTicketID() - previousId));
+        previousId = ticket.getTicketID();
+
+        int flags = ticket.getPriority() | (ticket.getStatus().ordinal() << 3);
+        if(ticket.getOwner() != null) {
+            flags |= HAS_OWNER;
+        }
+        if(ticket.getDescription() != null) {
+            flags |= HAS_DESCRIPTION;
+        }
+        if(ticket.getRequestType() != null) {
+            flags |= HAS_REQUEST_TYPE;
+        }
+        out.put((byte) flags);
+
+        putDictionaryString(out, ticket.getCreator());
+        if(ticket.getOwner() != null) {
+            putDictionaryString(out, ticket.getOwner());
+        }
+        if(ticket.getRequestType() != null) {
+            putDictionaryString(out, ticket.getRequestType());
+        }
+        if(ticket.getDescription() != null) {
+            putString(out, ticket.getDescription());
+        }
+
+        long created = toMillis(ticket.getCreatedAt());
+        long updated = toMillis(ticket.getUpdatedAt());
+        putVarLong(out, zigzag(created - previousCreated));
+        putVarLong(out, zigzag(updated - created));
+        previousCreated = created;
+    }
+
+    /**
+     * Reads a ticket written by encode
+     *
+     * @param in Buffer positioned at the ticket
+     * @return The ticket
+     */
+    public Ticket decode(ByteBuffer in) {
+        long id = previousId + unzigzag(getVarLong(in));
+        previousId = id;
+
+        int flags = in.get() & 0xFF;
+        int priority = flags & 7;
+        int status = (flags >> 3) & 3;
+
+        String creator = getDictionaryString(in);
+        String owner = (flags & HAS_OWNER) != 0 ? getDictionaryString(in) : null;
+        String requestType = (flags & HAS_REQUEST_TYPE) != 0 ? getDictionaryString(in) : null;
+        String description = (flags & HAS_DESCRIPTION) != 0 ? getString(in) : null;
+
+        long created = previousCreated + unzigzag(getVarLong(in));
+        long updated = created + unzigzag(getVarLong(in));
+        previousCreated = created;
+
+        return new Ticket(id, creator, owner, requestType, description, priority,
+                STATUSES[status], fromMillis(created), fromMillis(updated));
+    }
+
+    private void putDictionaryString(ByteBuffer out, String value) {
+        Integer index = dictionary.get(value);
+        if(index != null) {
+            putVarLong(out, index + 2);
+        } else if(dictionary.size() < MAX_DICTIONARY_SIZE) {
+            dictionary.put(value, dictionary.size());
+            putVarLong(out, NEW_ENTRY);
+            putString(out, value);
+        } else {
+            putVarLong(out, LITERAL);
+            putString(out, value);
+        }
+    }
+
+    private String getDictionaryString(ByteBuffer in) {
+        long code = getVarLong(in);
+        if(code == NEW_ENTRY) {
+            String value = getString(in);
+            if(entryCount == entries.length) {
+                String[] bigger = new String[entries.length * 2];
+                for(int i = 0; i < entryCount; i++) {
+                    bigger[i] = entries[i];
+                }
+                entries = bigger;
+            }
+            entries[entryCount++] = value;
+            return value;
+        }
+        if(code == LITERAL) {
+            return getString(in);
+        }
+        if(code - 2 >= entryCount) {
+            throw new IllegalArgumentException("Unknown dictionary entry " + (code - 2));
+        }
+        return entries[(int) (code - 2)];
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarLong(out, bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        long length = getVarLong(in);
+        if(length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), (int) length, StandardCharsets.UTF_8);
+        in.position(in.position() + (int) length);
+        return value;
+    }
+
+    /**
+     * Writes an unsigned varint, 7 bits per byte, low bits first
+     *
+     * @param out Buffer to write to
+     * @param value Value (treated as unsigned)
+     */
+    static void putVarLong(ByteBuffer out, long value) {
+        while((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned varint written by putVarLong
+     *
+     * @param in Buffer to read from
+     * @return The value
+     */
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000),
+                Math.floorMod(millis, 1000) * 1000000, ZoneOffset.UTC);
+    }
+}
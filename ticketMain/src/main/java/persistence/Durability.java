@@ -0,0 +1,22 @@
+package persistence;
+
+/**
+ * How hard the write-ahead log works to get a change onto disk
+ * before the call that made it returns.
+ *
+ * PER_OPERATION: every change is fsynced before the call returns.
+ *   Callers running at the same time share one fsync (group commit).
+ * PERIODIC: changes are fsynced by a background thread every few
+ *   milliseconds, a crash loses at most that window.
+ * OS_BUFFERED: changes are handed to the operating system before the
+ *   call returns but never fsynced by the log. Survives a crash of the
+ *   JVM, not of the machine.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public enum Durability {
+    PER_OPERATION,
+    PERIODIC,
+    OS_BUFFERED
+}
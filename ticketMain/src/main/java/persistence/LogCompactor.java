@@ -0,0 +1,285 @@
+package persistence;
+
+import dataStructure.LongIntHashMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Rewrites the closed segments of a segmented WriteAheadLog without the
+ * records replay no longer needs.
+ *
+ * A first pass finds the tickets that were processed or removed. The
+ * second pass copies every other record as it is and drops the records
+ * of those tickets, adding the CREATE and PROCESS records it drops to
+ * the counts in the segment header. The PROCESS or REMOVE record itself
+ * is kept when the ticket was created before the last snapshot, since
+ * a replay from the snapshot still has to take the ticket out. The
+ * records of a ticket created before a CLEAR are dropped as well, the
+ * kept CLEAR takes it out of the queue and of any snapshot before it.
+ *
+ * Neighbouring segments are merged while they fit in one segment,
+ * never across a snapshot. Each group is written to a temporary file
+ * that atomically replaces the group's first segment, then the other
+ * segments of the group are deleted. A crash in between leaves
+ * segments whose LSNs are already covered, which open deletes.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+final class LogCompactor {
+
+    // Size of the buffer kept records are copied through
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    // Segment size of the log
+    private final long segmentSize;
+
+    // LSN of the last snapshot
+    private final long snapshotLsn;
+
+    // Ticket ID -> index in createLsns and endLsns
+    private final LongIntHashMap tickets;
+
+    // LSN of each ticket's CREATE and of its PROCESS or REMOVE, 0 if not seen
+    private long[] createLsns;
+    private long[] endLsns;
+    private int ticketCount;
+
+    // LSN of the last CLEAR, 0 if none. LSNs only grow, so every ticket created before it was cleared or ended
+    private long clearLsn;
+
+    // Bytes the segments shrank by
+    private long bytesDropped;
+
+    /**
+     * Constructor
+     *
+     * @param segmentSize Segment size of the log
+     * @param snapshotLsn LSN of the last snapshot, 0 if none
+     */
+    LogCompactor(long segmentSize, long snapshotLsn) {
+        this.segmentSize = segmentSize;
+        this.snapshotLsn = snapshotLsn;
+        this.tickets = new LongIntHashMap();
+        this.createLsns = new long[1024];
+        this.endLsns = new long[1024];
+    }
+
+    /**
+     * Compacts the closed segments of a log
+     *
+     * @param closed Closed segments in LSN order
+     * @return The segments afterwards, in LSN order
+     * @throws IOException If a segment cannot be read or rewritten
+     */
+    LogSegment[] compact(LogSegment[] closed) throws IOException {
+        for(LogSegment segment : closed) {
+            findEnds(segment);
+        }
+
+        LogSegment[] result = new LogSegment[closed.length];
+        int count = 0;
+        int first = 0;
+        while(first < closed.length) {
+            // Merge the following segments while they fit, never across a snapshot
+            int last = first;
+            long size = Files.size(closed[first].path);
+            while(last + 1 < closed.length && (closed[last + 1].flags & LogSegment.SNAPSHOT_BOUNDARY) == 0) {
+                long next = Files.size(closed[last + 1].path) - LogSegment.HEADER_SIZE;
+                if(size + next > segmentSize) {
+                    break;
+                }
+                size += next;
+                last++;
+            }
+            result[count++] = rewrite(closed, first, last);
+            first = last + 1;
+        }
+
+        LogSegment[] compacted = new LogSegment[count];
+        System.arraycopy(result, 0, compacted, 0, count);
+        return compacted;
+    }
+
+    /**
+     * Gets the number of bytes the last compact() removed
+     *
+     * @return The number of bytes
+     */
+    long getBytesDropped() {
+        return bytesDropped;
+    }
+
+    /**
+     * Records the CREATE, PROCESS and REMOVE LSNs of a segment's tickets,
+     * and the LSN of its last CLEAR
+     */
+    private void findEnds(LogSegment segment) throws IOException {
+        try(FileChannel file = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            long end = WriteAheadLog.scanRecords(file, LogSegment.HEADER_SIZE, (lsn, operation, ticketId, record) -> {
+                // indexOf may grow the arrays, so it has to run before they are read
+                int index;
+                switch(operation) {
+                    case CREATE:
+                        index = indexOf(ticketId);
+                        createLsns[index] = lsn;
+                        break;
+                    case PROCESS:
+                    case REMOVE:
+                        index = indexOf(ticketId);
+                        endLsns[index] = lsn;
+                        break;
+                    case CLEAR:
+                        clearLsn = Math.max(clearLsn, lsn);
+                        break;
+                    default:
+                        break;
+                }
+            });
+            checkComplete(segment, file, end);
+        }
+    }
+
+    /**
+     * Gets the index of a ticket, adding it if it is new
+     */
+    private int indexOf(long ticketId) {
+        int index = tickets.get(ticketId);
+        if(index != LongIntHashMap.NO_VALUE) {
+            return index;
+        }
+        if(ticketCount == createLsns.length) {
+            long[] biggerCreates = new long[ticketCount * 2];
+            long[] biggerEnds = new long[ticketCount * 2];
+            System.arraycopy(createLsns, 0, biggerCreates, 0, ticketCount);
+            System.arraycopy(endLsns, 0, biggerEnds, 0, ticketCount);
+            createLsns = biggerCreates;
+            endLsns = biggerEnds;
+        }
+        tickets.put(ticketId, ticketCount);
+        return ticketCount++;
+    }
+
+    /**
+     * Checks whether replay still needs a record
+     */
+    private boolean keep(LogOperation operation, long ticketId) {
+        if(operation == LogOperation.CLEAR) {
+            return true;
+        }
+        int index = tickets.get(ticketId);
+        if(index != LongIntHashMap.NO_VALUE && createLsns[index] != 0 && createLsns[index] < clearLsn) {
+            // Taken out by the CLEAR, which is kept
+            return false;
+        }
+        if(index == LongIntHashMap.NO_VALUE || endLsns[index] == 0) {
+            // Ticket still queued
+            return true;
+        }
+        if(operation == LogOperation.PROCESS || operation == LogOperation.REMOVE) {
+            // A snapshot taken before the ticket ended may still hold it
+            return createLsns[index] <= snapshotLsn;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the kept records of closed[first..last] into one segment
+     *
+     * @return The new segment, or closed[first] if nothing changed
+     */
+    private LogSegment rewrite(LogSegment[] closed, int first, int last) throws IOException {
+        LogSegment head = closed[first];
+        LogSegment merged = new LogSegment(head.path.getParent(), head.startLsn, head.flags);
+        merged.endLsn = closed[last].endLsn;
+        for(int i = first; i <= last; i++) {
+            merged.droppedCreated += closed[i].droppedCreated;
+            merged.droppedResolved += closed[i].droppedResolved;
+            merged.droppedMaxTicketId = Math.max(merged.droppedMaxTicketId, closed[i].droppedMaxTicketId);
+        }
+
+        long before = 0;
+        long after;
+        boolean[] changed = {first != last};
+        Path temp = head.tempPath();
+        try(FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffer = {ByteBuffer.allocate(BUFFER_SIZE)};
+            out.position(LogSegment.HEADER_SIZE);
+            for(int i = first; i <= last; i++) {
+                LogSegment segment = closed[i];
+                try(FileChannel in = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                    before += in.size();
+                    long end = WriteAheadLog.scanRecords(in, LogSegment.HEADER_SIZE, (lsn, operation, ticketId, record) -> {
+                        if(keep(operation, ticketId)) {
+                            if(buffer[0].remaining() < record.remaining()) {
+                                drain(buffer[0], out);
+                                if(buffer[0].capacity() < record.remaining()) {
+                                    buffer[0] = ByteBuffer.allocate(record.remaining());
+                                }
+                            }
+                            buffer[0].put(record);
+                            return;
+                        }
+                        changed[0] = true;
+                        if(operation == LogOperation.CREATE) {
+                            merged.droppedCreated++;
+                        } else if(operation == LogOperation.PROCESS) {
+                            merged.droppedResolved++;
+                        }
+                        merged.droppedMaxTicketId = Math.max(merged.droppedMaxTicketId, ticketId);
+                    });
+                    checkComplete(segment, in, end);
+                }
+            }
+
+            if(!changed[0]) {
+                return head;
+            }
+            drain(buffer[0], out);
+            merged.writeHeader(out, false);
+            out.force(false);
+            after = out.size();
+        } finally {
+            if(!changed[0]) {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        Files.move(temp, head.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The merged segment has to be durable before the segments it replaces are deleted
+        SnapshotWriter.syncDirectory(head.path);
+        for(int i = first + 1; i <= last; i++) {
+            Files.delete(closed[i].path);
+        }
+        bytesDropped += before - after;
+        return merged;
+    }
+
+    /**
+     * Writes out and empties the copy buffer
+     */
+    private static void drain(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Throws if a closed segment ends in a damaged record
+     * Its records would otherwise be silently dropped
+     */
+    private static void checkComplete(LogSegment segment, FileChannel file, long end) throws IOException {
+        if(end != file.size()) {
+            throw new IOException("Damaged record in log segment " + segment.path + " at offset " + end);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package persistence;
+
+/**
+ * Kinds of change recorded in the write-ahead log, one per
+ * TicketService operation that changes the queue or a ticket.
+ *
+ * CREATE, UPDATE_PRIORITY and ASSIGN_OWNER records carry the full
+ * state of the ticket after the change, PROCESS and REMOVE only the
+ * ticket ID, CLEAR nothing.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public enum LogOperation {
+    CREATE,
+    PROCESS,
+    UPDATE_PRIORITY,
+    REMOVE,
+    ASSIGN_OWNER,
+    CLEAR;
+
+    // Operations by ordinal, the ordinal is the code stored in the log
+    private static final LogOperation[] BY_CODE = values();
+
+    /**
+     * Checks if records of this operation carry the ticket state
+     *
+     * @return true if the record holds a full ticket
+     */
+    public boolean hasTicket() {
+        return this == CREATE || this == UPDATE_PRIORITY || this == ASSIGN_OWNER;
+    }
+
+    /**
+     * Gets the operation for a code read from the log
+     *
+     * @param code The stored code
+     * @return The operation
+     */
+    public static LogOperation fromCode(int code) {
+        if(code < 0 || code >= BY_CODE.length) {
+            throw new IllegalArgumentException("Unknown log operation " + code);
+        }
+        return BY_CODE[code];
+    }
+}
@@ -0,0 +1,209 @@
+package persistence;
+
+import dataStructure.LongIntHashMap;
+import model.Ticket;
+
+import java.util.Arrays;
+
+/**
+ * Rebuilds the queue contents from write-ahead log records applied in
+ * LSN order.
+ *
+ * Tickets are kept in an array in the order they were queued, so the
+ * recovered queue keeps the FIFO order of tickets with the same priority.
+ * Queues differ on a priority update: PriorityQueue keeps the ticket's
+ * place, the bucket queues move it behind the tickets of its new
+ * priority. The LSN of each ticket's last CREATE or UPDATE_PRIORITY is
+ * kept as well, and if there were updates the state also holds the
+ * tickets in that order (see TicketQueue.keepsPlaceOnUpdate).
+ * Processed and removed tickets leave a gap behind. Gaps are squeezed
+ * out once at the end, so replay is 0(n) in the number of records,
+ * plus a sort of the queued tickets if any priority was updated.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class LogReplayer {
+
+    // Tickets in queue order, null for gaps
+    private Ticket[] order;
+
+    // LSN each ticket in order was last queued at by a CREATE or UPDATE_PRIORITY, negative for snapshot tickets
+    private long[] requeuedAt;
+
+    // Whether a priority update was applied, the two orders can only differ then
+    private boolean updated;
+
+    // Used length of order
+    private int count;
+
+    // Ticket ID -> index in order
+    private final LongIntHashMap positions;
+
+    // Largest ticket ID seen
+    private long maxTicketId;
+
+    // Statistics
+    private int ticketsCreated;
+    private int ticketsResolved;
+
+    // Records applied and LSN of the last one
+    private long records;
+    private long lastLsn;
+
+    /**
+     * Constructor for an empty replay
+     */
+    public LogReplayer() {
+        this.order = new Ticket[16];
+        this.requeuedAt = new long[16];
+        this.positions = new LongIntHashMap();
+        this.maxTicketId = -1;
+    }
+
+    /**
+     * Constructor for a replay on top of a snapshot
+     * Records must then only be applied if their LSN is after the snapshot's
+     *
+     * @param base State loaded from the snapshot
+     */
+    public LogReplayer(RecoveredState base) {
+        Ticket[] tickets = base.getTickets();
+        this.order = new Ticket[Math.max(16, tickets.length * 2)];
+        this.requeuedAt = new long[order.length];
+        this.positions = new LongIntHashMap(Math.max(1, tickets.length));
+        for(int i = 0; i < tickets.length; i++) {
+            // Ahead of every log record, in snapshot order
+            append(tickets[i], i - (long) tickets.length);
+        }
+        this.maxTicketId = base.getMaxTicketId();
+        this.ticketsCreated = base.getTicketsCreated();
+        this.ticketsResolved = base.getTicketsResolved();
+        this.lastLsn = base.getLastLsn();
+    }
+
+    /**
+     * Applies one record
+     *
+     * @param lsn LSN of the record
+     * @param operation Operation of the record
+     * @param ticketId ID of the ticket (ignored for CLEAR)
+     * @param ticket Post-state of the ticket for CREATE, UPDATE_PRIORITY
+     *               and ASSIGN_OWNER, null otherwise
+     */
+    public void apply(long lsn, LogOperation operation, long ticketId, Ticket ticket) {
+        records++;
+        lastLsn = lsn;
+        if(operation != LogOperation.CLEAR) {
+            maxTicketId = Math.max(maxTicketId, ticketId);
+        }
+
+        int index = operation == LogOperation.CLEAR ? LongIntHashMap.NO_VALUE : positions.get(ticketId);
+        switch(operation) {
+            case CREATE:
+                ticketsCreated++;
+                if(index != LongIntHashMap.NO_VALUE) {
+                    order[index] = null;
+                }
+                append(ticket, lsn);
+                break;
+            case UPDATE_PRIORITY:
+                // Keeps its place in order, a bucket queue would queue it again here
+                if(index != LongIntHashMap.NO_VALUE) {
+                    requeuedAt[index] = lsn;
+                    updated = true;
+                }
+            case ASSIGN_OWNER:
+                if(index != LongIntHashMap.NO_VALUE) {
+                    order[index] = ticket;
+                }
+                break;
+            case PROCESS:
+            case REMOVE:
+                if(operation == LogOperation.PROCESS) {
+                    ticketsResolved++;
+                }
+                if(index != LongIntHashMap.NO_VALUE) {
+                    order[index] = null;
+                    positions.remove(ticketId);
+                }
+                break;
+            case CLEAR:
+                for(int i = 0; i < count; i++) {
+                    order[i] = null;
+                }
+                count = 0;
+                positions.clear();
+                break;
+        }
+    }
+
+    /**
+     * Counts the records compaction dropped from a log segment
+     * The tickets of those records were processed or removed, so only
+     * the statistics and the largest ticket ID are left to restore.
+     *
+     * @param created Number of CREATE records dropped
+     * @param resolved Number of PROCESS records dropped
+     * @param maxTicketId Largest ticket ID of the dropped records, -1 if none
+     * @param endLsn Last LSN the segment covers
+     */
+    public void applyDropped(int created, int resolved, long maxTicketId, long endLsn) {
+        ticketsCreated += created;
+        ticketsResolved += resolved;
+        this.maxTicketId = Math.max(this.maxTicketId, maxTicketId);
+        lastLsn = Math.max(lastLsn, endLsn);
+    }
+
+    /**
+     * Adds a ticket at the end of the queue order
+     */
+    private void append(Ticket ticket, long lsn) {
+        if(count == order.length) {
+            Ticket[] bigger = new Ticket[order.length * 2];
+            for(int i = 0; i < count; i++) {
+                bigger[i] = order[i];
+            }
+            order = bigger;
+            requeuedAt = Arrays.copyOf(requeuedAt, order.length);
+        }
+        positions.put(ticket.getTicketID(), count);
+        requeuedAt[count] = lsn;
+        order[count++] = ticket;
+    }
+
+    /**
+     * Returns the state after all records applied so far
+     *
+     * @return The recovered state
+     */
+    public RecoveredState finish() {
+        Ticket[] tickets = new Ticket[positions.size()];
+        int live = 0;
+        for(int i = 0; i < count; i++) {
+            if(order[i] != null) {
+                tickets[live++] = order[i];
+            }
+        }
+        if(!updated) {
+            return new RecoveredState(tickets, maxTicketId, ticketsCreated, ticketsResolved, records, lastLsn);
+        }
+
+        // Every key is a distinct LSN or snapshot position
+        long[] keys = new long[live];
+        LongIntHashMap byKey = new LongIntHashMap(Math.max(16, live));
+        live = 0;
+        for(int i = 0; i < count; i++) {
+            if(order[i] != null) {
+                keys[live++] = requeuedAt[i];
+                byKey.put(requeuedAt[i], i);
+            }
+        }
+        Arrays.sort(keys);
+        Ticket[] requeued = new Ticket[live];
+        for(int i = 0; i < live; i++) {
+            requeued[i] = order[byKey.get(keys[i])];
+        }
+        return new RecoveredState(tickets, requeued, maxTicketId, ticketsCreated, ticketsResolved, records, lastLsn);
+    }
+}
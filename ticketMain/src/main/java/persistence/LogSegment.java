@@ -0,0 +1,209 @@
+package persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * One file of a segmented write-ahead log.
+ *
+ * A segment is named after the first LSN it covers, so listing the log
+ * directory gives the start LSN of every segment without opening them.
+ * The file starts with a header, the records follow in the usual
+ * WriteAheadLog layout.
+ *
+ * Header layout:
+ * int magic "TSEG", int version, long start LSN, long end LSN
+ * (last LSN covered, 0 while the segment is written to), int tickets
+ * created and int tickets processed by records compaction dropped,
+ * long largest ticket ID of those records, int flags, int CRC32 of
+ * the bytes before it.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+final class LogSegment {
+
+    // Bytes before the first record
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 8 + 4 + 4;
+
+    // "TSEG"
+    private static final int MAGIC = 0x54534547;
+
+    private static final int VERSION = 1;
+
+    // Flag of a segment started for a snapshot, it is never merged into the one before
+    static final int SNAPSHOT_BOUNDARY = 1;
+
+    // File name suffix of a segment and of one being rewritten
+    private static final String SUFFIX = ".seg";
+    private static final String TEMP_SUFFIX = ".seg.tmp";
+
+    // Path of the file
+    final Path path;
+
+    // First LSN the segment covers
+    final long startLsn;
+
+    // Last LSN the segment covers, startLsn - 1 if none yet
+    long endLsn;
+
+    // Records compaction dropped from the segment
+    int droppedCreated;
+    int droppedResolved;
+    long droppedMaxTicketId;
+
+    // SNAPSHOT_BOUNDARY or 0
+    int flags;
+
+    /**
+     * Constructor for an empty segment
+     *
+     * @param directory Log directory
+     * @param startLsn First LSN the segment covers
+     * @param flags SNAPSHOT_BOUNDARY or 0
+     */
+    LogSegment(Path directory, long startLsn, int flags) {
+        this.path = pathFor(directory, startLsn);
+        this.startLsn = startLsn;
+        this.endLsn = startLsn - 1;
+        this.droppedMaxTicketId = -1;
+        this.flags = flags;
+    }
+
+    /**
+     * Gets the file name of a segment
+     */
+    static Path pathFor(Path directory, long startLsn) {
+        return directory.resolve(String.format("%020d", startLsn) + SUFFIX);
+    }
+
+    /**
+     * Gets the temporary file a segment is rewritten into
+     */
+    Path tempPath() {
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    /**
+     * Lists the segments of a log directory in LSN order
+     * Temporary files left by an interrupted compaction are deleted
+     *
+     * @param directory Log directory
+     * @return Paths of the segment files, sorted by start LSN
+     * @throws IOException If the directory cannot be read
+     */
+    static Path[] list(Path directory) throws IOException {
+        Path[] found = new Path[16];
+        int count = 0;
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for(Path path : stream) {
+                String name = path.getFileName().toString();
+                if(name.endsWith(TEMP_SUFFIX)) {
+                    Files.delete(path);
+                } else if(name.endsWith(SUFFIX)) {
+                    if(count == found.length) {
+                        Path[] bigger = new Path[count * 2];
+                        System.arraycopy(found, 0, bigger, 0, count);
+                        found = bigger;
+                    }
+                    found[count++] = path;
+                }
+            }
+        }
+
+        // Names are zero padded, so name order is LSN order
+        Path[] result = Arrays.copyOf(found, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Reads the header of a segment file
+     *
+     * @param channel The open file
+     * @param path Path of the file
+     * @return The segment, or null if the header is incomplete or damaged
+     * @throws IOException If the file cannot be read
+     */
+    static LogSegment readHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while(header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // Keep reading
+        }
+        if(header.hasRemaining()) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_SIZE - 4);
+        if(header.getInt(0) != MAGIC || header.getInt(HEADER_SIZE - 4) != (int) crc.getValue()) {
+            return null;
+        }
+        if(header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported log segment version " + header.getInt(4) + " in " + path);
+        }
+
+        LogSegment segment = new LogSegment(path.getParent(), header.getLong(8), header.getInt(40));
+        if(!segment.path.getFileName().equals(path.getFileName())) {
+            throw new IOException("Log segment " + path + " starts at LSN " + segment.startLsn);
+        }
+        segment.endLsn = Math.max(segment.endLsn, header.getLong(16));
+        segment.droppedCreated = header.getInt(24);
+        segment.droppedResolved = header.getInt(28);
+        segment.droppedMaxTicketId = header.getLong(32);
+        return segment;
+    }
+
+    /**
+     * Writes the header at the start of a segment file
+     *
+     * @param channel The open file
+     * @param open Whether the segment is still written to, its end LSN is then left unset
+     * @throws IOException If the file cannot be written
+     */
+    void writeHeader(FileChannel channel, boolean open) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(startLsn);
+        header.putLong(open ? 0 : endLsn);
+        header.putInt(droppedCreated);
+        header.putInt(droppedResolved);
+        header.putLong(droppedMaxTicketId);
+        header.putInt(flags);
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_SIZE - 4);
+        header.putInt((int) crc.getValue());
+        header.flip();
+        while(header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * Creates the file of a new segment and fsyncs its header
+     *
+     * @return The file, positioned for the first record
+     * @throws IOException If the file cannot be created
+     */
+    FileChannel create() throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            writeHeader(channel, true);
+            channel.force(false);
+            channel.position(HEADER_SIZE);
+            return channel;
+        } catch(IOException e) {
+            channel.close();
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+}
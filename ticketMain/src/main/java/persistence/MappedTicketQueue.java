@@ -0,0 +1,413 @@
+package persistence;
+
+import dataStructure.LongIntHashMap;
+import dataStructure.SlotHeap;
+import dataStructure.TicketQueue;
+import model.Ticket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Priority queue whose tickets live in a memory-mapped file
+ * (MappedTicketStore) instead of on the Java heap.
+ *
+ * The heap only holds one (key, slot) pair per ticket, the key packing
+ * priority and insertion sequence like PriorityQueue does, and an
+ * index maps ticket IDs to slots. Tickets are decoded from their slot
+ * when they are returned, so a large backlog costs about 30 bytes of
+ * Java heap per ticket and the rest stays in the OS page cache.
+ *
+ * Reopening the file rebuilds the heap and index from the slots in
+ * 0(n) without decoding any ticket, so a restart is close to instant.
+ *
+ * Tickets returned by search and peek are copies. A change made to
+ * one is only stored when it is passed to update().
+ *
+ * Time Complexity:
+ * Insert: 0(log n)
+ * Extract min: 0(log n)
+ * Search: 0(1)
+ * Update priority: 0(log n)
+ * Remove: 0(log n)
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class MappedTicketQueue implements TicketQueue, Closeable {
+
+    // The priority sits above this bit in a key, the sequence below it
+    private static final int PRIORITY_SHIFT = 56;
+
+    // Mask for the sequence part of a key
+    private static final long SEQUENCE_MASK = (1L << PRIORITY_SHIFT) - 1;
+
+    // Slots of the tickets
+    private final MappedTicketStore store;
+
+    // Slots ordered by priority, then insertion sequence
+    private final SlotHeap heap;
+
+    // Ticket ID -> slot
+    private final LongIntHashMap slotIndex;
+
+    // Sequence number for the next inserted ticket
+    private long nextSequence;
+
+    /**
+     * Opens or creates a queue file with the default slot size
+     *
+     * @param file The queue file
+     * @return The queue with every ticket stored in the file
+     * @throws IOException If the file cannot be read or written
+     */
+    public static MappedTicketQueue open(Path file) throws IOException {
+        return new MappedTicketQueue(MappedTicketStore.open(file));
+    }
+
+    /**
+     * Opens or creates a queue file
+     *
+     * @param file The queue file
+     * @param slotSize Slot width for a new file, see MappedTicketStore
+     * @return The queue with every ticket stored in the file
+     * @throws IOException If the file cannot be read or written
+     */
+    public static MappedTicketQueue open(Path file, int slotSize) throws IOException {
+        return new MappedTicketQueue(MappedTicketStore.open(file, slotSize));
+    }
+
+    /**
+     * Builds the heap and index from the used slots of a store
+     *
+     * @param store Open store
+     */
+    public MappedTicketQueue(MappedTicketStore store) {
+        if(store == null) {
+            throw new IllegalArgumentException("Store cannot be null");
+        }
+        this.store = store;
+
+        int used = store.getUsedCount();
+        long[] keys = new long[used];
+        int[] slots = new int[used];
+        int count = 0;
+        long maxSequence = -1;
+        for(int slot = 1; slot < store.getSlotCount() && count < used; slot++) {
+            if(store.isUsed(slot)) {
+                long sequence = store.getSequence(slot);
+                keys[count] = key(store.getPriority(slot), sequence);
+                slots[count] = slot;
+                count++;
+                maxSequence = Math.max(maxSequence, sequence);
+            }
+        }
+
+        this.heap = new SlotHeap(Math.max(count, 1));
+        heap.build(keys, slots, count);
+        this.slotIndex = new LongIntHashMap(Math.max(count, 16));
+        for(int i = 0; i < count; i++) {
+            long id = store.getTicketId(slots[i]);
+            if(slotIndex.containsKey(id)) {
+                throw new IllegalStateException("Ticket #" + id + " is stored twice");
+            }
+            slotIndex.put(id, slots[i]);
+        }
+        this.nextSequence = maxSequence + 1;
+    }
+
+    /**
+     * Packs a priority and an insertion sequence into one heap key
+     */
+    private static long key(int priority, long sequence) {
+        return ((long) priority << PRIORITY_SHIFT) | (sequence & SEQUENCE_MASK);
+    }
+
+    /**
+     * Checks that a priority is one of the four levels
+     */
+    private static void checkPriority(int priority) {
+        if(priority < 1 || priority > 4) {
+            throw new IllegalArgumentException("priority must be between 1 and 4");
+        }
+    }
+
+    /**
+     * Stores a new ticket and adds it to the heap
+     * Time complexity 0(log n)
+     *
+     * @param ticket The ticket to insert
+     */
+    @Override
+    public void insert(Ticket ticket) {
+        if(ticket == null) {
+            throw new IllegalArgumentException("Cannot insert null ticket");
+        }
+        checkPriority(ticket.getPriority());
+        if(slotIndex.containsKey(ticket.getTicketID())) {
+            throw new IllegalArgumentException("Ticket #" + ticket.getTicketID() + " is already in the queue");
+        }
+
+        long sequence = nextSequence++;
+        int slot = store.allocate(ticket, sequence);
+        heap.insert(key(ticket.getPriority(), sequence), slot);
+        slotIndex.put(ticket.getTicketID(), slot);
+    }
+
+    /**
+     * Inserts a batch of tickets
+     * If a ticket is invalid, does not fit a slot or is already queued,
+     * the tickets of the batch added before it are taken out again
+     *
+     * @param tickets The tickets to insert
+     */
+    @Override
+    public void insertAll(Ticket[] tickets) {
+        if(tickets == null) {
+            throw new IllegalArgumentException("Cannot insert null tickets");
+        }
+        for(Ticket ticket : tickets) {
+            if(ticket == null) {
+                throw new IllegalArgumentException("Cannot insert null ticket");
+            }
+            checkPriority(ticket.getPriority());
+        }
+
+        for(int i = 0; i < tickets.length; i++) {
+            try {
+                insert(tickets[i]);
+            } catch(IllegalArgumentException e) {
+                for(int j = 0; j < i; j++) {
+                    remove(tickets[j].getTicketID());
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads a ticket and frees its slot
+     */
+    private Ticket take(int slot) {
+        Ticket ticket = store.read(slot);
+        slotIndex.remove(ticket.getTicketID());
+        store.free(slot);
+        return ticket;
+    }
+
+    /**
+     * Extracts and returns the highest priority ticket
+     * Time Complexity 0(log n)
+     *
+     * @return The highest priority ticket, or null if queue is empty
+     */
+    @Override
+    public Ticket extractMin() {
+        int slot = heap.extractMin();
+        return slot == SlotHeap.NO_SLOT ? null : take(slot);
+    }
+
+    /**
+     * Extracts up to max tickets in priority order into dest
+     *
+     * @param dest Array to fill from index 0
+     * @param max Maximum number of tickets to extract (at most dest.length)
+     * @return Number of tickets extracted
+     */
+    @Override
+    public int drainTo(Ticket[] dest, int max) {
+        if(dest == null) {
+            throw new IllegalArgumentException("Destination cannot be null");
+        }
+        if(max < 0 || max > dest.length) {
+            throw new IllegalArgumentException("max must be between 0 and the destination length");
+        }
+
+        int count = Math.min(max, heap.size());
+        for(int i = 0; i < count; i++) {
+            dest[i] = take(heap.extractMin());
+        }
+        return count;
+    }
+
+    /**
+     * Searches for a ticket by ID
+     * Time Complexity 0(1)
+     *
+     * @param ticketID the ID to search for
+     * @return A copy of the ticket if found, null otherwise
+     */
+    @Override
+    public Ticket search(long ticketID) {
+        int slot = slotIndex.get(ticketID);
+        return slot == LongIntHashMap.NO_VALUE ? null : store.read(slot);
+    }
+
+    /**
+     * Stores the new state of a ticket in the queue
+     * The ticket's priority has to be the one it is queued with,
+     * use updatePriority to change it
+     *
+     * @param ticket Changed copy of a queued ticket
+     */
+    @Override
+    public void update(Ticket ticket) {
+        if(ticket == null) {
+            throw new IllegalArgumentException("Cannot update null ticket");
+        }
+        int slot = slotIndex.get(ticket.getTicketID());
+        if(slot == LongIntHashMap.NO_VALUE) {
+            throw new IllegalArgumentException("Ticket #" + ticket.getTicketID() + " is not in the queue");
+        }
+        if(ticket.getPriority() != store.getPriority(slot)) {
+            throw new IllegalArgumentException("Use updatePriority to change the priority of a ticket");
+        }
+        store.write(slot, ticket);
+    }
+
+    /**
+     * Updates the priority of a ticket
+     * The ticket keeps its place among tickets of the new priority that
+     * were inserted around the same time, like PriorityQueue
+     * Time complexity 0(log n)
+     *
+     * @param ticketID ID of the ticket to update
+     * @param newPriority New priority value
+     * @return true if update succesful, false if ticket not found
+     */
+    @Override
+    public boolean updatePriority(long ticketID, int newPriority) {
+        checkPriority(newPriority);
+
+        int slot = slotIndex.get(ticketID);
+        if(slot == LongIntHashMap.NO_VALUE) {
+            return false;
+        }
+
+        Ticket ticket = store.read(slot);
+        ticket.setPriority(newPriority);
+        store.write(slot, ticket);
+        heap.changeKey(slot, key(newPriority, heap.keyOf(slot)));
+        return true;
+    }
+
+    /**
+     * Removes a specific ticket by ID
+     * Time complexity 0(log n)
+     *
+     * @param ticketID ID of the ticket to remove
+     * @return The removed ticket, or null if not found
+     */
+    @Override
+    public Ticket remove(long ticketID) {
+        int slot = slotIndex.get(ticketID);
+        if(slot == LongIntHashMap.NO_VALUE) {
+            return null;
+        }
+        heap.remove(slot);
+        return take(slot);
+    }
+
+    /**
+     * Returns the highest priority ticket without removing it
+     * Time Complexity 0(1)
+     *
+     * @return A copy of the highest priority ticket, or null if empty
+     */
+    @Override
+    public Ticket peek() {
+        int slot = heap.peek();
+        return slot == SlotHeap.NO_SLOT ? null : store.read(slot);
+    }
+
+    /**
+     * Checks if the queue is empty
+     *
+     * @return true if empty, false otherwise
+     */
+    @Override
+    public boolean isEmpty() {
+        return heap.isEmpty();
+    }
+
+    /**
+     * Returns the number of tickets in the queue
+     *
+     * @return current size
+     */
+    @Override
+    public int size() {
+        return heap.size();
+    }
+
+    /**
+     * Returns all tickets in an array, in heap order
+     *
+     * @return Array of copies of all tickets
+     */
+    @Override
+    public Ticket[] getAllTickets() {
+        Ticket[] result = new Ticket[heap.size()];
+        for(int i = 0; i < result.length; i++) {
+            result[i] = store.read(heap.slotAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns all tickets in the order they would be extracted
+     *
+     * @return Array of copies of the tickets sorted by priority
+     */
+    @Override
+    public Ticket[] getAllTicketsSorted() {
+        return getTopK(heap.size());
+    }
+
+    /**
+     * Returns the first k tickets in extraction order without removing them
+     * Time Complexity 0(k log k) plus reading the k tickets
+     *
+     * @param k Number of tickets wanted
+     * @return Up to k copies of tickets, highest priority first
+     */
+    @Override
+    public Ticket[] getTopK(int k) {
+        int[] slots = heap.topK(k);
+        Ticket[] result = new Ticket[slots.length];
+        for(int i = 0; i < slots.length; i++) {
+            result[i] = store.read(slots[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Removes every ticket from the queue and frees its slot
+     */
+    @Override
+    public void clear() {
+        for(int i = 0; i < heap.size(); i++) {
+            store.free(heap.slotAt(i));
+        }
+        heap.clear();
+        slotIndex.clear();
+    }
+
+    /**
+     * Writes all changed tickets to the disk
+     */
+    public void flush() {
+        store.flush();
+    }
+
+    /**
+     * Flushes and closes the queue file
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
@@ -0,0 +1,437 @@
+package persistence;
+
+import model.Ticket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Ticket records kept in fixed-width slots of a memory-mapped file.
+ *
+ * The file is mapped in segments with FileChannel.map, so the tickets
+ * live in the OS page cache instead of the Java heap, and reopening
+ * the file gives them back without reading or replaying anything.
+ *
+ * File layout:
+ * slot 0 is the header: int magic "TMAP", int version, int slot size.
+ * Every other slot is free (state byte 0) or holds one ticket:
+ * byte state, 3 bytes unused, int length, long insertion sequence,
+ * then the ticket state as written by TicketCodec.
+ * A ticket is written before its state byte is set, so a slot is
+ * never marked used with half a ticket in it.
+ *
+ * Changes reach the disk when the OS writes the pages back, or when
+ * flush() is called. A ticket rewritten in place can be torn by a
+ * crash, pair the store with the write-ahead log if that matters.
+ *
+ * Time Complexity:
+ * Allocate / free: 0(1)
+ * Read / write a slot: 0(slot size)
+ * Open: 0(slots), every slot's state byte is read
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class MappedTicketStore implements Closeable {
+
+    // Default width of a slot in bytes
+    public static final int DEFAULT_SLOT_SIZE = 512;
+
+    // Smallest and largest slot width allowed
+    private static final int MIN_SLOT_SIZE = 128;
+    private static final int MAX_SLOT_SIZE = 64 << 10;
+
+    // Bytes mapped at a time, a multiple of every allowed slot size
+    private static final int SEGMENT_SIZE = 64 << 20;
+
+    // "TMAP"
+    static final int MAGIC = 0x544D4150;
+    static final int VERSION = 1;
+
+    // Slot states
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+
+    // Offsets inside a slot
+    private static final int STATE_OFFSET = 0;
+    private static final int LENGTH_OFFSET = 4;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int BODY_OFFSET = 16;
+
+    // TicketCodec writes the ID first and the priority right after it
+    private static final int ID_OFFSET = BODY_OFFSET;
+    private static final int PRIORITY_OFFSET = BODY_OFFSET + 8;
+
+    // The mapped file
+    private final FileChannel channel;
+
+    // Width of every slot
+    private final int slotSize;
+
+    // Slots per mapped segment, a power of two
+    private final int slotsPerSegment;
+    private final int segmentShift;
+
+    // Mapped segments of the file, in file order
+    private MappedByteBuffer[] segments;
+    private int segmentCount;
+
+    // Number of slots in the mapped part of the file, including the header
+    private int slotCount;
+
+    // Free slots, used as a stack
+    private int[] freeSlots;
+    private int freeCount;
+
+    // Scratch buffer for encoding a ticket before it is copied into its slot
+    private ByteBuffer scratch;
+
+    /**
+     * Opens or creates a store with the default slot size
+     *
+     * @param file The store file
+     * @return The open store
+     * @throws IOException If the file cannot be read or written
+     */
+    public static MappedTicketStore open(Path file) throws IOException {
+        return open(file, DEFAULT_SLOT_SIZE);
+    }
+
+    /**
+     * Opens or creates a store
+     * An existing file keeps the slot size it was created with.
+     *
+     * @param file The store file
+     * @param slotSize Slot width for a new file, a power of two from 128 to 65536
+     * @return The open store
+     * @throws IOException If the file cannot be read or written, or is not a store file
+     */
+    public static MappedTicketStore open(Path file, int slotSize) throws IOException {
+        if(file == null) {
+            throw new IllegalArgumentException("Store file cannot be null");
+        }
+        if(slotSize < MIN_SLOT_SIZE || slotSize > MAX_SLOT_SIZE || Integer.bitCount(slotSize) != 1) {
+            throw new IllegalArgumentException("Slot size must be a power of two between "
+                    + MIN_SLOT_SIZE + " and " + MAX_SLOT_SIZE);
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if(channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(12);
+                header.putInt(MAGIC).putInt(VERSION).putInt(slotSize).flip();
+                while(header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(12);
+                while(header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                    // Keep reading
+                }
+                header.flip();
+                if(header.remaining() < 12 || header.getInt() != MAGIC) {
+                    throw new IOException(file + " is not a ticket store");
+                }
+                int version = header.getInt();
+                if(version != VERSION) {
+                    throw new IOException("Unsupported ticket store version " + version);
+                }
+                slotSize = header.getInt();
+                if(slotSize < MIN_SLOT_SIZE || slotSize > MAX_SLOT_SIZE || Integer.bitCount(slotSize) != 1) {
+                    throw new IOException("Bad slot size " + slotSize + " in " + file);
+                }
+            }
+            return new MappedTicketStore(channel, slotSize);
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the existing file and finds the free slots
+     */
+    private MappedTicketStore(FileChannel channel, int slotSize) throws IOException {
+        this.channel = channel;
+        this.slotSize = slotSize;
+        this.slotsPerSegment = SEGMENT_SIZE / slotSize;
+        this.segmentShift = Integer.numberOfTrailingZeros(slotsPerSegment);
+        this.segments = new MappedByteBuffer[4];
+        this.freeSlots = new int[64];
+        this.scratch = ByteBuffer.allocate(slotSize);
+
+        // Map whole segments covering the file, slots past the old end read as free
+        long size = channel.size();
+        while((long) segmentCount * SEGMENT_SIZE < size) {
+            mapSegment();
+        }
+        if(segmentCount == 0) {
+            mapSegment();
+        }
+
+        // Free slots go on the stack highest first, so low slots are reused first
+        for(int slot = slotCount - 1; slot >= 1; slot--) {
+            if(segment(slot).get(offset(slot) + STATE_OFFSET) != USED) {
+                pushFree(slot);
+            }
+        }
+    }
+
+    /**
+     * Maps the next segment of the file, growing the file if needed
+     */
+    private void mapSegment() throws IOException {
+        if(segmentCount == segments.length) {
+            MappedByteBuffer[] bigger = new MappedByteBuffer[segments.length * 2];
+            System.arraycopy(segments, 0, bigger, 0, segmentCount);
+            segments = bigger;
+        }
+        if((long) slotCount + slotsPerSegment > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Ticket store is full");
+        }
+        segments[segmentCount] = channel.map(FileChannel.MapMode.READ_WRITE,
+                (long) segmentCount * SEGMENT_SIZE, SEGMENT_SIZE);
+        segmentCount++;
+        slotCount += slotsPerSegment;
+    }
+
+    private void pushFree(int slot) {
+        if(freeCount == freeSlots.length) {
+            int[] bigger = new int[freeSlots.length * 2];
+            System.arraycopy(freeSlots, 0, bigger, 0, freeCount);
+            freeSlots = bigger;
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Gets the segment holding a slot
+     */
+    private MappedByteBuffer segment(int slot) {
+        return segments[slot >>> segmentShift];
+    }
+
+    /**
+     * Gets the byte offset of a slot inside its segment
+     */
+    private int offset(int slot) {
+        return (slot & (slotsPerSegment - 1)) * slotSize;
+    }
+
+    /**
+     * Checks that a slot number is a ticket slot
+     */
+    private void checkSlot(int slot) {
+        if(slot < 1 || slot >= slotCount) {
+            throw new IllegalArgumentException("Slot " + slot + " is not in the store");
+        }
+    }
+
+    /**
+     * Gets the width of a slot
+     *
+     * @return Slot size in bytes
+     */
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    /**
+     * Gets one more than the highest slot number, for walking all slots
+     *
+     * @return Slot count including the header slot
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Gets the number of slots holding a ticket
+     *
+     * @return Number of used slots
+     */
+    public int getUsedCount() {
+        return slotCount - 1 - freeCount;
+    }
+
+    /**
+     * Checks if a slot holds a ticket
+     *
+     * @param slot The slot
+     * @return true if used
+     */
+    public boolean isUsed(int slot) {
+        return slot >= 1 && slot < slotCount && segment(slot).get(offset(slot) + STATE_OFFSET) == USED;
+    }
+
+    /**
+     * Stores a ticket in a free slot, mapping more of the file if none is left
+     * Time Complexity 0(slot size)
+     *
+     * @param ticket The ticket
+     * @param sequence Insertion sequence kept with the ticket
+     * @return The slot the ticket was stored in
+     */
+    public int allocate(Ticket ticket, long sequence) {
+        ByteBuffer body = encode(ticket);
+        if(freeCount == 0) {
+            try {
+                int first = slotCount;
+                mapSegment();
+                for(int slot = slotCount - 1; slot >= first; slot--) {
+                    pushFree(slot);
+                }
+            } catch(IOException e) {
+                throw new UncheckedIOException("Could not grow the ticket store", e);
+            }
+        }
+        int slot = freeSlots[--freeCount];
+        put(slot, body, sequence);
+        return slot;
+    }
+
+    /**
+     * Rewrites the ticket in a used slot, keeping its sequence
+     *
+     * @param slot The slot
+     * @param ticket The new state of the ticket
+     */
+    public void write(int slot, Ticket ticket) {
+        if(!isUsed(slot)) {
+            throw new IllegalArgumentException("Slot " + slot + " does not hold a ticket");
+        }
+        put(slot, encode(ticket), getSequence(slot));
+    }
+
+    /**
+     * Encodes a ticket into the scratch buffer and checks it fits a slot
+     */
+    private ByteBuffer encode(Ticket ticket) {
+        if(ticket == null) {
+            throw new IllegalArgumentException("Cannot store null ticket");
+        }
+        int max = TicketCodec.maxSize(ticket);
+        if(max > scratch.capacity()) {
+            scratch = ByteBuffer.allocate(max);
+        }
+        scratch.clear();
+        TicketCodec.encode(ticket, scratch);
+        scratch.flip();
+        if(BODY_OFFSET + scratch.remaining() > slotSize) {
+            throw new IllegalArgumentException("Ticket #" + ticket.getTicketID() + " needs "
+                    + (BODY_OFFSET + scratch.remaining()) + " bytes, slots are " + slotSize);
+        }
+        return scratch;
+    }
+
+    /**
+     * Copies an encoded ticket into a slot, then marks the slot used
+     */
+    private void put(int slot, ByteBuffer body, long sequence) {
+        MappedByteBuffer segment = segment(slot);
+        int base = offset(slot);
+        segment.putInt(base + LENGTH_OFFSET, body.remaining());
+        segment.putLong(base + SEQUENCE_OFFSET, sequence);
+        segment.put(base + BODY_OFFSET, body, body.position(), body.remaining());
+        segment.put(base + STATE_OFFSET, USED);
+    }
+
+    /**
+     * Reads the ticket in a slot
+     * Time Complexity 0(slot size)
+     *
+     * @param slot A used slot
+     * @return A new Ticket object with the stored state
+     */
+    public Ticket read(int slot) {
+        if(!isUsed(slot)) {
+            throw new IllegalArgumentException("Slot " + slot + " does not hold a ticket");
+        }
+        MappedByteBuffer segment = segment(slot);
+        int base = offset(slot);
+        int length = segment.getInt(base + LENGTH_OFFSET);
+        if(length < 0 || BODY_OFFSET + length > slotSize) {
+            throw new IllegalStateException("Slot " + slot + " is corrupt");
+        }
+        return TicketCodec.decode(segment.slice(base + BODY_OFFSET, length));
+    }
+
+    /**
+     * Gets the ID of the ticket in a slot without decoding it
+     *
+     * @param slot A used slot
+     * @return The ticket ID
+     */
+    public long getTicketId(int slot) {
+        checkSlot(slot);
+        return segment(slot).getLong(offset(slot) + ID_OFFSET);
+    }
+
+    /**
+     * Gets the priority of the ticket in a slot without decoding it
+     *
+     * @param slot A used slot
+     * @return The priority
+     */
+    public int getPriority(int slot) {
+        checkSlot(slot);
+        return segment(slot).get(offset(slot) + PRIORITY_OFFSET);
+    }
+
+    /**
+     * Gets the insertion sequence stored with a ticket
+     *
+     * @param slot A used slot
+     * @return The sequence
+     */
+    public long getSequence(int slot) {
+        checkSlot(slot);
+        return segment(slot).getLong(offset(slot) + SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Marks a slot free so it can be reused
+     * Time Complexity 0(1)
+     *
+     * @param slot A used slot
+     */
+    public void free(int slot) {
+        if(!isUsed(slot)) {
+            throw new IllegalArgumentException("Slot " + slot + " does not hold a ticket");
+        }
+        segment(slot).put(offset(slot) + STATE_OFFSET, FREE);
+        pushFree(slot);
+    }
+
+    /**
+     * Writes all changed pages to the disk
+     */
+    public void flush() {
+        for(int i = 0; i < segmentCount; i++) {
+            segments[i].force();
+        }
+    }
+
+    /**
+     * Flushes the store and closes the file
+     * The mapped segments stay valid until they are garbage collected,
+     * the store must not be used after this.
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if(!channel.isOpen()) {
+            return;
+        }
+        flush();
+        channel.close();
+    }
+}
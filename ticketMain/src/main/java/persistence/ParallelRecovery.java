@@ -0,0 +1,707 @@
+package persistence;
+
+import dataStructure.LongIntHashMap;
+import model.Ticket;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+
+/**
+ * Rebuilds the queue contents from a snapshot and write-ahead log on
+ * several threads.
+ *
+ * Each file is read twice. A sequential pass only follows the record
+ * lengths (and for a snapshot checks the file checksum) and cuts the
+ * file into ranges of whole records. The ranges are then checksummed and
+ * decoded on a fork-join pool, which is where the time goes.
+ *
+ * A log range is folded into a table of the last state of each ticket
+ * it touches. The tables are merged in LSN order, a later range winning
+ * for every ticket, and the queue order is rebuilt from the LSN of each
+ * ticket's CREATE record, like LogReplayer does. If priorities were
+ * updated, a second order from the LSN of each ticket's last CREATE or
+ * UPDATE_PRIORITY is built for the queues that move an updated ticket
+ * (TicketQueue.keepsPlaceOnUpdate). The result is a RecoveredState in
+ * queue order, which TicketService loads with a single O(n) heap build.
+ *
+ * Snapshots are split at the points where the writer resets its codec
+ * (version 2), older snapshots are read sequentially.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class ParallelRecovery {
+
+    // Default bytes of records per range
+    private static final int DEFAULT_RANGE_BYTES = 1 << 20;
+
+    // Read size of the sequential pass
+    private static final int WINDOW_SIZE = 1 << 20;
+
+    // Queue position of a ticket no record has put in line
+    private static final long NO_POSITION = Long.MIN_VALUE;
+
+    // Pool the ranges are decoded on
+    private final ForkJoinPool pool;
+
+    // Bytes of records per range
+    private final int rangeBytes;
+
+    // Records decoded and time spent, over every recovery done
+    private long records;
+    private long elapsedNanos;
+
+    /**
+     * Constructor using the common fork-join pool
+     */
+    public ParallelRecovery() {
+        this(ForkJoinPool.commonPool(), DEFAULT_RANGE_BYTES);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param pool Pool the ranges are decoded on
+     * @param rangeBytes Bytes of records per range
+     */
+    public ParallelRecovery(ForkJoinPool pool, int rangeBytes) {
+        if(pool == null) {
+            throw new IllegalArgumentException("Pool cannot be null");
+        }
+        if(rangeBytes <= 0) {
+            throw new IllegalArgumentException("Range size must be greater than 0");
+        }
+        this.pool = pool;
+        this.rangeBytes = rangeBytes;
+    }
+
+    /**
+     * Reads a whole snapshot file, same result as SnapshotReader.readFile
+     *
+     * @param file Snapshot file
+     * @return The tickets in queue order and the statistics
+     * @throws IOException If the file cannot be read or is damaged
+     */
+    public RecoveredState readSnapshot(Path file) throws IOException {
+        long started = System.nanoTime();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SnapshotReader reader = new SnapshotReader(channel);
+            int interval = reader.getRestartInterval();
+            if(interval == 0) {
+                RecoveredState state = SnapshotReader.readFile(file);
+                count(state.getRecords(), started);
+                return state;
+            }
+
+            // Offset of each block of tickets the codec starts afresh on, then of the trailer
+            long[] starts = new long[64];
+            int blocks = 0;
+            long offset = reader.getHeaderSize();
+            while(true) {
+                int index = reader.getCount();
+                int size = reader.skip();
+                if(size == 0) {
+                    break;
+                }
+                if(index % interval == 0) {
+                    if(blocks + 1 == starts.length) {
+                        starts = Arrays.copyOf(starts, starts.length * 2);
+                    }
+                    starts[blocks++] = offset;
+                }
+                offset += size;
+            }
+            starts[blocks] = offset;
+            int count = reader.getCount();
+
+            // Decode groups of whole blocks of about rangeBytes
+            Ticket[] tickets = new Ticket[count];
+            long recordBytes = Math.max(1, offset - reader.getHeaderSize());
+            int blocksPerRange = (int) Math.max(1, Math.min(blocks, (long) rangeBytes * blocks / recordBytes));
+            int ranges = (blocks + blocksPerRange - 1) / blocksPerRange;
+            @SuppressWarnings("unchecked")
+            ForkJoinTask<Long>[] tasks = (ForkJoinTask<Long>[]) new ForkJoinTask<?>[ranges];
+            for(int r = 0; r < ranges; r++) {
+                int first = r * blocksPerRange;
+                int last = Math.min(blocks, first + blocksPerRange);
+                tasks[r] = pool.submit(new SnapshotRange(channel, starts[first], starts[last], interval,
+                        tickets, first * interval, Math.min(count, last * interval)));
+            }
+            long maxTicketId = -1;
+            for(ForkJoinTask<Long> task : tasks) {
+                maxTicketId = Math.max(maxTicketId, join(task));
+            }
+
+            count(count, started);
+            return new RecoveredState(tickets, maxTicketId, reader.getTicketsCreated(),
+                    reader.getTicketsResolved(), count, reader.getLastLsn());
+        }
+    }
+
+    /**
+     * Starts replaying logs on top of a snapshot, see WriteAheadLog.open
+     *
+     * @param snapshot State read from the snapshot, or null
+     * @return The replay
+     */
+    Replay replay(RecoveredState snapshot) {
+        return new Replay(snapshot);
+    }
+
+    /**
+     * Waits for a task, unwrapping an IOException it threw
+     */
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Adds a finished step to the statistics
+     */
+    private void count(long recordsRead, long started) {
+        records += recordsRead;
+        elapsedNanos += System.nanoTime() - started;
+    }
+
+    /**
+     * Reads a byte range of a file
+     */
+    private static ByteBuffer readRange(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, from + buffer.position()) < 0) {
+                throw new IOException("File is shorter than expected");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Gets the number of records read by all recoveries so far
+     *
+     * @return The number of snapshot and log records
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Gets the time all recoveries so far took
+     *
+     * @return Elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the recovery throughput
+     *
+     * @return Records read per second, 0 if nothing was read
+     */
+    public long getRecordsPerSecond() {
+        return elapsedNanos == 0 ? 0 : records * 1000000000L / elapsedNanos;
+    }
+
+    /**
+     * Decodes the tickets of a group of snapshot blocks into their slots
+     */
+    private static final class SnapshotRange extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long from;
+        private final long to;
+        private final int interval;
+        private final Ticket[] tickets;
+        private final int firstTicket;
+        private final int endTicket;
+
+        SnapshotRange(FileChannel channel, long from, long to, int interval,
+                      Ticket[] tickets, int firstTicket, int endTicket) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+            this.interval = interval;
+            this.tickets = tickets;
+            this.firstTicket = firstTicket;
+            this.endTicket = endTicket;
+        }
+
+        /**
+         * @return Largest ticket ID of the range
+         */
+        @Override
+        protected Long compute() {
+            try {
+                ByteBuffer buffer = readRange(channel, from, to);
+                CompactTicketCodec codec = new CompactTicketCodec();
+                long maxTicketId = -1;
+                for(int i = firstTicket; i < endTicket; i++) {
+                    if(i % interval == 0) {
+                        codec.reset();
+                    }
+                    int length = (int) CompactTicketCodec.getVarLong(buffer);
+                    ByteBuffer record = buffer.duplicate();
+                    record.limit(buffer.position() + length);
+                    buffer.position(buffer.position() + length);
+                    tickets[i] = codec.decode(record);
+                    maxTicketId = Math.max(maxTicketId, tickets[i].getTicketID());
+                }
+                return maxTicketId;
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            } catch(RuntimeException e) {
+                throw new UncheckedIOException(new IOException("Snapshot is damaged (ticket block at " + from + ")", e));
+            }
+        }
+    }
+
+    /**
+     * Replay of one or more log files in LSN order
+     */
+    final class Replay {
+
+        // Records at or below this LSN are covered by the snapshot
+        private final long afterLsn;
+
+        // Last state of every ticket seen so far
+        private final TicketTable table;
+
+        // LSN of the last record of the last file read, 0 if none
+        private long lastLsnRead;
+
+        /**
+         * Constructor, use ParallelRecovery.replay
+         */
+        private Replay(RecoveredState snapshot) {
+            this.table = new TicketTable();
+            if(snapshot == null) {
+                this.afterLsn = 0;
+                return;
+            }
+            long started = System.nanoTime();
+            this.afterLsn = snapshot.getLastLsn();
+            Ticket[] tickets = snapshot.getTickets();
+            for(int i = 0; i < tickets.length; i++) {
+                // Ahead of every log record, in snapshot order
+                int index = table.indexOf(tickets[i].getTicketID());
+                table.startLsns[index] = afterLsn;
+                table.positions[index] = i - (long) tickets.length;
+                table.requeuedAt[index] = i - (long) tickets.length;
+                table.states[index] = tickets[i];
+            }
+            table.maxTicketId = snapshot.getMaxTicketId();
+            table.created = snapshot.getTicketsCreated();
+            table.resolved = snapshot.getTicketsResolved();
+            table.lastLsn = snapshot.getLastLsn();
+            count(0, started);
+        }
+
+        /**
+         * Replays the records of a file, same rules as WriteAheadLog.readRecords
+         *
+         * @param channel File to read
+         * @param start Offset of the first record
+         * @param checkStart Whether a first record after afterLsn + 1 means records are missing
+         * @return Offset just after the last good record
+         * @throws IOException If the file cannot be read, or records are missing
+         */
+        long read(FileChannel channel, long start, boolean checkStart) throws IOException {
+            long started = System.nanoTime();
+            long[] bounds = split(channel, start);
+            int ranges = (int) bounds[0];
+            @SuppressWarnings("unchecked")
+            ForkJoinTask<TicketTable>[] tasks = (ForkJoinTask<TicketTable>[]) new ForkJoinTask<?>[ranges];
+            for(int r = 0; r < ranges; r++) {
+                tasks[r] = pool.submit(new LogRange(channel, bounds[r + 1], bounds[r + 2], afterLsn));
+            }
+
+            // Merge in LSN order while later ranges are still decoding
+            long end = bounds[ranges + 1];
+            long previousLsn = 0;
+            long read = 0;
+            for(int r = 0; r < ranges; r++) {
+                TicketTable range = join(tasks[r]);
+                if(range.firstLsn != 0 && range.firstLsn <= previousLsn) {
+                    // Sequential reading stops at an LSN going backwards
+                    end = bounds[r + 1];
+                    cancelFrom(tasks, r + 1);
+                    break;
+                }
+                if(r == 0 && checkStart && range.firstLsn > afterLsn + 1) {
+                    cancelFrom(tasks, 1);
+                    throw new IOException("Log starts at LSN " + range.firstLsn + ", the records after LSN "
+                            + afterLsn + " are missing (open the log with its checkpoint snapshot)");
+                }
+                table.merge(range);
+                read += range.recordsRead;
+                if(range.lastLsnRead != 0) {
+                    previousLsn = range.lastLsnRead;
+                }
+                if(range.end < bounds[r + 2]) {
+                    // Damaged record, nothing after it counts
+                    end = range.end;
+                    cancelFrom(tasks, r + 1);
+                    break;
+                }
+            }
+            lastLsnRead = previousLsn;
+            count(read, started);
+            return end;
+        }
+
+        /**
+         * Gets the LSN of the last record the last read() call found
+         *
+         * @return The LSN, 0 if the file had no records
+         */
+        long getLastLsnRead() {
+            return lastLsnRead;
+        }
+
+        /**
+         * Counts the records compaction dropped from a log segment, see LogReplayer
+         */
+        void applyDropped(int created, int resolved, long maxTicketId, long endLsn) {
+            table.created += created;
+            table.resolved += resolved;
+            table.maxTicketId = Math.max(table.maxTicketId, maxTicketId);
+            table.lastLsn = Math.max(table.lastLsn, endLsn);
+        }
+
+        /**
+         * Returns the state after all files read so far
+         *
+         * @return The recovered state, tickets in queue order
+         */
+        RecoveredState finish() {
+            long started = System.nanoTime();
+            TicketTable t = table;
+
+            // Tickets still queued, in the order they were created
+            Ticket[] tickets = order(t, t.positions);
+            Ticket[] requeued = t.updated ? order(t, t.requeuedAt) : tickets;
+            count(0, started);
+            return new RecoveredState(tickets, requeued, t.maxTicketId, t.created, t.resolved, t.records, t.lastLsn);
+        }
+
+        /**
+         * Sorts the tickets still queued by one of the position arrays of the table
+         */
+        private Ticket[] order(TicketTable t, long[] at) {
+            long[] keys = new long[t.count];
+            LongIntHashMap byKey = new LongIntHashMap(Math.max(16, t.count));
+            int live = 0;
+            for(int i = 0; i < t.count; i++) {
+                boolean queued = t.startLsns[i] > t.clearLsn && t.endLsns[i] == 0
+                        && t.states[i] != null && t.positions[i] != NO_POSITION;
+                if(queued) {
+                    keys[live++] = at[i];
+                    byKey.put(at[i], i);
+                }
+            }
+            Arrays.parallelSort(keys, 0, live);
+            Ticket[] tickets = new Ticket[live];
+            for(int i = 0; i < live; i++) {
+                tickets[i] = t.states[byKey.get(keys[i])];
+            }
+            return tickets;
+        }
+
+        /**
+         * Cuts a log file into ranges of whole records
+         *
+         * @return Number of ranges r, then the r + 1 range bounds
+         */
+        private long[] split(FileChannel channel, long start) throws IOException {
+            long size = channel.size();
+            long[] bounds = new long[16];
+            int count = 1;
+            bounds[count++] = start;
+
+            ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+            long offset = start;
+            long rangeStart = start;
+            boolean damaged = false;
+            while(!damaged && offset + WriteAheadLog.HEADER_SIZE <= size) {
+                window.clear();
+                window.limit((int) Math.min(window.capacity(), size - offset));
+                while(window.hasRemaining() && channel.read(window, offset + window.position()) >= 0) {
+                    // Keep reading
+                }
+                window.flip();
+
+                int at = 0;
+                while(at + WriteAheadLog.HEADER_SIZE <= window.limit()) {
+                    int length = window.getInt(at);
+                    if(length < WriteAheadLog.MIN_BODY_SIZE || length > WriteAheadLog.MAX_BODY_SIZE
+                            || offset + at + WriteAheadLog.HEADER_SIZE + length > size) {
+                        damaged = true;
+                        break;
+                    }
+                    at += WriteAheadLog.HEADER_SIZE + length;
+                    if(offset + at - rangeStart >= rangeBytes) {
+                        rangeStart = offset + at;
+                        if(count == bounds.length) {
+                            bounds = Arrays.copyOf(bounds, count * 2);
+                        }
+                        bounds[count++] = rangeStart;
+                    }
+                }
+                offset += at;
+            }
+
+            if(bounds[count - 1] != offset) {
+                if(count == bounds.length) {
+                    bounds = Arrays.copyOf(bounds, count + 1);
+                }
+                bounds[count++] = offset;
+            }
+            bounds[0] = count - 2;
+            return bounds;
+        }
+    }
+
+    /**
+     * Stops the tasks of ranges that no longer count
+     */
+    private static void cancelFrom(ForkJoinTask<?>[] tasks, int first) {
+        for(int i = first; i < tasks.length; i++) {
+            tasks[i].cancel(false);
+        }
+    }
+
+    /**
+     * Checksums and decodes one range of log records into a TicketTable
+     */
+    private static final class LogRange extends RecursiveTask<TicketTable> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long from;
+        private final long to;
+        private final long afterLsn;
+
+        LogRange(FileChannel channel, long from, long to, long afterLsn) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+            this.afterLsn = afterLsn;
+        }
+
+        @Override
+        protected TicketTable compute() {
+            ByteBuffer buffer;
+            try {
+                buffer = readRange(channel, from, to);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            TicketTable table = new TicketTable();
+            CRC32 crc = new CRC32();
+            int at = 0;
+            while(at < buffer.limit()) {
+                int length = buffer.getInt(at);
+                crc.reset();
+                crc.update(buffer.array(), at + WriteAheadLog.HEADER_SIZE, length);
+                long lsn = buffer.getLong(at + WriteAheadLog.HEADER_SIZE);
+                if(buffer.getInt(at + 4) != (int) crc.getValue() || lsn <= table.lastLsnRead) {
+                    break;
+                }
+                if(table.firstLsn == 0) {
+                    table.firstLsn = lsn;
+                }
+                table.lastLsnRead = lsn;
+                table.recordsRead++;
+
+                if(lsn > afterLsn) {
+                    LogOperation operation = LogOperation.fromCode(buffer.get(at + WriteAheadLog.HEADER_SIZE + 8));
+                    long ticketId = buffer.getLong(at + WriteAheadLog.HEADER_SIZE + 9);
+                    Ticket ticket = null;
+                    if(operation.hasTicket()) {
+                        ByteBuffer body = buffer.duplicate();
+                        body.position(at + WriteAheadLog.HEADER_SIZE + WriteAheadLog.MIN_BODY_SIZE);
+                        body.limit(at + WriteAheadLog.HEADER_SIZE + length);
+                        ticket = TicketCodec.decode(body);
+                    }
+                    table.apply(lsn, operation, ticketId, ticket);
+                }
+                at += WriteAheadLog.HEADER_SIZE + length;
+            }
+            table.end = from + at;
+            return table;
+        }
+    }
+
+    /**
+     * Last known state of each ticket touched by a run of log records
+     */
+    private static final class TicketTable {
+
+        // Ticket ID -> index in the arrays below
+        private final LongIntHashMap index;
+
+        // ID of each ticket
+        private long[] ids;
+
+        // LSN the ticket was created at (the snapshot LSN for snapshot tickets), 0 if not seen
+        private long[] startLsns;
+
+        // LSN of the PROCESS or REMOVE record, 0 if not seen
+        private long[] endLsns;
+
+        // Position in the queue: LSN of the CREATE (negative for snapshot tickets), NO_POSITION if not seen
+        private long[] positions;
+
+        // Position in a queue that moves updated tickets: LSN of the last CREATE or UPDATE_PRIORITY, as above
+        private long[] requeuedAt;
+
+        // Whether a priority update was applied, the two orders can only differ then
+        private boolean updated;
+
+        // Last state of the ticket, null if not seen
+        private Ticket[] states;
+        private int count;
+
+        // Largest ticket ID, statistics and LSN of the last applied record, like LogReplayer
+        private long maxTicketId = -1;
+        private int created;
+        private int resolved;
+        private long records;
+        private long lastLsn;
+
+        // LSN of the last CLEAR, 0 if none
+        private long clearLsn;
+
+        // For one range: first and last LSN read, records read and offset after the last good one
+        private long firstLsn;
+        private long lastLsnRead;
+        private long recordsRead;
+        private long end;
+
+        TicketTable() {
+            this.index = new LongIntHashMap();
+            this.ids = new long[64];
+            this.startLsns = new long[64];
+            this.endLsns = new long[64];
+            this.positions = new long[64];
+            this.requeuedAt = new long[64];
+            this.states = new Ticket[64];
+        }
+
+        /**
+         * Gets the index of a ticket, adding it if it is new
+         */
+        int indexOf(long ticketId) {
+            int i = index.get(ticketId);
+            if(i != LongIntHashMap.NO_VALUE) {
+                return i;
+            }
+            if(count == states.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                startLsns = Arrays.copyOf(startLsns, count * 2);
+                endLsns = Arrays.copyOf(endLsns, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+                requeuedAt = Arrays.copyOf(requeuedAt, count * 2);
+                states = Arrays.copyOf(states, count * 2);
+            }
+            ids[count] = ticketId;
+            positions[count] = NO_POSITION;
+            requeuedAt[count] = NO_POSITION;
+            index.put(ticketId, count);
+            return count++;
+        }
+
+        /**
+         * Applies one record
+         */
+        void apply(long lsn, LogOperation operation, long ticketId, Ticket ticket) {
+            records++;
+            lastLsn = lsn;
+            if(operation == LogOperation.CLEAR) {
+                clearLsn = lsn;
+                return;
+            }
+            maxTicketId = Math.max(maxTicketId, ticketId);
+
+            int i = indexOf(ticketId);
+            switch(operation) {
+                case CREATE:
+                    created++;
+                    startLsns[i] = lsn;
+                    positions[i] = lsn;
+                    requeuedAt[i] = lsn;
+                    states[i] = ticket;
+                    break;
+                case UPDATE_PRIORITY:
+                    // Keeps its place in positions, a bucket queue would queue it again here
+                    requeuedAt[i] = lsn;
+                    updated = true;
+                    states[i] = ticket;
+                    break;
+                case ASSIGN_OWNER:
+                    states[i] = ticket;
+                    break;
+                case PROCESS:
+                    resolved++;
+                    endLsns[i] = lsn;
+                    break;
+                case REMOVE:
+                    endLsns[i] = lsn;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Merges a table of later records into this one, the later one wins
+         */
+        void merge(TicketTable later) {
+            for(int j = 0; j < later.count; j++) {
+                int i = indexOf(later.ids[j]);
+                if(later.startLsns[j] != 0) {
+                    startLsns[i] = later.startLsns[j];
+                }
+                if(later.endLsns[j] != 0) {
+                    endLsns[i] = later.endLsns[j];
+                }
+                if(later.positions[j] != NO_POSITION) {
+                    positions[i] = later.positions[j];
+                }
+                if(later.requeuedAt[j] != NO_POSITION) {
+                    requeuedAt[i] = later.requeuedAt[j];
+                }
+                if(later.states[j] != null) {
+                    states[i] = later.states[j];
+                }
+            }
+            maxTicketId = Math.max(maxTicketId, later.maxTicketId);
+            created += later.created;
+            resolved += later.resolved;
+            records += later.records;
+            if(later.records > 0) {
+                lastLsn = later.lastLsn;
+            }
+            clearLsn = Math.max(clearLsn, later.clearLsn);
+            updated |= later.updated;
+        }
+    }
+}
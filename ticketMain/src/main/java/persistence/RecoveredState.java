@@ -0,0 +1,132 @@
+package persistence;
+
+import model.Ticket;
+
+/**
+ * Tickets and statistics rebuilt from persisted data on startup.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class RecoveredState {
+
+    // Tickets still in the queue, in the order they should be queued
+    private final Ticket[] tickets;
+
+    // The same tickets in the order a queue that moves an updated ticket holds them
+    private final Ticket[] requeued;
+
+    // Largest ticket ID seen, or -1 if none
+    private final long maxTicketId;
+
+    // Statistics
+    private final int ticketsCreated;
+    private final int ticketsResolved;
+
+    // Number of log records read and LSN of the last one (0 if none)
+    private final long records;
+    private final long lastLsn;
+
+    /**
+     * Constructor
+     *
+     * @param tickets Tickets still in the queue, in queue order
+     * @param maxTicketId Largest ticket ID seen, or -1 if none
+     * @param ticketsCreated Number of tickets created
+     * @param ticketsResolved Number of tickets processed
+     * @param records Number of log records read
+     * @param lastLsn LSN of the last record, 0 if none
+     */
+    public RecoveredState(Ticket[] tickets, long maxTicketId, int ticketsCreated,
+                          int ticketsResolved, long records, long lastLsn) {
+        this(tickets, tickets, maxTicketId, ticketsCreated, ticketsResolved, records, lastLsn);
+    }
+
+    /**
+     * Constructor for a replay with priority updates, after which the
+     * queues that keep an updated ticket's place and those that move it
+     * hold the tickets in different orders
+     *
+     * @param tickets Tickets still in the queue, in the order they were created
+     * @param requeued The same tickets in the order they last joined their priority
+     * @param maxTicketId Largest ticket ID seen, or -1 if none
+     * @param ticketsCreated Number of tickets created
+     * @param ticketsResolved Number of tickets processed
+     * @param records Number of log records read
+     * @param lastLsn LSN of the last record, 0 if none
+     */
+    public RecoveredState(Ticket[] tickets, Ticket[] requeued, long maxTicketId, int ticketsCreated,
+                          int ticketsResolved, long records, long lastLsn) {
+        this.tickets = tickets;
+        this.requeued = requeued;
+        this.maxTicketId = maxTicketId;
+        this.ticketsCreated = ticketsCreated;
+        this.ticketsResolved = ticketsResolved;
+        this.records = records;
+        this.lastLsn = lastLsn;
+    }
+
+    /**
+     * Gets the tickets still in the queue
+     *
+     * @return The tickets in queue (insertion) order, not priority order
+     */
+    public Ticket[] getTickets() {
+        return tickets;
+    }
+
+    /**
+     * Gets the tickets still in the queue in the order a queue holds them
+     *
+     * @param keepsPlaceOnUpdate TicketQueue.keepsPlaceOnUpdate() of the queue they go into
+     * @return The tickets in insertion order for that queue, not priority order
+     */
+    public Ticket[] getTickets(boolean keepsPlaceOnUpdate) {
+        return keepsPlaceOnUpdate ? tickets : requeued;
+    }
+
+    /**
+     * Gets the largest ticket ID seen
+     *
+     * @return The largest ID, or -1 if none
+     */
+    public long getMaxTicketId() {
+        return maxTicketId;
+    }
+
+    /**
+     * Gets the number of tickets created
+     *
+     * @return The number of tickets
+     */
+    public int getTicketsCreated() {
+        return ticketsCreated;
+    }
+
+    /**
+     * Gets the number of tickets processed
+     *
+     * @return The number of tickets
+     */
+    public int getTicketsResolved() {
+        return ticketsResolved;
+    }
+
+    /**
+     * Gets the number of log records read
+     *
+     * @return The number of records
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Gets the LSN of the last record read
+     *
+     * @return The LSN, 0 if none
+     */
+    public long getLastLsn() {
+        return lastLsn;
+    }
+}
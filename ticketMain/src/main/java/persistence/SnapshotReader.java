@@ -0,0 +1,299 @@
+package persistence;
+
+import model.Ticket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads tickets written by SnapshotWriter, one at a time.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class SnapshotReader {
+
+    // Header size: magic, version, LSN, created, resolved, and restart interval from version 2
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+    private static final int RESTART_HEADER_SIZE = HEADER_SIZE + 4;
+
+    // Where the snapshot comes from
+    private final ReadableByteChannel in;
+
+    // Bytes read but not yet decoded
+    private ByteBuffer buffer;
+
+    // Checksum of everything decoded
+    private final CRC32 crc;
+
+    private final CompactTicketCodec codec;
+
+    // Header fields
+    private final long lastLsn;
+    private final int ticketsCreated;
+    private final int ticketsResolved;
+
+    // Tickets between codec resets, 0 if the codec never resets (version 1)
+    private final int restartInterval;
+
+    // Size of the header
+    private final int headerSize;
+
+    // Tickets read so far, and whether the trailer was reached
+    private int count;
+    private boolean finished;
+
+    // Bytes of the last record read, length prefix included
+    private int recordSize;
+
+    /**
+     * Starts reading a snapshot from a channel
+     *
+     * @param in Channel to read from, not closed by the reader
+     * @throws IOException If the channel cannot be read or is not a snapshot
+     */
+    public SnapshotReader(ReadableByteChannel in) throws IOException {
+        if(in == null) {
+            throw new IllegalArgumentException("Channel cannot be null");
+        }
+        this.in = in;
+        this.buffer = ByteBuffer.allocate(SnapshotWriter.BUFFER_SIZE);
+        buffer.flip();
+        this.crc = new CRC32();
+        this.codec = new CompactTicketCodec();
+
+        require(HEADER_SIZE);
+        int start = buffer.position();
+        if(buffer.getInt() != SnapshotWriter.MAGIC) {
+            throw new IOException("Not a ticket snapshot");
+        }
+        int version = buffer.getInt();
+        if(version != 1 && version != SnapshotWriter.VERSION) {
+            throw new IOException("Unsupported snapshot version");
+        }
+        this.lastLsn = buffer.getLong();
+        this.ticketsCreated = buffer.getInt();
+        this.ticketsResolved = buffer.getInt();
+        crc.update(buffer.array(), start, HEADER_SIZE);
+        if(version == 1) {
+            this.restartInterval = 0;
+            this.headerSize = HEADER_SIZE;
+        } else {
+            require(4);
+            crc.update(buffer.array(), buffer.position(), 4);
+            this.restartInterval = buffer.getInt();
+            this.headerSize = RESTART_HEADER_SIZE;
+            if(restartInterval <= 0) {
+                throw new IOException("Snapshot is damaged (restart interval " + restartInterval + ")");
+            }
+        }
+    }
+
+    /**
+     * Reads a whole snapshot file
+     *
+     * @param file Snapshot file
+     * @return The tickets in queue order and the statistics
+     * @throws IOException If the file cannot be read or is damaged
+     */
+    public static RecoveredState readFile(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SnapshotReader reader = new SnapshotReader(channel);
+            Ticket[] tickets = new Ticket[1024];
+            int count = 0;
+            long maxTicketId = -1;
+            Ticket ticket;
+            while((ticket = reader.next()) != null) {
+                if(count == tickets.length) {
+                    Ticket[] bigger = new Ticket[tickets.length * 2];
+                    System.arraycopy(tickets, 0, bigger, 0, count);
+                    tickets = bigger;
+                }
+                tickets[count++] = ticket;
+                maxTicketId = Math.max(maxTicketId, ticket.getTicketID());
+            }
+
+            Ticket[] exact = new Ticket[count];
+            System.arraycopy(tickets, 0, exact, 0, count);
+            return new RecoveredState(exact, maxTicketId, reader.getTicketsCreated(),
+                    reader.getTicketsResolved(), count, reader.getLastLsn());
+        }
+    }
+
+    /**
+     * Reads the next ticket
+     *
+     * @return The ticket, or null at the end of the snapshot
+     * @throws IOException If the channel cannot be read or the snapshot is damaged
+     */
+    public Ticket next() throws IOException {
+        ByteBuffer record = nextRecord();
+        if(record == null) {
+            return null;
+        }
+        if(restartInterval > 0 && count % restartInterval == 0) {
+            codec.reset();
+        }
+        Ticket ticket;
+        try {
+            ticket = codec.decode(record);
+        } catch(RuntimeException e) {
+            throw new IOException("Snapshot is damaged (ticket " + count + ")", e);
+        }
+        count++;
+        return ticket;
+    }
+
+    /**
+     * Steps over the next ticket without decoding it, its bytes are
+     * still checksummed. Used by ParallelRecovery to find the blocks.
+     *
+     * @return Bytes of the ticket's record, 0 at the end of the snapshot
+     * @throws IOException If the channel cannot be read or the snapshot is damaged
+     */
+    int skip() throws IOException {
+        if(nextRecord() == null) {
+            return 0;
+        }
+        count++;
+        return recordSize;
+    }
+
+    /**
+     * Reads the next record and checks the trailer at the end
+     *
+     * @return The record body, or null at the end of the snapshot
+     */
+    private ByteBuffer nextRecord() throws IOException {
+        if(finished) {
+            return null;
+        }
+
+        require(5);
+        int start = buffer.position();
+        long length = CompactTicketCodec.getVarLong(buffer);
+        if(length == 0) {
+            readTrailer(start);
+            return null;
+        }
+        if(length > WriteAheadLog.MAX_BODY_SIZE) {
+            throw new IOException("Snapshot is damaged (record length " + length + ")");
+        }
+
+        int lengthSize = buffer.position() - start;
+        buffer.position(start);
+        require(lengthSize + (int) length);
+        start = buffer.position(); // The buffer may have been compacted
+        crc.update(buffer.array(), start, lengthSize + (int) length);
+
+        ByteBuffer record = buffer.duplicate();
+        record.position(start + lengthSize).limit(start + lengthSize + (int) length);
+        buffer.position(start + lengthSize + (int) length);
+        recordSize = lengthSize + (int) length;
+        return record;
+    }
+
+    /**
+     * Checks the count and checksum at the end of the snapshot
+     */
+    private void readTrailer(int start) throws IOException {
+        // The end marker is one byte, the count is part of the checksum
+        buffer.position(start);
+        require(1 + 4 + 4);
+        start = buffer.position();
+        crc.update(buffer.array(), start, 1 + 4);
+        buffer.position(start + 1);
+        int storedCount = buffer.getInt();
+        int storedCrc = buffer.getInt();
+        if(storedCount != count || storedCrc != (int) crc.getValue()) {
+            throw new IOException("Snapshot is damaged (checksum or ticket count mismatch)");
+        }
+        finished = true;
+    }
+
+    /**
+     * Makes sure at least the given number of bytes is buffered
+     * A snapshot always ends with a 9 byte trailer, so a record
+     * length prefix of up to 5 bytes can always be buffered
+     */
+    private void require(int bytes) throws IOException {
+        if(buffer.remaining() >= bytes) {
+            return;
+        }
+        if(buffer.capacity() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(bytes);
+            bigger.put(buffer);
+            bigger.flip();
+            buffer = bigger;
+        }
+        buffer.compact();
+        while(buffer.position() < bytes) {
+            if(in.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        if(buffer.remaining() < bytes) {
+            throw new IOException("Snapshot is cut short");
+        }
+    }
+
+    /**
+     * Gets the LSN of the last log record the snapshot covers
+     *
+     * @return The LSN, 0 if none
+     */
+    public long getLastLsn() {
+        return lastLsn;
+    }
+
+    /**
+     * Gets the number of tickets between codec resets
+     *
+     * @return The interval, 0 if the codec never resets (version 1)
+     */
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    /**
+     * Gets the size of the header
+     *
+     * @return Bytes before the first record
+     */
+    int getHeaderSize() {
+        return headerSize;
+    }
+
+    /**
+     * Gets the number of tickets read so far
+     *
+     * @return The number of tickets
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the number of tickets created, from the header
+     *
+     * @return The number of tickets
+     */
+    public int getTicketsCreated() {
+        return ticketsCreated;
+    }
+
+    /**
+     * Gets the number of tickets processed, from the header
+     *
+     * @return The number of tickets
+     */
+    public int getTicketsResolved() {
+        return ticketsResolved;
+    }
+}
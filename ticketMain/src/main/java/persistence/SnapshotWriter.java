@@ -0,0 +1,241 @@
+package persistence;
+
+import model.Ticket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Writes tickets in the compact snapshot format.
+ *
+ * Layout:
+ * header: int magic, int version, long LSN of the last log record
+ *   covered, int tickets created, int tickets resolved, int restart
+ *   interval (version 2)
+ * records: varint record length, ticket (CompactTicketCodec). The codec
+ *   is reset every restart interval tickets, so each block of tickets
+ *   can be decoded on its own (ParallelRecovery).
+ * trailer: varint 0, int number of tickets, int CRC32 of everything before
+ *
+ * Tickets are written in the order they should be queued again, so
+ * reading them back and bulk inserting them keeps the queue order.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class SnapshotWriter {
+
+    // "TSNP"
+    static final int MAGIC = 0x54534E50;
+    static final int VERSION = 2;
+
+    // Tickets between codec resets
+    static final int RESTART_INTERVAL = 4096;
+
+    // Size of the write buffer
+    static final int BUFFER_SIZE = 1 << 20;
+
+    // Where the snapshot goes
+    private final WritableByteChannel out;
+
+    // Bytes not yet written
+    private ByteBuffer buffer;
+
+    // One encoded ticket
+    private ByteBuffer record;
+
+    // Checksum of everything written
+    private final CRC32 crc;
+
+    private final CompactTicketCodec codec;
+
+    // Number of tickets written
+    private int count;
+
+    private boolean finished;
+
+    /**
+     * Starts a snapshot on a channel
+     *
+     * @param out Channel to write to, not closed by the writer
+     * @param ticketsCreated Statistic stored in the header
+     * @param ticketsResolved Statistic stored in the header
+     * @param lastLsn LSN of the last log record the snapshot covers (0 if none)
+     */
+    public SnapshotWriter(WritableByteChannel out, int ticketsCreated, int ticketsResolved, long lastLsn) {
+        if(out == null) {
+            throw new IllegalArgumentException("Channel cannot be null");
+        }
+        this.out = out;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.record = ByteBuffer.allocate(4096);
+        this.crc = new CRC32();
+        this.codec = new CompactTicketCodec();
+
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(lastLsn)
+                .putInt(ticketsCreated).putInt(ticketsResolved).putInt(RESTART_INTERVAL);
+    }
+
+    /**
+     * Writes the tickets of a snapshot file, see writeFile
+     */
+    public interface Contents {
+        void writeTo(SnapshotWriter writer) throws IOException;
+    }
+
+    /**
+     * Writes a whole snapshot file
+     * The tickets go to a temporary file that is fsynced and then renamed
+     * over the target, so a crash never leaves a half written snapshot.
+     *
+     * @param file Snapshot file
+     * @param tickets Tickets in queue order
+     * @param ticketsCreated Statistic stored in the header
+     * @param ticketsResolved Statistic stored in the header
+     * @param lastLsn LSN of the last log record the snapshot covers (0 if none)
+     * @throws IOException If the file cannot be written
+     */
+    public static void writeFile(Path file, Ticket[] tickets, int ticketsCreated,
+                                 int ticketsResolved, long lastLsn) throws IOException {
+        writeFile(file, ticketsCreated, ticketsResolved, lastLsn, writer -> {
+            for(Ticket ticket : tickets) {
+                writer.write(ticket);
+            }
+        });
+    }
+
+    /**
+     * Writes a whole snapshot file whose tickets are produced by a callback,
+     * e.g. a few at a time under a lock
+     *
+     * @param file Snapshot file
+     * @param ticketsCreated Statistic stored in the header
+     * @param ticketsResolved Statistic stored in the header
+     * @param lastLsn LSN of the last log record the snapshot covers (0 if none)
+     * @param contents Writes the tickets in queue order
+     * @throws IOException If the file cannot be written
+     */
+    public static void writeFile(Path file, int ticketsCreated, int ticketsResolved,
+                                 long lastLsn, Contents contents) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SnapshotWriter writer = new SnapshotWriter(channel, ticketsCreated, ticketsResolved, lastLsn);
+            contents.writeTo(writer);
+            writer.finish();
+            channel.force(true);
+        } catch(IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The rename is only durable once the directory is, a log truncated after this relies on it
+        syncDirectory(file);
+    }
+
+    /**
+     * Fsyncs the directory holding a file, so a rename into it survives a crash
+     * Skipped where a directory cannot be opened (Windows)
+     *
+     * @param file A file in the directory
+     * @throws IOException If the directory cannot be synced
+     */
+    static void syncDirectory(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch(IOException e) {
+            return;
+        }
+        try(FileChannel open = channel) {
+            open.force(true);
+        }
+    }
+
+    /**
+     * Writes a ticket
+     *
+     * @param ticket The ticket
+     * @throws IOException If the channel cannot be written
+     */
+    public void write(Ticket ticket) throws IOException {
+        if(finished) {
+            throw new IllegalStateException("Snapshot is already finished");
+        }
+
+        int maxSize = CompactTicketCodec.maxSize(ticket);
+        if(record.capacity() < maxSize) {
+            record = ByteBuffer.allocate(maxSize);
+        }
+        record.clear();
+        if(count > 0 && count % RESTART_INTERVAL == 0) {
+            codec.reset();
+        }
+        codec.encode(ticket, record);
+        record.flip();
+
+        ensureRoom(10 + record.remaining());
+        CompactTicketCodec.putVarLong(buffer, record.remaining());
+        buffer.put(record);
+        count++;
+    }
+
+    /**
+     * Writes the trailer and everything still buffered
+     *
+     * @throws IOException If the channel cannot be written
+     */
+    public void finish() throws IOException {
+        if(finished) {
+            return;
+        }
+        ensureRoom(16);
+        CompactTicketCodec.putVarLong(buffer, 0);
+        buffer.putInt(count);
+        drain();
+        buffer.putInt((int) crc.getValue());
+        drain();
+        finished = true;
+    }
+
+    /**
+     * Gets the number of tickets written
+     *
+     * @return Number of tickets
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Makes room in the buffer, writing it out if needed
+     */
+    private void ensureRoom(int bytes) throws IOException {
+        if(buffer.remaining() < bytes) {
+            drain();
+            if(buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocate(bytes);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffer to the channel
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        crc.update(buffer.array(), 0, buffer.limit());
+        while(buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
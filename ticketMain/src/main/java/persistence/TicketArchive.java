@@ -0,0 +1,615 @@
+package persistence;
+
+import model.Ticket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold storage for tickets that left the queue (processed or removed).
+ *
+ * Tickets are collected in memory until a block is full, then the block
+ * is sorted by ID, encoded with CompactTicketCodec (reset per block),
+ * Deflate-compressed and appended to the archive file. The file is
+ * only ever appended to.
+ *
+ * The sparse index keeps one entry per block in memory: the smallest
+ * and largest ID in it and where it starts, not one entry per ticket.
+ * A lookup only decompresses the blocks whose ID range covers the ID,
+ * newest first, and stops early inside a block since its IDs are sorted.
+ * Open rebuilds the index by walking the block headers, and cuts off a
+ * block left half written by a crash.
+ *
+ * Layout:
+ * file header: int magic "TARC", int version
+ * block: int compressed length, int raw length, int tickets, long
+ *   smallest ID, long largest ID, int CRC32 of the header fields before
+ *   it and the compressed bytes, then the compressed bytes
+ * raw block: varint record length, ticket (CompactTicketCodec), repeated
+ *
+ * Tickets of the open block are kept on-heap and appended to a journal
+ * next to the archive (the archive file name plus ".pending"), which
+ * sync() fsyncs. A block is fsynced when it is written and the journal
+ * then emptied. Open reads the journal back into the open block, up to
+ * a torn record, and drops it if the last block already holds it.
+ *
+ * Journal record: int length, int CRC32 of the ticket, ticket (TicketCodec)
+ *
+ * Methods are synchronized, so ConcurrentTicketService can look tickets
+ * up without holding its lock.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class TicketArchive implements Closeable {
+
+    // "TARC"
+    private static final int MAGIC = 0x54415243;
+    private static final int VERSION = 1;
+
+    // Bytes of the file header and of each block header
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 4;
+
+    // Default tickets per block
+    private static final int DEFAULT_BLOCK_TICKETS = 256;
+
+    // Largest raw or compressed block accepted when reading
+    private static final int MAX_BLOCK_SIZE = 64 << 20;
+
+    // Orders a block by ticket ID
+    private static final Comparator<Ticket> BY_ID = Comparator.comparingLong(Ticket::getTicketID);
+
+    // The archive file and where the next block goes
+    private final FileChannel channel;
+    private long end;
+
+    // Journal of the open block, where its next record goes and whether it needs an fsync
+    private final FileChannel journal;
+    private long journalEnd;
+    private boolean journalDirty;
+
+    // Sparse index, one entry per block in file order
+    private long[] minIds;
+    private long[] maxIds;
+    private long[] offsets;
+    private int blockCount;
+
+    // Tickets of the block being filled, more than blockTickets if a block write failed
+    private Ticket[] pending;
+    private int pendingCount;
+
+    // Tickets per block
+    private final int blockTickets;
+
+    // Tickets archived, written or pending
+    private long ticketCount;
+
+    // Encoding and compression state, reused for every block
+    private final CompactTicketCodec codec;
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private ByteBuffer raw;
+    private ByteBuffer record;
+    private ByteBuffer journalRecord;
+    private byte[] compressed;
+
+    private boolean closed;
+
+    /**
+     * Constructor, see open
+     */
+    private TicketArchive(FileChannel channel, FileChannel journal, int blockTickets) {
+        this.channel = channel;
+        this.journal = journal;
+        this.minIds = new long[64];
+        this.maxIds = new long[64];
+        this.offsets = new long[64];
+        this.pending = new Ticket[blockTickets];
+        this.blockTickets = blockTickets;
+        this.codec = new CompactTicketCodec();
+        this.deflater = new Deflater(Deflater.BEST_SPEED);
+        this.inflater = new Inflater();
+        this.raw = ByteBuffer.allocate(64 << 10);
+        this.record = ByteBuffer.allocate(4096);
+        this.journalRecord = ByteBuffer.allocate(4096);
+        this.compressed = new byte[16 << 10];
+    }
+
+    /**
+     * Opens an archive with the default block size, creating it if needed
+     *
+     * @param file Archive file
+     * @return The open archive
+     * @throws IOException If the file cannot be read or is not an archive
+     */
+    public static TicketArchive open(Path file) throws IOException {
+        return open(file, DEFAULT_BLOCK_TICKETS);
+    }
+
+    /**
+     * Opens an archive, creating it if needed
+     *
+     * @param file Archive file
+     * @param blockTickets Tickets per compressed block
+     * @return The open archive
+     * @throws IOException If the file cannot be read or is not an archive
+     */
+    public static TicketArchive open(Path file, int blockTickets) throws IOException {
+        if(file == null) {
+            throw new IllegalArgumentException("Archive file cannot be null");
+        }
+        if(blockTickets <= 0) {
+            throw new IllegalArgumentException("Block size must be greater than 0");
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel journal;
+        try {
+            journal = FileChannel.open(file.resolveSibling(file.getFileName() + ".pending"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        TicketArchive archive = new TicketArchive(channel, journal, blockTickets);
+        try {
+            archive.load(file);
+            archive.loadJournal();
+        } catch(IOException | RuntimeException e) {
+            archive.deflater.end();
+            archive.inflater.end();
+            journal.close();
+            channel.close();
+            throw e;
+        }
+        return archive;
+    }
+
+    /**
+     * Writes the file header of a new archive, or rebuilds the index of an existing one
+     */
+    private void load(Path file) throws IOException {
+        long size = channel.size();
+        if(size < FILE_HEADER_SIZE) {
+            // New, or crashed before the header was complete
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            writeFully(channel, header, 0);
+            channel.force(true);
+            end = FILE_HEADER_SIZE;
+            return;
+        }
+
+        ByteBuffer header = readFully(0, FILE_HEADER_SIZE);
+        if(header.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a ticket archive");
+        }
+        if(header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported ticket archive version " + header.getInt(4) + " in " + file);
+        }
+
+        // Walk the block headers, the payloads are skipped
+        long position = FILE_HEADER_SIZE;
+        while(position + BLOCK_HEADER_SIZE <= size) {
+            ByteBuffer block = readFully(position, BLOCK_HEADER_SIZE);
+            int compressedLength = block.getInt(0);
+            int count = block.getInt(8);
+            long next = position + BLOCK_HEADER_SIZE + compressedLength;
+            if(compressedLength <= 0 || compressedLength > MAX_BLOCK_SIZE || count <= 0 || next > size) {
+                break;
+            }
+            // Only the last block can be torn, its checksum is checked here, the others on read
+            if(next == size && !checksumMatches(position, block, compressedLength)) {
+                break;
+            }
+            addIndexEntry(block.getLong(12), block.getLong(20), position);
+            ticketCount += count;
+            position = next;
+        }
+        if(position < size) {
+            // Half written block from a crash
+            channel.truncate(position);
+            channel.force(true);
+        }
+        end = position;
+    }
+
+    /**
+     * Reads the journal back into the open block, cutting off a torn record
+     */
+    private void loadJournal() throws IOException {
+        long size = journal.size();
+        if(size > MAX_BLOCK_SIZE) {
+            throw new IOException("Ticket archive journal is too large (" + size + " bytes)");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) size);
+        while(bytes.hasRemaining()) {
+            if(journal.read(bytes, bytes.position()) < 0) {
+                break;
+            }
+        }
+        int limit = bytes.position();
+
+        int position = 0;
+        while(position + 8 <= limit) {
+            int length = bytes.getInt(position);
+            if(length <= 0 || length > limit - position - 8) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.array(), position + 8, length);
+            if(bytes.getInt(position + 4) != (int) crc.getValue()) {
+                break;
+            }
+            try {
+                addPending(TicketCodec.decode(ByteBuffer.wrap(bytes.array(), position + 8, length)));
+            } catch(RuntimeException e) {
+                break;
+            }
+            position += 8 + length;
+        }
+
+        // A crash after a block was written but before the journal was emptied
+        if(pendingCount > 0 && blockCount > 0 && searchBlock(blockCount - 1, pending[0].getTicketID()) != null) {
+            Arrays.fill(pending, 0, pendingCount, null);
+            pendingCount = 0;
+            position = 0;
+        }
+        if(position < size) {
+            journal.truncate(position);
+            journal.force(true);
+        }
+        journalEnd = position;
+        ticketCount += pendingCount;
+    }
+
+    /**
+     * Archives a ticket that left the queue
+     *
+     * The ticket is written to the journal, which sync() makes durable
+     *
+     * Time Complexity 0(1), 0(b log b) when it fills a block of b tickets
+     *
+     * @param ticket The ticket, not changed by the archive afterwards
+     * @throws IOException If the journal or a full block cannot be written, the ticket is then still kept pending
+     */
+    public synchronized void add(Ticket ticket) throws IOException {
+        if(ticket == null) {
+            throw new IllegalArgumentException("Ticket cannot be null");
+        }
+        checkOpen();
+        addPending(ticket);
+        ticketCount++;
+        appendJournal(ticket);
+        if(pendingCount >= blockTickets) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Fsyncs the journal, so the tickets added so far survive a crash
+     *
+     * @throws IOException If the journal cannot be synced
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        if(journalDirty) {
+            journal.force(false);
+            journalDirty = false;
+        }
+    }
+
+    /**
+     * Looks up an archived ticket
+     * Each call decodes a new Ticket, changing it does not change the archive
+     *
+     * Time Complexity 0(k + m b) for k blocks, m of which cover the ID
+     *
+     * @param ticketId ID of the ticket
+     * @return The ticket as it was archived, or null if it is not in the archive
+     * @throws IOException If a block cannot be read or is damaged
+     */
+    public synchronized Ticket find(long ticketId) throws IOException {
+        checkOpen();
+        for(int i = pendingCount - 1; i >= 0; i--) {
+            if(pending[i].getTicketID() == ticketId) {
+                return pending[i];
+            }
+        }
+        // Newest block first, a recent ticket is the likeliest lookup
+        for(int block = blockCount - 1; block >= 0; block--) {
+            if(ticketId >= minIds[block] && ticketId <= maxIds[block]) {
+                Ticket ticket = searchBlock(block, ticketId);
+                if(ticket != null) {
+                    return ticket;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of archived tickets
+     *
+     * @return Number of tickets, written or pending
+     */
+    public synchronized long getTicketCount() {
+        return ticketCount;
+    }
+
+    /**
+     * Gets the number of blocks written
+     *
+     * @return Number of blocks, the size of the sparse index
+     */
+    public synchronized int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Gets the size of the archive file
+     *
+     * @return Bytes written
+     */
+    public synchronized long getFileSize() {
+        return end;
+    }
+
+    /**
+     * Writes the pending tickets as a block, which fsyncs it
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if(pendingCount > 0) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the pending tickets and closes the file
+     *
+     * @throws IOException If the file cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            deflater.end();
+            inflater.end();
+            try {
+                journal.close();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Adds a ticket to the open block
+     * The block grows past blockTickets only while block writes fail
+     */
+    private void addPending(Ticket ticket) {
+        if(pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, pendingCount * 2);
+        }
+        pending[pendingCount++] = ticket;
+    }
+
+    /**
+     * Appends a ticket to the journal, without an fsync
+     */
+    private void appendJournal(Ticket ticket) throws IOException {
+        int maxSize = 8 + TicketCodec.maxSize(ticket);
+        if(journalRecord.capacity() < maxSize) {
+            journalRecord = ByteBuffer.allocate(maxSize);
+        }
+        journalRecord.clear();
+        journalRecord.position(8);
+        TicketCodec.encode(ticket, journalRecord);
+        int length = journalRecord.position() - 8;
+        CRC32 crc = new CRC32();
+        crc.update(journalRecord.array(), 8, length);
+        journalRecord.putInt(0, length).putInt(4, (int) crc.getValue());
+        journalRecord.flip();
+        writeFully(journal, journalRecord, journalEnd);
+        journalEnd += 8 + length;
+        journalDirty = true;
+    }
+
+    /**
+     * Sorts, encodes, compresses and appends the pending tickets, fsyncs
+     * the block and empties the journal
+     */
+    private void writeBlock() throws IOException {
+        int count = pendingCount;
+        Arrays.sort(pending, 0, count, BY_ID);
+
+        raw.clear();
+        codec.reset();
+        for(int i = 0; i < count; i++) {
+            int maxSize = CompactTicketCodec.maxSize(pending[i]);
+            if(record.capacity() < maxSize) {
+                record = ByteBuffer.allocate(maxSize);
+            }
+            record.clear();
+            codec.encode(pending[i], record);
+            record.flip();
+            if(raw.remaining() < 10 + record.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(raw.capacity() * 2, raw.position() + 10 + record.remaining()));
+                raw.flip();
+                bigger.put(raw);
+                raw = bigger;
+            }
+            CompactTicketCodec.putVarLong(raw, record.remaining());
+            raw.put(record);
+        }
+        int rawLength = raw.position();
+
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, rawLength);
+        deflater.finish();
+        int compressedLength = 0;
+        while(!deflater.finished()) {
+            if(compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+
+        long minId = pending[0].getTicketID();
+        long maxId = pending[count - 1].getTicketID();
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + compressedLength);
+        block.putInt(compressedLength).putInt(rawLength).putInt(count).putLong(minId).putLong(maxId);
+        CRC32 crc = new CRC32();
+        crc.update(block.array(), 0, BLOCK_HEADER_SIZE - 4);
+        crc.update(compressed, 0, compressedLength);
+        block.putInt((int) crc.getValue());
+        block.put(compressed, 0, compressedLength);
+        block.flip();
+        writeFully(channel, block, end);
+        channel.force(false);
+
+        addIndexEntry(minId, maxId, end);
+        end += BLOCK_HEADER_SIZE + compressedLength;
+        Arrays.fill(pending, 0, count, null);
+        pendingCount = 0;
+
+        // A crash before this leaves the journal behind, open sees the block holds it
+        journal.truncate(0);
+        journalEnd = 0;
+        journalDirty = false;
+    }
+
+    /**
+     * Decompresses a block and decodes it up to the wanted ticket
+     *
+     * @return The ticket, or null if the block does not hold it
+     */
+    private Ticket searchBlock(int block, long ticketId) throws IOException {
+        long position = offsets[block];
+        ByteBuffer header = readFully(position, BLOCK_HEADER_SIZE);
+        int compressedLength = header.getInt(0);
+        int rawLength = header.getInt(4);
+        int count = header.getInt(8);
+        if(compressedLength <= 0 || compressedLength > MAX_BLOCK_SIZE || rawLength <= 0 || rawLength > MAX_BLOCK_SIZE) {
+            throw new IOException("Ticket archive block at offset " + position + " is damaged");
+        }
+        ByteBuffer payload = readFully(position + BLOCK_HEADER_SIZE, compressedLength);
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, BLOCK_HEADER_SIZE - 4);
+        crc.update(payload.array(), 0, compressedLength);
+        if(header.getInt(BLOCK_HEADER_SIZE - 4) != (int) crc.getValue()) {
+            throw new IOException("Ticket archive block at offset " + position + " is damaged");
+        }
+
+        byte[] bytes = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(payload.array(), 0, compressedLength);
+        try {
+            if(inflater.inflate(bytes) != rawLength || !inflater.finished()) {
+                throw new IOException("Ticket archive block at offset " + position + " is damaged");
+            }
+        } catch(DataFormatException e) {
+            throw new IOException("Ticket archive block at offset " + position + " is damaged", e);
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        codec.reset();
+        try {
+            for(int i = 0; i < count; i++) {
+                int length = (int) CompactTicketCodec.getVarLong(in);
+                ByteBuffer ticketBytes = in.duplicate();
+                ticketBytes.limit(in.position() + length);
+                in.position(in.position() + length);
+                // Every ticket is decoded, the codec needs the strings of the ones before
+                Ticket ticket = codec.decode(ticketBytes);
+                if(ticket.getTicketID() == ticketId) {
+                    return ticket;
+                }
+                if(ticket.getTicketID() > ticketId) {
+                    return null;
+                }
+            }
+        } catch(RuntimeException e) {
+            throw new IOException("Ticket archive block at offset " + position + " is damaged", e);
+        }
+        return null;
+    }
+
+    /**
+     * Checks the checksum of a block whose header was read
+     */
+    private boolean checksumMatches(long position, ByteBuffer header, int compressedLength) throws IOException {
+        ByteBuffer payload = readFully(position + BLOCK_HEADER_SIZE, compressedLength);
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, BLOCK_HEADER_SIZE - 4);
+        crc.update(payload.array(), 0, compressedLength);
+        return header.getInt(BLOCK_HEADER_SIZE - 4) == (int) crc.getValue();
+    }
+
+    /**
+     * Adds a block to the sparse index
+     */
+    private void addIndexEntry(long minId, long maxId, long offset) {
+        if(blockCount == offsets.length) {
+            minIds = Arrays.copyOf(minIds, blockCount * 2);
+            maxIds = Arrays.copyOf(maxIds, blockCount * 2);
+            offsets = Arrays.copyOf(offsets, blockCount * 2);
+        }
+        minIds[blockCount] = minId;
+        maxIds[blockCount] = maxId;
+        offsets[blockCount] = offset;
+        blockCount++;
+    }
+
+    /**
+     * Reads bytes at a position of the file
+     */
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Ticket archive ends inside a block at offset " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes bytes at a position of the archive or journal file
+     */
+    private static void writeFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            file.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Throws if the archive was closed
+     */
+    private void checkOpen() {
+        if(closed) {
+            throw new IllegalStateException("Ticket archive is closed");
+        }
+    }
+}
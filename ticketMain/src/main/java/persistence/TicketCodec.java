@@ -0,0 +1,127 @@
+package persistence;
+
+import model.Ticket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Encodes the full state of a ticket as bytes and back, for the
+ * write-ahead log.
+ *
+ * Layout:
+ * long ID, byte priority, byte status,
+ * creator, owner, request type, description as strings,
+ * created and updated as (long epoch second, int nano) in UTC.
+ * A string is an int byte length (-1 for null) followed by UTF-8 bytes.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public final class TicketCodec {
+
+    // Ticket statuses by ordinal
+    private static final Ticket.TicketStatus[] STATUSES = Ticket.TicketStatus.values();
+
+    /**
+     * Private constructor, only static methods
+     */
+    private TicketCodec() {
+    }
+
+    /**
+     * Upper bound of the encoded size of a ticket
+     *
+     * @param ticket The ticket
+     * @return Maximum number of bytes encode writes
+     */
+    public static int maxSize(Ticket ticket) {
+        return 8 + 2 + 4 * 4 + 2 * 12
+                + maxSize(ticket.getCreator()) + maxSize(ticket.getOwner())
+                + maxSize(ticket.getRequestType()) + maxSize(ticket.getDescription());
+    }
+
+    /**
+     * Upper bound of the UTF-8 size of a string
+     */
+    private static int maxSize(String value) {
+        return value == null ? 0 : value.length() * 3;
+    }
+
+    /**
+     * Writes a ticket
+     *
+     * @param ticket The ticket
+     * @param out Buffer with at least maxSize(ticket) bytes remaining
+     */
+    public static void encode(Ticket ticket, ByteBuffer out) {
+        out.putLong(ticket.getTicketID());
+        out.put((byte) ticket.getPriority());
+        out.put((byte) ticket.getStatus().ordinal());
+        putString(out, ticket.getCreator());
+        putString(out, ticket.getOwner());
+        putString(out, ticket.getRequestType());
+        putString(out, ticket.getDescription());
+        putTime(out, ticket.getCreatedAt());
+        putTime(out, ticket.getUpdatedAt());
+    }
+
+    /**
+     * Reads a ticket written by encode
+     *
+     * @param in Buffer positioned at the ticket
+     * @return The ticket
+     */
+    public static Ticket decode(ByteBuffer in) {
+        long id = in.getLong();
+        int priority = in.get();
+        int status = in.get();
+        if(status < 0 || status >= STATUSES.length) {
+            throw new IllegalArgumentException("Unknown ticket status " + status);
+        }
+        String creator = getString(in);
+        String owner = getString(in);
+        String requestType = getString(in);
+        String description = getString(in);
+        LocalDateTime createdAt = getTime(in);
+        LocalDateTime updatedAt = getTime(in);
+        return new Ticket(id, creator, owner, requestType, description,
+                priority, STATUSES[status], createdAt, updatedAt);
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        if(value == null) {
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if(length == -1) {
+            return null;
+        }
+        if(length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putTime(ByteBuffer out, LocalDateTime time) {
+        out.putLong(time.toEpochSecond(ZoneOffset.UTC));
+        out.putInt(time.getNano());
+    }
+
+    private static LocalDateTime getTime(ByteBuffer in) {
+        long seconds = in.getLong();
+        int nanos = in.getInt();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,1229 @@
+package persistence;
+
+import model.Ticket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only log of every change TicketService makes.
+ *
+ * Each change is appended as a record with a log sequence number (LSN).
+ * On startup the log is read back and replayed, so the queue comes back
+ * as it was before a crash or restart.
+ *
+ * Record layout:
+ * int body length, int CRC32 of the body, then the body:
+ * long LSN, byte operation, long ticket ID, ticket state (TicketCodec)
+ * for operations that carry one.
+ * A record that is cut short or fails its CRC marks the end of the log,
+ * it and anything after it is dropped on open.
+ *
+ * Group commit: records are appended to an in-memory buffer. A caller
+ * that has to wait for its record to reach the disk either becomes the
+ * one thread writing and fsyncing the whole buffer, or waits for the
+ * thread already doing it. Callers arriving during an fsync are all
+ * covered by the next one, so many concurrent callers share one fsync.
+ *
+ * A log opened with openSegmented is a directory of LogSegment files
+ * instead of one file. A new segment is started when the current one
+ * reaches the segment size and whenever a snapshot is taken, and a
+ * background thread compacts the closed segments: records of tickets
+ * that were processed or removed are dropped, only their counts are
+ * kept in the segment header, and small segments are merged. Replay
+ * then reads about one record per live ticket instead of the whole
+ * history, and truncate deletes whole segments.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class WriteAheadLog implements Closeable {
+
+    // Bytes before the record body: length and CRC
+    static final int HEADER_SIZE = 8;
+
+    // Smallest body: LSN, operation, ticket ID
+    static final int MIN_BODY_SIZE = 8 + 1 + 8;
+
+    // Largest body accepted when reading, anything bigger is corruption
+    static final int MAX_BODY_SIZE = 64 << 20;
+
+    // Initial size of the append buffer
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    // Appends write the buffer out once it holds this much, so huge batches don't pile up
+    private static final int FLUSH_THRESHOLD = 1 << 20;
+
+    // Default time between fsyncs for PERIODIC durability
+    private static final long DEFAULT_SYNC_INTERVAL_MS = 10;
+
+    // Smallest segment size of a segmented log
+    static final long MIN_SEGMENT_SIZE = 4 << 10;
+
+    // Path of the log file, null for a segmented log
+    private final Path file;
+
+    // Directory and segment size of a segmented log, null and 0 for a single file
+    private final Path directory;
+    private final long segmentSize;
+
+    // Segments in LSN order, the last one is written to. Guarded by the monitor
+    private LogSegment[] segments;
+    private int segmentCount;
+
+    // LSN of the last snapshot, compaction keeps the records a replay from it needs
+    private long snapshotLsn;
+
+    // Held while closed segments are compacted or deleted
+    private final Object segmentLock = new Object();
+
+    // Wakes the compaction thread when a segment is closed
+    private final Object compactionSignal = new Object();
+    private boolean compactionRequested;
+
+    // Error that stopped background compaction
+    private volatile IOException compactionFailure;
+
+    // The log file, only replaced by truncate while it holds the flushing flag
+    private FileChannel channel;
+
+    // How long callers wait for the disk
+    private final Durability durability;
+
+    // State read from the file when it was opened
+    private final RecoveredState recovered;
+
+    // Records appended but not yet written, and a second buffer to swap in
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+
+    // Checksum of record bodies
+    private final CRC32 crc;
+
+    // LSN of the last appended, written and fsynced record
+    private long lastLsn;
+    private long writtenLsn;
+    private long durableLsn;
+
+    // True while one thread writes a buffer out
+    private boolean flushing;
+
+    // First write error, the log accepts nothing after one
+    private IOException failure;
+
+    // Whether the log has been closed
+    private volatile boolean closed;
+
+    // Background fsync thread for PERIODIC durability
+    private final Thread syncThread;
+
+    // Background compaction thread of a segmented log
+    private final Thread compactionThread;
+
+    /**
+     * Receives the records found by scanRecords
+     */
+    interface RecordVisitor {
+        /**
+         * @param lsn LSN of the record
+         * @param operation Operation of the record
+         * @param ticketId Ticket ID of the record
+         * @param record The whole record, header included, between position and limit
+         * @throws IOException If the record cannot be handled
+         */
+        void visit(long lsn, LogOperation operation, long ticketId, ByteBuffer record) throws IOException;
+    }
+
+    /**
+     * Opens a log, replaying the records already in it
+     *
+     * @param file Log file, created if it doesn't exist
+     * @param durability How long callers wait for the disk
+     * @return The open log
+     * @throws IOException If the file cannot be read or written
+     */
+    public static WriteAheadLog open(Path file, Durability durability) throws IOException {
+        return open(file, durability, DEFAULT_SYNC_INTERVAL_MS);
+    }
+
+    /**
+     * Opens a log, replaying the records already in it
+     *
+     * @param file Log file, created if it doesn't exist
+     * @param durability How long callers wait for the disk
+     * @param syncIntervalMs Time between fsyncs for PERIODIC durability
+     * @return The open log
+     * @throws IOException If the file cannot be read or written
+     */
+    public static WriteAheadLog open(Path file, Durability durability, long syncIntervalMs) throws IOException {
+        return open(file, durability, syncIntervalMs, null);
+    }
+
+    /**
+     * Opens a log on top of a snapshot
+     * Only records after the snapshot's LSN are replayed onto it.
+     *
+     * @param file Log file, created if it doesn't exist
+     * @param durability How long callers wait for the disk
+     * @param syncIntervalMs Time between fsyncs for PERIODIC durability
+     * @param snapshot State read from the last snapshot, or null to replay the whole log
+     * @return The open log
+     * @throws IOException If the file cannot be read or written
+     */
+    public static WriteAheadLog open(Path file, Durability durability, long syncIntervalMs,
+                                     RecoveredState snapshot) throws IOException {
+        return open(file, durability, syncIntervalMs, snapshot, null);
+    }
+
+    /**
+     * Opens a log on top of a snapshot, decoding the records on several threads
+     *
+     * @param file Log file, created if it doesn't exist
+     * @param durability How long callers wait for the disk
+     * @param snapshot State read from the last snapshot, or null to replay the whole log
+     * @param recovery Parallel replay to use, or null to replay on this thread
+     * @return The open log
+     * @throws IOException If the file cannot be read or written
+     */
+    public static WriteAheadLog open(Path file, Durability durability, RecoveredState snapshot,
+                                     ParallelRecovery recovery) throws IOException {
+        return open(file, durability, DEFAULT_SYNC_INTERVAL_MS, snapshot, recovery);
+    }
+
+    /**
+     * Opens a log, see the public overloads
+     */
+    private static WriteAheadLog open(Path file, Durability durability, long syncIntervalMs,
+                                      RecoveredState snapshot, ParallelRecovery recovery) throws IOException {
+        if(file == null || durability == null) {
+            throw new IllegalArgumentException("Log file and durability cannot be null");
+        }
+        if(syncIntervalMs <= 0) {
+            throw new IllegalArgumentException("Sync interval must be greater than 0");
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long end;
+            RecoveredState recovered;
+            if(recovery == null) {
+                LogReplayer replayer = snapshot == null ? new LogReplayer() : new LogReplayer(snapshot);
+                end = readRecords(channel, 0, snapshot == null ? 0 : snapshot.getLastLsn(), replayer);
+                recovered = replayer.finish();
+            } else {
+                ParallelRecovery.Replay replay = recovery.replay(snapshot);
+                end = replay.read(channel, 0, true);
+                recovered = replay.finish();
+            }
+
+            // Drop a torn record left by a crash, new records go after the last good one
+            channel.truncate(end);
+            channel.position(end);
+            return new WriteAheadLog(file, null, 0, null, 0, channel, durability,
+                    recovered, 0, syncIntervalMs);
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a segmented log, replaying the records already in it
+     *
+     * @param directory Log directory, created if it doesn't exist
+     * @param durability How long callers wait for the disk
+     * @param segmentSize Size at which a new segment is started, in bytes
+     * @return The open log
+     * @throws IOException If the segments cannot be read or written
+     */
+    public static WriteAheadLog openSegmented(Path directory, Durability durability,
+                                              long segmentSize) throws IOException {
+        return openSegmented(directory, durability, segmentSize, null);
+    }
+
+    /**
+     * Opens a segmented log on top of a snapshot
+     * Only records after the snapshot's LSN are replayed onto it.
+     *
+     * Segments left behind by an interrupted compaction, whose records
+     * are already in the segment before them, are deleted.
+     *
+     * @param directory Log directory, created if it doesn't exist
+     * @param durability How long callers wait for the disk
+     * @param segmentSize Size at which a new segment is started, in bytes
+     * @param snapshot State read from the last snapshot, or null to replay the whole log
+     * @return The open log
+     * @throws IOException If the segments cannot be read or written, or records are missing
+     */
+    public static WriteAheadLog openSegmented(Path directory, Durability durability, long segmentSize,
+                                              RecoveredState snapshot) throws IOException {
+        return openSegmented(directory, durability, segmentSize, snapshot, null);
+    }
+
+    /**
+     * Opens a segmented log on top of a snapshot, decoding the records on several threads
+     *
+     * @param directory Log directory, created if it doesn't exist
+     * @param durability How long callers wait for the disk
+     * @param segmentSize Size at which a new segment is started, in bytes
+     * @param snapshot State read from the last snapshot, or null to replay the whole log
+     * @param recovery Parallel replay to use, or null to replay on this thread
+     * @return The open log
+     * @throws IOException If the segments cannot be read or written, or records are missing
+     */
+    public static WriteAheadLog openSegmented(Path directory, Durability durability, long segmentSize,
+                                              RecoveredState snapshot, ParallelRecovery recovery) throws IOException {
+        if(directory == null || durability == null) {
+            throw new IllegalArgumentException("Log directory and durability cannot be null");
+        }
+        if(segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_SIZE + " bytes");
+        }
+        Files.createDirectories(directory);
+
+        long afterLsn = snapshot == null ? 0 : snapshot.getLastLsn();
+        LogReplayer replayer = null;
+        ParallelRecovery.Replay replay = null;
+        if(recovery == null) {
+            replayer = snapshot == null ? new LogReplayer() : new LogReplayer(snapshot);
+        } else {
+            replay = recovery.replay(snapshot);
+        }
+        Path[] paths = LogSegment.list(directory);
+        LogSegment[] segments = new LogSegment[Math.max(16, paths.length * 2)];
+        int count = 0;
+        FileChannel channel = null;
+        try {
+            for(int i = 0; i < paths.length; i++) {
+                if(channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                FileChannel segmentFile = FileChannel.open(paths[i], StandardOpenOption.READ, StandardOpenOption.WRITE);
+                LogSegment segment;
+                try {
+                    segment = LogSegment.readHeader(segmentFile, paths[i]);
+                } catch(IOException e) {
+                    segmentFile.close();
+                    throw e;
+                }
+                if(segment == null) {
+                    segmentFile.close();
+                    if(i < paths.length - 1) {
+                        throw new IOException("Damaged header in log segment " + paths[i]);
+                    }
+                    // Crash while a segment was started, it holds no records yet
+                    Files.delete(paths[i]);
+                    break;
+                }
+                if(count > 0 && segment.startLsn <= segments[count - 1].endLsn) {
+                    // Merged into the segment before by an interrupted compaction
+                    segmentFile.close();
+                    Files.delete(paths[i]);
+                    continue;
+                }
+                long expected = count == 0 ? afterLsn + 1 : segments[count - 1].endLsn + 1;
+                if(count == 0 ? segment.startLsn > expected : segment.startLsn != expected) {
+                    segmentFile.close();
+                    throw new IOException("Log segment " + paths[i] + " starts at LSN " + segment.startLsn
+                            + ", the records after LSN " + (expected - 1) + " are missing"
+                            + (count == 0 ? " (open the log with its checkpoint snapshot)" : ""));
+                }
+
+                channel = segmentFile;
+                long end = replay == null ? replaySegment(channel, segment, afterLsn, replayer)
+                        : replaySegment(channel, segment, afterLsn, replay);
+                if(end < channel.size()) {
+                    if(i < paths.length - 1) {
+                        throw new IOException("Damaged record in log segment " + paths[i] + " at offset " + end);
+                    }
+                    // Torn record left by a crash
+                    channel.truncate(end);
+                }
+                channel.position(end);
+                segments[count++] = segment;
+            }
+
+            RecoveredState recovered = replay == null ? replayer.finish() : replay.finish();
+            if(count == 0) {
+                LogSegment first = new LogSegment(directory, recovered.getLastLsn() + 1,
+                        snapshot == null ? 0 : LogSegment.SNAPSHOT_BOUNDARY);
+                channel = first.create();
+                segments[count++] = first;
+            }
+            return new WriteAheadLog(null, directory, segmentSize, segments, count, channel, durability,
+                    recovered, afterLsn, DEFAULT_SYNC_INTERVAL_MS);
+        } catch(IOException | RuntimeException e) {
+            if(channel != null) {
+                channel.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Applies the records of one segment and the counts of the records
+     * compaction dropped from it
+     *
+     * @return Offset just after the last good record
+     */
+    private static long replaySegment(FileChannel channel, LogSegment segment, long afterLsn,
+                                      LogReplayer replayer) throws IOException {
+        long[] lastLsn = {segment.endLsn};
+        long end = scanRecords(channel, LogSegment.HEADER_SIZE, (lsn, operation, ticketId, record) -> {
+            lastLsn[0] = Math.max(lastLsn[0], lsn);
+            if(lsn > afterLsn) {
+                replayer.apply(lsn, operation, ticketId, decodeTicket(operation, record));
+            }
+        });
+        segment.endLsn = lastLsn[0];
+
+        // A segment starts at a snapshot or after it, never in the middle
+        if(segment.startLsn > afterLsn) {
+            replayer.applyDropped(segment.droppedCreated, segment.droppedResolved,
+                    segment.droppedMaxTicketId, segment.endLsn);
+        }
+        return end;
+    }
+
+    /**
+     * Same as replaySegment with a LogReplayer, for a parallel replay
+     */
+    private static long replaySegment(FileChannel channel, LogSegment segment, long afterLsn,
+                                      ParallelRecovery.Replay replay) throws IOException {
+        long end = replay.read(channel, LogSegment.HEADER_SIZE, false);
+        segment.endLsn = Math.max(segment.endLsn, replay.getLastLsnRead());
+        if(segment.startLsn > afterLsn) {
+            replay.applyDropped(segment.droppedCreated, segment.droppedResolved,
+                    segment.droppedMaxTicketId, segment.endLsn);
+        }
+        return end;
+    }
+
+    /**
+     * Constructor, use open or openSegmented
+     */
+    private WriteAheadLog(Path file, Path directory, long segmentSize, LogSegment[] segments, int segmentCount,
+                          FileChannel channel, Durability durability, RecoveredState recovered,
+                          long snapshotLsn, long syncIntervalMs) {
+        this.file = file;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segments = segments;
+        this.segmentCount = segmentCount;
+        this.channel = channel;
+        this.durability = durability;
+        this.recovered = recovered;
+        this.pending = ByteBuffer.allocate(BUFFER_SIZE);
+        this.spare = ByteBuffer.allocate(BUFFER_SIZE);
+        this.crc = new CRC32();
+        this.lastLsn = recovered.getLastLsn();
+        this.writtenLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        this.snapshotLsn = snapshotLsn;
+
+        if(durability == Durability.PERIODIC) {
+            syncThread = new Thread(() -> syncPeriodically(syncIntervalMs), "wal-sync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        } else {
+            syncThread = null;
+        }
+
+        if(directory != null) {
+            compactionThread = new Thread(this::compactInBackground, "wal-compact");
+            compactionThread.setDaemon(true);
+            compactionThread.start();
+            if(segmentCount > 1) {
+                requestCompaction();
+            }
+        } else {
+            compactionThread = null;
+        }
+    }
+
+    /**
+     * Reads records from a file and applies them to a replayer
+     * Stops at the end of the file or at the first damaged record
+     * A log whose first record comes after afterLsn + 1 has lost the
+     * records in between, usually because it was truncated at a
+     * checkpoint and is being opened without the snapshot.
+     *
+     * @param channel File to read
+     * @param start Offset of the first record
+     * @param afterLsn Records with an LSN at or below this are read but not applied
+     * @param replayer Replayer the records are applied to
+     * @return Offset just after the last good record
+     * @throws IOException If the file cannot be read, or records are missing
+     */
+    static long readRecords(FileChannel channel, long start, long afterLsn, LogReplayer replayer) throws IOException {
+        boolean[] first = {true};
+        return scanRecords(channel, start, (lsn, operation, ticketId, record) -> {
+            if(first[0] && lsn > afterLsn + 1) {
+                throw new IOException("Log starts at LSN " + lsn + ", the records after LSN "
+                        + afterLsn + " are missing (open the log with its checkpoint snapshot)");
+            }
+            first[0] = false;
+            if(lsn > afterLsn) {
+                replayer.apply(lsn, operation, ticketId, decodeTicket(operation, record));
+            }
+        });
+    }
+
+    /**
+     * Passes every good record of a file to a visitor, in file order
+     * Stops at the end of the file or at the first damaged record
+     *
+     * @param channel File to read
+     * @param start Offset of the first record
+     * @param visitor Visitor the records are passed to
+     * @return Offset just after the last good record
+     * @throws IOException If the file cannot be read, or the visitor fails
+     */
+    static long scanRecords(FileChannel channel, long start, RecordVisitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        CRC32 crc = new CRC32();
+        long bufferStart = start; // File offset of buffer[0]
+        long previousLsn = 0;
+
+        while(true) {
+            boolean eof = channel.read(buffer, bufferStart + buffer.position()) < 0;
+            buffer.flip();
+
+            int needed = 0;
+            while(buffer.remaining() >= HEADER_SIZE) {
+                int at = buffer.position();
+                int length = buffer.getInt(at);
+                if(length < MIN_BODY_SIZE || length > MAX_BODY_SIZE) {
+                    return bufferStart + at;
+                }
+                if(buffer.remaining() < HEADER_SIZE + length) {
+                    needed = HEADER_SIZE + length;
+                    break;
+                }
+
+                crc.reset();
+                crc.update(buffer.array(), at + HEADER_SIZE, length);
+                if(buffer.getInt(at + 4) != (int) crc.getValue()) {
+                    return bufferStart + at;
+                }
+
+                long lsn = buffer.getLong(at + HEADER_SIZE);
+                if(lsn <= previousLsn) {
+                    return bufferStart + at;
+                }
+                previousLsn = lsn;
+                LogOperation operation = LogOperation.fromCode(buffer.get(at + HEADER_SIZE + 8));
+                long ticketId = buffer.getLong(at + HEADER_SIZE + 9);
+                ByteBuffer record = buffer.duplicate();
+                record.position(at).limit(at + HEADER_SIZE + length);
+                visitor.visit(lsn, operation, ticketId, record);
+                buffer.position(at + HEADER_SIZE + length);
+            }
+
+            // Anything left at the end of the file is a record cut short
+            if(eof) {
+                return bufferStart + buffer.position();
+            }
+            bufferStart += buffer.position();
+            buffer.compact();
+            if(needed > buffer.capacity()) {
+                // Record bigger than the buffer
+                ByteBuffer bigger = ByteBuffer.allocate(needed);
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+    }
+
+    /**
+     * Decodes the ticket state of a record passed to a RecordVisitor
+     *
+     * @return The ticket, or null if the operation carries none
+     */
+    static Ticket decodeTicket(LogOperation operation, ByteBuffer record) {
+        if(!operation.hasTicket()) {
+            return null;
+        }
+        ByteBuffer body = record.duplicate();
+        body.position(body.position() + HEADER_SIZE + MIN_BODY_SIZE);
+        return TicketCodec.decode(body);
+    }
+
+    /**
+     * Gets the state read from the log when it was opened
+     *
+     * @return The recovered tickets and statistics
+     */
+    public RecoveredState getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Gets the durability level of the log
+     *
+     * @return The durability level
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Appends a record carrying the ticket's current state
+     * The record is not on disk until commit() or sync() returns
+     *
+     * @param operation CREATE, UPDATE_PRIORITY or ASSIGN_OWNER
+     * @param ticket The ticket after the change
+     * @return LSN of the record
+     */
+    public long append(LogOperation operation, Ticket ticket) {
+        if(operation == null || !operation.hasTicket() || ticket == null) {
+            throw new IllegalArgumentException("Operation must carry a ticket");
+        }
+        return append(operation, ticket.getTicketID(), ticket);
+    }
+
+    /**
+     * Appends a record carrying only a ticket ID
+     *
+     * @param operation PROCESS or REMOVE
+     * @param ticketId ID of the ticket
+     * @return LSN of the record
+     */
+    public long append(LogOperation operation, long ticketId) {
+        if(operation == null || operation.hasTicket() || operation == LogOperation.CLEAR) {
+            throw new IllegalArgumentException("Operation must carry a ticket ID only");
+        }
+        return append(operation, ticketId, null);
+    }
+
+    /**
+     * Appends a record clearing the whole queue
+     *
+     * @return LSN of the record
+     */
+    public long appendClear() {
+        return append(LogOperation.CLEAR, 0, null);
+    }
+
+    /**
+     * Encodes a record into the append buffer
+     */
+    private long append(LogOperation operation, long ticketId, Ticket ticket) {
+        long lsn;
+        boolean full;
+        synchronized(this) {
+            checkWritable();
+            int maxLength = MIN_BODY_SIZE + (ticket == null ? 0 : TicketCodec.maxSize(ticket));
+            ensureRoom(HEADER_SIZE + maxLength);
+
+            int start = pending.position();
+            pending.position(start + HEADER_SIZE);
+            lsn = lastLsn + 1;
+            pending.putLong(lsn);
+            pending.put((byte) operation.ordinal());
+            pending.putLong(ticketId);
+            if(ticket != null) {
+                TicketCodec.encode(ticket, pending);
+            }
+
+            int length = pending.position() - start - HEADER_SIZE;
+            crc.reset();
+            crc.update(pending.array(), start + HEADER_SIZE, length);
+            pending.putInt(start, length);
+            pending.putInt(start + 4, (int) crc.getValue());
+            lastLsn = lsn;
+            full = pending.position() >= FLUSH_THRESHOLD;
+        }
+
+        if(full) {
+            flush(lsn, false);
+        }
+        return lsn;
+    }
+
+    /**
+     * Grows the append buffer so it has room for a record
+     * Must be called while holding the monitor
+     */
+    private void ensureRoom(int bytes) {
+        if(pending.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+    }
+
+    /**
+     * Throws if the log can no longer be written
+     * Must be called while holding the monitor
+     */
+    private void checkWritable() {
+        if(closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+        if(failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed earlier", failure);
+        }
+    }
+
+    /**
+     * Waits until every record appended so far is as durable as the
+     * log's durability level requires
+     */
+    public void commit() {
+        long upTo;
+        synchronized(this) {
+            upTo = lastLsn;
+        }
+        switch(durability) {
+            case PER_OPERATION:
+                flush(upTo, true);
+                break;
+            case OS_BUFFERED:
+                flush(upTo, false);
+                break;
+            case PERIODIC:
+                // The sync thread gets to it
+                break;
+        }
+    }
+
+    /**
+     * Writes and fsyncs every record appended so far
+     */
+    public void sync() {
+        long upTo;
+        synchronized(this) {
+            upTo = lastLsn;
+        }
+        flush(upTo, true);
+    }
+
+    /**
+     * Makes sure records up to an LSN are written, and fsynced if force
+     * is set. One thread at a time writes the whole buffer, the others
+     * wait and are usually covered by its write.
+     *
+     * @param upTo LSN that has to be covered
+     * @param force Whether the records have to be fsynced
+     */
+    private void flush(long upTo, boolean force) {
+        ByteBuffer batch;
+        long batchLsn;
+        synchronized(this) {
+            while(true) {
+                if(failure != null) {
+                    throw new UncheckedIOException("Write-ahead log failed earlier", failure);
+                }
+                if((force ? durableLsn : writtenLsn) >= upTo) {
+                    return;
+                }
+                if(!flushing) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the write-ahead log");
+                }
+            }
+
+            // This thread writes everything appended so far
+            flushing = true;
+            batch = pending;
+            pending = spare;
+            spare = null;
+            batchLsn = lastLsn;
+        }
+
+        IOException error = null;
+        try {
+            batch.flip();
+            while(batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            if(force) {
+                channel.force(false);
+            }
+            if(directory != null && channel.position() >= segmentSize) {
+                roll(batchLsn, 0);
+            }
+        } catch(IOException e) {
+            error = e;
+        }
+
+        synchronized(this) {
+            flushing = false;
+            if(error == null) {
+                writtenLsn = batchLsn;
+                if(force) {
+                    durableLsn = batchLsn;
+                }
+            } else {
+                failure = error;
+            }
+            // Don't hold on to a buffer grown by one huge batch
+            spare = batch.capacity() > FLUSH_THRESHOLD * 2 ? ByteBuffer.allocate(BUFFER_SIZE) : batch;
+            spare.clear();
+            notifyAll();
+        }
+        if(error != null) {
+            throw new UncheckedIOException("Could not write the write-ahead log", error);
+        }
+    }
+
+    /**
+     * Closes the segment written to and starts a new one after it
+     * Must be called while holding the flushing flag
+     *
+     * @param lastWritten LSN of the last record written to the current segment
+     * @param flags Flags of the new segment
+     */
+    private void roll(long lastWritten, int flags) throws IOException {
+        LogSegment current;
+        synchronized(this) {
+            current = segments[segmentCount - 1];
+        }
+        current.endLsn = lastWritten;
+        current.writeHeader(channel, false);
+        channel.force(false);
+
+        LogSegment next = new LogSegment(directory, lastWritten + 1, flags);
+        FileChannel nextChannel = next.create();
+        FileChannel old = channel;
+        synchronized(this) {
+            if(segmentCount == segments.length) {
+                segments = Arrays.copyOf(segments, segmentCount * 2);
+            }
+            segments[segmentCount++] = next;
+            channel = nextChannel;
+            durableLsn = Math.max(durableLsn, lastWritten);
+        }
+        old.close();
+        requestCompaction();
+    }
+
+    /**
+     * Marks the point a snapshot is taken at and returns its LSN
+     *
+     * A segmented log starts a new segment there, so that no segment
+     * holds records from both sides of a snapshot. Must be called while
+     * no records are appended, e.g. under the lock that guards the queue.
+     *
+     * @return LSN of the last appended record, the one the snapshot covers
+     */
+    public long beginSnapshot() {
+        long lsn;
+        synchronized(this) {
+            checkWritable();
+            lsn = lastLsn;
+        }
+        if(directory == null) {
+            return lsn;
+        }
+
+        flush(lsn, false);
+        acquireFlushing();
+        try {
+            synchronized(this) {
+                if(writtenLsn != lastLsn) {
+                    throw new IllegalStateException("Records were appended while a snapshot was started");
+                }
+            }
+            LogSegment current;
+            synchronized(this) {
+                current = segments[segmentCount - 1];
+            }
+            if(current.startLsn > lsn) {
+                // Nothing written to it yet, it already starts at the snapshot
+                current.flags |= LogSegment.SNAPSHOT_BOUNDARY;
+                current.writeHeader(channel, true);
+            } else {
+                roll(lsn, LogSegment.SNAPSHOT_BOUNDARY);
+            }
+            synchronized(this) {
+                snapshotLsn = lsn;
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException("Could not start a new log segment", e);
+        } finally {
+            releaseFlushing();
+        }
+        return lsn;
+    }
+
+    /**
+     * Waits until no thread writes to the file and takes the flushing flag
+     */
+    private synchronized void acquireFlushing() {
+        while(flushing) {
+            try {
+                wait();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the write-ahead log");
+            }
+        }
+        checkWritable();
+        flushing = true;
+    }
+
+    /**
+     * Gives the flushing flag back
+     */
+    private synchronized void releaseFlushing() {
+        flushing = false;
+        notifyAll();
+    }
+
+    /**
+     * Body of the PERIODIC sync thread
+     */
+    private void syncPeriodically(long intervalMs) {
+        while(!closed) {
+            try {
+                Thread.sleep(intervalMs);
+                sync();
+            } catch(InterruptedException e) {
+                return;
+            } catch(UncheckedIOException e) {
+                // Recorded in failure, callers see it on their next append
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops the records up to and including an LSN, once a snapshot
+     * covering them is safely on disk
+     *
+     * The records after the LSN are copied to a new file that then
+     * atomically replaces the log, and the directory is fsynced so the
+     * rename survives a crash. Appends carry on meanwhile, only callers
+     * waiting for the disk wait while the (short) tail after the
+     * checkpoint is copied. The log must be opened with that snapshot
+     * from then on.
+     * A segmented log deletes the closed segments up to the LSN instead.
+     *
+     * @param throughLsn LSN of the checkpoint snapshot
+     * @return Number of bytes dropped from the front of the log
+     * @throws IOException If the log cannot be read or rewritten
+     */
+    public long truncate(long throughLsn) throws IOException {
+        if(throughLsn < 0) {
+            throw new IllegalArgumentException("LSN cannot be negative");
+        }
+        synchronized(this) {
+            checkWritable();
+            if(throughLsn > lastLsn) {
+                throw new IllegalArgumentException("LSN " + throughLsn + " has not been appended yet");
+            }
+        }
+        if(directory != null) {
+            return dropSegments(throughLsn);
+        }
+
+        // Every record up to the checkpoint is in the file after this,
+        // so the scan below only reads bytes nobody writes any more
+        flush(throughLsn, false);
+        long scanEnd;
+        synchronized(this) {
+            scanEnd = writtenEnd();
+        }
+        long cut = offsetAfter(channel, throughLsn, scanEnd);
+        if(cut == 0) {
+            return 0;
+        }
+
+        // Hold the flushing flag so nobody writes to the file while it is replaced
+        acquireFlushing();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel replacement = null;
+        long tailLsn;
+        synchronized(this) {
+            tailLsn = writtenLsn;
+        }
+        try {
+            replacement = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            long end = channel.size();
+            long copied = 0;
+            while(cut + copied < end) {
+                copied += channel.transferTo(cut + copied, end - cut - copied, replacement);
+            }
+            replacement.force(false);
+            replacement.position(copied);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            SnapshotWriter.syncDirectory(file);
+            FileChannel old = channel;
+            synchronized(this) {
+                channel = replacement;
+                replacement = null;
+                durableLsn = Math.max(durableLsn, tailLsn);
+            }
+            old.close();
+            return cut;
+        } finally {
+            if(replacement != null) {
+                replacement.close();
+                Files.deleteIfExists(temp);
+            }
+            releaseFlushing();
+        }
+    }
+
+    /**
+     * Deletes the closed segments whose records are all at or before an LSN
+     * The segment written to is never deleted.
+     *
+     * @param throughLsn LSN of the checkpoint snapshot
+     * @return Number of bytes deleted
+     */
+    private long dropSegments(long throughLsn) throws IOException {
+        synchronized(segmentLock) {
+            long dropped = 0;
+            while(true) {
+                LogSegment first;
+                synchronized(this) {
+                    if(segmentCount < 2 || segments[0].endLsn > throughLsn) {
+                        return dropped;
+                    }
+                    first = segments[0];
+                    System.arraycopy(segments, 1, segments, 0, --segmentCount);
+                    segments[segmentCount] = null;
+                }
+                // Oldest first, so a crash never leaves a gap
+                dropped += Files.size(first.path);
+                Files.delete(first.path);
+            }
+        }
+    }
+
+    /**
+     * Compacts the closed segments of a segmented log, see LogCompactor
+     * The background thread does this whenever a segment is closed,
+     * appends carry on meanwhile.
+     *
+     * @return Number of bytes the segments shrank by
+     * @throws IOException If a segment cannot be read or rewritten
+     */
+    public long compact() throws IOException {
+        if(directory == null) {
+            throw new IllegalStateException("Only a segmented log can be compacted");
+        }
+        synchronized(segmentLock) {
+            LogSegment[] closedSegments;
+            long keepFrom;
+            synchronized(this) {
+                checkWritable();
+                closedSegments = Arrays.copyOf(segments, segmentCount - 1);
+                keepFrom = snapshotLsn;
+            }
+            if(closedSegments.length == 0) {
+                return 0;
+            }
+
+            LogCompactor compactor = new LogCompactor(segmentSize, keepFrom);
+            LogSegment[] compacted = compactor.compact(closedSegments);
+            synchronized(this) {
+                // Rolls only add segments at the end, the closed ones are still at the front
+                int open = segmentCount - closedSegments.length;
+                LogSegment[] table = new LogSegment[Math.max(16, (compacted.length + open) * 2)];
+                System.arraycopy(compacted, 0, table, 0, compacted.length);
+                System.arraycopy(segments, closedSegments.length, table, compacted.length, open);
+                segments = table;
+                segmentCount = compacted.length + open;
+            }
+            return compactor.getBytesDropped();
+        }
+    }
+
+    /**
+     * Wakes the compaction thread
+     */
+    private void requestCompaction() {
+        synchronized(compactionSignal) {
+            compactionRequested = true;
+            compactionSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Body of the compaction thread of a segmented log
+     */
+    private void compactInBackground() {
+        while(true) {
+            synchronized(compactionSignal) {
+                while(!compactionRequested && !closed) {
+                    try {
+                        compactionSignal.wait();
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                }
+                if(closed) {
+                    return;
+                }
+                compactionRequested = false;
+            }
+            try {
+                compact();
+            } catch(IOException e) {
+                compactionFailure = e;
+                return;
+            } catch(IllegalStateException | UncheckedIOException e) {
+                // Closed or failed log
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the error that stopped background compaction
+     *
+     * @return The error, or null if compaction is still running
+     */
+    public IOException getCompactionFailure() {
+        return compactionFailure;
+    }
+
+    /**
+     * Gets the number of segment files of the log
+     *
+     * @return The number of segments, 1 for a single-file log
+     */
+    public synchronized int getSegmentCount() {
+        return directory == null ? 1 : segmentCount;
+    }
+
+    /**
+     * Gets the file offset up to which every record is completely written
+     * Must be called while holding the monitor
+     */
+    private long writtenEnd() {
+        while(flushing) {
+            try {
+                wait();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the write-ahead log");
+            }
+        }
+        try {
+            return channel.position();
+        } catch(IOException e) {
+            throw new UncheckedIOException("Could not read the write-ahead log position", e);
+        }
+    }
+
+    /**
+     * Finds the first record with an LSN above the given one
+     * Only the record headers and LSNs are read
+     *
+     * @param channel Log file
+     * @param lsn LSN to skip past
+     * @param end Offset up to which the records are complete
+     * @return Offset of the first later record, or end if there is none
+     * @throws IOException If the file cannot be read
+     */
+    static long offsetAfter(FileChannel channel, long lsn, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long offset = 0;
+        while(offset < end) {
+            // Read a window starting at the next record header
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - offset));
+            while(buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) {
+                // Keep reading
+            }
+            buffer.flip();
+
+            int at = 0;
+            while(at + HEADER_SIZE + 8 <= buffer.limit()) {
+                if(buffer.getLong(at + HEADER_SIZE) > lsn) {
+                    return offset + at;
+                }
+                at += HEADER_SIZE + buffer.getInt(at);
+            }
+            if(at == 0) {
+                throw new IOException("Damaged record at offset " + offset);
+            }
+            offset += at;
+        }
+        return end;
+    }
+
+    /**
+     * Gets the LSN of the last appended record
+     *
+     * @return The LSN, 0 if the log is empty
+     */
+    public synchronized long getLastLsn() {
+        return lastLsn;
+    }
+
+    /**
+     * Gets the LSN of the last record known to be fsynced
+     *
+     * @return The LSN, 0 if none
+     */
+    public synchronized long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * Fsyncs every record and closes the file
+     *
+     * @throws IOException If the file cannot be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized(this) {
+            if(closed) {
+                return;
+            }
+        }
+        try {
+            if(failure == null) {
+                sync();
+            }
+        } finally {
+            synchronized(this) {
+                closed = true;
+            }
+            if(syncThread != null) {
+                syncThread.interrupt();
+                try {
+                    syncThread.join();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if(compactionThread != null) {
+                // Lets a running compaction finish, it only touches closed segments
+                requestCompaction();
+                try {
+                    compactionThread.join();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package service;
+import model.Ticket;
+import dataStructure.LongTicketHashMap;
+import dataStructure.TicketQueue;
+import persistence.SnapshotWriter;
+import persistence.TicketArchive;
+import persistence.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread safe version of TicketService for multi-threaded front ends.
+ *
+ * Every operation that changes the queue, a ticket or the statistics
+ * (create, process, update priority, remove, assign owner, clear) runs
+ * under the write side of a StampedLock, one caller at a time.
+ *
+ * Read paths are kept off the lock where possible:
+ * - getTicketCount and peekNextTicket return values published in
+ *   volatile fields at the end of every write, so they never wait.
+ * - searchTicket first tries an optimistic read. It only takes the
+ *   read lock if a writer ran at the same time.
+ * - Listings and statistics take the read lock, so they can run
+ *   alongside each other but not alongside a writer.
+ *
+ * With a write-ahead log, changes are appended under the write lock
+ * and waited for after it is released (group commit).
+ *
+ * Checkpoints run in the background (startCheckpoint). The queue is
+ * copied under the write lock (two array copies for PriorityQueue),
+ * then a background thread writes the copy as a snapshot while the
+ * service keeps going. Copy-on-write keeps the snapshot at that point
+ * in time: while a checkpoint runs, every write first saves a copy of
+ * each existing ticket it is about to change, and the snapshot uses
+ * that copy. The snapshot is written a batch of tickets at a time
+ * under the read lock, so writers never wait for more than one batch.
+ * Once the snapshot is on disk the log records it covers are dropped.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class ConcurrentTicketService extends TicketService {
+
+    // Guards the queue, the tickets in it and the statistics
+    private final StampedLock lock;
+
+    // Queue size and next ticket as of the last completed write
+    private volatile int publishedCount;
+    private volatile Ticket publishedNext;
+
+    // Tickets written to a snapshot per hold of the read lock
+    private static final int CHECKPOINT_BATCH = 1024;
+
+    // Copies of tickets as they were when the running checkpoint started,
+    // by ID, null when no checkpoint is running (guarded by the lock)
+    private LongTicketHashMap checkpointImages;
+
+    // Thread of the last checkpoint and how it failed, if it did
+    private volatile Thread checkpointThread;
+    private volatile Exception checkpointFailure;
+
+    /**
+     * Constructor for initializing the service with the heap based queue
+     */
+    public ConcurrentTicketService() {
+        super();
+        this.lock = new StampedLock();
+    }
+
+    /**
+     * Constructor for initializing the service with a chosen queue
+     *
+     * @param ticketQueue Queue to store the tickets in, see TicketService
+     */
+    public ConcurrentTicketService(TicketQueue ticketQueue) {
+        super(ticketQueue);
+        this.lock = new StampedLock();
+        publish();
+    }
+
+    /**
+     * Constructor for a service whose changes are kept in a write-ahead log
+     *
+     * @param ticketQueue Empty queue to store the tickets in
+     * @param log Open write-ahead log, or null to not log changes
+     */
+    public ConcurrentTicketService(TicketQueue ticketQueue, WriteAheadLog log) {
+        super(ticketQueue, log);
+        this.lock = new StampedLock();
+        publish();
+    }
+
+    /**
+     * Constructor for a service that archives the tickets leaving the queue
+     * Archive lookups of searchTicket run outside the lock
+     *
+     * @param ticketQueue Empty queue to store the tickets in
+     * @param log Open write-ahead log, or null to not log changes
+     * @param archive Open archive, or null to drop tickets that leave the queue
+     */
+    public ConcurrentTicketService(TicketQueue ticketQueue, WriteAheadLog log, TicketArchive archive) {
+        super(ticketQueue, log, archive);
+        this.lock = new StampedLock();
+        publish();
+    }
+
+    /**
+     * Does nothing, the write methods wait for the log after releasing
+     * the write lock. Callers waiting at the same time then share one
+     * fsync instead of taking turns under the lock.
+     */
+    @Override
+    protected void commitLog() {
+    }
+
+    /**
+     * Publishes the queue size and next ticket for the lock free read paths
+     * Must be called while holding the write lock
+     */
+    private void publish() {
+        publishedCount = getTicketQueue().size();
+        publishedNext = getTicketQueue().peek();
+    }
+
+    /**
+     * Saves a copy of a ticket before a write changes it, if a checkpoint
+     * is running and no copy was saved yet
+     * Must be called while holding the write lock
+     *
+     * @param ticket Ticket about to change, may be null
+     */
+    private void preserve(Ticket ticket) {
+        if(checkpointImages != null && ticket != null && checkpointImages.get(ticket.getTicketID()) == null) {
+            checkpointImages.put(ticket.getTicketID(), new Ticket(ticket.getTicketID(), ticket.getCreator(),
+                    ticket.getOwner(), ticket.getRequestType(), ticket.getDescription(), ticket.getPriority(),
+                    ticket.getStatus(), ticket.getCreatedAt(), ticket.getUpdatedAt()));
+        }
+    }
+
+    /**
+     * Saves a copy of a queued ticket before a write changes it
+     * Must be called while holding the write lock
+     *
+     * @param ticketId ID of the ticket about to change
+     */
+    private void preserve(long ticketId) {
+        if(checkpointImages != null) {
+            preserve(getTicketQueue().search(ticketId));
+        }
+    }
+
+    @Override
+    public Ticket createTicket(String creator, int requestType, String description) {
+        Ticket result;
+        long stamp = lock.writeLock();
+        try {
+            result = super.createTicket(creator, requestType, description);
+        } finally {
+            publish();
+            lock.unlockWrite(stamp);
+        }
+        super.commitLog();
+        return result;
+    }
+
+    @Override
+    public Ticket[] createTickets(String[] creators, int[] requestTypes, String[] descriptions) {
+        Ticket[] result;
+        long stamp = lock.writeLock();
+        try {
+            result = super.createTickets(creators, requestTypes, descriptions);
+        } finally {
+            publish();
+            lock.unlockWrite(stamp);
+        }
+        super.commitLog();
+        return result;
+    }
+
+    @Override
+    public Ticket processNextTicket() {
+        Ticket result;
+        long stamp = lock.writeLock();
+        try {
+            preserve(getTicketQueue().peek());
+            result = super.processNextTicket();
+        } finally {
+            publish();
+            lock.unlockWrite(stamp);
+        }
+        super.commitLog();
+        return result;
+    }
+
+    @Override
+    public Ticket[] processNextTickets(int n) {
+        Ticket[] result;
+        long stamp = lock.writeLock();
+        try {
+            if(checkpointImages != null && n > 0) {
+                for(Ticket ticket : getTicketQueue().getTopK(n)) {
+                    preserve(ticket);
+                }
+            }
+            result = super.processNextTickets(n);
+        } finally {
+            publish();
+            lock.unlockWrite(stamp);
+        }
+        super.commitLog();
+        return result;
+    }
+
+    /**
+     * Searches for a ticket by ID without blocking writers
+     * The lookup runs optimistically and is only repeated under the
+     * read lock if a write happened while it ran.
+     *
+     * @param ticketID the ID to search for
+     * @return the ticket if found, null otherwise
+     */
+    @Override
+    public Ticket searchTicket(long ticketID) {
+        Ticket ticket = null;
+        long stamp = lock.tryOptimisticRead();
+        if(stamp != 0) {
+            try {
+                ticket = getTicketQueue().search(ticketID);
+            } catch(RuntimeException e) {
+                // Saw the queue half way through a write, retry under the lock
+                stamp = 0;
+            }
+        }
+
+        if(stamp == 0 || !lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                ticket = getTicketQueue().search(ticketID);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if(ticket == null) {
+            // Tickets are archived under the write lock, so one missed above is there by now
+            ticket = searchArchive(ticketID);
+        }
+
+        if(ticket != null) {
+            System.out.println(" Ticket Found !");
+        } else {
+            System.out.println(" Ticket not found");
+        }
+        return ticket;
+    }
+
+    @Override
+    public boolean updateTicketPriority(long ticketId, int newPriority) {
+        boolean result;
+        long stamp = lock.writeLock();
+        try {
+            preserve(ticketId);
+            result = super.updateTicketPriority(ticketId, newPriority);
+        } finally {
+            publish();
+            lock.unlockWrite(stamp);
+        }
+        super.commitLog();
+        return result;
+    }
+
+    @Override
+    public Ticket removeTicket(long ticketId) {
+        Ticket result;
+        long stamp = lock.writeLock();
+        try {
+            preserve(ticketId);
+            result = super.removeTicket(ticketId);
+        } finally {
+            publish();
+            lock.unlockWrite(stamp);
+        }
+        super.commitLog();
+        return result;
+    }
+
+    @Override
+    public boolean assignOwner(long ticketId, String owner) {
+        boolean result;
+        long stamp = lock.writeLock();
+        try {
+            preserve(ticketId);
+            result = super.assignOwner(ticketId, owner);
+        } finally {
+            publish();
+            lock.unlockWrite(stamp);
+        }
+        super.commitLog();
+        return result;
+    }
+
+    @Override
+    public Ticket[] getAllTickets() {
+        long stamp = lock.readLock();
+        try {
+            return super.getAllTickets();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Ticket[] getAllTicketsSorted() {
+        long stamp = lock.readLock();
+        try {
+            return super.getAllTicketsSorted();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    protected TicketQueue copyQueue() {
+        long stamp = lock.readLock();
+        try {
+            return super.copyQueue();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Ticket[] getTopTickets(int k) {
+        long stamp = lock.readLock();
+        try {
+            return super.getTopTickets(k);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void displayAllTickets() {
+        long stamp = lock.readLock();
+        try {
+            super.displayAllTickets();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void displayAllTicketsDetailed() {
+        long stamp = lock.readLock();
+        try {
+            super.displayAllTicketsDetailed();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets the next ticket as of the last completed write, without locking
+     *
+     * @return The highest priority ticket, or null if empty
+     */
+    @Override
+    public Ticket peekNextTicket() {
+        return publishedNext;
+    }
+
+    /**
+     * Gets the number of tickets as of the last completed write, without locking
+     *
+     * @return Current number of tickets
+     */
+    @Override
+    public int getTicketCount() {
+        return publishedCount;
+    }
+
+    @Override
+    public int getTotalTicketsCreated() {
+        long stamp = lock.readLock();
+        try {
+            return super.getTotalTicketsCreated();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int getTotalTicketsResolved() {
+        long stamp = lock.readLock();
+        try {
+            return super.getTotalTicketsResolved();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void displayStatistics() {
+        long stamp = lock.readLock();
+        try {
+            super.displayStatistics();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Writes a snapshot under the read lock, so it matches the logged
+     * LSN exactly. Writers wait until it is done.
+     */
+    @Override
+    public void saveSnapshot(Path file) throws IOException {
+        long stamp = lock.readLock();
+        try {
+            super.saveSnapshot(file);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void clearAllTickets() {
+        long stamp = lock.writeLock();
+        try {
+            super.clearAllTickets();
+        } finally {
+            publish();
+            lock.unlockWrite(stamp);
+        }
+        super.commitLog();
+    }
+
+    /**
+     * Starts a checkpoint on a background thread
+     * The queue is copied under the write lock, then the snapshot is
+     * written while the service keeps accepting calls. Once it is on
+     * disk the log records it covers are dropped.
+     *
+     * @param file Snapshot file, replaced atomically
+     * @return true if started, false if a checkpoint is already running
+     */
+    public boolean startCheckpoint(Path file) {
+        if(file == null) {
+            throw new IllegalArgumentException("Snapshot file cannot be null");
+        }
+
+        Thread thread;
+        long stamp = lock.writeLock();
+        try {
+            if(checkpointImages != null) {
+                return false;
+            }
+            TicketQueue image = getTicketQueue().copy();
+            WriteAheadLog log = getLog();
+            long lastLsn = log == null ? 0 : log.beginSnapshot();
+            int created = super.getTotalTicketsCreated();
+            int resolved = super.getTotalTicketsResolved();
+            checkpointImages = new LongTicketHashMap();
+            checkpointFailure = null;
+            thread = new Thread(() -> runCheckpoint(file, image, created, resolved, lastLsn), "checkpoint");
+            thread.setDaemon(true);
+            checkpointThread = thread;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Body of the checkpoint thread
+     */
+    private void runCheckpoint(Path file, TicketQueue image, int created, int resolved, long lastLsn) {
+        try {
+            // The copy is private to this thread and sorting it only reads the heap keys
+            Ticket[] tickets = image.getAllTicketsSorted();
+            SnapshotWriter.writeFile(file, created, resolved, lastLsn, writer -> {
+                for(int from = 0; from < tickets.length; from += CHECKPOINT_BATCH) {
+                    int to = Math.min(from + CHECKPOINT_BATCH, tickets.length);
+                    long stamp = lock.readLock();
+                    try {
+                        for(int i = from; i < to; i++) {
+                            Ticket before = checkpointImages.get(tickets[i].getTicketID());
+                            writer.write(before != null ? before : tickets[i]);
+                        }
+                    } finally {
+                        lock.unlockRead(stamp);
+                    }
+                }
+            });
+            if(getLog() != null) {
+                getLog().truncate(lastLsn);
+            }
+        } catch(IOException | RuntimeException e) {
+            checkpointFailure = e;
+        } finally {
+            long stamp = lock.writeLock();
+            checkpointImages = null;
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Checks if a background checkpoint is running
+     *
+     * @return true if running
+     */
+    public boolean isCheckpointRunning() {
+        Thread thread = checkpointThread;
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Waits for the last checkpoint started to finish
+     *
+     * @throws IOException If the checkpoint could not write the snapshot or the log
+     */
+    public void awaitCheckpoint() throws IOException {
+        Thread thread = checkpointThread;
+        if(thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the checkpoint");
+        }
+        Exception failure = checkpointFailure;
+        if(failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if(failure != null) {
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * Runs a checkpoint and waits for it
+     * Other threads can keep using the service meanwhile.
+     *
+     * @param file Snapshot file, replaced atomically
+     * @throws IOException If the snapshot or the log cannot be written
+     */
+    @Override
+    public void checkpoint(Path file) throws IOException {
+        if(!startCheckpoint(file)) {
+            throw new IllegalStateException("A checkpoint is already running");
+        }
+        awaitCheckpoint();
+    }
+}
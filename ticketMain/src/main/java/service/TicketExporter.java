@@ -0,0 +1,353 @@
+package service;
+
+import dataStructure.TicketQueue;
+import model.Ticket;
+import persistence.SnapshotWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the tickets of a TicketService to a channel in priority order.
+ *
+ * The export works on a point-in-time copy of the queue (copyQueue, the
+ * same copy a background checkpoint uses). For PriorityQueue that only
+ * copies the references and heap keys, the bucket queues copy their
+ * priority lists in order. The copy is drained a batch at a time, so
+ * tickets come out in queue order with a small batch array and one
+ * fixed output buffer, and no text of the whole export is ever built.
+ * MappedTicketQueue keeps its tickets in its file and has no cheap
+ * copy, it is copied through a sorted array of every ticket.
+ *
+ * Formats:
+ * CSV: header row, then one row per ticket, fields quoted when they hold
+ *   a comma, quote or line break. TicketImporter reads it back.
+ * JSON_LINES: one object per ticket. TicketImporter reads it back.
+ * BINARY: the snapshot format of SnapshotWriter, with LSN 0. SnapshotReader
+ *   reads it back, keeping the queue order.
+ *
+ * The ticket objects are shared with the live queue, so a field changed
+ * while the export runs may show its new value.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class TicketExporter {
+
+    /**
+     * Output formats of the exporter
+     */
+    public enum Format {
+        CSV,
+        JSON_LINES,
+        BINARY
+    }
+
+    // Default tickets drained from the copy at a time
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+
+    // Size of the output buffer of the text formats
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    // Columns of the CSV header, in row order
+    private static final String CSV_HEADER = "id,creator,owner,type,description,priority,status,createdAt,updatedAt";
+
+    // Service the tickets come from
+    private final TicketService service;
+
+    // Tickets per batch
+    private final int batchSize;
+
+    // Output of the text formats, with its buffer and encoder
+    private WritableByteChannel out;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
+
+    // Text of the current ticket
+    private final StringBuilder line;
+
+    // Statistics of the last export
+    private long exported;
+    private long elapsedNanos;
+
+    /**
+     * Constructor with the default batch size
+     *
+     * @param service Service the tickets come from
+     */
+    public TicketExporter(TicketService service) {
+        this(service, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param service Service the tickets come from
+     * @param batchSize Tickets drained from the copy at a time
+     */
+    public TicketExporter(TicketService service, int batchSize) {
+        if(service == null) {
+            throw new IllegalArgumentException("Service cannot be null");
+        }
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than 0");
+        }
+        this.service = service;
+        this.batchSize = batchSize;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.line = new StringBuilder();
+    }
+
+    /**
+     * Exports the tickets to a file, replacing its contents
+     *
+     * @param file The file
+     * @param format Format to write
+     * @return Number of tickets exported
+     * @throws IOException If the file cannot be written
+     */
+    public long exportFile(Path file, Format format) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return export(channel, format);
+        }
+    }
+
+    /**
+     * Exports the tickets in priority order to a channel, which is not closed
+     *
+     * Time Complexity 0(n log n), the drain of the copied heap
+     *
+     * @param channel Channel to write to
+     * @param format Format to write
+     * @return Number of tickets exported
+     * @throws IOException If the channel cannot be written
+     */
+    public long export(WritableByteChannel channel, Format format) throws IOException {
+        if(channel == null || format == null) {
+            throw new IllegalArgumentException("Channel and format cannot be null");
+        }
+        long start = System.nanoTime();
+        exported = 0;
+
+        TicketQueue image = service.copyQueue();
+        Ticket[] batch = new Ticket[batchSize];
+        try {
+            if(format == Format.BINARY) {
+                SnapshotWriter writer = new SnapshotWriter(channel, service.getTotalTicketsCreated(),
+                        service.getTotalTicketsResolved(), 0);
+                int count;
+                while((count = image.drainTo(batch, batchSize)) > 0) {
+                    for(int i = 0; i < count; i++) {
+                        writer.write(batch[i]);
+                        batch[i] = null;
+                    }
+                    exported += count;
+                }
+                writer.finish();
+            } else {
+                out = channel;
+                buffer.clear();
+                encoder.reset();
+                if(format == Format.CSV) {
+                    line.setLength(0);
+                    line.append(CSV_HEADER).append('\n');
+                    write();
+                }
+                int count;
+                while((count = image.drainTo(batch, batchSize)) > 0) {
+                    for(int i = 0; i < count; i++) {
+                        line.setLength(0);
+                        if(format == Format.CSV) {
+                            appendCsv(batch[i]);
+                        } else {
+                            appendJson(batch[i]);
+                        }
+                        write();
+                        batch[i] = null;
+                    }
+                    exported += count;
+                }
+                drain();
+            }
+        } finally {
+            out = null;
+            elapsedNanos = System.nanoTime() - start;
+        }
+
+        System.out.println("Exported " + exported + " tickets (" + getTicketsPerSecond() + " tickets/sec)");
+        return exported;
+    }
+
+    /**
+     * Gets the number of tickets the last export wrote
+     *
+     * @return The number of tickets
+     */
+    public long getExported() {
+        return exported;
+    }
+
+    /**
+     * Gets the time the last export took
+     *
+     * @return Nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the throughput of the last export
+     *
+     * @return Tickets written per second, 0 if nothing was written
+     */
+    public long getTicketsPerSecond() {
+        return elapsedNanos == 0 ? 0 : exported * 1000000000L / elapsedNanos;
+    }
+
+    /**
+     * Appends a ticket as a CSV row
+     */
+    private void appendCsv(Ticket ticket) {
+        line.append(ticket.getTicketID()).append(',');
+        appendCsvField(ticket.getCreator());
+        line.append(',');
+        appendCsvField(ticket.getOwner());
+        line.append(',');
+        appendCsvField(ticket.getRequestType());
+        line.append(',');
+        appendCsvField(ticket.getDescription());
+        line.append(',').append(ticket.getPriority())
+                .append(',').append(ticket.getStatus())
+                .append(',').append(ticket.getCreatedAt())
+                .append(',').append(ticket.getUpdatedAt())
+                .append('\n');
+    }
+
+    /**
+     * Appends a CSV field, quoted if it has to be
+     * null is written as an empty field
+     */
+    private void appendCsvField(String value) {
+        if(value == null) {
+            return;
+        }
+        boolean quote = false;
+        for(int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if(!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    /**
+     * Appends a ticket as a JSON line
+     */
+    private void appendJson(Ticket ticket) {
+        line.append("{\"id\":").append(ticket.getTicketID());
+        line.append(",\"creator\":");
+        appendJsonString(ticket.getCreator());
+        line.append(",\"owner\":");
+        appendJsonString(ticket.getOwner());
+        line.append(",\"type\":");
+        appendJsonString(ticket.getRequestType());
+        line.append(",\"description\":");
+        appendJsonString(ticket.getDescription());
+        line.append(",\"priority\":").append(ticket.getPriority())
+                .append(",\"status\":\"").append(ticket.getStatus())
+                .append("\",\"createdAt\":\"").append(ticket.getCreatedAt())
+                .append("\",\"updatedAt\":\"").append(ticket.getUpdatedAt())
+                .append("\"}\n");
+    }
+
+    /**
+     * Appends a JSON string, or null
+     */
+    private void appendJsonString(String value) {
+        if(value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if(c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Encodes the current line into the output buffer, writing the buffer out when it fills
+     */
+    private void write() throws IOException {
+        CharBuffer chars = CharBuffer.wrap(line);
+        while(true) {
+            CoderResult result = encoder.encode(chars, buffer, false);
+            if(result.isOverflow()) {
+                drain();
+            } else if(result.isUnderflow()) {
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    /**
+     * Writes the output buffer to the channel
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
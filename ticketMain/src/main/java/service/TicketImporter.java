@@ -0,0 +1,704 @@
+package service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Streams tickets from a CSV or JSON-lines file into a TicketService.
+ *
+ * The file is read through a fixed buffer one record at a time, so
+ * memory use depends on the batch size and not on the file size.
+ * Each record is validated like createTicket validates its arguments,
+ * invalid records are skipped and counted. Valid records are collected
+ * into batches that go through createTickets, which reserves one block
+ * of IDs per batch and builds the heap entries in one step.
+ *
+ * CSV: one ticket per record, fields separated by commas, quoted fields
+ * may hold commas, newlines and doubled quotes. A first record naming a
+ * "creator" column is a header and gives the column order, otherwise
+ * the columns are creator, requestType, description.
+ *
+ * JSON lines: one flat object per line with the keys "creator",
+ * "requestType" (or "priority") and "description". Other keys are
+ * ignored.
+ *
+ * @author Rosslan Koulli
+ * @version 1.0
+ */
+public class TicketImporter {
+
+    /**
+     * File formats the importer reads
+     */
+    public enum Format {
+        CSV,
+        JSON_LINES
+    }
+
+    // Default tickets per createTickets call
+    private static final int DEFAULT_BATCH_SIZE = 50000;
+
+    // Default tickets between two progress lines
+    private static final long DEFAULT_PROGRESS_INTERVAL = 1000000;
+
+    // Longest record kept, longer records are skipped without being held in memory
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    // Rejected records printed before the rest are only counted
+    private static final int MAX_REPORTED_REJECTS = 10;
+
+    // Chars read from the file at a time
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    // Service the tickets go into
+    private final TicketService service;
+
+    // Tickets per batch
+    private final int batchSize;
+
+    // Tickets between two progress lines
+    private final long progressInterval;
+
+    // Input and read buffer
+    private Reader in;
+    private final char[] buffer;
+    private int bufferPosition;
+    private int bufferEnd;
+
+    // Record being read, and whether it was too long to keep
+    private final StringBuilder record;
+    private boolean overlong;
+
+    // Line the file is at, and line the current record started on
+    private long line;
+    private long recordLine;
+
+    // Fields of the current CSV record
+    private String[] fields;
+    private int fieldCount;
+
+    // Columns of the CSV fields, from the header if there is one
+    private int creatorColumn;
+    private int typeColumn;
+    private int descriptionColumn;
+
+    // Position in the current JSON line
+    private int cursor;
+
+    // Tickets waiting for the next batch
+    private final String[] creators;
+    private final int[] requestTypes;
+    private final String[] descriptions;
+    private int batchCount;
+
+    // Statistics of the last import
+    private long imported;
+    private long rejected;
+    private long elapsedNanos;
+    private long nextProgress;
+    private long startNanos;
+
+    /**
+     * Constructor with the default batch size and progress interval
+     *
+     * @param service Service the tickets are created in
+     */
+    public TicketImporter(TicketService service) {
+        this(service, DEFAULT_BATCH_SIZE, DEFAULT_PROGRESS_INTERVAL);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param service Service the tickets are created in
+     * @param batchSize Tickets per createTickets call
+     * @param progressInterval Tickets between two progress lines
+     */
+    public TicketImporter(TicketService service, int batchSize, long progressInterval) {
+        if(service == null) {
+            throw new IllegalArgumentException("Service cannot be null");
+        }
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than 0");
+        }
+        if(progressInterval <= 0) {
+            throw new IllegalArgumentException("Progress interval must be greater than 0");
+        }
+        this.service = service;
+        this.batchSize = batchSize;
+        this.progressInterval = progressInterval;
+        this.buffer = new char[BUFFER_SIZE];
+        this.record = new StringBuilder();
+        this.fields = new String[8];
+        this.creators = new String[batchSize];
+        this.requestTypes = new int[batchSize];
+        this.descriptions = new String[batchSize];
+    }
+
+    /**
+     * Gets the format of a file from its extension
+     *
+     * @param file The file
+     * @return CSV for .csv, JSON_LINES for .jsonl, .ndjson and .json
+     */
+    public static Format formatOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        if(name.endsWith(".csv")) {
+            return Format.CSV;
+        }
+        if(name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json")) {
+            return Format.JSON_LINES;
+        }
+        throw new IllegalArgumentException("Unknown import format of " + file + ", expected .csv or .jsonl");
+    }
+
+    /**
+     * Imports a UTF-8 file, its format taken from the extension
+     *
+     * @param file The file
+     * @return Number of tickets created
+     * @throws IOException If the file cannot be read
+     */
+    public long importFile(Path file) throws IOException {
+        return importFile(file, formatOf(file));
+    }
+
+    /**
+     * Imports a UTF-8 file
+     *
+     * @param file The file
+     * @param format Format of the file
+     * @return Number of tickets created
+     * @throws IOException If the file cannot be read
+     */
+    public long importFile(Path file, Format format) throws IOException {
+        try(Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(reader, format);
+        }
+    }
+
+    /**
+     * Imports tickets from a reader, which is not closed
+     * Tickets of full batches stay created if reading fails part way
+     *
+     * Time Complexity 0(n) for n records
+     *
+     * @param reader Source of the records
+     * @param format Format of the records
+     * @return Number of tickets created
+     * @throws IOException If the reader fails
+     */
+    public long importFrom(Reader reader, Format format) throws IOException {
+        if(reader == null || format == null) {
+            throw new IllegalArgumentException("Reader and format cannot be null");
+        }
+        in = reader;
+        bufferPosition = 0;
+        bufferEnd = 0;
+        line = 1;
+        batchCount = 0;
+        creatorColumn = 0;
+        typeColumn = 1;
+        descriptionColumn = 2;
+        imported = 0;
+        rejected = 0;
+        nextProgress = progressInterval;
+        startNanos = System.nanoTime();
+
+        try {
+            boolean csv = format == Format.CSV;
+            boolean first = true;
+            while(readRecord(csv)) {
+                if(overlong) {
+                    reject("Record longer than " + MAX_RECORD_LENGTH + " characters");
+                    continue;
+                }
+                if(isBlank()) {
+                    continue;
+                }
+                try {
+                    if(csv) {
+                        parseCsv();
+                        if(first && isHeader()) {
+                            // A bad header is not skipped, the columns would be misread
+                            first = false;
+                            readHeader();
+                            continue;
+                        }
+                        add(field(creatorColumn), field(typeColumn), field(descriptionColumn));
+                    } else {
+                        parseJson();
+                    }
+                } catch(InvalidRecordException e) {
+                    reject(e.getMessage());
+                }
+                first = false;
+            }
+            flush();
+        } finally {
+            in = null;
+            elapsedNanos = System.nanoTime() - startNanos;
+        }
+
+        System.out.println("Imported " + imported + " tickets, " + rejected + " records rejected ("
+                + getTicketsPerSecond() + " tickets/sec)");
+        return imported;
+    }
+
+    /**
+     * Gets the number of tickets the last import created
+     *
+     * @return The number of tickets
+     */
+    public long getImported() {
+        return imported;
+    }
+
+    /**
+     * Gets the number of records the last import skipped as invalid
+     *
+     * @return The number of records
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Gets the time the last import took
+     *
+     * @return Nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the import throughput of the last import
+     *
+     * @return Tickets created per second, 0 if nothing was imported
+     */
+    public long getTicketsPerSecond() {
+        return elapsedNanos == 0 ? 0 : imported * 1000000000L / elapsedNanos;
+    }
+
+    /**
+     * Reads the next record into record
+     * A CSV record ends at a line break outside quotes, a JSON record at any line break
+     *
+     * @return false at the end of the input
+     */
+    private boolean readRecord(boolean csv) throws IOException {
+        record.setLength(0);
+        overlong = false;
+        recordLine = line;
+        boolean quoted = false;
+        boolean any = false;
+        while(true) {
+            if(bufferPosition == bufferEnd) {
+                int read = in.read(buffer, 0, buffer.length);
+                if(read < 0) {
+                    return any;
+                }
+                bufferPosition = 0;
+                bufferEnd = read;
+                continue;
+            }
+            char c = buffer[bufferPosition++];
+            any = true;
+            if(c == '\n') {
+                line++;
+                if(!quoted) {
+                    // Drop the \r of a \r\n line break
+                    int length = record.length();
+                    if(length > 0 && record.charAt(length - 1) == '\r') {
+                        record.setLength(length - 1);
+                    }
+                    return true;
+                }
+            } else if(c == '"' && csv) {
+                quoted = !quoted;
+            }
+            if(record.length() < MAX_RECORD_LENGTH) {
+                record.append(c);
+            } else {
+                overlong = true;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the current record holds only white space
+     */
+    private boolean isBlank() {
+        for(int i = 0; i < record.length(); i++) {
+            if(!Character.isWhitespace(record.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Validates a ticket and adds it to the batch
+     * Uses the checks of TicketService.createTicket and the Ticket constructor
+     */
+    private void add(String creator, String requestType, String description) {
+        if(creator == null || creator.trim().isEmpty()) {
+            throw new InvalidRecordException("Creator cannot be null or empty");
+        }
+        if(description == null || description.trim().isEmpty()) {
+            throw new InvalidRecordException("Description cannot be null or empty");
+        }
+        if(requestType == null) {
+            throw new InvalidRecordException("Request type cannot be null");
+        }
+        int type;
+        try {
+            type = Integer.parseInt(requestType.trim());
+        } catch(NumberFormatException e) {
+            throw new InvalidRecordException("Request type must be a number, found \"" + requestType + "\"");
+        }
+        if(type < 1 || type > 4) {
+            throw new InvalidRecordException("Ticket priority must be between 1 and 4");
+        }
+
+        creators[batchCount] = creator;
+        requestTypes[batchCount] = type;
+        descriptions[batchCount] = description;
+        batchCount++;
+        if(batchCount == batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Creates the tickets of the batch and prints progress when due
+     */
+    private void flush() {
+        if(batchCount == 0) {
+            return;
+        }
+        if(batchCount == batchSize) {
+            service.createTickets(creators, requestTypes, descriptions);
+        } else {
+            service.createTickets(Arrays.copyOf(creators, batchCount), Arrays.copyOf(requestTypes, batchCount),
+                    Arrays.copyOf(descriptions, batchCount));
+        }
+        imported += batchCount;
+
+        // Let the strings of the batch be collected
+        Arrays.fill(creators, 0, batchCount, null);
+        Arrays.fill(descriptions, 0, batchCount, null);
+        batchCount = 0;
+
+        if(imported >= nextProgress) {
+            long nanos = System.nanoTime() - startNanos;
+            System.out.println("Imported " + imported + " tickets so far ("
+                    + (nanos == 0 ? 0 : imported * 1000000000L / nanos) + " tickets/sec)");
+            nextProgress = (imported / progressInterval + 1) * progressInterval;
+        }
+    }
+
+    /**
+     * Counts a skipped record and prints the first few
+     */
+    private void reject(String reason) {
+        rejected++;
+        if(rejected <= MAX_REPORTED_REJECTS) {
+            System.out.println("Line " + recordLine + " skipped: " + reason);
+            if(rejected == MAX_REPORTED_REJECTS) {
+                System.out.println("Further skipped lines are counted but not printed");
+            }
+        }
+    }
+
+    /**
+     * Splits the current record into fields
+     *
+     * Time Complexity 0(n) for n characters
+     */
+    private void parseCsv() {
+        fieldCount = 0;
+        int length = record.length();
+        int i = 0;
+        StringBuilder value = new StringBuilder();
+        while(true) {
+            value.setLength(0);
+            if(i < length && record.charAt(i) == '"') {
+                // Quoted field, "" stands for one quote
+                i++;
+                while(true) {
+                    if(i == length) {
+                        throw new InvalidRecordException("Unterminated quoted field");
+                    }
+                    char c = record.charAt(i++);
+                    if(c == '"') {
+                        if(i < length && record.charAt(i) == '"') {
+                            value.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        value.append(c);
+                    }
+                }
+                if(i < length && record.charAt(i) != ',') {
+                    throw new InvalidRecordException("Unexpected character after quoted field");
+                }
+            } else {
+                while(i < length && record.charAt(i) != ',') {
+                    value.append(record.charAt(i++));
+                }
+            }
+
+            if(fieldCount == fields.length) {
+                fields = Arrays.copyOf(fields, fieldCount * 2);
+            }
+            fields[fieldCount++] = value.toString();
+            if(i == length) {
+                return;
+            }
+            i++; // Skip the comma
+        }
+    }
+
+    /**
+     * Gets a field of the current CSV record
+     *
+     * @return The field, or null if the record is shorter
+     */
+    private String field(int column) {
+        return column < fieldCount ? fields[column] : null;
+    }
+
+    /**
+     * Checks whether the current CSV record is a header
+     */
+    private boolean isHeader() {
+        for(int i = 0; i < fieldCount; i++) {
+            if(fields[i].trim().equalsIgnoreCase("creator")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes the column order from the header record
+     */
+    private void readHeader() {
+        creatorColumn = -1;
+        typeColumn = -1;
+        descriptionColumn = -1;
+        for(int i = 0; i < fieldCount; i++) {
+            String name = fields[i].trim();
+            if(name.equalsIgnoreCase("creator")) {
+                creatorColumn = i;
+            } else if(name.equalsIgnoreCase("requestType") || name.equalsIgnoreCase("priority")) {
+                typeColumn = i;
+            } else if(name.equalsIgnoreCase("description")) {
+                descriptionColumn = i;
+            }
+        }
+        if(creatorColumn < 0 || typeColumn < 0 || descriptionColumn < 0) {
+            throw new IllegalArgumentException("CSV header must name the creator, requestType and description columns");
+        }
+    }
+
+    /**
+     * Reads the current record as a flat JSON object and adds its ticket
+     *
+     * Time Complexity 0(n) for n characters
+     */
+    private void parseJson() {
+        cursor = 0;
+        String creator = null;
+        String requestType = null;
+        String description = null;
+
+        skipSpace();
+        expect('{');
+        skipSpace();
+        if(peek() == '}') {
+            cursor++;
+        } else {
+            while(true) {
+                skipSpace();
+                String key = readString();
+                skipSpace();
+                expect(':');
+                skipSpace();
+                String value = readValue();
+                if(key.equals("creator")) {
+                    creator = value;
+                } else if(key.equals("requestType") || key.equals("priority")) {
+                    requestType = value;
+                } else if(key.equals("description")) {
+                    description = value;
+                }
+                skipSpace();
+                char c = next();
+                if(c == '}') {
+                    break;
+                }
+                if(c != ',') {
+                    throw new InvalidRecordException("Expected ',' or '}' at column " + cursor);
+                }
+            }
+        }
+        skipSpace();
+        if(cursor != record.length()) {
+            throw new InvalidRecordException("Unexpected text after the JSON object at column " + (cursor + 1));
+        }
+        add(creator, requestType, description);
+    }
+
+    /**
+     * Reads a JSON value
+     *
+     * @return Text of a string, number or boolean, null for null and nested values
+     */
+    private String readValue() {
+        char c = peek();
+        if(c == '"') {
+            return readString();
+        }
+        if(c == '{' || c == '[') {
+            skipNested();
+            return null;
+        }
+        int start = cursor;
+        while(cursor < record.length() && ",}] \t\r".indexOf(record.charAt(cursor)) < 0) {
+            cursor++;
+        }
+        String literal = record.substring(start, cursor);
+        if(literal.isEmpty()) {
+            throw new InvalidRecordException("Missing value at column " + (start + 1));
+        }
+        return literal.equals("null") ? null : literal;
+    }
+
+    /**
+     * Reads a JSON string and resolves its escapes
+     */
+    private String readString() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while(true) {
+            char c = next();
+            if(c == '"') {
+                return value.toString();
+            }
+            if(c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = next();
+            switch(escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    if(cursor + 4 > record.length()) {
+                        throw new InvalidRecordException("Incomplete \\u escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(record.substring(cursor, cursor + 4), 16));
+                    } catch(NumberFormatException e) {
+                        throw new InvalidRecordException("Invalid \\u escape at column " + cursor);
+                    }
+                    cursor += 4;
+                    break;
+                default:
+                    // \" \\ \/
+                    value.append(escaped);
+            }
+        }
+    }
+
+    /**
+     * Skips a nested JSON object or array
+     */
+    private void skipNested() {
+        int depth = 0;
+        do {
+            char c = peek();
+            if(c == '"') {
+                readString();
+                continue;
+            }
+            cursor++;
+            if(c == '{' || c == '[') {
+                depth++;
+            } else if(c == '}' || c == ']') {
+                depth--;
+            }
+        } while(depth > 0);
+    }
+
+    /**
+     * Skips spaces and tabs
+     */
+    private void skipSpace() {
+        while(cursor < record.length() && Character.isWhitespace(record.charAt(cursor))) {
+            cursor++;
+        }
+    }
+
+    /**
+     * Gets the next character without moving past it
+     */
+    private char peek() {
+        if(cursor == record.length()) {
+            throw new InvalidRecordException("Unexpected end of the JSON line");
+        }
+        return record.charAt(cursor);
+    }
+
+    /**
+     * Gets the next character and moves past it
+     */
+    private char next() {
+        char c = peek();
+        cursor++;
+        return c;
+    }
+
+    /**
+     * Moves past an expected character
+     */
+    private void expect(char expected) {
+        if(next() != expected) {
+            throw new InvalidRecordException("Expected '" + expected + "' at column " + cursor);
+        }
+    }
+
+    /**
+     * Thrown for a record that is skipped
+     */
+    private static final class InvalidRecordException extends IllegalArgumentException {
+
+        private static final long serialVersionUID = 1L;
+
+        InvalidRecordException(String message) {
+            super(message);
+        }
+    }
+}
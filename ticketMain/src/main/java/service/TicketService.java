@@ -1,8 +1,19 @@
 package service;
 import model.Ticket;
 import dataStructure.PriorityQueue;
+import dataStructure.TicketQueue;
+import persistence.Durability;
+import persistence.LogOperation;
+import persistence.RecoveredState;
+import persistence.SnapshotWriter;
+import persistence.TicketArchive;
+import persistence.WriteAheadLog;
 import utils.IDGenerator;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
 /**
  * Service class that provides business logic for the IT support ticket system.
  * This class acts as an interface between the user Interface and the data structure.
@@ -13,25 +24,185 @@ import utils.IDGenerator;
  */
 public class TicketService {
     // The priority queue to store tickets
-    private PriorityQueue ticketQueue;
+    private TicketQueue ticketQueue;
 
     // ID generator for unique ticket IDs
     private IDGenerator idGenerator;
 
+    // Durable log of every change, null if changes are not logged
+    private final WriteAheadLog log;
+
+    // Where processed and removed tickets go, null if they are dropped
+    private final TicketArchive archive;
+
     // Statistics tracking
     private int totalTicketsCreated;
     private int totalTicketsResolved;
 
     /**
      * Constructor for initializing the service
+     * Uses the heap based priority queue
      */
 
     public TicketService() {
-        this.ticketQueue = new PriorityQueue();
+        // Indexed so search, update and remove by ID don't scan the whole heap
+        this(new PriorityQueue(true));
+    }
+
+    /**
+     * Constructor for initializing the service with a chosen queue
+     * e.g. new TicketService(new BucketQueue()) for the multi-level queue
+     *
+     * A queue that keeps its tickets on disk (e.g. MappedTicketQueue)
+     * may already hold tickets, the ID generator is then moved past
+     * the largest of their IDs.
+     *
+     * @param ticketQueue Queue to store the tickets in
+     */
+    public TicketService(TicketQueue ticketQueue) {
+        this(ticketQueue, null);
+    }
+
+    /**
+     * Constructor for a service whose changes are kept in a write-ahead log
+     * The tickets and statistics recovered from the log are loaded into
+     * the queue, and the ID generator is moved past the largest
+     * recovered ID so no ID is reused.
+     *
+     * @param ticketQueue Queue to store the tickets in, must be empty when a log is given
+     * @param log Open write-ahead log, or null to not log changes
+     */
+    public TicketService(TicketQueue ticketQueue, WriteAheadLog log) {
+        this(ticketQueue, log, null);
+    }
+
+    /**
+     * Constructor for a service that archives the tickets leaving the queue
+     * Processed and removed tickets are added to the archive, and
+     * searchTicket looks there when the queue does not have the ticket.
+     *
+     * @param ticketQueue Queue to store the tickets in, must be empty when a log is given
+     * @param log Open write-ahead log, or null to not log changes
+     * @param archive Open archive, or null to drop tickets that leave the queue
+     */
+    public TicketService(TicketQueue ticketQueue, WriteAheadLog log, TicketArchive archive) {
+        if(ticketQueue == null) {
+            throw new IllegalArgumentException("Ticket queue cannot be null");
+        }
+        if(log != null && !ticketQueue.isEmpty()) {
+            throw new IllegalArgumentException("Ticket queue must be empty");
+        }
+        this.ticketQueue = ticketQueue;
         this.idGenerator = IDGenerator.getInstance();
         this.totalTicketsCreated = 0;
         this.totalTicketsResolved = 0;
+        this.log = log;
+        this.archive = archive;
+
+        if(log != null) {
+            RecoveredState recovered = log.getRecovered();
+            ticketQueue.insertAll(recovered.getTickets(ticketQueue.keepsPlaceOnUpdate()));
+            totalTicketsCreated = recovered.getTicketsCreated();
+            totalTicketsResolved = recovered.getTicketsResolved();
+            if(recovered.getMaxTicketId() >= 0) {
+                idGenerator.advancePast(recovered.getMaxTicketId());
+            }
+        } else if(!ticketQueue.isEmpty()) {
+            long maxId = Long.MIN_VALUE;
+            for(Ticket ticket : ticketQueue.getAllTickets()) {
+                maxId = Math.max(maxId, ticket.getTicketID());
+            }
+            if(maxId >= 0) {
+                idGenerator.advancePast(maxId);
+            }
+        }
+
+    }
+
+    /**
+     * Waits until the changes logged so far are as durable as the log's
+     * durability level requires. Called at the end of every change.
+     * Subclasses that hold a lock can move the wait after releasing it,
+     * so concurrent callers share an fsync.
+     * With PER_OPERATION the archive journal is synced first, so a
+     * durable PROCESS or REMOVE record never outlives its archived ticket.
+     */
+    protected void commitLog() {
+        if(log != null) {
+            if(archive != null && log.getDurability() == Durability.PER_OPERATION) {
+                try {
+                    archive.sync();
+                } catch(IOException e) {
+                    System.out.println("Warning: could not sync the ticket archive (" + e.getMessage() + ")");
+                }
+            }
+            log.commit();
+        }
+    }
 
+    /**
+     * Gives subclasses direct access to the log
+     *
+     * @return The write-ahead log, or null if changes are not logged
+     */
+    protected WriteAheadLog getLog() {
+        return log;
+    }
+
+    /**
+     * Adds a ticket that left the queue to the archive, if there is one
+     * Called after the queue, log and statistics are updated and before
+     * commitLog. A failure is only reported: the ticket stays pending in
+     * the archive and is written with the next block.
+     *
+     * @param ticket The processed or removed ticket
+     */
+    private void archive(Ticket ticket) {
+        if(archive != null) {
+            try {
+                archive.add(ticket);
+            } catch(IOException e) {
+                System.out.println("Warning: could not write the ticket archive, ticket #" + ticket.getTicketID()
+                        + " stays pending (" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    /**
+     * Looks up a ticket in the archive
+     * The archive has its own lock, so subclasses can call this without theirs
+     *
+     * @param ticketID ID of the ticket
+     * @return The archived ticket, or null if there is no archive or it does not hold the ticket
+     */
+    protected Ticket searchArchive(long ticketID) {
+        if(archive == null) {
+            return null;
+        }
+        try {
+            return archive.find(ticketID);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Could not read the ticket archive", e);
+        }
+    }
+
+    /**
+     * Gives subclasses direct access to the queue
+     *
+     * @return The queue storing the tickets
+     */
+    protected TicketQueue getTicketQueue() {
+        return ticketQueue;
+    }
+
+    /**
+     * Gets a point-in-time copy of the queue, see TicketQueue.copy
+     * The copy can be read in queue order while the service goes on
+     *
+     * @return Copy of the queue, sharing the Ticket objects
+     */
+    protected TicketQueue copyQueue() {
+        return ticketQueue.copy();
     }
 
     /**
@@ -51,46 +222,106 @@ public class TicketService {
             throw new IllegalArgumentException("Description cannot be null or empty");
         }
 
-        // Generate unique ID
-        int ticketId = idGenerator.generateId();
-
-        // Determine request type string and priority
+        // Determine request type string, the priority is the request type
+        String typeString = requestTypeName(requestType);
 
-        String typeString;
-        int priority;
+        // Generate unique ID
+        long ticketId = idGenerator.generateId();
 
-        switch (requestType) {
-            case 1:
-                typeString = "Security Issue";
-                priority = 1;
-                break;
-            case 2:
-                typeString = "Network Issue";
-                priority = 2;
-                break;
-            case 3:
-                typeString = "Software/app Installation";
-                priority = 3;
-                break;
-            case 4:
-                typeString = "New Computer configuration";
-                priority = 4;
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid request type. Must be between 1 or 4.");
-        }
         // Create ticket
-        Ticket ticket = new Ticket(ticketId, creator, typeString, description, priority);
+        Ticket ticket = new Ticket(ticketId, creator, typeString, description, requestType);
 
         // Add to queue
 
         ticketQueue.insert(ticket);
         totalTicketsCreated++;
+        if(log != null) {
+            log.append(LogOperation.CREATE, ticket);
+        }
+        commitLog();
 
         System.out.println("Ticket has been created successfully. ID of the ticket is: " + ticketId);
 
         return ticket;
     }
+    /**
+     * Creates a batch of tickets in one step
+     * All inputs are validated before anything is created, the IDs are
+     * reserved as one block and the tickets go into the queue together.
+     *
+     * @param creators Name of the person creating each ticket
+     * @param requestTypes Type of IT request (1 to 4) of each ticket
+     * @param descriptions Description of each ticket
+     * @return The created tickets, in input order
+     */
+    public Ticket[] createTickets(String[] creators, int[] requestTypes, String[] descriptions) {
+        // Validate inputs
+        if(creators == null || requestTypes == null || descriptions == null) {
+            throw new IllegalArgumentException("Ticket data cannot be null");
+        }
+        int count = creators.length;
+        if(requestTypes.length != count || descriptions.length != count) {
+            throw new IllegalArgumentException("Ticket data arrays must have the same length");
+        }
+        if(count == 0) {
+            return new Ticket[0];
+        }
+
+        String[] typeStrings = new String[count];
+        for(int i = 0; i < count; i++) {
+            if(creators[i] == null || creators[i].trim().isEmpty()){
+                throw new IllegalArgumentException("Creator cannot be null or empty (ticket " + i + ")");
+            }
+            if(descriptions[i] == null || descriptions[i].trim().isEmpty()){
+                throw new IllegalArgumentException("Description cannot be null or empty (ticket " + i + ")");
+            }
+            typeStrings[i] = requestTypeName(requestTypes[i]);
+        }
+
+        // One block of unique IDs for the whole batch
+        long[] ids = idGenerator.generateIds(count);
+
+        Ticket[] tickets = new Ticket[count];
+        for(int i = 0; i < count; i++) {
+            tickets[i] = new Ticket(ids[i], creators[i], typeStrings[i], descriptions[i], requestTypes[i]);
+        }
+
+        ticketQueue.insertAll(tickets);
+        totalTicketsCreated += count;
+        if(log != null) {
+            for(Ticket ticket : tickets) {
+                log.append(LogOperation.CREATE, ticket);
+            }
+        }
+        commitLog();
+
+        System.out.println(count + " tickets have been created successfully. IDs " + ids[0] + " to " + ids[count - 1]);
+
+        return tickets;
+    }
+
+    /**
+     * Gets the name of a request type
+     * The request type number is also the priority of the ticket
+     *
+     * @param requestType Type of IT request (1 to 4)
+     * @return Name of the request type
+     */
+    private static String requestTypeName(int requestType) {
+        switch (requestType) {
+            case 1:
+                return "Security Issue";
+            case 2:
+                return "Network Issue";
+            case 3:
+                return "Software/app Installation";
+            case 4:
+                return "New Computer configuration";
+            default:
+                throw new IllegalArgumentException("Invalid request type. Must be between 1 or 4.");
+        }
+    }
+
     /**
      * Processes the next highest priority ticket
      *
@@ -103,6 +334,11 @@ public class TicketService {
         if(ticket != null) {
             ticket.setStatus(Ticket.TicketStatus.IN_PROGRESS);
             totalTicketsResolved++;
+            if(log != null) {
+                log.append(LogOperation.PROCESS, ticket.getTicketID());
+            }
+            archive(ticket);
+            commitLog();
             System.out.println("Processing ticket # " + ticket.getTicketID());
         } else {
             System.out.println(" No tickets currently in the queue");
@@ -110,14 +346,58 @@ public class TicketService {
 
         return ticket;
     }
+    /**
+     * Processes the next n highest priority tickets in one step
+     * The tickets are taken out of the queue together and the
+     * statistics and log are updated once for the whole round.
+     *
+     * @param n Maximum number of tickets to process
+     * @return The processed tickets in priority order (may be fewer than n)
+     */
+    public Ticket[] processNextTickets(int n) {
+        if(n < 0) {
+            throw new IllegalArgumentException("Number of tickets cannot be negative");
+        }
+
+        Ticket[] batch = new Ticket[Math.min(n, ticketQueue.size())];
+        int count = ticketQueue.drainTo(batch, batch.length);
+
+        for(int i = 0; i < count; i++) {
+            batch[i].setStatus(Ticket.TicketStatus.IN_PROGRESS);
+            if(log != null) {
+                log.append(LogOperation.PROCESS, batch[i].getTicketID());
+            }
+        }
+        totalTicketsResolved += count;
+        // After the queue, log and statistics, a failure here does not undo them
+        for(int i = 0; i < count; i++) {
+            archive(batch[i]);
+        }
+        if(count > 0) {
+            commitLog();
+        }
+
+        if(count > 0) {
+            System.out.println("Processing " + count + " tickets");
+        } else {
+            System.out.println(" No tickets currently in the queue");
+        }
+
+        return batch;
+    }
+
     /**
      *  Searching for a ticket by its ID
+     *  Falls back to the archive, if any, for tickets no longer queued
      *
      * @param ticketID the ID to search for
      * @return the ticket if found, null otherwise
      */
-    public Ticket searchTicket(int ticketID) {
+    public Ticket searchTicket(long ticketID) {
         Ticket ticket = ticketQueue.search(ticketID);
+        if(ticket == null) {
+            ticket = searchArchive(ticketID);
+        }
 
         if(ticket != null) {
             System.out.println(" Ticket Found !");
@@ -134,8 +414,14 @@ public class TicketService {
      * @param newPriority New priority between 1 or 4
      * @return true if successful. false if ticket not found
      */
-    public boolean updateTicketPriority(int ticketId, int newPriority) {
+    public boolean updateTicketPriority(long ticketId, int newPriority) {
         boolean success = ticketQueue.updatePriority(ticketId, newPriority);
+        if(success) {
+            if(log != null) {
+                log.append(LogOperation.UPDATE_PRIORITY, ticketQueue.search(ticketId));
+            }
+            commitLog();
+        }
 
         if (success) {
             System.out.println("Priority updated successfully");
@@ -152,11 +438,16 @@ public class TicketService {
      * @return the removed ticket, or null if not found
      */
 
-    public Ticket removeTicket(int ticketId) {
+    public Ticket removeTicket(long ticketId) {
         Ticket removed = ticketQueue.remove(ticketId);
 
         if(removed != null) {
             removed.setStatus(Ticket.TicketStatus.CLOSED);
+            if(log != null) {
+                log.append(LogOperation.REMOVE, ticketId);
+            }
+            archive(removed);
+            commitLog();
             System.out.println("Ticket #" + ticketId + " has been removed successfully");
         } else {
             System.out.println("Ticket #" + ticketId + " not found");
@@ -173,12 +464,17 @@ public class TicketService {
      * @return true if successful, false if ticket not found
      *
      */
-    public boolean assignOwner(int ticketId, String owner) {
+    public boolean assignOwner(long ticketId, String owner) {
         Ticket ticket = ticketQueue.search(ticketId);
 
         if(ticket != null) {
             ticket.setOwner(owner);
             ticket.setStatus(Ticket.TicketStatus.IN_PROGRESS);
+            ticketQueue.update(ticket);
+            if(log != null) {
+                log.append(LogOperation.ASSIGN_OWNER, ticket);
+            }
+            commitLog();
             System.out.println("Owner assigned successfully \nTicket #" + ticketId + " has been assigned to " + owner);
             return true;
         } else {
@@ -206,6 +502,16 @@ public class TicketService {
         return ticketQueue.getAllTicketsSorted();
     }
 
+    /**
+     * Gets the next k tickets in priority order without removing them
+     *
+     * @param k Number of tickets wanted
+     * @return Up to k tickets, highest priority first
+     */
+    public Ticket[] getTopTickets(int k) {
+        return ticketQueue.getTopK(k);
+    }
+
     /**
      * Displays all tickets in priority order
      */
@@ -215,7 +521,7 @@ public class TicketService {
             return;
         }
 
-        Ticket[] sorted = getAllTicketsSorted();
+        Ticket[] sorted = ticketQueue.getAllTicketsSorted();
         System.out.println("\n=== All Tickets (Sorted by priority===");
         System.out.println("Total tickets: " + sorted.length );
         System.out.println("-------------------------------------------------------");
@@ -235,7 +541,7 @@ public class TicketService {
             return;
         }
 
-        Ticket[] sorted = getAllTicketsSorted();
+        Ticket[] sorted = ticketQueue.getAllTicketsSorted();
         System.out.println("\n=== All Tickets ===");
 
         for (Ticket ticket : sorted) {
@@ -264,6 +570,26 @@ public class TicketService {
         return ticketQueue.size();
     }
 
+    /**
+     * Gets the number of tickets created since the service started
+     * (including tickets recovered from the log)
+     *
+     * @return Total number of tickets created
+     */
+    public int getTotalTicketsCreated() {
+        return totalTicketsCreated;
+    }
+
+    /**
+     * Gets the number of tickets processed since the service started
+     * (including tickets recovered from the log)
+     *
+     * @return Total number of tickets processed
+     */
+    public int getTotalTicketsResolved() {
+        return totalTicketsResolved;
+    }
+
     /**
      * Displays system statistics
      */
@@ -274,7 +600,7 @@ public class TicketService {
         System.out.println("Current tickets in queue: " + ticketQueue.size());
 
         // Count by priority
-        Ticket[] allTickets = getAllTickets();
+        Ticket[] allTickets = ticketQueue.getAllTickets();
         int[] priorityCount = new int[4];
 
         for(Ticket ticket : allTickets) {
@@ -287,6 +613,49 @@ public class TicketService {
         System.out.println("Priority 3 (Software): " + priorityCount[2]);
         System.out.println("Priority 4 (New Computer): " + priorityCount[3]);
     }
+    /**
+     * Writes every ticket in the queue, in queue order, to a snapshot file
+     * The snapshot records the LSN of the last logged change, so
+     * recovery only has to replay the log records after it.
+     *
+     * @param file Snapshot file, replaced atomically
+     * @throws IOException If the file cannot be written
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        writeSnapshot(file);
+    }
+
+    /**
+     * Writes the snapshot for saveSnapshot and checkpoint
+     *
+     * @return LSN the snapshot covers
+     */
+    private long writeSnapshot(Path file) throws IOException {
+        if(file == null) {
+            throw new IllegalArgumentException("Snapshot file cannot be null");
+        }
+        long lastLsn = log == null ? 0 : log.beginSnapshot();
+        SnapshotWriter.writeFile(file, ticketQueue.getAllTicketsSorted(),
+                totalTicketsCreated, totalTicketsResolved, lastLsn);
+        System.out.println("Snapshot of " + ticketQueue.size() + " tickets saved");
+        return lastLsn;
+    }
+
+    /**
+     * Saves a snapshot and drops the log records it covers, so the log
+     * doesn't grow forever. From then on the log has to be opened with
+     * the snapshot (WriteAheadLog.open with SnapshotReader.readFile).
+     *
+     * @param file Snapshot file, replaced atomically
+     * @throws IOException If the snapshot or the log cannot be written
+     */
+    public void checkpoint(Path file) throws IOException {
+        long lastLsn = writeSnapshot(file);
+        if(log != null) {
+            log.truncate(lastLsn);
+        }
+    }
+
     /**
      * Clears all tickets from the system
      * WARNING this action cannot be undone WARNING
@@ -294,6 +663,10 @@ public class TicketService {
 
     public void clearAllTickets() {
         ticketQueue.clear();
+        if(log != null) {
+            log.appendClear();
+        }
+        commitLog();
         System.out.println("All tickets successfully cleared from the system");
     }
 
@@ -1,5 +1,15 @@
 package utils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
 /**
  * Utility class for generating unique tickets IDs.
  * Uses a simple incrementing counter approach.
@@ -8,15 +18,115 @@ package utils;
  * This class uses the Singleton pattern to ensure only one instance
  * exists through the application lifecycle
  *
+ * The counter is an AtomicLong, so no method takes a lock.
+ * generateLocalId hands out IDs from a block reserved for the
+ * calling thread, so most calls don't touch the shared counter.
+ *
+ * Two ID modes:
+ * Sequential (default): 1000, 1001, 1002, ...
+ * Snowflake: 64 bit IDs made of
+ *   41 bits milliseconds since 2024-01-01 UTC
+ *   10 bits node ID (0 to 1023)
+ *   12 bits sequence within the millisecond
+ * Each ingestion node uses its own node ID, so nodes can create IDs
+ * without talking to each other, and IDs sort by creation time.
+ * When a node needs more than 4096 IDs in one millisecond, or the
+ * clock goes back, it borrows the following milliseconds instead of
+ * ever repeating an ID.
+ *
+ * With usePersistentLeases the generator survives restarts without
+ * handing out an ID twice. IDs are leased in blocks (10,000 by default)
+ * and the end of the current lease is written to a small file and
+ * fsynced before any ID of the block is handed out. A restart carries
+ * on from the end of the last lease, skipping the unused rest of it,
+ * so there is one fsync per lease instead of one per ID.
+ * Snowflake positions move on with the clock (4096 per millisecond),
+ * so there a lease covers a span of time instead, leaseSize
+ * milliseconds (10 seconds by default).
+ *
  * @author Rosslan Koulli
  * @version 1.0
  */
 public class IDGenerator {
-    // Singleton instance
-    private static IDGenerator instance;
+    // First ID handed out in sequential mode, and the value reset() goes back to
+    private static final long FIRST_ID = 1000;
+
+    // Number of IDs a thread reserves at a time for generateLocalId
+    private static final int LOCAL_BLOCK_SIZE = 64;
+
+    // Start of the Snowflake timestamp, 2024-01-01T00:00:00Z
+    private static final long SNOWFLAKE_EPOCH = 1704067200000L;
+
+    // Bit widths of the Snowflake node ID and sequence
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+
+    // Largest node ID
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    // Node ID meaning the generator is in sequential mode
+    private static final int SEQUENTIAL = -1;
+
+    // Default number of IDs per persisted lease
+    private static final int DEFAULT_LEASE_SIZE = 10000;
+
+    // Lease file record: magic, node ID, lease end, CRC32 of the first three
+    private static final int LEASE_MAGIC = 0x49444C53; // "IDLS"
+    private static final int LEASE_RECORD_SIZE = 20;
+
+    // The record is written to two slots in turn, so a torn write
+    // can only damage the newer one and the older one is still valid
+    private static final int LEASE_SLOT_SIZE = 32;
+
+    /**
+     * Holds the singleton instance
+     * The JVM creates it the first time getInstance is called
+     */
+    private static final class Holder {
+        private static final IDGenerator INSTANCE = new IDGenerator();
+    }
+
+    /**
+     * Block of positions reserved by one thread
+     */
+    private static final class Block {
+        // Next position to hand out and the first position after the block
+        long next;
+        long end;
+
+        // Value of resets when the block was reserved
+        int epoch;
+    }
+
+    // Next free position
+    // Sequential mode: the next ID
+    // Snowflake mode: milliseconds << SEQUENCE_BITS | sequence, without the node ID
+    private final AtomicLong nextPosition;
+
+    // Snowflake node ID, or SEQUENTIAL
+    private volatile int nodeId;
+
+    // Number of resets and mode changes, blocks from before one are dropped
+    // Atomic, advancePast bumps it without holding leaseLock
+    private final AtomicInteger resets;
+
+    // Block of IDs for generateLocalId, one per thread
+    private final ThreadLocal<Block> localBlock;
+
+    // Lease file, null when IDs are not persisted
+    private FileChannel leaseChannel;
 
-    // Counter for generating IDs, starts at 1000
-    private int currentID;
+    // End of the persisted lease, positions below it may be handed out
+    private volatile long leaseEnd;
+
+    // Number of positions per lease: leaseSize IDs, or leaseSize milliseconds in Snowflake mode
+    private long leaseSpan;
+
+    // Slot of the lease file written next (0 or 1)
+    private int leaseSlot;
+
+    // Guards the lease file
+    private final Object leaseLock;
 
     /**
      * Private constructor to prevent direct instantiation
@@ -24,7 +134,12 @@ public class IDGenerator {
 
     private IDGenerator() {
 
-        this.currentID = 1000;
+        this.nextPosition = new AtomicLong(FIRST_ID);
+        this.resets = new AtomicInteger();
+        this.nodeId = SEQUENTIAL;
+        this.localBlock = ThreadLocal.withInitial(Block::new);
+        this.leaseEnd = Long.MAX_VALUE;
+        this.leaseLock = new Object();
     }
 
     /** Gets the singleton instance of IDGenerator
@@ -32,11 +147,264 @@ public class IDGenerator {
      * @return The single instance of IDGenerator
      */
 
-    public static synchronized IDGenerator getInstance() {
-        if(instance == null) {
-            instance = new IDGenerator();
+    public static IDGenerator getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Switches to 64 bit Snowflake IDs
+     * Meant to be called once at start up, before tickets are created
+     *
+     * @param nodeId ID of this node (0 to MAX_NODE_ID), unique per node
+     */
+    public void useSnowflakeIds(int nodeId) {
+        if(nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node ID must be between 0 and " + MAX_NODE_ID);
+        }
+        if(isPersistent()) {
+            throw new IllegalStateException("Choose the ID mode before enabling persistent leases");
+        }
+        this.nodeId = nodeId;
+        resets.incrementAndGet();
+        nextPosition.set(0);
+    }
+
+    /**
+     * Checks if the generator creates Snowflake IDs
+     *
+     * @return true in Snowflake mode, false in sequential mode
+     */
+    public boolean isSnowflake() {
+        return nodeId != SEQUENTIAL;
+    }
+
+    /**
+     * Gets the creation time stored in a Snowflake ID
+     *
+     * @param id A Snowflake ID
+     * @return Milliseconds since 1970-01-01 UTC
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + SNOWFLAKE_EPOCH;
+    }
+
+    /**
+     * Persists the high-water mark in a lease file, with the default lease size
+     *
+     * @param file Lease file, created if it doesn't exist
+     * @throws IOException If the file cannot be read or written
+     */
+    public void usePersistentLeases(Path file) throws IOException {
+        usePersistentLeases(file, DEFAULT_LEASE_SIZE);
+    }
+
+    /**
+     * Persists the high-water mark in a lease file
+     * IDs carry on after the end of the last lease stored in the file.
+     * Meant to be called once at start up, before tickets are created.
+     *
+     * @param file Lease file, created if it doesn't exist
+     * @param leaseSize Number of IDs per lease, milliseconds per lease in Snowflake mode
+     * @throws IOException If the file cannot be read or written
+     */
+    public void usePersistentLeases(Path file, int leaseSize) throws IOException {
+        if(file == null) {
+            throw new IllegalArgumentException("Lease file cannot be null");
         }
-        return instance;
+        if(leaseSize <= 0) {
+            throw new IllegalArgumentException("Lease size must be greater than 0");
+        }
+
+        synchronized(leaseLock) {
+            closeLeases();
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                // Newest valid record of the two slots
+                long storedEnd = -1;
+                leaseSlot = 0;
+                for(int slot = 0; slot < 2; slot++) {
+                    long end = readLease(channel, slot);
+                    if(end > storedEnd) {
+                        storedEnd = end;
+                        leaseSlot = 1 - slot;
+                    }
+                }
+
+                // Nothing at or below the stored lease end is handed out again
+                long next = Math.max(nextPosition.get(), storedEnd);
+                if(nodeId != SEQUENTIAL) {
+                    // The first lease starts at the current millisecond, not where the counter was
+                    next = Math.max(next, clockPosition());
+                }
+                nextPosition.set(next);
+                resets.incrementAndGet();
+
+                this.leaseChannel = channel;
+                this.leaseSpan = nodeId == SEQUENTIAL ? leaseSize : (long) leaseSize << SEQUENCE_BITS;
+                writeLease(next + leaseSpan);
+            } catch(IOException | RuntimeException e) {
+                leaseChannel = null;
+                leaseEnd = Long.MAX_VALUE;
+                channel.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Checks if the high-water mark is persisted in a lease file
+     *
+     * @return true if leases are persisted, false otherwise
+     */
+    public boolean isPersistent() {
+        return leaseEnd != Long.MAX_VALUE;
+    }
+
+    /**
+     * Reads one slot of the lease file
+     *
+     * @param channel The lease file
+     * @param slot Slot to read (0 or 1)
+     * @return The lease end stored in the slot, or -1 if it is empty or damaged
+     * @throws IOException If the file cannot be read
+     */
+    private long readLease(FileChannel channel, int slot) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(LEASE_RECORD_SIZE);
+        long position = (long) slot * LEASE_SLOT_SIZE;
+        while(record.hasRemaining()) {
+            if(channel.read(record, position + record.position()) < 0) {
+                return -1;
+            }
+        }
+        record.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, LEASE_RECORD_SIZE - 4);
+        int magic = record.getInt();
+        int storedNode = record.getInt();
+        long end = record.getLong();
+        if(magic != LEASE_MAGIC || record.getInt() != (int) crc.getValue()) {
+            return -1;
+        }
+        if(storedNode != nodeId) {
+            throw new IllegalStateException("Lease file was written in a different ID mode or by another node");
+        }
+        return end;
+    }
+
+    /**
+     * Writes a new lease end to the lease file and waits until it is on disk
+     * Must be called while holding leaseLock
+     *
+     * @param end New lease end
+     * @throws IOException If the file cannot be written
+     */
+    private void writeLease(long end) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(LEASE_RECORD_SIZE);
+        record.putInt(LEASE_MAGIC).putInt(nodeId).putLong(end);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, LEASE_RECORD_SIZE - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        long position = (long) leaseSlot * LEASE_SLOT_SIZE;
+        while(record.hasRemaining()) {
+            leaseChannel.write(record, position + record.position());
+        }
+        leaseChannel.force(true);
+
+        leaseSlot = 1 - leaseSlot;
+        leaseEnd = end;
+    }
+
+    /**
+     * Extends the lease so it covers every position below end
+     *
+     * @param end First position that does not need to be covered
+     */
+    private void extendLease(long end) {
+        synchronized(leaseLock) {
+            // Another thread may have extended it while this one waited
+            if(end <= leaseEnd || leaseChannel == null) {
+                return;
+            }
+            try {
+                writeLease(end + leaseSpan);
+            } catch(IOException e) {
+                throw new UncheckedIOException("Could not extend the ticket ID lease", e);
+            }
+        }
+    }
+
+    /**
+     * Closes the lease file, IDs are no longer persisted
+     * Must be called while holding leaseLock
+     */
+    private void closeLeases() {
+        leaseEnd = Long.MAX_VALUE;
+        if(leaseChannel != null) {
+            try {
+                leaseChannel.close();
+            } catch(IOException e) {
+                // Every lease was already forced to disk, nothing is lost
+            }
+            leaseChannel = null;
+        }
+    }
+
+    /**
+     * Reserves a run of consecutive positions
+     * With persistent leases the positions are on disk before this returns
+     *
+     * @param count Number of positions
+     * @return The first position
+     */
+    private long reserve(int count) {
+        long first;
+        if(nodeId == SEQUENTIAL) {
+            first = nextPosition.getAndAdd(count);
+        } else {
+            // Never go below the current millisecond, never go back
+            long now = clockPosition();
+            while(true) {
+                long next = nextPosition.get();
+                first = Math.max(next, now);
+                if(nextPosition.compareAndSet(next, first + count)) {
+                    break;
+                }
+            }
+        }
+
+        if(first + count > leaseEnd) {
+            extendLease(first + count);
+        }
+        return first;
+    }
+
+    /**
+     * Gets the Snowflake position of the current millisecond
+     *
+     * @return Milliseconds since the Snowflake epoch << SEQUENCE_BITS
+     */
+    private static long clockPosition() {
+        return (System.currentTimeMillis() - SNOWFLAKE_EPOCH) << SEQUENCE_BITS;
+    }
+
+    /**
+     * Turns a position into an ID
+     *
+     * @param position Position from reserve
+     * @return The ID
+     */
+    private long toId(long position) {
+        int node = nodeId;
+        if(node == SEQUENTIAL) {
+            return position;
+        }
+        long millis = position >>> SEQUENCE_BITS;
+        long sequence = position & ((1 << SEQUENCE_BITS) - 1);
+        return (millis << (NODE_BITS + SEQUENCE_BITS)) | ((long) node << SEQUENCE_BITS) | sequence;
     }
 
     /**
@@ -44,27 +412,92 @@ public class IDGenerator {
      *
      * @return A unique ticket ID
      */
-    public synchronized int generateId() {
+    public long generateId() {
 
-        return currentID++;
+        return toId(reserve(1));
+    }
+
+    /**
+     * Generates a unique ticket ID from a block reserved for the calling thread
+     * IDs are increasing for each thread, but not across threads,
+     * and unused IDs of a block are skipped.
+     *
+     * @return A unique ticket ID
+     */
+    public long generateLocalId() {
+        Block block = localBlock.get();
+        int epoch = resets.get();
+        if(block.next == block.end || block.epoch != epoch) {
+            block.next = reserve(LOCAL_BLOCK_SIZE);
+            block.end = block.next + LOCAL_BLOCK_SIZE;
+            block.epoch = epoch;
+        }
+        return toId(block.next++);
+    }
+
+    /**
+     * Generates a batch of unique, increasing ticket IDs in one step
+     * In sequential mode the IDs are consecutive
+     *
+     * @param count Number of IDs to generate
+     * @return The IDs
+     */
+    public long[] generateIds(int count) {
+        if(count <= 0) {
+            throw new IllegalArgumentException("Count must be greater than 0");
+        }
+        long first = reserve(count);
+        long[] ids = new long[count];
+        for(int i = 0; i < count; i++) {
+            ids[i] = toId(first + i);
+        }
+        return ids;
+    }
+
+    /**
+     * Makes sure no ID at or below the given one is handed out again
+     * Used after recovery, when tickets with IDs up to id already exist
+     *
+     * @param id Largest ID already in use
+     */
+    public void advancePast(long id) {
+        long position = id;
+        if(nodeId != SEQUENTIAL) {
+            position = ((id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS) | (id & ((1 << SEQUENCE_BITS) - 1));
+        }
+        long next;
+        while((next = nextPosition.get()) <= position) {
+            if(nextPosition.compareAndSet(next, position + 1)) {
+                break;
+            }
+        }
+        resets.incrementAndGet(); // Thread blocks from before may hold IDs below it
     }
 
     /**
      * Gets the current ID without incrementing
      * UUseful for debugging or display purposes
+     * IDs still unused in thread blocks are counted as handed out
      *
      * @return The current ID value
      */
-    public synchronized int getCurrentID() {
-        return currentID;
+    public long getCurrentID() {
+        return toId(nextPosition.get());
     }
 
     /**
-     * Resets the ID counter to initial value
+     * Resets the ID counter to initial value and goes back to sequential IDs
+     * Blocks already reserved by threads are dropped and the lease file,
+     * if any, is closed
      * WARNING Use only for testing or system reset WARNING
      */
 
-    public synchronized void reset() {
-        currentID = 1000;
+    public void reset() {
+        synchronized(leaseLock) {
+            closeLeases();
+        }
+        nodeId = SEQUENTIAL;
+        resets.incrementAndGet();
+        nextPosition.set(FIRST_ID);
     }
 }
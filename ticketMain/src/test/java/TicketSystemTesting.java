@@ -1,9 +1,45 @@
 
 import model.Ticket;
+import model.TicketView;
 import dataStructure.PriorityQueue;
+import dataStructure.TicketQueue;
+import dataStructure.BucketQueue;
+import dataStructure.ConcurrentBucketQueue;
+import service.ConcurrentTicketService;
+import service.TicketExporter;
+import service.TicketImporter;
 import service.TicketService;
+import persistence.Durability;
+import persistence.MappedTicketQueue;
+import persistence.ParallelRecovery;
+import persistence.RecoveredState;
+import persistence.SnapshotReader;
+import persistence.SnapshotWriter;
+import persistence.TicketArchive;
+import persistence.WriteAheadLog;
+import dataStructure.LongIntHashMap;
+import dataStructure.LongTicketHashMap;
+import dataStructure.SlotHeap;
+import dataStructure.OffHeapTicketStore;
+import dataStructure.TicketFlyweight;
 import utils.IDGenerator;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Test class for the IT Ticketing System.
  * Tests all major functionality including the priority queue operations,
@@ -32,6 +68,8 @@ public class TicketSystemTesting {
         testServiceOperations();
         testEdgeCases();
         testPerformance();
+        runBenchmarks();
+        testConcurrentService();
 
         // Display summary
         displayTestSummary();
@@ -91,6 +129,244 @@ public class TicketSystemTesting {
                 afterUpdate.getTicketID() == 1 && afterUpdate.getPriority() == 4,
                 "Priority update should work correctly");
 
+        // Test 1.7: Indexed queue keeps ID lookups correct while elements move
+        PriorityQueue indexed = new PriorityQueue(2, true);
+        for (int i = 0; i < 20; i++) {
+            indexed.insert(new Ticket(i, "User" + i, "Type", "Desc", (i % 4) + 1));
+        }
+        indexed.extractMin();
+        indexed.remove(7);
+        indexed.updatePriority(18, 1);
+        boolean lookupsCorrect = indexed.search(7) == null && indexed.size() == 18;
+        for (int i = 1; i < 20; i++) {
+            Ticket t = indexed.search(i);
+            if (i != 7 && (t == null || t.getTicketID() != i)) {
+                lookupsCorrect = false;
+            }
+        }
+        testCase("1.7 Indexed search",
+                lookupsCorrect && indexed.extractMin().getPriority() == 1,
+                "Index should follow tickets through swaps, removal and resize");
+
+        // Test 1.8: Sorted snapshot and top k match extraction order
+        PriorityQueue mixed = new PriorityQueue();
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            mixed.insert(new Ticket(random.nextInt(100000), "User", "Type", "Desc", random.nextInt(4) + 1));
+        }
+        Ticket[] sortedSnapshot = mixed.getAllTicketsSorted();
+        Ticket[] topTen = mixed.getTopK(10);
+        boolean sameOrder = mixed.size() == 200 && topTen.length == 10;
+        for (int i = 0; i < sortedSnapshot.length; i++) {
+            Ticket next = mixed.extractMin();
+            sameOrder &= sortedSnapshot[i] == next && (i >= 10 || topTen[i] == next);
+        }
+        testCase("1.8 Sorted snapshot and top k",
+                sameOrder && mixed.getTopK(5).length == 0,
+                "Snapshot and top k should follow priority then insertion order");
+
+        // Test 1.9: Bucket queue is FIFO within a priority
+        BucketQueue buckets = new BucketQueue(2);
+        buckets.insert(new Ticket(30, "A", "Type", "Desc", 3));
+        buckets.insert(new Ticket(20, "B", "Type", "Desc", 2));
+        buckets.insert(new Ticket(10, "C", "Type", "Desc", 3));
+        buckets.insert(new Ticket(40, "D", "Type", "Desc", 2));
+        buckets.insert(new Ticket(50, "E", "Type", "Desc", 4));
+        buckets.updatePriority(50, 2); // Joins the end of the priority 2 list
+        buckets.remove(40);
+        int[] expectedOrder = {20, 50, 30, 10};
+        boolean fifoOrder = buckets.size() == 4 && buckets.peek().getTicketID() == 20
+                && buckets.getAllTicketsSorted()[1].getTicketID() == 50;
+        for (int id : expectedOrder) {
+            Ticket t = buckets.extractMin();
+            fifoOrder &= t != null && t.getTicketID() == id;
+        }
+        testCase("1.9 Bucket queue FIFO order",
+                fifoOrder && buckets.isEmpty() && buckets.extractMin() == null,
+                "Bucket queue should extract by priority, then arrival order");
+
+        // Test 1.10: 4-ary and 8-ary heaps give the same order as the binary heap
+        boolean arityOrder = true;
+        for (int arity : new int[]{4, 8}) {
+            PriorityQueue wide = new PriorityQueue(4, true, arity);
+            PriorityQueue binary = new PriorityQueue(4, true);
+            for (int i = 0; i < 300; i++) {
+                int priority = random.nextInt(4) + 1;
+                wide.insert(new Ticket(i, "User", "Type", "Desc", priority));
+                binary.insert(new Ticket(i, "User", "Type", "Desc", priority));
+            }
+            wide.updatePriority(150, 1);
+            binary.updatePriority(150, 1);
+            wide.remove(42);
+            binary.remove(42);
+            arityOrder &= wide.getTopK(20)[19].getTicketID() == binary.getTopK(20)[19].getTicketID();
+            while (!binary.isEmpty()) {
+                arityOrder &= wide.extractMin().getTicketID() == binary.extractMin().getTicketID();
+            }
+            arityOrder &= wide.isEmpty();
+        }
+        testCase("1.10 d-ary heap order",
+                arityOrder,
+                "4-ary and 8-ary heaps should extract in the same order as a binary heap");
+
+        // Test 1.11: Bulk heap build keeps priority and insertion order
+        PriorityQueue bulk = new PriorityQueue(4, true);
+        bulk.insert(new Ticket(500, "User", "Type", "Desc", 3));
+        Ticket[] batch = new Ticket[100];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new Ticket(i, "User", "Type", "Desc", random.nextInt(4) + 1);
+        }
+        bulk.heapifyAll(batch);
+        boolean duplicateRejected = false;
+        try {
+            bulk.heapifyAll(new Ticket[]{new Ticket(1000, "User", "Type", "Desc", 1), batch[7]});
+        } catch (IllegalArgumentException e) {
+            duplicateRejected = bulk.size() == 101 && bulk.search(1000) == null;
+        }
+        boolean bulkOrder = bulk.search(57) == batch[57];
+        long lastOrder = -1;
+        while (!bulk.isEmpty()) {
+            Ticket t = bulk.extractMin();
+            // Ticket 500 was inserted first, the batch follows in array order
+            long order = t.getPriority() * 1000L + (t.getTicketID() == 500 ? -1 : t.getTicketID());
+            bulkOrder &= order > lastOrder;
+            lastOrder = order;
+        }
+        testCase("1.11 Bulk heap build",
+                bulkOrder && duplicateRejected,
+                "heapifyAll should build a valid heap and reject duplicate IDs");
+
+        // Test 1.12: insertAll, small batch into a larger heap and bucket queue
+        PriorityQueue heapBatch = new PriorityQueue(true);
+        BucketQueue bucketBatch = new BucketQueue(8);
+        for (int i = 0; i < 50; i++) {
+            Ticket t = new Ticket(i, "User", "Type", "Desc", random.nextInt(4) + 1);
+            heapBatch.insert(t);
+            bucketBatch.insert(t);
+        }
+        bucketBatch.remove(3); // Leaves a free node slot behind
+        Ticket[] small = new Ticket[10];
+        for (int i = 0; i < small.length; i++) {
+            small[i] = new Ticket(100 + i, "User", "Type", "Desc", random.nextInt(4) + 1);
+        }
+        heapBatch.insertAll(small);
+        bucketBatch.insertAll(small);
+        Ticket[] heapOrder = heapBatch.getAllTicketsSorted();
+        boolean batchOrder = heapOrder.length == 60 && bucketBatch.size() == 59;
+        for (int i = 1; i < heapOrder.length; i++) {
+            batchOrder &= heapOrder[i - 1].getPriority() <= heapOrder[i].getPriority();
+            batchOrder &= heapBatch.extractMin() == heapOrder[i - 1];
+        }
+        for (Ticket t : small) {
+            batchOrder &= bucketBatch.search(t.getTicketID()) == t;
+        }
+        testCase("1.12 Batch insert",
+                batchOrder,
+                "insertAll should keep heap order and fill bucket queue slots");
+
+        // Test 1.13: drainTo takes the same tickets as repeated extractMin
+        PriorityQueue heapDrain = new PriorityQueue(true);
+        PriorityQueue heapExtract = new PriorityQueue(true);
+        BucketQueue bucketDrain = new BucketQueue();
+        BucketQueue bucketExtract = new BucketQueue();
+        for (int i = 0; i < 40; i++) {
+            Ticket t = new Ticket(i, "User", "Type", "Desc", random.nextInt(4) + 1);
+            heapDrain.insert(t);
+            heapExtract.insert(t);
+            bucketDrain.insert(t);
+            bucketExtract.insert(t);
+        }
+        Ticket[] heapRound = new Ticket[25];
+        Ticket[] bucketRound = new Ticket[25];
+        boolean drained = heapDrain.drainTo(heapRound, 25) == 25 && bucketDrain.drainTo(bucketRound, 25) == 25;
+        for (int i = 0; i < 25; i++) {
+            drained &= heapRound[i] == heapExtract.extractMin() && bucketRound[i] == bucketExtract.extractMin();
+        }
+        drained &= heapDrain.peek() == heapExtract.peek() && bucketDrain.peek() == bucketExtract.peek();
+        drained &= bucketDrain.getAllTicketsSorted().length == 15 && bucketDrain.search(heapRound[0].getTicketID()) == null;
+        drained &= heapDrain.drainTo(heapRound, 25) == 15 && heapDrain.isEmpty();
+        testCase("1.13 Bulk drain",
+                drained,
+                "drainTo should extract in priority order and leave the rest intact");
+
+        // Test 1.14: Lock-free bucket queue keeps FIFO order and lazily deletes
+        ConcurrentBucketQueue lockFree = new ConcurrentBucketQueue();
+        lockFree.insert(new Ticket(1, "User", "Type", "Desc", 3));
+        lockFree.insert(new Ticket(2, "User", "Type", "Desc", 1));
+        lockFree.insert(new Ticket(3, "User", "Type", "Desc", 3));
+        lockFree.insert(new Ticket(4, "User", "Type", "Desc", 1));
+        Ticket removedTicket = lockFree.remove(2);
+        boolean lockFreeOrder = removedTicket != null && removedTicket.getTicketID() == 2
+                && lockFree.remove(2) == null && lockFree.search(2) == null && lockFree.size() == 3;
+        lockFreeOrder &= lockFree.updatePriority(3, 1) && lockFree.peek().getTicketID() == 4;
+        int[] lockFreeExpected = {4, 3, 1};
+        for (int id : lockFreeExpected) {
+            Ticket t = lockFree.extractMin();
+            lockFreeOrder &= t != null && t.getTicketID() == id;
+        }
+        lockFreeOrder &= lockFree.extractMin() == null && lockFree.isEmpty();
+        testCase("1.14 Lock-free bucket queue",
+                lockFreeOrder,
+                "Removed tickets should be skipped and FIFO order kept per priority");
+
+        // Test 1.15: Slot heap orders slots like the ticket heap orders tickets
+        SlotHeap slotHeap = new SlotHeap(4);
+        PriorityQueue slotReference = new PriorityQueue(true);
+        long[] slotKeys = new long[50];
+        int[] slotNumbers = new int[50];
+        for (int i = 0; i < 50; i++) {
+            int priority = random.nextInt(4) + 1;
+            slotKeys[i] = ((long) priority << 56) | i;
+            slotNumbers[i] = 49 - i;
+            slotReference.insert(new Ticket(49 - i, "User", "Type", "Desc", priority));
+        }
+        slotHeap.build(slotKeys, slotNumbers, 50);
+        slotHeap.remove(7);
+        slotReference.remove(7);
+        slotHeap.changeKey(20, (1L << 56) | (slotHeap.keyOf(20) & ((1L << 56) - 1)));
+        slotReference.updatePriority(20, 1);
+        int[] slotTop = slotHeap.topK(10);
+        boolean slotsOrdered = slotTop.length == 10 && slotHeap.size() == 49 && !slotHeap.contains(7);
+        for (int i = 0; i < 49 && slotsOrdered; i++) {
+            int slot = slotHeap.extractMin();
+            slotsOrdered = slot == slotReference.extractMin().getTicketID() && (i >= 10 || slot == slotTop[i]);
+        }
+        slotsOrdered &= slotHeap.extractMin() == SlotHeap.NO_SLOT;
+        testCase("1.15 Slot heap",
+                slotsOrdered,
+                "Slots should come out in priority then insertion order");
+
+        // Test 1.16: Off-heap store gives back the same fields through a flyweight
+        OffHeapTicketStore offHeap = new OffHeapTicketStore();
+        Ticket[] stored = {
+                new Ticket(10, "Alice", "Network Issue", "VPN down", 2),
+                new Ticket(11, "Bob", "Security Issue", "Phishing \u00e9mail", 1),
+                new Ticket(12, "Carol", null, "No type", 4)
+        };
+        stored[1].setOwner("Tech1");
+        int[] records = new int[stored.length];
+        for (int i = 0; i < stored.length; i++) {
+            records[i] = offHeap.add(stored[i]);
+        }
+        TicketFlyweight view = offHeap.view(records[0]);
+        boolean offHeapSame = true;
+        for (int i = 0; i < stored.length; i++) {
+            offHeapSame &= sameFields(view.moveTo(records[i]), stored[i]);
+        }
+        offHeap.remove(records[0]);
+        view.moveTo(records[1]).setOwner("Tech2");
+        view.setPriority(3);
+        offHeapSame &= offHeap.getGarbageBytes() > 0 && offHeap.size() == 2;
+        offHeap.compact();
+        Ticket copied = offHeap.get(records[1]);
+        offHeapSame &= offHeap.getGarbageBytes() == 0 && "Tech2".equals(copied.getOwner())
+                && copied.getPriority() == 3 && sameFields(view, copied)
+                && offHeap.view(records[2]).getRequestType() == null
+                && offHeap.add(stored[0]) == records[0] && sameFields(view.moveTo(records[0]), stored[0]);
+        testCase("1.16 Off-heap ticket store",
+                offHeapSame,
+                "Stored tickets should read back unchanged, also after compaction");
+
         System.out.println();
     }
 
@@ -143,6 +419,67 @@ public class TicketSystemTesting {
                 ticket.getCreatedAt() != null && ticket.getUpdatedAt() != null,
                 "Timestamps should be set on creation");
 
+        // Test 2.6: Snowflake IDs are 64 bit, increasing and carry node and time
+        IDGenerator generator = IDGenerator.getInstance();
+        long before = System.currentTimeMillis();
+        generator.useSnowflakeIds(7);
+        long[] batchIds = generator.generateIds(5000);
+        long single = generator.generateId();
+        boolean snowflake = generator.isSnowflake() && batchIds[0] > Integer.MAX_VALUE;
+        for (int i = 1; i < batchIds.length; i++) {
+            snowflake &= batchIds[i] > batchIds[i - 1] && ((batchIds[i] >>> 12) & 1023) == 7;
+        }
+        snowflake &= single > batchIds[batchIds.length - 1]
+                && IDGenerator.timestampOf(batchIds[0]) >= before
+                && IDGenerator.timestampOf(batchIds[0]) <= System.currentTimeMillis();
+        Ticket bigId = new Ticket(single, "Test User", "Software", "Install app", 3);
+        PriorityQueue bigIdQueue = new PriorityQueue(true);
+        bigIdQueue.insert(bigId);
+        snowflake &= bigIdQueue.search(single) == bigId && bigIdQueue.search((int) single) == null;
+        generator.reset();
+        testCase("2.6 Snowflake IDs",
+                snowflake && !generator.isSnowflake() && generator.generateId() == 1000,
+                "IDs should increase, keep the node ID and be searchable as long");
+
+        // Test 2.7: Leased IDs are not handed out again after a restart
+        boolean leasesOk;
+        try {
+            Path leaseFile = Files.createTempFile("ticket-ids", ".lease");
+            generator.usePersistentLeases(leaseFile, 100);
+            long lastIssued = generator.generateIds(250)[249];
+            generator.reset(); // Simulated restart, the counter goes back to 1000
+            generator.usePersistentLeases(leaseFile, 100);
+            long afterRestart = generator.generateId();
+            leasesOk = generator.isPersistent() && afterRestart > lastIssued && Files.size(leaseFile) <= 64;
+            generator.reset();
+            Files.delete(leaseFile);
+
+            // A Snowflake lease covers time, IDs a few milliseconds apart don't write the file again
+            Path snowflakeLeases = Files.createTempFile("ticket-ids", ".lease");
+            generator.useSnowflakeIds(3);
+            generator.usePersistentLeases(snowflakeLeases, 1000);
+            long firstSnowflake = generator.generateId();
+            byte[] leased = Files.readAllBytes(snowflakeLeases);
+            long waitUntil = System.currentTimeMillis() + 20;
+            while (System.currentTimeMillis() < waitUntil) {
+                Thread.yield();
+            }
+            long laterSnowflake = generator.generateId();
+            leasesOk &= laterSnowflake > firstSnowflake && IDGenerator.timestampOf(laterSnowflake) >= waitUntil
+                    && java.util.Arrays.equals(leased, Files.readAllBytes(snowflakeLeases));
+            generator.reset();
+            generator.useSnowflakeIds(3);
+            generator.usePersistentLeases(snowflakeLeases, 1000);
+            leasesOk &= generator.generateId() > laterSnowflake;
+            generator.reset();
+            Files.delete(snowflakeLeases);
+        } catch (IOException e) {
+            leasesOk = false;
+        }
+        testCase("2.7 Persistent ID leases",
+                leasesOk && !generator.isPersistent() && generator.generateId() == 1000,
+                "A restart should continue after the last persisted lease");
+
         System.out.println();
     }
 
@@ -183,7 +520,7 @@ public class TicketSystemTesting {
                 "Should not find processed ticket");
 
         // Test 3.5: Update priority
-        int bobTicketId = service.getAllTickets()[0].getTicketID();
+        long bobTicketId = service.getAllTickets()[0].getTicketID();
         boolean updated = service.updateTicketPriority(bobTicketId, 1);
         testCase("3.5 Service priority update",
                 updated == true,
@@ -196,9 +533,886 @@ public class TicketSystemTesting {
                 assigned && withOwner.getOwner().equals("IT Admin"),
                 "Should assign owner successfully");
 
+        // Test 3.7: Service backed by the bucket queue
+        TicketService bucketService = new TicketService(new BucketQueue());
+        bucketService.createTicket("Erin", 3, "Install IDE");
+        Ticket firstNetwork = bucketService.createTicket("Frank", 2, "Wifi drops");
+        bucketService.createTicket("Grace", 2, "Printer offline");
+        testCase("3.7 Bucket queue service",
+                bucketService.processNextTicket() == firstNetwork && bucketService.getTicketCount() == 2,
+                "Service should work with the bucket queue");
+
+        // Test 3.8: Batch ticket creation
+        int before = service.getTicketCount();
+        Ticket[] batch = service.createTickets(
+                new String[]{"Hugo", "Ivy", "Jack"},
+                new int[]{4, 1, 3},
+                new String[]{"Laptop setup", "Phishing email", "Install VPN client"});
+        boolean consecutiveIds = batch[1].getTicketID() == batch[0].getTicketID() + 1
+                && batch[2].getTicketID() == batch[0].getTicketID() + 2;
+        boolean rejected = false;
+        try {
+            service.createTickets(new String[]{"Kim", ""}, new int[]{1, 2}, new String[]{"A", "B"});
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        testCase("3.8 Batch ticket creation",
+                consecutiveIds && rejected && service.getTicketCount() == before + 3
+                        && service.searchTicket(batch[1].getTicketID()) == batch[1],
+                "Batch should get a block of IDs and be rejected as a whole on bad input");
+
+        // Test 3.9: Process several tickets in one round
+        int queued = service.getTicketCount();
+        Ticket[] round = service.processNextTickets(2);
+        Ticket[] rest = service.processNextTickets(100);
+        boolean allInProgress = round.length == 2 && rest.length == queued - 2;
+        for (Ticket t : round) {
+            allInProgress &= t.getStatus() == Ticket.TicketStatus.IN_PROGRESS;
+        }
+        testCase("3.9 Batch processing",
+                allInProgress && round[0].getPriority() <= round[1].getPriority()
+                        && service.getTicketCount() == 0 && service.processNextTickets(5).length == 0,
+                "Should process up to n tickets in priority order");
+
+        // Test 3.10: Changes survive a restart through the write-ahead log
+        boolean recovered;
+        try {
+            Path logFile = Files.createTempFile("tickets", ".wal");
+            WriteAheadLog log = WriteAheadLog.open(logFile, Durability.PER_OPERATION);
+            TicketService logged = new TicketService(new PriorityQueue(true), log);
+            Ticket first = logged.createTicket("Alice", 3, "Install IDE");
+            Ticket second = logged.createTicket("Bob", 2, "VPN down");
+            Ticket third = logged.createTicket("Carol", 4, "New laptop");
+            logged.createTickets(new String[]{"Dan", "Eve"}, new int[]{1, 3}, new String[]{"Phishing", "Install"});
+            // Ties with third once third moves to priority 2, third was created first so it stays ahead
+            Ticket tie = logged.createTicket("Hal", 2, "Printer offline");
+            logged.processNextTicket();
+            logged.updateTicketPriority(third.getTicketID(), 2);
+            logged.assignOwner(first.getTicketID(), "Tech1");
+            logged.removeTicket(second.getTicketID());
+            Ticket[] beforeCrash = logged.getAllTicketsSorted();
+            log.close();
+
+            // A crash half way through a record leaves a torn tail
+            Files.write(logFile, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+            WriteAheadLog reopened = WriteAheadLog.open(logFile, Durability.PER_OPERATION);
+            TicketService restarted = new TicketService(new PriorityQueue(true), reopened);
+            Ticket[] after = restarted.getAllTicketsSorted();
+            recovered = after.length == beforeCrash.length && after.length == 4
+                    && restarted.getTotalTicketsCreated() == 6 && restarted.getTotalTicketsResolved() == 1
+                    && after[0].getTicketID() == third.getTicketID() && after[1].getTicketID() == tie.getTicketID();
+            for (int i = 0; i < after.length && recovered; i++) {
+                recovered = after[i].getTicketID() == beforeCrash[i].getTicketID()
+                        && after[i].getPriority() == beforeCrash[i].getPriority()
+                        && after[i].getStatus() == beforeCrash[i].getStatus()
+                        && after[i].getCreatedAt().equals(beforeCrash[i].getCreatedAt())
+                        && (after[i].getOwner() == null ? beforeCrash[i].getOwner() == null : after[i].getOwner().equals(beforeCrash[i].getOwner()));
+            }
+            recovered &= restarted.createTicket("Frank", 1, "Malware").getTicketID() > beforeCrash[0].getTicketID()
+                    && restarted.createTicket("Gina", 1, "Malware").getTicketID() > third.getTicketID();
+            reopened.close();
+            Files.delete(logFile);
+
+            // A bucket queue moves an updated ticket behind its new priority, replay has to as well
+            Path bucketLog = Files.createTempFile("tickets", ".wal");
+            WriteAheadLog bucketWal = WriteAheadLog.open(bucketLog, Durability.PER_OPERATION);
+            TicketService bucketed = new TicketService(new BucketQueue(), bucketWal);
+            Ticket older = bucketed.createTicket("Ivy", 2, "Printer offline");
+            Ticket moved = bucketed.createTicket("Jon", 3, "Install IDE");
+            Ticket younger = bucketed.createTicket("Kim", 2, "VPN down");
+            bucketed.updateTicketPriority(moved.getTicketID(), 2);
+            bucketed.updateTicketPriority(older.getTicketID(), 2);
+            Ticket[] bucketsBefore = bucketed.getAllTicketsSorted();
+            bucketWal.close();
+            WriteAheadLog bucketReopened = WriteAheadLog.open(bucketLog, Durability.PER_OPERATION);
+            Ticket[] bucketsAfter = new TicketService(new BucketQueue(), bucketReopened).getAllTicketsSorted();
+            recovered &= bucketsBefore.length == 3 && bucketsBefore[0].getTicketID() == younger.getTicketID()
+                    && bucketsBefore[1].getTicketID() == moved.getTicketID() && bucketsAfter.length == 3;
+            for (int i = 0; i < bucketsAfter.length && recovered; i++) {
+                recovered = sameFields(bucketsAfter[i], bucketsBefore[i]);
+            }
+            bucketReopened.close();
+            Files.delete(bucketLog);
+        } catch (IOException e) {
+            recovered = false;
+        }
+        testCase("3.10 Write-ahead log recovery",
+                recovered,
+                "Queue order, ticket state and statistics should be rebuilt from the log");
+
+        // Test 3.11: Snapshot plus the log records after it
+        boolean fromSnapshot;
+        try {
+            Path logFile = Files.createTempFile("tickets", ".wal");
+            Path snapshotFile = Files.createTempFile("tickets", ".snapshot");
+            WriteAheadLog log = WriteAheadLog.open(logFile, Durability.OS_BUFFERED);
+            TicketService logged = new TicketService(new PriorityQueue(true), log);
+            Ticket kept = logged.createTicket("Alice", 3, "Install IDE");
+            Ticket phishing = logged.createTicket("Bob", 1, "Phishing");
+            logged.assignOwner(kept.getTicketID(), "Tech1");
+            logged.saveSnapshot(snapshotFile);
+            logged.processNextTicket();
+            Ticket late = logged.createTicket("Carol", 2, "VPN down");
+            log.close();
+
+            RecoveredState snapshot = SnapshotReader.readFile(snapshotFile);
+            fromSnapshot = snapshot.getTickets().length == 2 && snapshot.getLastLsn() == 3;
+            WriteAheadLog reopened = WriteAheadLog.open(logFile, Durability.OS_BUFFERED, 10, snapshot);
+            TicketService restarted = new TicketService(new PriorityQueue(true), reopened);
+            Ticket[] after = restarted.getAllTicketsSorted();
+            fromSnapshot &= after.length == 2 && after[0].getTicketID() == late.getTicketID()
+                    && after[1].getTicketID() == kept.getTicketID() && "Tech1".equals(after[1].getOwner())
+                    && restarted.searchTicket(phishing.getTicketID()) == null
+                    && restarted.getTotalTicketsCreated() == 3 && restarted.getTotalTicketsResolved() == 1;
+            reopened.close();
+            Files.delete(logFile);
+            Files.delete(snapshotFile);
+        } catch (IOException e) {
+            fromSnapshot = false;
+        }
+        testCase("3.11 Snapshot recovery",
+                fromSnapshot,
+                "Loading a snapshot and replaying the newer log records should restore the queue");
+
+        // Test 3.12: Memory-mapped queue keeps its tickets across a reopen
+        boolean mapped;
+        try {
+            Path storeFile = Files.createTempFile("tickets", ".store");
+            Files.delete(storeFile);
+            MappedTicketQueue mappedQueue = MappedTicketQueue.open(storeFile);
+            TicketService onDisk = new TicketService(mappedQueue);
+            Ticket install = onDisk.createTicket("Alice", 3, "Install IDE");
+            Ticket vpn = onDisk.createTicket("Bob", 2, "VPN down");
+            Ticket laptop = onDisk.createTicket("Carol", 4, "New laptop");
+            onDisk.createTicket("Dan", 1, "Phishing");
+            onDisk.processNextTicket();
+            onDisk.updateTicketPriority(laptop.getTicketID(), 2);
+            onDisk.assignOwner(install.getTicketID(), "Tech1");
+            onDisk.removeTicket(vpn.getTicketID());
+            Ticket[] beforeClose = onDisk.getAllTicketsSorted();
+            mappedQueue.close();
+
+            MappedTicketQueue reopenedQueue = MappedTicketQueue.open(storeFile);
+            TicketService reopened = new TicketService(reopenedQueue);
+            Ticket[] after = reopened.getAllTicketsSorted();
+            mapped = after.length == 2 && beforeClose.length == 2
+                    && after[0].getTicketID() == laptop.getTicketID() && after[0].getPriority() == 2
+                    && after[1].getTicketID() == install.getTicketID() && "Tech1".equals(after[1].getOwner())
+                    && after[1].getStatus() == Ticket.TicketStatus.IN_PROGRESS
+                    && after[1].getCreatedAt().equals(beforeClose[1].getCreatedAt());
+            Ticket newer = reopened.createTicket("Eve", 1, "Malware");
+            mapped &= newer.getTicketID() > laptop.getTicketID()
+                    && reopened.peekNextTicket().getTicketID() == newer.getTicketID();
+            try {
+                reopenedQueue.insert(new Ticket(-5, "User", "Type", "x".repeat(600), 1));
+                mapped = false;
+            } catch (IllegalArgumentException e) {
+                mapped &= reopenedQueue.size() == 3;
+            }
+            reopenedQueue.close();
+            Files.delete(storeFile);
+        } catch (IOException e) {
+            mapped = false;
+        }
+        testCase("3.12 Memory-mapped queue",
+                mapped,
+                "Tickets, order and changes should be read back from the mapped file");
+
+        // Test 3.13: Segmented log compacts away processed tickets
+        boolean segmented;
+        try {
+            Path logDir = Files.createTempDirectory("tickets-log");
+            Path snapshotFile = Files.createTempFile("tickets", ".snapshot");
+            WriteAheadLog log = WriteAheadLog.openSegmented(logDir, Durability.OS_BUFFERED, 4096);
+            TicketService logged = new TicketService(new PriorityQueue(true), log);
+            long[] ids = new long[1500];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = logged.createTicket("User" + i, 1 + i % 4, "Issue " + i).getTicketID();
+            }
+            runQuietly(() -> logged.processNextTickets(1100));
+            for (int i = 0; i < ids.length; i += 8) {
+                logged.removeTicket(ids[i]);
+            }
+            logged.assignOwner(logged.peekNextTicket().getTicketID(), "Tech1");
+            long appended = log.getLastLsn();
+            int segmentsBefore = log.getSegmentCount();
+            log.compact();
+            log.compact();
+            segmented = segmentsBefore > 10 && log.getSegmentCount() < segmentsBefore;
+            Ticket[] beforeClose = logged.getAllTicketsSorted();
+            int resolved = logged.getTotalTicketsResolved();
+            log.close();
+
+            WriteAheadLog reopened = WriteAheadLog.openSegmented(logDir, Durability.OS_BUFFERED, 4096);
+            TicketService restarted = new TicketService(new PriorityQueue(true), reopened);
+            Ticket[] after = restarted.getAllTicketsSorted();
+            segmented &= reopened.getRecovered().getRecords() < appended / 2
+                    && reopened.getLastLsn() == appended && after.length == beforeClose.length
+                    && restarted.getTotalTicketsCreated() == 1500 && restarted.getTotalTicketsResolved() == resolved;
+            for (int i = 0; i < after.length && segmented; i++) {
+                segmented = sameFields(after[i], beforeClose[i]);
+            }
+            segmented &= restarted.createTicket("Zed", 1, "Malware").getTicketID() > ids[ids.length - 1];
+
+            // A checkpoint deletes the segments it covers
+            restarted.checkpoint(snapshotFile);
+            Ticket late = restarted.createTicket("Late", 2, "VPN down");
+            reopened.close();
+            try {
+                WriteAheadLog.openSegmented(logDir, Durability.OS_BUFFERED, 4096).close();
+                segmented = false;
+            } catch (IOException e) {
+                // Records before the checkpoint are gone
+            }
+            WriteAheadLog afterCheckpoint = WriteAheadLog.openSegmented(logDir, Durability.OS_BUFFERED, 4096,
+                    SnapshotReader.readFile(snapshotFile));
+            TicketService third = new TicketService(new PriorityQueue(true), afterCheckpoint);
+            segmented &= third.getAllTickets().length == after.length + 2
+                    && third.searchTicket(late.getTicketID()) != null && third.getTotalTicketsCreated() == 1502
+                    && afterCheckpoint.getSegmentCount() == 1;
+            afterCheckpoint.close();
+
+            try (java.util.stream.Stream<Path> files = Files.list(logDir)) {
+                for (Path segment : (Iterable<Path>) files::iterator) {
+                    Files.delete(segment);
+                }
+            }
+            Files.delete(logDir);
+            Files.delete(snapshotFile);
+
+            // Records of tickets created before a CLEAR are dropped, the CLEAR is kept
+            Path clearDir = Files.createTempDirectory("tickets-log");
+            WriteAheadLog clearLog = WriteAheadLog.openSegmented(clearDir, Durability.OS_BUFFERED, 4096);
+            TicketService clearing = new TicketService(new PriorityQueue(true), clearLog);
+            runQuietly(() -> {
+                for (int i = 0; i < 300; i++) {
+                    Ticket cleared = clearing.createTicket("User" + i, 4, "Issue " + i);
+                    clearing.updateTicketPriority(cleared.getTicketID(), 1 + i % 4);
+                }
+                clearing.processNextTickets(20);
+                clearing.clearAllTickets();
+                for (int i = 0; i < 60; i++) {
+                    clearing.createTicket("After" + i, 1 + i % 4, "Issue " + i);
+                }
+            });
+            Ticket[] survivors = clearing.getAllTicketsSorted();
+            long clearAppended = clearLog.getLastLsn();
+            clearLog.compact();
+            clearLog.close();
+            WriteAheadLog clearReopened = WriteAheadLog.openSegmented(clearDir, Durability.OS_BUFFERED, 4096);
+            TicketService afterClear = new TicketService(new PriorityQueue(true), clearReopened);
+            Ticket[] restored = afterClear.getAllTicketsSorted();
+            segmented &= clearReopened.getRecovered().getRecords() <= 61 && clearReopened.getLastLsn() == clearAppended
+                    && afterClear.getTotalTicketsCreated() == 360 && afterClear.getTotalTicketsResolved() == 20
+                    && restored.length == survivors.length;
+            for (int i = 0; i < restored.length && segmented; i++) {
+                segmented = sameFields(restored[i], survivors[i]);
+            }
+            clearReopened.close();
+            try (java.util.stream.Stream<Path> files = Files.list(clearDir)) {
+                for (Path segment : (Iterable<Path>) files::iterator) {
+                    Files.delete(segment);
+                }
+            }
+            Files.delete(clearDir);
+        } catch (IOException e) {
+            segmented = false;
+        }
+        testCase("3.13 Segmented log compaction",
+                segmented,
+                "Compaction should drop finished tickets' records without changing what replay restores");
+
+        // Test 3.14: Parallel recovery rebuilds the same state as replaying on one thread
+        boolean parallel;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Path logFile = Files.createTempFile("tickets", ".wal");
+            Path snapshotFile = Files.createTempFile("tickets", ".snapshot");
+            WriteAheadLog log = WriteAheadLog.open(logFile, Durability.OS_BUFFERED);
+            TicketService logged = new TicketService(new PriorityQueue(true), log);
+            runQuietly(() -> {
+                for (int pass = 0; pass < 2; pass++) {
+                    long[] ids = new long[300];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = logged.createTicket("User" + i, 1 + i % 4, "Issue " + i).getTicketID();
+                    }
+                    logged.processNextTickets(50);
+                    for (int i = 0; i < ids.length; i++) {
+                        if (i % 7 == 0) {
+                            logged.updateTicketPriority(ids[i], 1 + (i + 1) % 4);
+                        }
+                        if (i % 5 == 0) {
+                            logged.assignOwner(ids[i], "Tech" + i);
+                        }
+                        if (i % 11 == 0) {
+                            logged.removeTicket(ids[i]);
+                        }
+                    }
+                    if (pass == 0) {
+                        logged.clearAllTickets();
+                    }
+                }
+                try {
+                    logged.saveSnapshot(snapshotFile);
+                } catch (IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+                for (int i = 0; i < 100; i++) {
+                    logged.createTicket("Late" + i, 1 + i % 4, "Late issue " + i);
+                }
+                logged.processNextTickets(30);
+                // The older ticket moves up to tie with the younger one and stays ahead of it
+                long older = logged.createTicket("Tie", 3, "Older").getTicketID();
+                logged.createTicket("Tie", 2, "Younger");
+                logged.updateTicketPriority(older, 2);
+            });
+            log.close();
+            Files.write(logFile, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+            ParallelRecovery recovery = new ParallelRecovery(pool, 2048);
+            WriteAheadLog parallelLog = WriteAheadLog.open(logFile, Durability.OS_BUFFERED, null, recovery);
+            RecoveredState fromParallel = parallelLog.getRecovered();
+            parallelLog.close();
+            WriteAheadLog sequentialLog = WriteAheadLog.open(logFile, Durability.OS_BUFFERED);
+            parallel = sameRecovered(fromParallel, sequentialLog.getRecovered())
+                    && fromParallel.getTickets().length == logged.getTicketCount();
+            sequentialLog.close();
+
+            // Queued again, the recovered tickets come out in the live queue's order, ties included
+            Ticket[] live = logged.getAllTicketsSorted();
+            PriorityQueue requeued = new PriorityQueue(true);
+            requeued.insertAll(fromParallel.getTickets());
+            Ticket[] recoveredOrder = requeued.getAllTicketsSorted();
+            for (int i = 0; i < live.length && parallel; i++) {
+                parallel = recoveredOrder[i].getTicketID() == live[i].getTicketID();
+            }
+
+            RecoveredState snapshot = SnapshotReader.readFile(snapshotFile);
+            WriteAheadLog afterSnapshot = WriteAheadLog.open(logFile, Durability.OS_BUFFERED, 10, snapshot);
+            WriteAheadLog parallelAfterSnapshot = WriteAheadLog.open(logFile, Durability.OS_BUFFERED,
+                    recovery.readSnapshot(snapshotFile), recovery);
+            parallel &= sameRecovered(afterSnapshot.getRecovered(), parallelAfterSnapshot.getRecovered());
+            afterSnapshot.close();
+            parallelAfterSnapshot.close();
+
+            // A snapshot of several codec blocks is decoded block by block
+            Ticket[] many = new Ticket[10000];
+            for (int i = 0; i < many.length; i++) {
+                many[i] = new Ticket(1000 + i * 3L, "User" + i % 50, "Type" + i % 4, "Issue " + i, 1 + i % 4);
+            }
+            SnapshotWriter.writeFile(snapshotFile, many, 10000, 0, 7);
+            parallel &= sameRecovered(SnapshotReader.readFile(snapshotFile), recovery.readSnapshot(snapshotFile))
+                    && recovery.getRecords() > 10000 && recovery.getRecordsPerSecond() > 0;
+            Files.delete(logFile);
+            Files.delete(snapshotFile);
+        } catch (IOException | RuntimeException e) {
+            parallel = false;
+        } finally {
+            pool.shutdown();
+        }
+        testCase("3.14 Parallel recovery",
+                parallel,
+                "Decoding ranges on a fork-join pool should restore the same queue, order and statistics");
+
+        // Test 3.15: Streaming import skips bad records and creates the rest in batches
+        boolean imported;
+        try {
+            Path csvFile = Files.createTempFile("tickets", ".csv");
+            Files.write(csvFile, ("description,priority,creator\r\n"
+                    + "Printer jam,3,Alice\r\n"
+                    + "\"Disk full, again\",2,Bob\n"
+                    + "\n"
+                    + "\"Says \"\"hi\"\"\nover two lines\",1,Carol\n"
+                    + "Bad priority,9,Dave\n"
+                    + "No creator,1, \n"
+                    + "Not a number,high,Erin\n"
+                    + "\"Unterminated,1,Frank\n").getBytes(StandardCharsets.UTF_8));
+            TicketService importing = new TicketService();
+            TicketImporter importer = new TicketImporter(importing, 2, 2);
+            long[] counts = new long[2];
+            runQuietly(() -> {
+                try {
+                    counts[0] = importer.importFile(csvFile);
+                } catch (IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            });
+            Ticket[] csvTickets = importing.getAllTicketsSorted();
+            imported = counts[0] == 3 && importer.getRejected() == 4 && importing.getTicketCount() == 3
+                    && csvTickets[0].getCreator().equals("Carol")
+                    && csvTickets[0].getDescription().equals("Says \"hi\"\nover two lines")
+                    && csvTickets[1].getDescription().equals("Disk full, again")
+                    && csvTickets[2].getPriority() == 3;
+
+            String jsonLines = "{\"creator\": \"Gina\", \"requestType\": 4, \"description\": \"New laptop\"}\n"
+                    + "{\"description\":\"Tab\\there \\u00e9\",\"tags\":[\"a\",{\"b\":\"]\"}],\"priority\":\"1\",\"creator\":\"Hal\"}\n"
+                    + "{\"creator\": \"Ivy\", \"requestType\": 2}\n"
+                    + "{\"creator\": \"Jon\", \"requestType\": 2, \"description\": \"VPN\"} trailing\n"
+                    + "not json\n"
+                    + "{\"creator\": \"Kim\", \"requestType\": 3, \"description\": \"Excel\"}";
+            runQuietly(() -> {
+                try {
+                    counts[1] = importer.importFrom(new StringReader(jsonLines), TicketImporter.Format.JSON_LINES);
+                } catch (IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            });
+            Ticket hal = importing.getAllTicketsSorted()[1];
+            imported &= counts[1] == 3 && importer.getRejected() == 3 && importing.getTicketCount() == 6
+                    && hal.getCreator().equals("Hal") && hal.getDescription().equals("Tab\there \u00e9")
+                    && importing.getTotalTicketsCreated() == 6 && importer.getTicketsPerSecond() > 0;
+
+            // A header that misses a column stops the import instead of misreading every record
+            Files.write(csvFile, "creator,notes\nLee,1\n".getBytes(StandardCharsets.UTF_8));
+            try {
+                importer.importFile(csvFile);
+                imported = false;
+            } catch (IllegalArgumentException e) {
+                imported &= importing.getTicketCount() == 6;
+            }
+            Files.delete(csvFile);
+        } catch (IOException | RuntimeException e) {
+            imported = false;
+        }
+        testCase("3.15 Streaming import",
+                imported,
+                "CSV and JSON-lines records should be validated, batched and created, bad records skipped and counted");
+
+        // Test 3.16: Streaming export writes the queue in priority order and reads back
+        boolean exported;
+        try {
+            TicketService source = new TicketService();
+            runQuietly(() -> {
+                for (int i = 0; i < 50; i++) {
+                    source.createTicket("User" + i, 1 + i * 7 % 4, i % 9 == 0 ? "Quote \"x\", comma\nline" : "Issue " + i);
+                }
+                source.updateTicketPriority(source.getAllTickets()[10].getTicketID(), 1);
+                source.assignOwner(source.getAllTickets()[3].getTicketID(), "Tech");
+                source.processNextTicket();
+            });
+            Ticket[] sorted = source.getAllTicketsSorted();
+            TicketExporter exporter = new TicketExporter(source, 8);
+            java.io.ByteArrayOutputStream[] outputs = new java.io.ByteArrayOutputStream[3];
+            TicketExporter.Format[] formats = TicketExporter.Format.values();
+            for (int f = 0; f < formats.length; f++) {
+                java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+                outputs[f] = bytes;
+                TicketExporter.Format format = formats[f];
+                runQuietly(() -> {
+                    try {
+                        exporter.export(java.nio.channels.Channels.newChannel(bytes), format);
+                    } catch (IOException e) {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                });
+            }
+            exported = exporter.getExported() == sorted.length && source.getTicketCount() == sorted.length;
+
+            // The binary export is a snapshot in queue order (timestamps kept to the millisecond)
+            SnapshotReader reader = new SnapshotReader(java.nio.channels.Channels.newChannel(
+                    new java.io.ByteArrayInputStream(outputs[2].toByteArray())));
+            for (Ticket expected : sorted) {
+                Ticket read = reader.next();
+                exported &= read.getTicketID() == expected.getTicketID() && read.getStatus() == expected.getStatus()
+                        && Objects.equals(read.getOwner(), expected.getOwner())
+                        && read.getDescription().equals(expected.getDescription())
+                        && read.getCreatedAt().equals(expected.getCreatedAt().withNano(
+                                expected.getCreatedAt().getNano() / 1000000 * 1000000));
+            }
+            exported &= reader.next() == null;
+
+            // The text exports import back into the same order
+            for (int f = 0; f < 2; f++) {
+                TicketService copy = new TicketService();
+                TicketImporter importer = new TicketImporter(copy);
+                String text = new String(outputs[f].toByteArray(), StandardCharsets.UTF_8);
+                TicketImporter.Format format = f == 0 ? TicketImporter.Format.CSV : TicketImporter.Format.JSON_LINES;
+                runQuietly(() -> {
+                    try {
+                        importer.importFrom(new StringReader(text), format);
+                    } catch (IOException e) {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                });
+                Ticket[] back = copy.getAllTicketsSorted();
+                exported &= back.length == sorted.length && importer.getRejected() == 0;
+                for (int i = 0; exported && i < back.length; i++) {
+                    exported = back[i].getCreator().equals(sorted[i].getCreator())
+                            && back[i].getDescription().equals(sorted[i].getDescription())
+                            && back[i].getPriority() == sorted[i].getPriority();
+                }
+            }
+
+            // The bucket queues copy their lists, the export of such a service keeps their FIFO order
+            TicketQueue[] bucketQueues = {new BucketQueue(), new ConcurrentBucketQueue()};
+            for (TicketQueue queue : bucketQueues) {
+                TicketService bucketSource = new TicketService(queue, null);
+                runQuietly(() -> {
+                    for (int i = 0; i < 40; i++) {
+                        bucketSource.createTicket("User" + i, 1 + i * 3 % 4, "Issue " + i);
+                    }
+                    bucketSource.updateTicketPriority(bucketSource.getAllTicketsSorted()[0].getTicketID(), 4);
+                });
+                Ticket[] bucketOrder = bucketSource.getAllTicketsSorted();
+                java.io.ByteArrayOutputStream bucketOut = new java.io.ByteArrayOutputStream();
+                TicketExporter bucketExporter = new TicketExporter(bucketSource, 8);
+                runQuietly(() -> {
+                    try {
+                        bucketExporter.export(java.nio.channels.Channels.newChannel(bucketOut), TicketExporter.Format.BINARY);
+                    } catch (IOException e) {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                });
+                exported &= bucketExporter.getExported() == 40 && queue.size() == 40 && queue.copy().size() == 40;
+                SnapshotReader bucketReader = new SnapshotReader(java.nio.channels.Channels.newChannel(
+                        new java.io.ByteArrayInputStream(bucketOut.toByteArray())));
+                for (Ticket expected : bucketOrder) {
+                    Ticket read = bucketReader.next();
+                    exported &= read != null && read.getTicketID() == expected.getTicketID();
+                }
+                exported &= bucketReader.next() == null;
+            }
+        } catch (IOException | RuntimeException e) {
+            exported = false;
+        }
+        testCase("3.16 Streaming export",
+                exported,
+                "CSV, JSON-lines and binary exports should hold every ticket in priority order and read back");
+
+        // Test 3.17: Processed and removed tickets stay searchable in the archive
+        boolean archived;
+        try {
+            Path archiveFile = Files.createTempFile("tickets", ".archive");
+            Files.delete(archiveFile);
+            TicketArchive archive = TicketArchive.open(archiveFile, 16);
+            TicketService archiving = new TicketService(new PriorityQueue(true), null, archive);
+            long[] ids = new long[100];
+            Ticket[] firstOut = new Ticket[1];
+            runQuietly(() -> {
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = archiving.createTicket("User" + i, 1 + i % 4, "Issue " + i).getTicketID();
+                }
+                firstOut[0] = archiving.processNextTicket();
+                archiving.processNextTickets(40);
+                archiving.removeTicket(ids[99]);
+                archiving.removeTicket(ids[2]);
+            });
+            Ticket first = archiving.searchTicket(firstOut[0].getTicketID());
+            Ticket removed = archiving.searchTicket(ids[99]);
+            archived = first != null && first.getStatus() == Ticket.TicketStatus.IN_PROGRESS
+                    && first.getDescription().equals(firstOut[0].getDescription())
+                    && removed != null && removed.getStatus() == Ticket.TicketStatus.CLOSED
+                    && archiving.searchTicket(ids[3]) != null && archiving.getTicketCount() == 57
+                    && archive.getTicketCount() == 43 && archive.getBlockCount() == 2
+                    && archiving.searchTicket(ids[99] + 1000) == null;
+            archive.close();
+
+            // Reopening rebuilds the sparse index and cuts off a torn block
+            Files.write(archiveFile, new byte[]{0, 0, 0, 9, 1, 2, 3}, StandardOpenOption.APPEND);
+            TicketArchive reopened = TicketArchive.open(archiveFile, 16);
+            archived &= reopened.getTicketCount() == 43 && reopened.getBlockCount() == 3
+                    && reopened.getFileSize() == Files.size(archiveFile);
+            int inArchive = 0;
+            for (long id : ids) {
+                Ticket ticket = reopened.find(id);
+                if (ticket != null && ticket.getTicketID() == id && ticket.getStatus() != Ticket.TicketStatus.OPEN) {
+                    inArchive++;
+                }
+            }
+            archived &= inArchive == 43 && reopened.find(ids[2]).getStatus() == Ticket.TicketStatus.CLOSED;
+            reopened.close();
+            Files.delete(archiveFile);
+            Files.delete(Paths.get(archiveFile + ".pending"));
+        } catch (IOException | RuntimeException e) {
+            archived = false;
+        }
+        testCase("3.17 Ticket archive",
+                archived,
+                "Tickets leaving the queue should be archived in compressed blocks and found by ID after a restart");
+
+        // Test 3.18: Tickets of the open block survive a crash through the journal
+        boolean journaled;
+        try {
+            Path archiveFile = Files.createTempFile("tickets", ".archive");
+            Path journalFile = Paths.get(archiveFile + ".pending");
+            Path crashedFile = Files.createTempFile("crashed", ".archive");
+            Path crashedJournal = Paths.get(crashedFile + ".pending");
+            Files.delete(archiveFile);
+            TicketArchive archive = TicketArchive.open(archiveFile, 16);
+            Ticket[] tickets = new Ticket[20];
+            for (int i = 0; i < tickets.length; i++) {
+                tickets[i] = new Ticket(500 + i, "User" + i, "Software", "Issue " + i, 3);
+                archive.add(tickets[i]);
+            }
+            archive.sync();
+
+            // Copying the files without closing is what a crash leaves behind
+            Files.copy(archiveFile, crashedFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(journalFile, crashedJournal, StandardCopyOption.REPLACE_EXISTING);
+            byte[] pendingBytes = Files.readAllBytes(journalFile);
+            TicketArchive crashed = TicketArchive.open(crashedFile, 16);
+            journaled = crashed.getTicketCount() == 20 && crashed.getBlockCount() == 1
+                    && crashed.find(519) != null && crashed.find(519).getDescription().equals("Issue 19")
+                    && crashed.find(500) != null;
+            crashed.close();
+
+            // A journal left behind after its block was written is dropped
+            for (int i = 0; i < 12; i++) {
+                archive.add(new Ticket(600 + i, "Late" + i, "Network", "Issue", 2));
+            }
+            archive.sync();
+            Files.copy(archiveFile, crashedFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.write(crashedJournal, pendingBytes);
+            crashed = TicketArchive.open(crashedFile, 16);
+            journaled &= crashed.getTicketCount() == 32 && crashed.getBlockCount() == 2
+                    && crashed.find(611) != null && Files.size(crashedJournal) == 0;
+            crashed.close();
+            archive.close();
+            journaled &= Files.size(journalFile) == 0;
+
+            Files.delete(archiveFile);
+            Files.delete(journalFile);
+            Files.delete(crashedFile);
+            Files.delete(crashedJournal);
+        } catch (IOException | RuntimeException e) {
+            journaled = false;
+        }
+        testCase("3.18 Ticket archive journal",
+                journaled,
+                "Archived tickets not yet in a block should be read back from the journal after a crash");
+
+        System.out.println();
+    }
+
+    /**
+     * Tests the thread safe service with several threads at once
+     */
+    private static void testConcurrentService() {
+        System.out.println("7. Testing Concurrent Service");
+        System.out.println("-----------------------------");
+
+        ConcurrentTicketService service = new ConcurrentTicketService();
+        int threads = 8;
+        int perThread = 500;
+
+        // Test 7.1: Concurrent creation
+        runQuietly(() -> runThreads(threads, t -> {
+            for (int i = 0; i < perThread; i++) {
+                service.createTicket("User" + t, (i % 4) + 1, "Concurrent ticket");
+            }
+        }));
+        Ticket[] created = service.getAllTickets();
+        LongIntHashMap ids = new LongIntHashMap(created.length);
+        for (Ticket ticket : created) {
+            ids.put(ticket.getTicketID(), 0);
+        }
+        testCase("7.1 Concurrent creation",
+                service.getTicketCount() == threads * perThread && ids.size() == threads * perThread,
+                "Every ticket should be created once with a unique ID");
+
+        // Test 7.2: Concurrent processing hands out every ticket exactly once
+        LongIntHashMap processed = new LongIntHashMap();
+        Object processedLock = new Object();
+        boolean[] duplicate = new boolean[1];
+        runQuietly(() -> runThreads(threads, t -> {
+            Ticket[] round;
+            while ((round = service.processNextTickets(7)).length > 0) {
+                synchronized (processedLock) {
+                    for (Ticket ticket : round) {
+                        duplicate[0] |= processed.containsKey(ticket.getTicketID());
+                        processed.put(ticket.getTicketID(), 0);
+                    }
+                }
+                service.searchTicket(round[0].getTicketID());
+                service.getTicketCount();
+            }
+        }));
+        testCase("7.2 Concurrent processing",
+                !duplicate[0] && processed.size() == threads * perThread
+                        && service.getTicketCount() == 0 && service.peekNextTicket() == null,
+                "Each ticket should be processed by exactly one thread");
+
+        // Test 7.3: Lock-free queue with producers, consumers and removers at once
+        ConcurrentBucketQueue lockFree = new ConcurrentBucketQueue();
+        boolean[] taken = new boolean[threads * perThread];
+        boolean[] twice = new boolean[1];
+        int[] takenCount = new int[1];
+        runThreads(threads, t -> {
+            for (int i = 0; i < perThread; i++) {
+                int id = t * perThread + i;
+                lockFree.insert(new Ticket(id, "User", "Type", "Desc", (i % 4) + 1));
+                Ticket ticket = (i % 3 == 0) ? lockFree.remove(id - 1) : lockFree.extractMin();
+                if (ticket != null) {
+                    synchronized (taken) {
+                        twice[0] |= taken[(int) ticket.getTicketID()];
+                        taken[(int) ticket.getTicketID()] = true;
+                        takenCount[0]++;
+                    }
+                }
+            }
+        });
+        boolean sizeMatches = lockFree.size() == threads * perThread - takenCount[0];
+        Ticket ticket;
+        while ((ticket = lockFree.extractMin()) != null) {
+            twice[0] |= taken[(int) ticket.getTicketID()];
+            taken[(int) ticket.getTicketID()] = true;
+            takenCount[0]++;
+        }
+        testCase("7.3 Lock-free queue under contention",
+                !twice[0] && sizeMatches && takenCount[0] == threads * perThread && lockFree.isEmpty(),
+                "Every ticket should leave the queue exactly once");
+
+        // Test 7.4: Thread-local ID blocks stay unique and increase per thread
+        IDGenerator generator = IDGenerator.getInstance();
+        LongIntHashMap localIds = new LongIntHashMap(threads * perThread * 2);
+        boolean[] idsOk = {true};
+        runThreads(threads, t -> {
+            long[] mine = new long[perThread * 2];
+            for (int i = 0; i < mine.length; i++) {
+                mine[i] = (i % 2 == 0) ? generator.generateLocalId() : generator.generateId();
+            }
+            synchronized (localIds) {
+                for (int i = 0; i < mine.length; i++) {
+                    idsOk[0] &= !localIds.containsKey(mine[i]);
+                    localIds.put(mine[i], t);
+                    idsOk[0] &= i < 2 || mine[i] > mine[i - 2];
+                }
+            }
+        });
+        testCase("7.4 Thread-local ID blocks",
+                idsOk[0] && localIds.size() == threads * perThread * 2
+                        && generator.generateLocalId() < generator.getCurrentID(),
+                "IDs from thread blocks and the shared counter should never collide");
+
+        // Test 7.5: Concurrent callers share fsyncs and every change is recovered
+        boolean groupCommit;
+        try {
+            Path logFile = Files.createTempFile("tickets", ".wal");
+            WriteAheadLog log = WriteAheadLog.open(logFile, Durability.PER_OPERATION);
+            ConcurrentTicketService logged = new ConcurrentTicketService(new PriorityQueue(true), log);
+            runQuietly(() -> runThreads(threads, t -> {
+                for (int i = 0; i < 100; i++) {
+                    Ticket loggedTicket = logged.createTicket("User" + t, (i % 4) + 1, "Logged ticket");
+                    if (i % 10 == 0) {
+                        logged.removeTicket(loggedTicket.getTicketID());
+                    }
+                }
+            }));
+            groupCommit = log.getDurableLsn() == log.getLastLsn() && log.getLastLsn() == threads * 110;
+            log.close();
+
+            WriteAheadLog reopened = WriteAheadLog.open(logFile, Durability.OS_BUFFERED);
+            ConcurrentTicketService restarted = new ConcurrentTicketService(new BucketQueue(), reopened);
+            groupCommit &= restarted.getTicketCount() == threads * 90 && restarted.getTotalTicketsCreated() == threads * 100;
+            reopened.close();
+            Files.delete(logFile);
+        } catch (IOException e) {
+            groupCommit = false;
+        }
+        testCase("7.5 Group commit",
+                groupCommit,
+                "Every logged change should be durable and replayed after a restart");
+
+        // Test 7.6: Background checkpoint keeps its point in time while writers carry on
+        boolean checkpointed;
+        try {
+            Path logFile = Files.createTempFile("tickets", ".wal");
+            Path snapshotFile = Files.createTempFile("tickets", ".snapshot");
+            WriteAheadLog log = WriteAheadLog.open(logFile, Durability.OS_BUFFERED);
+            ConcurrentTicketService logged = new ConcurrentTicketService(new PriorityQueue(true), log);
+            int backlog = 20000;
+            String[] creators = new String[backlog];
+            int[] types = new int[backlog];
+            String[] descriptions = new String[backlog];
+            for (int i = 0; i < backlog; i++) {
+                creators[i] = "User" + (i % 50);
+                types[i] = (i % 4) + 1;
+                descriptions[i] = "Backlog ticket " + i;
+            }
+            runQuietly(() -> logged.createTickets(creators, types, descriptions));
+            Ticket[] atCheckpoint = logged.getAllTicketsSorted();
+            long logSize = Files.size(logFile);
+
+            checkpointed = logged.startCheckpoint(snapshotFile) && !logged.startCheckpoint(snapshotFile);
+            runQuietly(() -> runThreads(threads, t -> {
+                for (int i = 0; i < 200; i++) {
+                    logged.assignOwner(atCheckpoint[backlog - 1 - t * 200 - i].getTicketID(), "Tech" + t);
+                    logged.processNextTicket();
+                    logged.createTicket("Late" + t, 2, "After the checkpoint");
+                }
+            }));
+            logged.awaitCheckpoint();
+
+            RecoveredState snapshot = SnapshotReader.readFile(snapshotFile);
+            Ticket[] saved = snapshot.getTickets();
+            checkpointed &= saved.length == backlog && snapshot.getLastLsn() == backlog
+                    && snapshot.getTicketsCreated() == backlog && snapshot.getTicketsResolved() == 0
+                    && Files.size(logFile) < logSize;
+            for (int i = 0; i < saved.length && checkpointed; i++) {
+                checkpointed = saved[i].getTicketID() == atCheckpoint[i].getTicketID()
+                        && saved[i].getOwner() == null && saved[i].getStatus() == Ticket.TicketStatus.OPEN;
+            }
+            int expectedCount = logged.getTicketCount();
+            log.close();
+
+            WriteAheadLog reopened = WriteAheadLog.open(logFile, Durability.OS_BUFFERED, 10, snapshot);
+            TicketService restarted = new TicketService(new PriorityQueue(true), reopened);
+            checkpointed &= restarted.getTicketCount() == expectedCount
+                    && restarted.getTotalTicketsCreated() == backlog + threads * 200
+                    && restarted.getTotalTicketsResolved() == threads * 200;
+            reopened.close();
+            try {
+                WriteAheadLog.open(logFile, Durability.OS_BUFFERED).close();
+                checkpointed = false;
+            } catch (IOException e) {
+                // Expected, the records before the checkpoint are gone
+            }
+            Files.delete(logFile);
+            Files.delete(snapshotFile);
+        } catch (IOException e) {
+            checkpointed = false;
+        }
+        testCase("7.6 Background checkpoint",
+                checkpointed,
+                "Snapshot should match the queue when the checkpoint started and the log should be truncated");
+
         System.out.println();
     }
 
+    /**
+     * Runs the same task on several threads and waits for all of them
+     */
+    private static void runThreads(int threads, java.util.function.IntConsumer task) {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> task.accept(id));
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs a task with System.out discarded, for tests that would
+     * otherwise print a line per ticket
+     */
+    private static void runQuietly(Runnable task) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            task.run();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
     /**
      * Tests edge cases and error handling
      */
@@ -248,6 +1462,50 @@ public class TicketSystemTesting {
                 removed == null,
                 "Should return null for non-existent ticket");
 
+        // Test 4.6: Primitive maps agree with java.util.HashMap under random put/remove
+        LongIntHashMap slots = new LongIntHashMap(4);
+        LongTicketHashMap tickets = new LongTicketHashMap(4);
+        HashMap<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        Ticket sample = new Ticket(0, "User", "Type", "Desc", 1);
+        boolean mapsAgree = true;
+        for (int i = 0; i < 20000; i++) {
+            long key = (random.nextInt(512) - 64) * 0x100000001L; // Includes 0, negative and 64 bit keys
+            if (random.nextInt(3) == 0) {
+                Integer old = expected.remove(key);
+                mapsAgree &= slots.remove(key) == (old == null ? LongIntHashMap.NO_VALUE : old);
+                mapsAgree &= (tickets.remove(key) != null) == (old != null);
+            } else {
+                expected.put(key, i);
+                slots.put(key, i);
+                tickets.put(key, sample);
+            }
+        }
+        for (int i = -64; i < 448; i++) {
+            long key = i * 0x100000001L;
+            Integer value = expected.get(key);
+            mapsAgree &= slots.get(key) == (value == null ? LongIntHashMap.NO_VALUE : value);
+            mapsAgree &= tickets.containsKey(key) == (value != null);
+        }
+        testCase("4.6 Primitive hash maps",
+                mapsAgree && slots.size() == expected.size() && tickets.size() == expected.size(),
+                "Maps should match java.util.HashMap after random puts and removes");
+
+        // Test 4.7: Same priority tickets come out in insertion order
+        queue.insert(new Ticket(12, "C", "Type", "Desc", 2));
+        queue.insert(new Ticket(10, "A", "Type", "Desc", 2));
+        queue.insert(new Ticket(13, "D", "Type", "Desc", 1));
+        queue.insert(new Ticket(11, "B", "Type", "Desc", 2));
+        queue.updatePriority(13, 2); // Keeps its place as the third oldest
+        int[] fifoIds = {12, 10, 13, 11};
+        boolean fifo = true;
+        for (int id : fifoIds) {
+            fifo &= queue.extractMin().getTicketID() == id;
+        }
+        testCase("4.7 FIFO within priority",
+                fifo,
+                "Tickets with the same priority should come out oldest first");
+
         System.out.println();
     }
 
@@ -306,9 +1564,448 @@ public class TicketSystemTesting {
                 found != null,
                 "Found ticket in " + searchTime + "ms from " + testSize + " tickets");
 
+        // Test 5.4: Linear vs indexed search on a large queue
+        int largeSize = 1000000;
+        int lookups = 200;
+        PriorityQueue linear = new PriorityQueue(largeSize);
+        PriorityQueue indexed = new PriorityQueue(largeSize, true);
+        for (int i = 0; i < largeSize; i++) {
+            Ticket t = new Ticket(i, "User", "Type", "Desc", (i % 4) + 1);
+            linear.insert(t);
+            indexed.insert(t);
+        }
+
+        startTime = System.currentTimeMillis();
+        boolean allFound = true;
+        for (int i = 0; i < lookups; i++) {
+            allFound &= linear.search(largeSize - 1 - i) != null;
+        }
+        long linearTime = System.currentTimeMillis() - startTime;
+
+        startTime = System.currentTimeMillis();
+        for (int i = 0; i < lookups; i++) {
+            allFound &= indexed.search(largeSize - 1 - i) != null;
+        }
+        long indexedTime = System.currentTimeMillis() - startTime;
+
+        testCase("5.4 Indexed search performance",
+                allFound,
+                lookups + " searches in " + largeSize + " tickets: linear " + linearTime
+                        + "ms, indexed " + indexedTime + "ms");
+        System.out.println("  " + lookups + " searches in " + largeSize + " tickets: linear "
+                + linearTime + "ms, indexed " + indexedTime + "ms");
+
+        // Test 5.5: Sorted snapshot and top k on a large queue
+        startTime = System.currentTimeMillis();
+        Ticket[] sorted = indexed.getAllTicketsSorted();
+        long sortTime = System.currentTimeMillis() - startTime;
+
+        startTime = System.currentTimeMillis();
+        Ticket[] top = indexed.getTopK(100);
+        long topTime = System.currentTimeMillis() - startTime;
+
+        testCase("5.5 Sorted snapshot performance",
+                sorted.length == largeSize && top[99] == sorted[99],
+                "Sorted " + largeSize + " tickets in " + sortTime + "ms, top 100 in " + topTime + "ms");
+        System.out.println("  Sorted " + largeSize + " tickets in " + sortTime + "ms, top 100 in "
+                + topTime + "ms");
+
+        System.out.println();
+    }
+
+    /**
+     * Runs the heap benchmarks
+     * Sizes can be changed with -Dbenchmark.sizes=10000,1000000,10000000
+     * (the largest size needs a few GB of heap, e.g. -Xmx6g)
+     */
+    private static void runBenchmarks() {
+        System.out.println("6. Benchmarks");
+        System.out.println("-------------");
+
+        String[] sizes = System.getProperty("benchmark.sizes", "10000,1000000").split(",");
+        for (String size : sizes) {
+            benchmarkHeapLayout(Integer.parseInt(size.trim()));
+        }
+        for (String size : sizes) {
+            benchmarkArity(Integer.parseInt(size.trim()));
+        }
+        for (String size : sizes) {
+            benchmarkBulkBuild(Integer.parseInt(size.trim()));
+        }
+        benchmarkContention();
+        for (String size : sizes) {
+            benchmarkSnapshot(Integer.parseInt(size.trim()));
+        }
+        for (String size : sizes) {
+            benchmarkOffHeap(Integer.parseInt(size.trim()));
+        }
+
         System.out.println();
     }
 
+    /**
+     * Compares the packed key heap in PriorityQueue with a heap that
+     * compares tickets through their getters (java.util.PriorityQueue
+     * with a comparator), inserting and then extracting n tickets
+     */
+    private static void benchmarkHeapLayout(int n) {
+        Ticket[] tickets = new Ticket[n];
+        Random random = new Random(n);
+        for (int i = 0; i < n; i++) {
+            tickets[i] = new Ticket(i, "User", "Type", "Desc", random.nextInt(4) + 1);
+        }
+
+        // Packed keys
+        PriorityQueue packed = new PriorityQueue();
+        long start = System.nanoTime();
+        for (Ticket t : tickets) {
+            packed.insert(t);
+        }
+        long packedInsert = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int lastPriority = 0;
+        boolean ordered = true;
+        while (!packed.isEmpty()) {
+            int priority = packed.extractMin().getPriority();
+            ordered &= priority >= lastPriority;
+            lastPriority = priority;
+        }
+        long packedExtract = System.nanoTime() - start;
+
+        // Ticket dereferencing comparisons
+        java.util.PriorityQueue<Ticket> objects = new java.util.PriorityQueue<>(
+                Comparator.comparingInt(Ticket::getPriority).thenComparingLong(Ticket::getTicketID));
+        start = System.nanoTime();
+        for (Ticket t : tickets) {
+            objects.add(t);
+        }
+        long objectInsert = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        while (!objects.isEmpty()) {
+            objects.poll();
+        }
+        long objectExtract = System.nanoTime() - start;
+
+        testCase("6.1 Heap layout benchmark (" + n + ")",
+                ordered,
+                "Packed key heap should extract in priority order");
+        System.out.printf("  n=%d  packed keys: insert %d ns/op, extract %d ns/op"
+                        + " | ticket comparisons: insert %d ns/op, extract %d ns/op%n",
+                n, packedInsert / n, packedExtract / n, objectInsert / n, objectExtract / n);
+    }
+
+    /**
+     * Measures throughput of 2-, 4- and 8-ary heaps holding n tickets
+     * under a mix of 80% inserts and 20% extractMin calls
+     */
+    private static void benchmarkArity(int n) {
+        int operations = n;
+        Ticket[] tickets = new Ticket[n + operations];
+        Random random = new Random(n);
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = new Ticket(i, "User", "Type", "Desc", random.nextInt(4) + 1);
+        }
+        boolean[] isInsert = new boolean[operations];
+        for (int i = 0; i < operations; i++) {
+            isInsert[i] = random.nextInt(5) != 0;
+        }
+
+        StringBuilder line = new StringBuilder("  n=" + n + "  80/20 insert/extract:");
+        boolean sizesMatch = true;
+        int expectedSize = -1;
+        for (int arity : new int[]{2, 4, 8}) {
+            PriorityQueue queue = null;
+            long elapsed = 0;
+            // First round warms up the JIT, second round is measured
+            for (int round = 0; round < 2; round++) {
+                queue = new PriorityQueue(n, false, arity);
+                for (int i = 0; i < n; i++) {
+                    queue.insert(tickets[i]);
+                }
+
+                int next = n;
+                long start = System.nanoTime();
+                for (int i = 0; i < operations; i++) {
+                    if (isInsert[i]) {
+                        queue.insert(tickets[next++]);
+                    } else {
+                        queue.extractMin();
+                    }
+                }
+                elapsed = System.nanoTime() - start;
+            }
+
+            if (expectedSize == -1) {
+                expectedSize = queue.size();
+            }
+            sizesMatch &= queue.size() == expectedSize;
+            line.append(String.format(" d=%d %.1f Mops/s", arity, operations * 1000.0 / elapsed));
+        }
+
+        testCase("6.2 Heap arity benchmark (" + n + ")",
+                sizesMatch,
+                "All arities should end with the same number of tickets");
+        System.out.println(line);
+    }
+
+    /**
+     * Regression benchmark for loading a backlog: n single inserts
+     * against one heapifyAll call on an indexed queue
+     */
+    private static void benchmarkBulkBuild(int n) {
+        Ticket[] tickets = new Ticket[n];
+        Random random = new Random(n);
+        for (int i = 0; i < n; i++) {
+            tickets[i] = new Ticket(i, "User", "Type", "Desc", random.nextInt(4) + 1);
+        }
+
+        PriorityQueue inserted = new PriorityQueue(true);
+        long start = System.nanoTime();
+        for (Ticket t : tickets) {
+            inserted.insert(t);
+        }
+        long insertTime = System.nanoTime() - start;
+
+        PriorityQueue built = new PriorityQueue(true);
+        start = System.nanoTime();
+        built.heapifyAll(tickets);
+        long buildTime = System.nanoTime() - start;
+
+        boolean sameOrder = built.size() == n;
+        for (int i = 0; i < 1000 && !inserted.isEmpty(); i++) {
+            sameOrder &= inserted.extractMin() == built.extractMin();
+        }
+
+        testCase("6.3 Bulk build benchmark (" + n + ")",
+                sameOrder,
+                "heapifyAll should give the same order as single inserts");
+        System.out.printf("  n=%d  single inserts %d ms, heapifyAll %d ms%n",
+                n, insertTime / 1000000, buildTime / 1000000);
+    }
+
+    /**
+     * Dumps n tickets to a snapshot file and loads them back into a heap
+     * with the O(n) bulk build
+     */
+    private static void benchmarkSnapshot(int n) {
+        String[] names = {"Avram", "Janette", "Bob", "Alice", "Carol"};
+        Ticket[] tickets = new Ticket[n];
+        Random random = new Random(n);
+        for (int i = 0; i < n; i++) {
+            tickets[i] = new Ticket(1000 + i, names[random.nextInt(names.length)], "Network Issue",
+                    "Ticket number " + i, random.nextInt(4) + 1);
+        }
+        PriorityQueue queue = new PriorityQueue(true);
+        queue.insertAll(tickets);
+        Ticket[] ordered = queue.getAllTicketsSorted();
+
+        boolean sameQueue;
+        long writeTime;
+        long readTime;
+        long bytes;
+        try {
+            Path file = Files.createTempFile("tickets", ".snapshot");
+            long start = System.nanoTime();
+            SnapshotWriter.writeFile(file, ordered, n, 0, 0);
+            writeTime = System.nanoTime() - start;
+            bytes = Files.size(file);
+
+            start = System.nanoTime();
+            RecoveredState state = SnapshotReader.readFile(file);
+            PriorityQueue loaded = new PriorityQueue(state.getTickets().length, true);
+            loaded.insertAll(state.getTickets());
+            readTime = System.nanoTime() - start;
+            Files.delete(file);
+
+            sameQueue = loaded.size() == n && state.getMaxTicketId() == 1000 + n - 1;
+            for (int i = 0; i < 1000 && !queue.isEmpty(); i++) {
+                Ticket expected = queue.extractMin();
+                Ticket actual = loaded.extractMin();
+                sameQueue &= expected.getTicketID() == actual.getTicketID()
+                        && expected.getCreator().equals(actual.getCreator())
+                        && expected.getDescription().equals(actual.getDescription());
+            }
+        } catch (IOException e) {
+            sameQueue = false;
+            writeTime = 0;
+            readTime = 0;
+            bytes = 0;
+        }
+
+        testCase("6.5 Snapshot benchmark (" + n + ")",
+                sameQueue,
+                "Snapshot reload should give the same queue order");
+        System.out.printf("  n=%d  snapshot %.1f bytes/ticket, write %d ms, read + heapify %d ms%n",
+                n, (double) bytes / Math.max(n, 1), writeTime / 1000000, readTime / 1000000);
+    }
+
+    /**
+     * Compares keeping tickets as objects with the off-heap store:
+     * Java heap growth per ticket, off-heap bytes per ticket and the
+     * time to scan every ticket's priority and creator.
+     * Heap growth is measured around System.gc() and is approximate.
+     */
+    private static void benchmarkOffHeap(int n) {
+        String[] names = {"Avram", "Janette", "Bob", "Alice", "Carol"};
+        Random random = new Random(n);
+
+        long before = usedHeap();
+        Ticket[] objects = new Ticket[n];
+        for (int i = 0; i < n; i++) {
+            objects[i] = new Ticket(1000 + i, names[random.nextInt(names.length)], "Network Issue",
+                    "Ticket number " + i, random.nextInt(4) + 1);
+        }
+        long objectHeap = usedHeap() - before;
+
+        before = usedHeap();
+        OffHeapTicketStore store = new OffHeapTicketStore();
+        int[] records = new int[n];
+        for (int i = 0; i < n; i++) {
+            records[i] = store.add(objects[i]);
+        }
+        long storeHeap = usedHeap() - before - 4L * n;
+
+        long start = System.nanoTime();
+        long objectSum = 0;
+        for (Ticket ticket : objects) {
+            objectSum += ticket.getPriority() + ticket.getCreator().length();
+        }
+        long objectScan = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long storeSum = 0;
+        TicketFlyweight view = store.view(records[0]);
+        for (int record : records) {
+            view.moveTo(record);
+            storeSum += view.getPriority() + view.getCreator().length();
+        }
+        long storeScan = System.nanoTime() - start;
+
+        testCase("6.6 Off-heap benchmark (" + n + ")",
+                objectSum == storeSum && sameFields(view.moveTo(records[n - 1]), objects[n - 1]),
+                "Off-heap scan should see the same tickets");
+        System.out.printf("  n=%d  heap: objects %d bytes/ticket, off-heap store %d bytes/ticket (+%d off-heap); scan %d ms vs %d ms%n",
+                n, objectHeap / n, Math.max(storeHeap, 0) / n, store.getOffHeapBytes() / n,
+                objectScan / 1000000, storeScan / 1000000);
+    }
+
+    /**
+     * Gets the Java heap in use after a garbage collection
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Checks if two tickets have the same fields
+     */
+    private static boolean sameRecovered(RecoveredState a, RecoveredState b) {
+        Ticket[] x = a.getTickets();
+        Ticket[] y = b.getTickets();
+        boolean same = x.length == y.length && a.getMaxTicketId() == b.getMaxTicketId()
+                && a.getTicketsCreated() == b.getTicketsCreated() && a.getTicketsResolved() == b.getTicketsResolved()
+                && a.getRecords() == b.getRecords() && a.getLastLsn() == b.getLastLsn();
+        for (int i = 0; i < x.length && same; i++) {
+            same = sameFields(x[i], y[i]);
+        }
+        // The order for queues that move an updated ticket has to agree too
+        x = a.getTickets(false);
+        y = b.getTickets(false);
+        same &= x.length == y.length;
+        for (int i = 0; i < x.length && same; i++) {
+            same = sameFields(x[i], y[i]);
+        }
+        return same;
+    }
+
+    private static boolean sameFields(TicketView a, TicketView b) {
+        return a.getTicketID() == b.getTicketID()
+                && a.getPriority() == b.getPriority()
+                && a.getStatus() == b.getStatus()
+                && Objects.equals(a.getCreator(), b.getCreator())
+                && Objects.equals(a.getOwner(), b.getOwner())
+                && Objects.equals(a.getRequestType(), b.getRequestType())
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && a.getCreatedAt().equals(b.getCreatedAt())
+                && a.getUpdatedAt().equals(b.getUpdatedAt());
+    }
+
+    /**
+     * Contention benchmark for the concurrent service with 1, 4, 16 and 64
+     * threads. Each thread runs 50% creates, 25% searches, 15% count/peek
+     * reads and 10% processing of the next ticket. The lock-free queue
+     * is then run with 75% inserts and 25% extracts for comparison.
+     */
+    private static void benchmarkContention() {
+        int totalOperations = 200000;
+        StringBuilder line = new StringBuilder("  concurrent service:");
+        boolean consistent = true;
+
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            ConcurrentTicketService service = new ConcurrentTicketService();
+            int perThread = totalOperations / threads;
+            long[] elapsed = new long[1];
+
+            runQuietly(() -> {
+                long start = System.nanoTime();
+                runThreads(threads, t -> {
+                    Random random = new Random(t);
+                    long lastId = 0;
+                    for (int i = 0; i < perThread; i++) {
+                        int op = random.nextInt(20);
+                        if (op < 10) {
+                            lastId = service.createTicket("User", random.nextInt(4) + 1, "Load").getTicketID();
+                        } else if (op < 15) {
+                            service.searchTicket(lastId);
+                        } else if (op < 18) {
+                            service.getTicketCount();
+                            service.peekNextTicket();
+                        } else {
+                            service.processNextTicket();
+                        }
+                    }
+                });
+                elapsed[0] = System.nanoTime() - start;
+            });
+
+            consistent &= service.getTicketCount() == service.getAllTickets().length;
+            line.append(String.format(" %d threads %.2f Mops/s,", threads,
+                    perThread * threads * 1000.0 / elapsed[0]));
+        }
+
+        // Same insert/extract mix straight on the lock-free queue
+        StringBuilder lockFreeLine = new StringBuilder("  lock-free queue:");
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            ConcurrentBucketQueue queue = new ConcurrentBucketQueue();
+            int perThread = totalOperations / threads;
+            long start = System.nanoTime();
+            runThreads(threads, t -> {
+                Random random = new Random(t);
+                for (int i = 0; i < perThread; i++) {
+                    if (random.nextInt(4) < 3) {
+                        queue.insert(new Ticket(t * perThread + i, "User", "Load", "Load", random.nextInt(4) + 1));
+                    } else {
+                        queue.extractMin();
+                    }
+                }
+            });
+            long elapsed = System.nanoTime() - start;
+            consistent &= queue.size() == queue.getAllTickets().length;
+            lockFreeLine.append(String.format(" %d threads %.2f Mops/s,", threads,
+                    perThread * threads * 1000.0 / elapsed));
+        }
+
+        testCase("6.4 Contention benchmark",
+                consistent,
+                "Ticket counts should match the queue contents after each run");
+        System.out.println(line.substring(0, line.length() - 1));
+        System.out.println(lockFreeLine.substring(0, lockFreeLine.length() - 1));
+    }
+
     /**
      * Helper method to run a test case
      */